@@ -10,6 +10,11 @@ uniform float g_Time;
 uniform int m_NumberOfTiles;
 uniform int m_Speed;
 
+#ifdef WAVES
+  uniform float m_WaveAmplitude;
+  uniform float m_WaveSpeed;
+#endif
+
 uniform vec4 m_Ambient;
 uniform vec4 m_Diffuse;
 uniform vec4 m_Specular;
@@ -101,6 +106,12 @@ void main(){
         #endif
    #endif
 
+   #ifdef WAVES
+      // Waves by the world position, so that the neighbouring surfaces stay together
+      vec3 wavePosition = TransformWorld(modelSpacePos).xyz;
+      modelSpacePos.y += m_WaveAmplitude * sin(g_Time * m_WaveSpeed + wavePosition.x * 1.7) * cos(g_Time * m_WaveSpeed * 0.8 + wavePosition.z * 1.3);
+   #endif
+
    gl_Position = TransformWorldViewProjection(modelSpacePos);// g_WorldViewProjectionMatrix * modelSpacePos;
    texCoord = inTexCoord;
 
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.game;
+
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.base.DefaultEntityData;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.controller.GameController;
+import toniarts.openkeeper.game.network.message.LockstepTurn;
+import toniarts.openkeeper.game.network.message.PlayerCommand;
+import toniarts.openkeeper.game.network.message.PlayerCommands;
+import toniarts.openkeeper.game.network.serializer.LockstepTurnSerializer;
+import toniarts.openkeeper.game.state.session.PlayerService;
+import toniarts.openkeeper.tools.convert.ConversionUtils;
+import toniarts.openkeeper.tools.convert.map.KwdFile;
+import toniarts.openkeeper.tools.convert.map.Player;
+import toniarts.openkeeper.tools.convert.map.TriggerAction;
+import toniarts.openkeeper.utils.PathUtils;
+
+/**
+ * Runs the same lockstep game in several JVMs and checks that they stay in
+ * sync. The coordinator scripts the player commands with a seeded random,
+ * seals them into turns and pipes the serialized turns to the worker
+ * processes. Each worker runs the game as a lockstep peer and prints its state
+ * hashes, which the coordinator then compares. Needs the original game files,
+ * run with
+ * {@code gradle lockstepHarness -PharnessArgs="<DK II folder> <level> [peers] [ticks] [seed]"}.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class LockstepHarness {
+
+    private static final String WORKER = "worker";
+    private static final String TURN = "TURN";
+    private static final String END = "END";
+    private static final String HASH = "HASH";
+    private static final int DEFAULT_PEERS = 2;
+    private static final int DEFAULT_TICKS = 200;
+    private static final long DEFAULT_SEED = 1;
+    private static final float COMMAND_PROBABILITY = 0.2f;
+    private static final int SELECTION_SIZE = 4;
+
+    private static final Logger LOGGER = Logger.getLogger(LockstepHarness.class.getName());
+
+    private LockstepHarness() {
+        // Nope
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && WORKER.equals(args[0])) {
+            runWorker(args[1], args[2], Long.parseLong(args[3]));
+            return;
+        }
+        if (args.length < 2) {
+            LOGGER.log(Level.SEVERE, "Usage: <DK II folder> <level> [peers] [ticks] [seed]");
+            System.exit(2);
+        }
+
+        int peers = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PEERS;
+        int ticks = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_TICKS;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : DEFAULT_SEED;
+        System.exit(runCoordinator(args[0], args[1], peers, ticks, seed) ? 0 : 1);
+    }
+
+    private static boolean runCoordinator(String dkFolder, String level, int peers, int ticks, long seed) throws IOException, InterruptedException {
+        List<String> turns = scriptTurns(loadLevel(dkFolder, level), ticks, seed);
+
+        // Start the peers and feed them the turns
+        List<Process> processes = new ArrayList<>(peers);
+        for (int i = 0; i < peers; i++) {
+            ProcessBuilder builder = new ProcessBuilder(
+                    System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                    "-cp", System.getProperty("java.class.path"),
+                    LockstepHarness.class.getName(), WORKER, dkFolder, level, Long.toString(seed));
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            Process process = builder.start();
+            try (PrintWriter writer = new PrintWriter(process.getOutputStream())) {
+                for (String turn : turns) {
+                    writer.println(TURN + " " + turn);
+                }
+                writer.println(END + " " + ticks);
+            }
+            processes.add(process);
+        }
+
+        // Collect and compare the hashes
+        List<Map<Long, String>> hashes = new ArrayList<>(peers);
+        for (Process process : processes) {
+            hashes.add(readHashes(process));
+            process.waitFor();
+        }
+        boolean inSync = !hashes.get(0).isEmpty();
+        for (int i = 1; i < peers; i++) {
+            for (Map.Entry<Long, String> entry : hashes.get(0).entrySet()) {
+                String hash = hashes.get(i).get(entry.getKey());
+                if (!entry.getValue().equals(hash)) {
+                    LOGGER.log(Level.SEVERE, "Peer {0} diverged on tick {1}: {2} vs. {3}!", new Object[]{i, entry.getKey(), hash, entry.getValue()});
+                    inSync = false;
+                    break;
+                }
+            }
+        }
+        LOGGER.log(Level.INFO, "{0} peers, {1} ticks, {2} hashes: {3}", new Object[]{peers, ticks, hashes.get(0).size(), inSync ? "in sync" : "DIVERGED"});
+
+        return inSync;
+    }
+
+    private static List<String> scriptTurns(KwdFile kwdFile, int ticks, long seed) throws IOException {
+        Random random = new Random(seed);
+        LockstepTurnScheduler scheduler = new LockstepTurnScheduler();
+        LockstepTurnSerializer serializer = new LockstepTurnSerializer();
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        List<String> turns = new ArrayList<>(ticks);
+        int sequence = 1;
+        for (long turn = LockstepTurnProcessor.TURN_DELAY; turn < ticks; turn++) {
+            if (random.nextFloat() < COMMAND_PROBABILITY) {
+                float x = random.nextInt(kwdFile.getMap().getWidth());
+                float y = random.nextInt(kwdFile.getMap().getHeight());
+                PlayerCommand command = PlayerCommand.selectTiles(new Vector2f(x, y), new Vector2f(x + SELECTION_SIZE, y + SELECTION_SIZE), random.nextBoolean());
+                scheduler.addCommands(Player.KEEPER1_ID, new PlayerCommands(sequence++, Collections.singletonList(command)));
+            }
+            buffer.clear();
+            serializer.writeObject(buffer, scheduler.sealTurn(turn));
+            buffer.flip();
+            turns.add(Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), buffer.limit())));
+        }
+
+        return turns;
+    }
+
+    private static Map<Long, String> readHashes(Process process) throws IOException {
+        Map<Long, String> hashes = new TreeMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && HASH.equals(parts[0])) {
+                    hashes.put(Long.parseLong(parts[1]), parts[2]);
+                }
+            }
+        }
+
+        return hashes;
+    }
+
+    private static void runWorker(String dkFolder, String level, long seed) throws Exception {
+        KwdFile kwdFile = loadLevel(dkFolder, level);
+        LockstepTurnSerializer serializer = new LockstepTurnSerializer();
+
+        // The game
+        GameController[] gameController = new GameController[1];
+        LockstepTurnProcessor processor = new LockstepTurnProcessor(() -> gameController[0].getGameWorldController());
+        gameController[0] = new GameController(kwdFile, null, new DefaultEntityData(), kwdFile.getVariables(), new NoOpPlayerService());
+        gameController[0].setCommandProcessor(processor);
+        gameController[0].setStateHashListener((tick, hash) -> {
+            System.out.println(HASH + " " + tick + " " + Long.toHexString(hash));
+            System.out.flush();
+        });
+
+        // The turns
+        long ticks = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (TURN.equals(parts[0])) {
+                    LockstepTurn turn = serializer.readObject(ByteBuffer.wrap(Base64.getDecoder().decode(parts[1])), LockstepTurn.class);
+                    processor.addTurn(turn);
+                } else if (END.equals(parts[0])) {
+                    ticks = Long.parseLong(parts[1]);
+                    break;
+                }
+            }
+        }
+
+        // Run until all the turns are played
+        long lastTick = ticks;
+        CountDownLatch finished = new CountDownLatch(1);
+        gameController[0].setLockstep(seed, (tick) -> {
+            if (tick >= lastTick) {
+                finished.countDown();
+                return false;
+            }
+
+            return processor.isTurnReady(tick);
+        });
+        gameController[0].createNewGame();
+        gameController[0].startGame();
+        finished.await();
+        gameController[0].close();
+        System.exit(0);
+    }
+
+    private static KwdFile loadLevel(String dkFolder, String level) throws IOException {
+        String folder = PathUtils.fixFilePath(dkFolder);
+
+        return new KwdFile(folder, new File(ConversionUtils.getRealFileName(folder, PathUtils.DKII_MAPS_FOLDER + level + ".kwd")));
+    }
+
+    /**
+     * No one is watching
+     */
+    private static class NoOpPlayerService implements PlayerService {
+
+        @Override
+        public void setWidescreen(boolean enable, short playerId) {
+
+        }
+
+        @Override
+        public void playSpeech(int speechId, boolean showText, boolean introduction, int pathId, short playerId) {
+
+        }
+
+        @Override
+        public boolean isInTransition() {
+            return false;
+        }
+
+        @Override
+        public void doTransition(short pathId, Vector3f start, short playerId) {
+
+        }
+
+        @Override
+        public void flashButton(TriggerAction.MakeType buttonType, short targetId, TriggerAction.ButtonType targetButtonType, boolean enabled, int time, short playerId) {
+
+        }
+
+        @Override
+        public void rotateViewAroundPoint(Vector3f point, boolean relative, int angle, int time, short playerId) {
+
+        }
+
+        @Override
+        public void showMessage(int textId, short playerId) {
+
+        }
+
+        @Override
+        public void zoomViewToPoint(Vector3f point, short playerId) {
+
+        }
+
+        @Override
+        public void zoomViewToEntity(EntityId entityId, short playerId) {
+
+        }
+
+        @Override
+        public void setGamePaused(boolean paused) {
+
+        }
+
+        @Override
+        public void showUnitFlower(EntityId entityId, int interval, short playerId) {
+
+        }
+
+    }
+
+}
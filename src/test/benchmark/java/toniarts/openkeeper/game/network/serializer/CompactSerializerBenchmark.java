@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.serializer;
+
+import com.jme3.math.Vector3f;
+import com.jme3.network.serializing.Serializer;
+import com.jme3.network.serializing.serializers.EnumSerializer;
+import com.jme3.network.serializing.serializers.FieldSerializer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.component.CreatureAi;
+import toniarts.openkeeper.game.component.CreatureViewState;
+import toniarts.openkeeper.game.component.DoorViewState;
+import toniarts.openkeeper.game.component.Gold;
+import toniarts.openkeeper.game.component.Health;
+import toniarts.openkeeper.game.component.Mobile;
+import toniarts.openkeeper.game.component.ObjectViewState;
+import toniarts.openkeeper.game.component.Owner;
+import toniarts.openkeeper.game.component.Position;
+import toniarts.openkeeper.game.controller.creature.CreatureState;
+import toniarts.openkeeper.tools.convert.map.Creature.AnimationType;
+import toniarts.openkeeper.tools.convert.map.GameObject;
+
+/**
+ * Compares the compact serializers against the default
+ * {@link FieldSerializer}, both the encoded size and the write + read
+ * throughput. Not a part of the test suite since the timings vary per machine,
+ * run with {@code gradle serializerBenchmark}.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class CompactSerializerBenchmark {
+
+    private static final int WARMUP_ROUNDS = 20000;
+    private static final int ROUNDS = 100000;
+
+    private static final Logger LOGGER = Logger.getLogger(CompactSerializerBenchmark.class.getName());
+
+    private static final List<Sample> SAMPLES = Arrays.asList(
+            new Sample(new Position(2.1f, new Vector3f(45.37f, 0.5f, 12.81f)), new PositionSerializer()),
+            new Sample(new Health(1, 480, 600, false), new HealthSerializer()),
+            new Sample(new Gold(2500, 3000), new GoldSerializer()),
+            new Sample(new Owner((short) 3), new OwnerSerializer()),
+            new Sample(new Mobile(false, false, false, 1.2f), new MobileSerializer()),
+            new Sample(new CreatureAi(312.5, CreatureState.WANDER, (short) 11), new CreatureAiSerializer()),
+            new Sample(new CreatureViewState((short) 11, 312.5, AnimationType.WALK), new CreatureViewStateSerializer()),
+            new Sample(new ObjectViewState((short) 4, GameObject.State.NONE, ObjectViewState.GameObjectAnimState.MESH_RESOURCE, true), new ObjectViewStateSerializer()),
+            new Sample(new DoorViewState((short) 2, false, false, true), new DoorViewStateSerializer())
+    );
+
+    private CompactSerializerBenchmark() {
+        // Nope
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        // The field serializer needs the classes registered, like NetworkServer does
+        Serializer.registerClass(AnimationType.class, new EnumSerializer());
+        Serializer.registerClass(GameObject.State.class, new EnumSerializer());
+        Serializer.registerClass(ObjectViewState.GameObjectAnimState.class, new EnumSerializer());
+        for (Sample sample : SAMPLES) {
+            Serializer.registerClass(sample.component.getClass(), sample.fieldSerializer);
+        }
+
+        measureSize();
+        measureThroughput();
+    }
+
+    private static void measureSize() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int compactTotal = 0;
+        int fieldTotal = 0;
+        for (Sample sample : SAMPLES) {
+            int compactSize = write(buffer, sample.compactSerializer, sample.component);
+            int fieldSize = write(buffer, sample.fieldSerializer, sample.component);
+            compactTotal += compactSize;
+            fieldTotal += fieldSize;
+
+            LOGGER.log(Level.INFO, "{0}: compact {1} bytes, field {2} bytes", new Object[]{sample.component.getClass().getSimpleName(), compactSize, fieldSize});
+        }
+        LOGGER.log(Level.INFO, "Total: compact {0} bytes, field {1} bytes", new Object[]{compactTotal, fieldTotal});
+    }
+
+    private static void measureThroughput() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (Sample sample : SAMPLES) {
+            run(buffer, sample.compactSerializer, sample.component, WARMUP_ROUNDS);
+            run(buffer, sample.fieldSerializer, sample.component, WARMUP_ROUNDS);
+
+            long compactTime = run(buffer, sample.compactSerializer, sample.component, ROUNDS);
+            long fieldTime = run(buffer, sample.fieldSerializer, sample.component, ROUNDS);
+
+            LOGGER.log(Level.INFO, "{0}: compact {1} ops/ms, field {2} ops/ms", new Object[]{sample.component.getClass().getSimpleName(),
+                ROUNDS * 1000000L / Math.max(compactTime, 1), ROUNDS * 1000000L / Math.max(fieldTime, 1)});
+        }
+    }
+
+    private static int write(ByteBuffer buffer, Serializer serializer, Object object) throws IOException {
+        buffer.clear();
+        serializer.writeObject(buffer, object);
+
+        return buffer.position();
+    }
+
+    /**
+     * Writes and reads the object back the given amount of rounds
+     *
+     * @return the time taken, in nanoseconds
+     */
+    private static long run(ByteBuffer buffer, Serializer serializer, Object object, int rounds) throws IOException {
+        Object result = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            write(buffer, serializer, object);
+            buffer.flip();
+            result = serializer.readObject(buffer, object.getClass());
+        }
+        long time = System.nanoTime() - start;
+        if (result == null) {
+            throw new IllegalStateException("Nothing read back with " + serializer);
+        }
+
+        return time;
+    }
+
+    private static class Sample {
+
+        private final Object component;
+        private final Serializer compactSerializer;
+        private final Serializer fieldSerializer = new FieldSerializer();
+
+        public Sample(Object component, Serializer compactSerializer) {
+            this.component = component;
+            this.compactSerializer = compactSerializer;
+        }
+
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.serializer;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.network.serializing.Serializer;
+import com.simsilica.es.EntityId;
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import toniarts.openkeeper.game.component.CreatureAi;
+import toniarts.openkeeper.game.component.CreatureViewState;
+import toniarts.openkeeper.game.component.DoorViewState;
+import toniarts.openkeeper.game.component.Gold;
+import toniarts.openkeeper.game.component.Health;
+import toniarts.openkeeper.game.component.Mobile;
+import toniarts.openkeeper.game.component.ObjectViewState;
+import toniarts.openkeeper.game.component.Owner;
+import toniarts.openkeeper.game.component.Position;
+import toniarts.openkeeper.game.controller.creature.CreatureState;
+import toniarts.openkeeper.game.network.message.PlayerCommand;
+import toniarts.openkeeper.game.network.message.PlayerCommands;
+import toniarts.openkeeper.tools.convert.map.Creature.AnimationType;
+import toniarts.openkeeper.tools.convert.map.GameObject;
+
+/**
+ * Write and read round trips of the compact component serializers
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class CompactSerializerTest {
+
+    private static final float ANGLE_PRECISION = FastMath.TWO_PI / 65536;
+
+    @Test
+    public void testPosition() throws IOException {
+        Position position = roundTrip(new PositionSerializer(), new Position(1.5f, new Vector3f(12.3456f, 0.25f, -3.75f)), Position.class);
+        assertEquals(1.5f, position.rotation, ANGLE_PRECISION);
+        assertEquals(12.3456f, position.position.x, CompactSerializer.POSITION_PRECISION);
+        assertEquals(0.25f, position.position.y, CompactSerializer.POSITION_PRECISION);
+        assertEquals(-3.75f, position.position.z, CompactSerializer.POSITION_PRECISION);
+    }
+
+    @Test
+    public void testPositionNegativeRotation() throws IOException {
+        Position position = roundTrip(new PositionSerializer(), new Position(-FastMath.HALF_PI, new Vector3f()), Position.class);
+
+        // The angle is normalized to [0, 2PI)
+        assertEquals(FastMath.TWO_PI - FastMath.HALF_PI, position.rotation, ANGLE_PRECISION);
+    }
+
+    @Test
+    public void testPositionWithoutLocation() throws IOException {
+        Position position = roundTrip(new PositionSerializer(), new Position(0, null), Position.class);
+        assertNull(position.position);
+    }
+
+    @Test
+    public void testHealth() throws IOException {
+        Health health = roundTrip(new HealthSerializer(), new Health(-5, 1234, 2000, true), Health.class);
+        assertEquals(-5, health.ownLandHealthIncrease);
+        assertEquals(1234, health.health);
+        assertEquals(2000, health.maxHealth);
+        assertTrue(health.unconscious);
+    }
+
+    @Test
+    public void testGold() throws IOException {
+        Gold gold = roundTrip(new GoldSerializer(), new Gold(Integer.MAX_VALUE, Integer.MIN_VALUE), Gold.class);
+        assertEquals(Integer.MAX_VALUE, gold.gold);
+        assertEquals(Integer.MIN_VALUE, gold.maxGold);
+    }
+
+    @Test
+    public void testOwner() throws IOException {
+        Owner owner = roundTrip(new OwnerSerializer(), new Owner((short) 5), Owner.class);
+        assertEquals(5, owner.ownerId);
+    }
+
+    @Test
+    public void testMobile() throws IOException {
+        Mobile mobile = roundTrip(new MobileSerializer(), new Mobile(true, false, true, 1.75f), Mobile.class);
+        assertTrue(mobile.canFly);
+        assertFalse(mobile.canWalkOnWater);
+        assertTrue(mobile.canWalkOnLava);
+        assertEquals(1.75f, mobile.maxSpeed, 0);
+    }
+
+    @Test
+    public void testCreatureAi() throws IOException {
+        CreatureAi creatureAi = roundTrip(new CreatureAiSerializer(), new CreatureAi(123.456, CreatureState.WANDER, (short) 13), CreatureAi.class);
+        assertEquals(123.456, creatureAi.stateStartTime, 0);
+        assertEquals(CreatureState.WANDER, creatureAi.getCreatureState());
+        assertEquals(13, creatureAi.creatureId);
+    }
+
+    @Test
+    public void testCreatureViewState() throws IOException {
+        CreatureViewState viewState = roundTrip(new CreatureViewStateSerializer(), new CreatureViewState((short) 300, 98.5, AnimationType.RUN), CreatureViewState.class);
+        assertEquals(300, viewState.creatureId);
+        assertEquals(98.5, viewState.stateStartTime, 0);
+        assertEquals(AnimationType.RUN, viewState.state);
+    }
+
+    @Test
+    public void testCreatureViewStateWithoutState() throws IOException {
+        CreatureViewState viewState = roundTrip(new CreatureViewStateSerializer(), new CreatureViewState((short) 1, 0, null), CreatureViewState.class);
+        assertNull(viewState.state);
+    }
+
+    @Test
+    public void testObjectViewState() throws IOException {
+        ObjectViewState viewState = roundTrip(new ObjectViewStateSerializer(),
+                new ObjectViewState((short) 42, GameObject.State.BEING_SLAPPED, ObjectViewState.GameObjectAnimState.ADDITIONAL_RESOURCE_2, true), ObjectViewState.class);
+        assertEquals(42, viewState.objectId);
+        assertEquals(GameObject.State.BEING_SLAPPED, viewState.state);
+        assertEquals(ObjectViewState.GameObjectAnimState.ADDITIONAL_RESOURCE_2, viewState.animState);
+        assertTrue(viewState.visible);
+    }
+
+    @Test
+    public void testDoorViewState() throws IOException {
+        DoorViewState viewState = roundTrip(new DoorViewStateSerializer(), new DoorViewState((short) 7, false, true, true), DoorViewState.class);
+        assertEquals(7, viewState.doorId);
+        assertFalse(viewState.locked);
+        assertTrue(viewState.blueprint);
+        assertTrue(viewState.open);
+    }
+
+    @Test
+    public void testPlayerCommands() throws IOException {
+        PlayerCommands commands = roundTrip(new PlayerCommandsSerializer(), new PlayerCommands(77, Arrays.asList(
+                PlayerCommand.pickUp(new EntityId(5000000000L)),
+                PlayerCommand.getGold(250),
+                PlayerCommand.drop(new EntityId(5000000003L), new Point(4, 9), new Vector2f(4.5f, 9.25f), new EntityId(4999999990L)),
+                PlayerCommand.interact(new EntityId(12)))), PlayerCommands.class);
+        assertEquals(77, commands.getSequence());
+        assertEquals(4, commands.getCommands().size());
+        assertEquals(new EntityId(5000000000L), commands.getCommands().get(0).getEntity());
+        assertEquals(250, commands.getCommands().get(1).getAmount());
+        assertEquals(new EntityId(5000000003L), commands.getCommands().get(2).getEntity());
+        assertEquals(new Point(4, 9), commands.getCommands().get(2).getTile());
+        assertEquals(new EntityId(4999999990L), commands.getCommands().get(2).getTarget());
+        assertEquals(new EntityId(12), commands.getCommands().get(3).getEntity());
+    }
+
+    @Test
+    public void testEntityIdDelta() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        CompactSerializer.EntityIdDelta ids = new CompactSerializer.EntityIdDelta();
+        CompactSerializer.writeEntityId(buffer, new EntityId(1000000), ids);
+        int firstSize = buffer.position();
+        CompactSerializer.writeEntityId(buffer, new EntityId(1000001), ids);
+        CompactSerializer.writeEntityId(buffer, new EntityId(999999), ids);
+
+        // Only the first ID pays for the full value
+        assertEquals(firstSize + 2, buffer.position());
+
+        buffer.flip();
+        ids = new CompactSerializer.EntityIdDelta();
+        assertEquals(new EntityId(1000000), CompactSerializer.readEntityId(buffer, ids));
+        assertEquals(new EntityId(1000001), CompactSerializer.readEntityId(buffer, ids));
+        assertEquals(new EntityId(999999), CompactSerializer.readEntityId(buffer, ids));
+    }
+
+    /**
+     * Writes the object and reads it back, the reader must consume exactly
+     * what was written
+     */
+    private static <T> T roundTrip(Serializer serializer, T object, Class<T> type) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        serializer.writeObject(buffer, object);
+        int written = buffer.position();
+        buffer.flip();
+
+        T result = serializer.readObject(buffer, type);
+        assertEquals("Bytes read differ from the bytes written", written, buffer.position());
+
+        return result;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.view;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.simsilica.mathd.Quatd;
+import com.simsilica.mathd.Vec3d;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Interpolation and extrapolation of the buffered entity transforms
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class EntityTransformBufferTest {
+
+    private static final long MAX_EXTRAPOLATION = 100;
+
+    @Test
+    public void testEmptyHistory() {
+        EntityTransformBuffer.TransformHistory history = new EntityTransformBuffer.TransformHistory();
+        Vector3f position = new Vector3f();
+        Quaternion rotation = new Quaternion();
+
+        assertFalse(history.getTransform(0, MAX_EXTRAPOLATION, position, rotation));
+        assertFalse(history.getTransform(1000, MAX_EXTRAPOLATION, position, rotation));
+    }
+
+    @Test
+    public void testSingleFrame() {
+        EntityTransformBuffer.TransformHistory history = new EntityTransformBuffer.TransformHistory();
+        history.add(100, new Vec3d(1, 0, 2), new Quatd());
+        Vector3f position = new Vector3f();
+        Quaternion rotation = new Quaternion();
+
+        assertTrue(history.getTransform(50, MAX_EXTRAPOLATION, position, rotation));
+        assertEquals(new Vector3f(1, 0, 2), position);
+        assertTrue(history.getTransform(150, MAX_EXTRAPOLATION, position, rotation));
+        assertEquals(new Vector3f(1, 0, 2), position);
+    }
+
+    @Test
+    public void testInterpolation() {
+        EntityTransformBuffer.TransformHistory history = new EntityTransformBuffer.TransformHistory();
+        history.add(100, new Vec3d(0, 0, 0), new Quatd());
+        history.add(200, new Vec3d(10, 0, 0), new Quatd());
+        Vector3f position = new Vector3f();
+        Quaternion rotation = new Quaternion();
+
+        assertTrue(history.getTransform(150, MAX_EXTRAPOLATION, position, rotation));
+        assertEquals(5f, position.x, 0.0001f);
+
+        // Extrapolated, capped at the maximum
+        assertTrue(history.getTransform(1000, MAX_EXTRAPOLATION, position, rotation));
+        assertEquals(20f, position.x, 0.0001f);
+
+        // Removed, played out to the last frame and then gone
+        history.setRemoved(200);
+        assertTrue(history.getTransform(150, MAX_EXTRAPOLATION, position, rotation));
+        assertFalse(history.getTransform(200, MAX_EXTRAPOLATION, position, rotation));
+    }
+
+}
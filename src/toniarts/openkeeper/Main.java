@@ -48,6 +48,7 @@ import java.net.URLClassLoader;
 import java.util.AbstractMap;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -55,6 +56,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Queue;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
@@ -74,11 +76,15 @@ import toniarts.openkeeper.setup.DKFolderSelector;
 import toniarts.openkeeper.setup.IFrameClosingBehavior;
 import toniarts.openkeeper.tools.convert.AssetsConverter;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
+import toniarts.openkeeper.tools.convert.OriginalAssetLocator;
+import toniarts.openkeeper.tools.convert.map.KwdFile;
+import toniarts.openkeeper.tools.convert.map.LevelCache;
 import toniarts.openkeeper.tools.convert.map.Player;
 import toniarts.openkeeper.tools.modelviewer.SoundsLoader;
 import toniarts.openkeeper.utils.PathUtils;
 import toniarts.openkeeper.utils.SettingUtils;
 import toniarts.openkeeper.utils.UTF8Control;
+import toniarts.openkeeper.view.LightBudgetFilter;
 import toniarts.openkeeper.video.MovieState;
 
 /**
@@ -185,7 +191,8 @@ public class Main extends SimpleApplication {
         }
 
         // If the folder is ok, check the conversion
-        if (folderOk && (AssetsConverter.conversionNeeded(Main.getSettings()))) {
+        final Set<AssetsConverter.ConvertProcess> onDemandProcesses = getOnDemandConvertProcesses();
+        if (folderOk && (AssetsConverter.conversionNeeded(Main.getSettings(), onDemandProcesses))) {
             LOGGER.info("Need to convert the assets!");
             saveSetup = true;
 
@@ -198,7 +205,7 @@ public class Main extends SimpleApplication {
             DKConverter frame = new DKConverter(getDkIIFolder(), assetManager) {
                 @Override
                 protected void continueOk() {
-                    AssetsConverter.setConversionSettings(Main.getSettings());
+                    AssetsConverter.setConversionSettings(Main.getSettings(), onDemandProcesses);
                     conversionOk = true;
                 }
             };
@@ -246,6 +253,19 @@ public class Main extends SimpleApplication {
         return SettingUtils.getInstance().getSettings();
     }
 
+    /**
+     * Get the conversion processes that are not needed since the assets are
+     * served straight from the original files
+     *
+     * @return the on demand conversion processes
+     */
+    private static Set<AssetsConverter.ConvertProcess> getOnDemandConvertProcesses() {
+        if (getUserSettings().getBoolean(Settings.Setting.USE_ORIGINAL_ASSETS)) {
+            return OriginalAssetLocator.SERVED_PROCESSES;
+        }
+        return EnumSet.noneOf(AssetsConverter.ConvertProcess.class);
+    }
+
     /**
      * Sets SWING look and feel
      */
@@ -323,6 +343,15 @@ public class Main extends SimpleApplication {
         // Distribution locator
         getAssetManager().registerLocator(AssetsConverter.getAssetsFolder(), FileLocator.class);
 
+        // The original assets, converted on the fly for the assets not found from the distribution
+        if (getUserSettings().getBoolean(Settings.Setting.USE_ORIGINAL_ASSETS)) {
+            OriginalAssetLocator.setDiskCacheFolder(new File(USER_HOME_FOLDER.concat("AssetCache")));
+            getAssetManager().registerLocator(getDkIIFolder(), OriginalAssetLocator.class);
+        }
+
+        // Cache the level data files
+        KwdFile.setLevelCache(new LevelCache(new File(USER_HOME_FOLDER.concat("LevelCache"))));
+
         // Init nifty while in render thread so it will get initialized before it is updated, otherwise we might hit a rare race-condition
         Nifty nifty = getNifty();
 
@@ -527,13 +556,16 @@ public class Main extends SimpleApplication {
     }
 
     /**
-     * (re-)Sets scene processors to the view port
+     * (re-)Sets scene processors and the light budget to the view port
      */
     public void setViewProcessors() {
 
         // Clear the old ones
         viewPort.clearProcessors();
 
+        // Limit the lights per geometry, every light is a draw of its own
+        renderManager.setLightFilter(new LightBudgetFilter(Settings.getInstance().getInteger(Settings.Setting.MAX_LIGHTS_PER_GEOMETRY)));
+
         // Add SSAO
         if (Settings.getInstance().getBoolean(Settings.Setting.SSAO)) {
             FilterPostProcessor fpp = new FilterPostProcessor(assetManager);
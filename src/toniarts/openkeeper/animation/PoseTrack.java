@@ -214,15 +214,16 @@ public final class PoseTrack implements Track, ClonableTrack {
         } else if (time > times[times.length - 1]) {
             applyFrame(target, times.length - 1);
         } else {
-            int startFrame = 0;
+
+            // The last frame reached
+            int frame = 0;
             for (int i = 0; i < times.length; i++) {
-                if (times[i] < time) {
-                    startFrame = i;
+                if (times[i] <= time) {
+                    frame = i;
                 }
             }
 
-            int endFrame = startFrame + 1;
-            applyFrame(target, endFrame);
+            applyFrame(target, frame);
         }
     }
 
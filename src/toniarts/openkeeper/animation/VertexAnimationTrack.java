@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.animation;
+
+import com.jme3.animation.AnimChannel;
+import com.jme3.animation.AnimControl;
+import com.jme3.animation.ClonableTrack;
+import com.jme3.animation.Track;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.material.Material;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.util.TempVars;
+import com.jme3.util.clone.Cloner;
+import java.io.IOException;
+
+/**
+ * A track of vertex animation associated with a certain mesh. The vertex
+ * positions of every frame are baked in to a texture, and interpolated by the
+ * shader. So all this track does is to set the current frame to the material.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class VertexAnimationTrack implements Track, ClonableTrack {
+
+    /**
+     * The geometry user data holding the baked vertex positions
+     */
+    public static final String ANIMATION_MAP = "AnimationMap";
+    /**
+     * The material parameter for the current frame
+     */
+    public static final String ANIMATION_FRAME = "AnimationFrame";
+    public static final String ANIMATION_FRAMES = "AnimationFrames";
+
+    private int targetMeshIndex;
+    private float framesPerSecond;
+    private int frames;
+
+    public VertexAnimationTrack(int targetMeshIndex, float framesPerSecond, int frames) {
+        this.targetMeshIndex = targetMeshIndex;
+        this.framesPerSecond = framesPerSecond;
+        this.frames = frames;
+    }
+
+    /**
+     * Serialization-only. Do not use.
+     */
+    public VertexAnimationTrack() {
+    }
+
+    @Override
+    public void setTime(float time, float weight, AnimControl control, AnimChannel channel, TempVars vars) {
+        Geometry geom = findGeom(control.getSpatial());
+        if (geom == null) {
+            return;
+        }
+
+        Material material = geom.getMaterial();
+        if (material.getMaterialDef().getMaterialParam(ANIMATION_FRAME) != null) {
+            material.setFloat(ANIMATION_FRAME, Math.max(0, Math.min(frames - 1, time * framesPerSecond)));
+        }
+    }
+
+    public Geometry findGeom(Spatial spatial) {
+        if (spatial instanceof Node) {
+            Node findingnode = (Node) spatial;
+            Spatial child = findingnode.getChild(targetMeshIndex);
+            Geometry result = findGeom(child);
+            if (result != null) {
+                return result;
+            }
+        } else if (spatial instanceof Geometry) {
+            return (Geometry) spatial;
+        }
+        return null;
+    }
+
+    /**
+     * @return the length of the track
+     */
+    @Override
+    public float getLength() {
+        return (frames - 1) / framesPerSecond;
+    }
+
+    @Override
+    public float[] getKeyFrameTimes() {
+        float[] times = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            times[i] = i / framesPerSecond;
+        }
+        return times;
+    }
+
+    @Override
+    public Track cloneForSpatial(Spatial spatial) {
+        return clone();
+    }
+
+    @Override
+    public void cleanUp() {
+
+    }
+
+    @Override
+    public VertexAnimationTrack clone() {
+        try {
+            return (VertexAnimationTrack) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError();
+        }
+    }
+
+    @Override
+    public Object jmeClone() {
+        return clone();
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object o) {
+
+    }
+
+    @Override
+    public void write(JmeExporter e) throws IOException {
+        OutputCapsule out = e.getCapsule(this);
+        out.write(targetMeshIndex, "meshIndex", 0);
+        out.write(framesPerSecond, "framesPerSecond", 30f);
+        out.write(frames, "frames", 0);
+    }
+
+    @Override
+    public void read(JmeImporter i) throws IOException {
+        InputCapsule in = i.getCapsule(this);
+        targetMeshIndex = in.readInt("meshIndex", 0);
+        framesPerSecond = in.readFloat("framesPerSecond", 30f);
+        frames = in.readInt("frames", 0);
+    }
+}
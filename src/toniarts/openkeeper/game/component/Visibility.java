@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.component;
+
+import com.simsilica.es.EntityComponent;
+
+/**
+ * The players that can see the entity. Entities are only replicated to the
+ * players that see them
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class Visibility implements EntityComponent {
+
+    public int players; // Bit per player ID
+
+    public Visibility() {
+        // For serialization
+    }
+
+    public Visibility(int players) {
+        this.players = players;
+    }
+
+    public boolean isVisibleTo(short playerId) {
+        return (players & (1 << playerId)) != 0;
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.component;
+
+import com.simsilica.es.ComponentFilter;
+import com.simsilica.es.EntityComponent;
+
+/**
+ * Filters the entities visible to a player. The filter is evaluated on the
+ * server, so the entities the player doesn't see are never sent to the client
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class VisibilityFilter implements ComponentFilter<Visibility> {
+
+    private short playerId;
+
+    public VisibilityFilter() {
+        // For serialization
+    }
+
+    public VisibilityFilter(short playerId) {
+        this.playerId = playerId;
+    }
+
+    @Override
+    public Class<Visibility> getComponentType() {
+        return Visibility.class;
+    }
+
+    @Override
+    public boolean evaluate(EntityComponent c) {
+        return c instanceof Visibility && ((Visibility) c).isVisibleTo(playerId);
+    }
+
+    @Override
+    public String toString() {
+        return "VisibilityFilter{" + "playerId=" + playerId + '}';
+    }
+
+}
@@ -230,8 +230,8 @@ public class CreaturesController implements ICreaturesController {
 
         // The creature itself
         CreatureComponent creatureComponent = new CreatureComponent();
-        creatureComponent.name = Utils.generateCreatureName();
-        creatureComponent.bloodType = Utils.generateBloodType();
+        creatureComponent.name = Utils.generateCreatureName(Utils.getGameRandom());
+        creatureComponent.bloodType = Utils.generateBloodType(Utils.getGameRandom());
         creatureComponent.creatureId = creatureId;
         creatureComponent.worker = creature.getFlags().contains(Creature.CreatureFlag.IS_WORKER);
         creatureComponent.stunDuration = creature.getAttributes().getStunDuration();
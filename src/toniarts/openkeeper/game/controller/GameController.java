@@ -22,12 +22,14 @@ import com.simsilica.es.EntityData;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.function.LongPredicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.Main;
@@ -52,6 +54,8 @@ import toniarts.openkeeper.game.logic.DeathSystem;
 import toniarts.openkeeper.game.logic.DecaySystem;
 import toniarts.openkeeper.game.logic.DoorViewSystem;
 import toniarts.openkeeper.game.logic.DungeonHeartConstruction;
+import toniarts.openkeeper.game.listener.EntityMovementListener;
+import toniarts.openkeeper.game.listener.StateHashListener;
 import toniarts.openkeeper.game.logic.GameLogicManager;
 import toniarts.openkeeper.game.logic.HaulingSystem;
 import toniarts.openkeeper.game.logic.HealthSystem;
@@ -64,6 +68,9 @@ import toniarts.openkeeper.game.logic.PlayerCreatureSystem;
 import toniarts.openkeeper.game.logic.PlayerSpellbookSystem;
 import toniarts.openkeeper.game.logic.PositionSystem;
 import toniarts.openkeeper.game.logic.SlapSystem;
+import toniarts.openkeeper.game.logic.StateHashSystem;
+import toniarts.openkeeper.game.logic.SubStepUpdater;
+import toniarts.openkeeper.game.logic.VisibilitySystem;
 import toniarts.openkeeper.game.navigation.INavigationService;
 import toniarts.openkeeper.game.navigation.NavigationService;
 import toniarts.openkeeper.game.state.session.PlayerService;
@@ -84,6 +91,7 @@ import toniarts.openkeeper.tools.convert.map.Thing;
 import toniarts.openkeeper.tools.convert.map.Variable;
 import toniarts.openkeeper.utils.GameLoop;
 import toniarts.openkeeper.utils.PathUtils;
+import toniarts.openkeeper.utils.Utils;
 
 /**
  * The game controller, runs the game simulation itself
@@ -94,6 +102,7 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
 
     public static final int LEVEL_TIMER_MAX_COUNT = 16;
     private static final int LEVEL_FLAG_MAX_COUNT = 128;
+    private static final int STATE_HASH_INTERVAL = 5; // In seconds
 
     private String level;
     private KwdFile kwdFile;
@@ -130,6 +139,12 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
     private GameResult gameResult = null;
     private Float timeLimit = null;
     private TaskManager taskManager;
+    private EntityMovementListener movementListener;
+    private IGameLogicUpdatable entityUpdater;
+    private IGameLogicUpdatable commandProcessor;
+    private StateHashListener stateHashListener;
+    private Long lockstepSeed;
+    private LongPredicate lockstepGate;
 
     private static final Logger LOGGER = Logger.getLogger(GameController.class.getName());
 
@@ -210,6 +225,11 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
             throw new RuntimeException(level, ex);
         }
 
+        // Every peer of a lockstep game rolls the same dice
+        if (lockstepSeed != null) {
+            Utils.setGameRandomSeed(lockstepSeed);
+        }
+
         // The players
         setupPlayers();
 
@@ -252,7 +272,7 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
 
         // Create the game loops ready to start
         // Game logic
-        gameLogicThread = new GameLogicManager(positionSystem,
+        List<IGameLogicUpdatable> updatables = new ArrayList<>(Arrays.asList(positionSystem,
                 gameWorldController.getMapController(),
                 new DecaySystem(entityData),
                 new CreatureExperienceSystem(entityData, kwdFile, gameSettings, gameWorldController.getCreaturesController()),
@@ -274,23 +294,114 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
                 new DoorViewSystem(entityData, positionSystem),
                 new LooseGoldSystem(entityData, gameWorldController.getMapController(), playerControllers, positionSystem),
                 new HaulingSystem(entityData),
-                taskManager);
-        gameLogicLoop = new GameLoop(gameLogicThread, 1000000000 / kwdFile.getGameLevel().getTicksPerSec(), "GameLogic");
+                new VisibilitySystem(entityData, gameWorldController.getMapController(), playerControllers.keySet()),
+                taskManager));
+        if (commandProcessor != null) {
+
+            // The player actions are applied before anything else
+            updatables.add(0, commandProcessor);
+        }
+        int ticksPerSec = kwdFile.getGameLevel().getTicksPerSec();
+        if (lockstepSeed != null) {
+
+            // The animations and steering are stepped inside the tick, right after the player actions
+            updatables.add(commandProcessor != null ? 1 : 0, new SubStepUpdater(Math.round(60f / ticksPerSec),
+                    new DungeonHeartConstruction(entityData, getLevelVariable(Variable.MiscVariable.MiscType.TIME_BEFORE_DUNGEON_HEART_CONSTRUCTION_BEGINS)),
+                    new CreatureFallSystem(entityData),
+                    new MovementSystem(entityData, movementListener)));
+        }
+        if (stateHashListener != null) {
+
+            // Hash the state the tick ended up in
+            updatables.add(new StateHashSystem(gameWorldController.getMapController(), lockstepSeed != null ? entityData : null, ticksPerSec * STATE_HASH_INTERVAL, stateHashListener));
+        }
+        if (entityUpdater != null) {
+
+            // Send the changes of the whole tick
+            updatables.add(entityUpdater);
+        }
+        gameLogicThread = new GameLogicManager(updatables.toArray(new IGameLogicUpdatable[0]));
+        gameLogicLoop = new GameLoop(gameLogicThread, 1000000000 / ticksPerSec, "GameLogic");
+        if (lockstepSeed != null) {
+            gameLogicThread.setFixedTimeStep(1000000000 / ticksPerSec);
+            gameLogicThread.setTickGate(lockstepGate);
+            return;
+        }
 
         // Animation systems
         gameAnimationThread = new GameLogicManager(new DungeonHeartConstruction(entityData, getLevelVariable(Variable.MiscVariable.MiscType.TIME_BEFORE_DUNGEON_HEART_CONSTRUCTION_BEGINS)), new CreatureFallSystem(entityData));
         gameAnimationLoop = new GameLoop(gameAnimationThread, GameLoop.INTERVAL_FPS_60, "GameAnimation");
 
         // Steering
-        steeringCalculatorLoop = new GameLoop(new GameLogicManager(new MovementSystem(entityData)), GameLoop.INTERVAL_FPS_60, "SteeringCalculator");
+        steeringCalculatorLoop = new GameLoop(new GameLogicManager(new MovementSystem(entityData, movementListener)), GameLoop.INTERVAL_FPS_60, "SteeringCalculator");
+    }
+
+    /**
+     * Set the listener for the entity movement, needs to be set before
+     * creating the game
+     *
+     * @param movementListener the movement listener, can be {@code null}
+     */
+    public void setEntityMovementListener(EntityMovementListener movementListener) {
+        this.movementListener = movementListener;
+    }
+
+    /**
+     * Set the updatable that sends the entity changes, it is run after all
+     * the game logic of a tick. Needs to be set before creating the game
+     *
+     * @param entityUpdater the entity updater, can be {@code null}
+     */
+    public void setEntityUpdater(IGameLogicUpdatable entityUpdater) {
+        this.entityUpdater = entityUpdater;
+    }
+
+    /**
+     * Set the updatable that applies the player commands, it is run before
+     * any other game logic of a tick. Needs to be set before creating the game
+     *
+     * @param commandProcessor the command processor, can be {@code null}
+     */
+    public void setCommandProcessor(IGameLogicUpdatable commandProcessor) {
+        this.commandProcessor = commandProcessor;
+    }
+
+    /**
+     * Set the listener for the periodic game state hashes. Needs to be set
+     * before creating the game
+     *
+     * @param stateHashListener the state hash listener, can be {@code null}
+     */
+    public void setStateHashListener(StateHashListener stateHashListener) {
+        this.stateHashListener = stateHashListener;
+    }
+
+    /**
+     * Runs the game in lockstep. The random numbers are seeded, every tick
+     * takes the same time step and the animations and steering are run as a
+     * part of the tick instead of their own loops. So given the same player
+     * commands on the same ticks, every peer ends up in the same state. Needs
+     * to be set before creating the game
+     *
+     * @param seed the seed shared by all the peers
+     * @param tickGate lets a tick run once its player commands are known,
+     * {@code null} to run every tick
+     */
+    public void setLockstep(long seed, LongPredicate tickGate) {
+        this.lockstepSeed = seed;
+        this.lockstepGate = tickGate;
     }
 
     public void startGame() {
 
         // Game logic thread & movement
         gameLogicLoop.start();
-        gameAnimationLoop.start();
-        steeringCalculatorLoop.start();
+        if (gameAnimationLoop != null) {
+            gameAnimationLoop.start();
+        }
+        if (steeringCalculatorLoop != null) {
+            steeringCalculatorLoop.start();
+        }
     }
 
     private void setupPlayers() {
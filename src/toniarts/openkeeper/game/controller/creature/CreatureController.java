@@ -19,7 +19,6 @@ package toniarts.openkeeper.game.controller.creature;
 import com.badlogic.gdx.ai.fsm.DefaultStateMachine;
 import com.badlogic.gdx.ai.fsm.StateMachine;
 import com.badlogic.gdx.ai.pfa.GraphPath;
-import com.jme3.math.FastMath;
 import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import com.simsilica.es.EntityData;
@@ -82,6 +81,7 @@ import toniarts.openkeeper.tools.convert.map.Creature;
 import toniarts.openkeeper.tools.convert.map.Player;
 import toniarts.openkeeper.tools.convert.map.Thing;
 import toniarts.openkeeper.tools.convert.map.Variable;
+import toniarts.openkeeper.utils.Utils;
 import toniarts.openkeeper.utils.WorldUtils;
 
 /**
@@ -369,7 +369,7 @@ public class CreatureController extends EntityController implements ICreatureCon
         for (Creature.JobPreference item : items) {
             completeWeight += item.getChance();
         }
-        double r = FastMath.rand.nextDouble() * completeWeight;
+        double r = Utils.getGameRandom().nextDouble() * completeWeight;
         double countWeight = 0.0;
         for (Creature.JobPreference item : items) {
             countWeight += item.getChance();
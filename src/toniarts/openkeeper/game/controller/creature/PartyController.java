@@ -164,7 +164,7 @@ public class PartyController implements IPartyController {
             // See if any left
             if (!leaderCandidates.isEmpty()) {
                 ICreatureController oldLeader = leader;
-                leader = Utils.getRandomItem(leaderCandidates);
+                leader = Utils.getRandomItem(leaderCandidates, Utils.getGameRandom());
 
                 // Swap duties
                 // TODO: this works only when the old leader hasn't already died, so need to signal this somehow (PartySystem?)
@@ -114,7 +114,7 @@ public class FiveByFiveRotatedController extends AbstractRoomController implemen
     public Point getEntranceCoordinate() {
 
         // FIXME: Is it random truly or just one corner??
-        return Utils.getRandomItem(spawnPoints);
+        return Utils.getRandomItem(spawnPoints, Utils.getGameRandom());
     }
 
     @Override
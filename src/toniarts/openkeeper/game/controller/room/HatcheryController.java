@@ -62,7 +62,7 @@ public class HatcheryController extends NormalRoomController implements IChicken
     @Override
     public Point getEntranceCoordinate() {
         // TODO: Should be maybe random available point, where there are no coops
-        return Utils.getRandomItem(roomInstance.getCoordinates());
+        return Utils.getRandomItem(roomInstance.getCoordinates(), Utils.getGameRandom());
     }
 
     @Override
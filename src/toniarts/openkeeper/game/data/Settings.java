@@ -75,6 +75,8 @@ public class Settings {
         SSAO_INTENSITY(Float.class, 3.92f, SettingCategory.GRAPHICS),
         SSAO_SCALE(Float.class, 0.33f, SettingCategory.GRAPHICS),
         SSAO_BIAS(Float.class, 0.1f, SettingCategory.GRAPHICS),
+        BAKED_LIGHTING(Boolean.class, true, SettingCategory.GRAPHICS),
+        MAX_LIGHTS_PER_GEOMETRY(Integer.class, 4, SettingCategory.GRAPHICS),
         // Controls
         CAMERA_ZOOM_IN(Integer.class, KeyInput.KEY_LCONTROL, KeyInput.KEY_W, SettingCategory.CONTROLS, 124),
         CAMERA_ZOOM_OUT(Integer.class, KeyInput.KEY_LCONTROL, KeyInput.KEY_S, SettingCategory.CONTROLS, 125),
@@ -161,6 +163,8 @@ public class Settings {
         RECORDER_FPS(Integer.class, 60, SettingCategory.MISCELLANEOUS),
         // Cursor
         USE_CURSORS(Boolean.class, true, SettingCategory.MISCELLANEOUS),
+        // Serve models, textures and sounds straight from the original game files instead of converting them first
+        USE_ORIGINAL_ASSETS(Boolean.class, false, SettingCategory.MISCELLANEOUS),
         // Multiplayer settings
         PLAYER_NAME(String.class, System.getProperty("user.name"), SettingCategory.MISCELLANEOUS),
         GAME_NAME(String.class, "My OpenKeeper game", SettingCategory.MISCELLANEOUS),
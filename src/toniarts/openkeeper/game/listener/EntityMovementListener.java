@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.listener;
+
+import com.jme3.math.Vector3f;
+import com.simsilica.es.EntityId;
+
+/**
+ * Listens to the moving entities on every movement tick. The movement of a
+ * single tick is reported between {@link #beginMovementUpdate(long)} and
+ * {@link #endMovementUpdate()}.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public interface EntityMovementListener {
+
+    /**
+     * Starts reporting the movement of a tick
+     *
+     * @param time the time of the tick, in nanoseconds
+     */
+    public void beginMovementUpdate(long time);
+
+    /**
+     * An entity moved
+     *
+     * @param entityId the entity
+     * @param position the new position
+     * @param rotation the new rotation around the y-axis
+     */
+    public void onEntityMoved(EntityId entityId, Vector3f position, float rotation);
+
+    /**
+     * The entity is no longer moving, its position is the one in the entity
+     * data
+     *
+     * @param entityId the entity
+     */
+    public void onEntityStopped(EntityId entityId);
+
+    public void endMovementUpdate();
+
+}
@@ -152,7 +152,7 @@ public class ChickenSpawnSystem implements IGameLogicUpdatable {
                 spawned = true;
             } else if (freeRangeChickensByPlayer.get(entrance.getRoomInstance().getOwnerId()).size() < maximumFreerangeChickenCount && freerangeChickenGeneratorsByRoom.get(entrance) != null) {
                 Set<EntityId> generators = freerangeChickenGeneratorsByRoom.get(entrance);
-                Optional<EntityId> generator = Utils.getRandomItem(generators);
+                Optional<EntityId> generator = Utils.getRandomItem(generators, Utils.getGameRandom());
                 if (generator.isPresent()) {
 
                     // Spawn a free range chicken
@@ -150,7 +150,7 @@ public class CreatureSpawnSystem implements IGameLogicUpdatable {
             // Maybe store these under the keeper etc.? For saving purposes
             // The logic classes shouldn't have anything to save
             if (!possibleCreatures.isEmpty()) {
-                short creatureId = Utils.getRandomItem(possibleCreatures).getCreatureId();
+                short creatureId = Utils.getRandomItem(possibleCreatures, Utils.getGameRandom()).getCreatureId();
                 Point entranceCoordinate = entrance.getEntranceCoordinate();
                 entityId = creaturesController.spawnCreature(creatureId, player.getKeeper().getId(), 1, new Vector2f(entranceCoordinate.x, entranceCoordinate.y), true);
                 spawned = true;
@@ -17,6 +17,7 @@
 package toniarts.openkeeper.game.logic;
 
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.utils.IGameLoopManager;
@@ -30,6 +31,8 @@ public class GameLogicManager implements IGameLoopManager {
 
     private long ticks = 0;
     private double timeElapsed = 0.0;
+    private long fixedTimeStep = 0;
+    private LongPredicate tickGate;
     protected final IGameLogicUpdatable[] updatables;
     private static final Logger LOGGER = Logger.getLogger(GameLogicManager.class.getName());
 
@@ -44,12 +47,37 @@ public class GameLogicManager implements IGameLoopManager {
         }
     }
 
+    /**
+     * Run every tick with the same time step instead of the measured time, so
+     * that the game time only depends on the number of ticks
+     *
+     * @param fixedTimeStep the time step, in nanoseconds. 0 to use the
+     * measured time
+     */
+    public void setFixedTimeStep(long fixedTimeStep) {
+        this.fixedTimeStep = fixedTimeStep;
+    }
+
+    /**
+     * Holds back the ticks until the gate lets them through. The gate is
+     * asked on every tick with the number of the tick about to be run
+     *
+     * @param tickGate the tick gate, {@code null} to run every tick
+     */
+    public void setTickGate(LongPredicate tickGate) {
+        this.tickGate = tickGate;
+    }
+
     @Override
     public void processTick(long delta) {
+        if (tickGate != null && !tickGate.test(ticks)) {
+            LOGGER.log(Level.FINEST, "Waiting for tick {0}", ticks);
+            return;
+        }
 
         // Update game time
         long start = System.nanoTime();
-        float tpf = delta / 1000000000f;
+        float tpf = (fixedTimeStep > 0 ? fixedTimeStep : delta) / 1000000000f;
 
         // Update updatables
         for (IGameLogicUpdatable updatable : updatables) {
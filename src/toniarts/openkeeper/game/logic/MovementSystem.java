@@ -18,6 +18,7 @@ package toniarts.openkeeper.game.logic;
 
 import com.badlogic.gdx.ai.steer.SteeringAcceleration;
 import com.badlogic.gdx.math.Vector2;
+import com.jme3.math.Vector3f;
 import com.jme3.util.SafeArrayList;
 import com.simsilica.es.Entity;
 import com.simsilica.es.EntityData;
@@ -32,14 +33,18 @@ import java.util.logging.Logger;
 import toniarts.openkeeper.game.component.Mobile;
 import toniarts.openkeeper.game.component.Navigation;
 import toniarts.openkeeper.game.component.Position;
+import toniarts.openkeeper.game.listener.EntityMovementListener;
 import toniarts.openkeeper.game.navigation.steering.EntitySteeringBehavior;
 import toniarts.openkeeper.game.navigation.steering.EntitySteeringFactory;
 import toniarts.openkeeper.game.navigation.steering.ISteerableEntity;
 import toniarts.openkeeper.game.navigation.steering.SteerableEntity;
 import toniarts.openkeeper.game.navigation.steering.SteeringUtils;
+import toniarts.openkeeper.utils.WorldUtils;
 
 /**
- * Handles moving of the entities
+ * Handles moving of the entities. If there is a movement listener, it gets
+ * the movement on every tick and the position components are only updated
+ * when the entity changes tiles, stops, or every now and then.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
@@ -60,13 +65,21 @@ public class MovementSystem implements IGameLogicUpdatable {
     private final Map<EntitySteeringBehavior, SteeringAcceleration<Vector2>> steeringOutputsBySteeringBehaviors = new HashMap<>();
     private final EntitySet movableEntities;
     private final EntityData entityData;
+    private final EntityMovementListener movementListener;
+    private final Map<EntityId, Float> timesSincePositionUpdate = new HashMap<>(); // The entities reported to the movement listener
 
     private final static boolean INDEPENDENT_FACING = false;
+    private final static float POSITION_UPDATE_INTERVAL = 0.25f;
 
     private static final Logger LOGGER = Logger.getLogger(MovementSystem.class.getName());
 
     public MovementSystem(EntityData entityData) {
+        this(entityData, null);
+    }
+
+    public MovementSystem(EntityData entityData, EntityMovementListener movementListener) {
         this.entityData = entityData;
+        this.movementListener = movementListener;
         movableEntities = entityData.getEntities(Position.class, Mobile.class, Navigation.class);
 
         processAddedEntities(movableEntities);
@@ -74,6 +87,10 @@ public class MovementSystem implements IGameLogicUpdatable {
 
     @Override
     public void processTick(float tpf, double gameTime) {
+        if (movementListener != null) {
+            movementListener.beginMovementUpdate(System.nanoTime());
+        }
+
         if (movableEntities.applyChanges()) {
             processDeletedEntities(movableEntities.getRemovedEntities());
 
@@ -99,6 +116,10 @@ public class MovementSystem implements IGameLogicUpdatable {
             // Apply steering acceleration
             applySteering(entityIdsBySteeringBehavior.get(steeringBehavior), steerableEntitiesBySteeringBehavior.get(steeringBehavior), steeringOutput, tpf);
         }
+
+        if (movementListener != null) {
+            movementListener.endMovementUpdate();
+        }
     }
 
     private void processAddedEntities(Set<Entity> addedEntities) {
@@ -132,6 +153,11 @@ public class MovementSystem implements IGameLogicUpdatable {
     private void processDeletedEntities(Set<Entity> removedEntities) {
         for (Entity entity : removedEntities) {
             deleteEntity(entity);
+
+            // The final position has been written already
+            if (timesSincePositionUpdate.remove(entity.getId()) != null) {
+                movementListener.onEntityStopped(entity.getId());
+            }
         }
     }
 
@@ -205,9 +231,21 @@ public class MovementSystem implements IGameLogicUpdatable {
 
         // Also update the real components
         Position oldPosition = entityData.getComponent(entityId, Position.class);
-        oldPosition.position.x = steerableEntity.getPosition().x;
-        oldPosition.position.z = steerableEntity.getPosition().y;
-        entityData.setComponent(entityId, new Position(-steerableEntity.getOrientation(), oldPosition.position));
+        Vector3f position = new Vector3f(steerableEntity.getPosition().x, oldPosition.position.y, steerableEntity.getPosition().y);
+        float rotation = -steerableEntity.getOrientation();
+        if (movementListener != null) {
+            movementListener.onEntityMoved(entityId, position, rotation);
+
+            // The listener takes care of the smooth movement, keep the component coarse
+            float timeSincePositionUpdate = timesSincePositionUpdate.getOrDefault(entityId, 0f) + tpf;
+            if (!steering.isZero() && timeSincePositionUpdate < POSITION_UPDATE_INTERVAL
+                    && WorldUtils.vectorToPoint(position).equals(WorldUtils.vectorToPoint(oldPosition.position))) {
+                timesSincePositionUpdate.put(entityId, timeSincePositionUpdate);
+                return;
+            }
+            timesSincePositionUpdate.put(entityId, 0f);
+        }
+        entityData.setComponent(entityId, new Position(rotation, position));
     }
 
     @Override
@@ -225,6 +263,7 @@ public class MovementSystem implements IGameLogicUpdatable {
         steeringOutputsBySteeringBehaviors.clear();
         entityIdsBySteeringBehavior.clear();
         targetPointsByEntityId.clear();
+        timesSincePositionUpdate.clear();
     }
 
 }
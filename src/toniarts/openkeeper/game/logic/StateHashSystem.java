@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.logic;
+
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntitySet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.component.Gold;
+import toniarts.openkeeper.game.component.Health;
+import toniarts.openkeeper.game.component.Owner;
+import toniarts.openkeeper.game.component.Position;
+import toniarts.openkeeper.game.controller.IMapController;
+import toniarts.openkeeper.game.listener.StateHashListener;
+import toniarts.openkeeper.game.map.MapData;
+import toniarts.openkeeper.game.map.MapTile;
+
+/**
+ * Hashes the game state periodically and sends the hash to the clients. A
+ * client hashes its own copy of the state when it receives the hash, a
+ * different hash means that the client has fallen out of sync with the host.
+ * <br>
+ * Only the map tiles are hashed. They are integers, every client gets all of
+ * them and the changes are sent in the order they happen, before the hash.
+ * The entities are left out, the clients see only the entities visible to
+ * them, the component changes are sent in batches and the positions are
+ * floats written by the steering thread.<br>
+ * In a lockstep game every peer runs the whole simulation, so there the
+ * position, health, gold and owner components of all the entities are hashed
+ * as well, in entity ID order. The floats are hashed bit by bit, a
+ * deterministic simulation produces exactly the same ones.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class StateHashSystem implements IGameLogicUpdatable {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final IMapController mapController;
+    private final int hashInterval;
+    private final StateHashListener stateHashListener;
+    private final EntitySet positions;
+    private final EntitySet healths;
+    private final EntitySet golds;
+    private final EntitySet owners;
+    private long tick = 0;
+
+    private static final Logger LOGGER = Logger.getLogger(StateHashSystem.class.getName());
+
+    /**
+     * Creates a new state hasher
+     *
+     * @param mapController the map
+     * @param hashInterval every how many ticks the state is hashed
+     * @param stateHashListener where to send the hashes
+     */
+    public StateHashSystem(IMapController mapController, int hashInterval, StateHashListener stateHashListener) {
+        this(mapController, null, hashInterval, stateHashListener);
+    }
+
+    /**
+     * Creates a new state hasher
+     *
+     * @param mapController the map
+     * @param entityData the entities to hash, {@code null} to hash only the
+     * map
+     * @param hashInterval every how many ticks the state is hashed
+     * @param stateHashListener where to send the hashes
+     */
+    public StateHashSystem(IMapController mapController, EntityData entityData, int hashInterval, StateHashListener stateHashListener) {
+        this.mapController = mapController;
+        this.hashInterval = hashInterval;
+        this.stateHashListener = stateHashListener;
+        if (entityData != null) {
+            positions = entityData.getEntities(Position.class);
+            healths = entityData.getEntities(Health.class);
+            golds = entityData.getEntities(Gold.class);
+            owners = entityData.getEntities(Owner.class);
+        } else {
+            positions = null;
+            healths = null;
+            golds = null;
+            owners = null;
+        }
+    }
+
+    @Override
+    public void processTick(float tpf, double gameTime) {
+        tick++;
+        if (tick % hashInterval != 0) {
+            return;
+        }
+
+        long hash = calculateHash(mapController.getMapData());
+        if (positions != null) {
+            hash = hashEntities(hash);
+        }
+        LOGGER.log(Level.FINEST, "State hash on tick {0}: {1}", new Object[]{tick, Long.toHexString(hash)});
+        stateHashListener.onStateHash(tick, hash);
+    }
+
+    /**
+     * Calculates the state hash, the host and the clients need to use the
+     * same method
+     *
+     * @param mapData the map data
+     * @return the state hash
+     */
+    public static long calculateHash(MapData mapData) {
+        long hash = hash(FNV_OFFSET_BASIS, mapData.getWidth());
+        hash = hash(hash, mapData.getHeight());
+        for (int y = 0; y < mapData.getHeight(); y++) {
+            for (int x = 0; x < mapData.getWidth(); x++) {
+                MapTile tile = mapData.getTile(x, y);
+                hash = hash(hash, tile.getTerrainId());
+                hash = hash(hash, tile.getOwnerId());
+                hash = hash(hash, tile.getHealth());
+                hash = hash(hash, tile.getGold());
+            }
+        }
+
+        return hash;
+    }
+
+    private long hashEntities(long hash) {
+        for (Entity entity : getSorted(positions)) {
+            Position position = entity.get(Position.class);
+            hash = hash(hash, entity.getId().getId());
+            hash = hash(hash, Float.floatToIntBits(position.rotation));
+            if (position.position != null) {
+                hash = hash(hash, Float.floatToIntBits(position.position.x));
+                hash = hash(hash, Float.floatToIntBits(position.position.y));
+                hash = hash(hash, Float.floatToIntBits(position.position.z));
+            }
+        }
+        for (Entity entity : getSorted(healths)) {
+            Health health = entity.get(Health.class);
+            hash = hash(hash, entity.getId().getId());
+            hash = hash(hash, health.health);
+            hash = hash(hash, health.maxHealth);
+            hash = hash(hash, health.unconscious ? 1 : 0);
+        }
+        for (Entity entity : getSorted(golds)) {
+            Gold gold = entity.get(Gold.class);
+            hash = hash(hash, entity.getId().getId());
+            hash = hash(hash, gold.gold);
+            hash = hash(hash, gold.maxGold);
+        }
+        for (Entity entity : getSorted(owners)) {
+            hash = hash(hash, entity.getId().getId());
+            hash = hash(hash, entity.get(Owner.class).ownerId);
+        }
+
+        return hash;
+    }
+
+    private static List<Entity> getSorted(EntitySet entities) {
+        entities.applyChanges();
+        List<Entity> sorted = new ArrayList<>(entities);
+        sorted.sort(Comparator.comparingLong((entity) -> entity.getId().getId()));
+
+        return sorted;
+    }
+
+    private static long hash(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    @Override
+    public void start() {
+
+    }
+
+    @Override
+    public void stop() {
+        tick = 0;
+        if (positions != null) {
+            positions.release();
+            healths.release();
+            golds.release();
+            owners.release();
+        }
+    }
+
+}
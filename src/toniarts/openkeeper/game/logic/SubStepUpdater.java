@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.logic;
+
+/**
+ * Runs the updatables several times per tick, with an equal share of the tick
+ * time each. Lets the systems that normally have their own, faster loop run
+ * as a part of the game logic tick, in a fixed order, when the simulation
+ * needs to be deterministic.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class SubStepUpdater implements IGameLogicUpdatable {
+
+    private final int subSteps;
+    private final IGameLogicUpdatable[] updatables;
+    private double gameTime = 0;
+
+    public SubStepUpdater(int subSteps, IGameLogicUpdatable... updatables) {
+        this.subSteps = Math.max(1, subSteps);
+        this.updatables = updatables;
+    }
+
+    @Override
+    public void start() {
+        for (IGameLogicUpdatable updatable : updatables) {
+            updatable.start();
+        }
+    }
+
+    @Override
+    public void processTick(float tpf, double gameTime) {
+        float subStepTpf = tpf / subSteps;
+        for (int i = 0; i < subSteps; i++) {
+            for (IGameLogicUpdatable updatable : updatables) {
+                updatable.processTick(subStepTpf, this.gameTime);
+            }
+            this.gameTime += subStepTpf;
+        }
+    }
+
+    @Override
+    public void stop() {
+        for (IGameLogicUpdatable updatable : updatables) {
+            updatable.stop();
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.logic;
+
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntitySet;
+import java.awt.Point;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import toniarts.openkeeper.game.component.Owner;
+import toniarts.openkeeper.game.component.Position;
+import toniarts.openkeeper.game.component.Senses;
+import toniarts.openkeeper.game.component.Visibility;
+import toniarts.openkeeper.game.controller.IMapController;
+import toniarts.openkeeper.game.listener.MapListener;
+import toniarts.openkeeper.common.RoomInstance;
+import toniarts.openkeeper.game.map.ExploredMap;
+import toniarts.openkeeper.game.map.MapData;
+import toniarts.openkeeper.game.map.MapTile;
+import toniarts.openkeeper.utils.WorldUtils;
+
+/**
+ * Decides which players see which entities on the map. The player always sees
+ * its own entities, and the rest only on the tiles it has explored. Besides
+ * the territory, the player's rooms and the creatures with senses explore the
+ * map around them, so the heroes, neutrals and rivals near the player's
+ * creatures are seen wherever the creatures go. The clients only ask for the
+ * visible entities, so the rest are not replicated to them at all. Entities
+ * entering and leaving the player's sight are added to and removed from the
+ * client's entity sets.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class VisibilitySystem implements IGameLogicUpdatable, MapListener {
+
+    /**
+     * How far the rooms see around them, in tiles
+     */
+    private static final int ROOM_SIGHT_RADIUS = 3;
+
+    private final EntityData entityData;
+    private final IMapController mapController;
+    private final EntitySet positionEntities;
+    private final EntitySet ownedEntities;
+    private final EntitySet seeingEntities;
+    private final Map<Short, ExploredMap> exploredMaps;
+    private final Queue<Point> changedTiles = new ConcurrentLinkedQueue<>();
+
+    public VisibilitySystem(EntityData entityData, IMapController mapController, Collection<Short> playerIds) {
+        this.entityData = entityData;
+        this.mapController = mapController;
+
+        // Explore the starting territories
+        MapData mapData = mapController.getMapData();
+        exploredMaps = new HashMap<>(playerIds.size());
+        for (short playerId : playerIds) {
+            ExploredMap exploredMap = new ExploredMap(mapData.getWidth(), mapData.getHeight(), playerId);
+            for (int y = 0; y < mapData.getHeight(); y++) {
+                for (int x = 0; x < mapData.getWidth(); x++) {
+                    explore(exploredMap, mapData, new Point(x, y));
+                }
+            }
+            exploredMaps.put(playerId, exploredMap);
+        }
+        mapController.addListener(this);
+
+        positionEntities = entityData.getEntities(Position.class);
+        ownedEntities = entityData.getEntities(Position.class, Owner.class);
+        seeingEntities = entityData.getEntities(Position.class, Owner.class, Senses.class);
+        exploreSight(seeingEntities);
+        processEntities(positionEntities);
+    }
+
+    @Override
+    public void processTick(float tpf, double gameTime) {
+
+        // Explore
+        boolean explored = false;
+        Point p;
+        while ((p = changedTiles.poll()) != null) {
+            for (ExploredMap exploredMap : exploredMaps.values()) {
+                int version = exploredMap.getVersion();
+                explore(exploredMap, mapController.getMapData(), p);
+                explored |= (version != exploredMap.getVersion());
+            }
+        }
+
+        // What the creatures see as they move
+        if (seeingEntities.applyChanges()) {
+            explored |= exploreSight(seeingEntities.getAddedEntities());
+            explored |= exploreSight(seeingEntities.getChangedEntities());
+        }
+
+        // Only look at the moved and converted ones, unless new tiles were explored
+        if (positionEntities.applyChanges() && !explored) {
+            processEntities(positionEntities.getAddedEntities());
+            processEntities(positionEntities.getChangedEntities());
+        }
+        if (ownedEntities.applyChanges() && !explored) {
+            processEntities(ownedEntities.getChangedEntities());
+        }
+        if (explored) {
+            processEntities(positionEntities);
+        }
+    }
+
+    private void explore(ExploredMap exploredMap, MapData mapData, Point p) {
+        exploredMap.update(mapData, p);
+
+        // The rooms see further than the plain territory
+        RoomInstance roomInstance = mapController.getRoomInstanceByCoordinates(p);
+        if (roomInstance != null && roomInstance.getOwnerId() == exploredMap.getPlayerId()) {
+            exploredMap.explore(p, ROOM_SIGHT_RADIUS);
+        }
+    }
+
+    /**
+     * Explore the surroundings of the entities, as far as they can see
+     *
+     * @param entities the entities with senses
+     * @return true if new tiles were explored
+     */
+    private boolean exploreSight(Set<Entity> entities) {
+        boolean explored = false;
+        for (Entity entity : entities) {
+            ExploredMap exploredMap = exploredMaps.get(entity.get(Owner.class).ownerId);
+            Position position = entity.get(Position.class);
+            if (exploredMap == null || position.position == null) {
+                continue;
+            }
+
+            int version = exploredMap.getVersion();
+            exploredMap.explore(WorldUtils.vectorToPoint(position.position), (int) entity.get(Senses.class).distanceCanSee);
+            explored |= (version != exploredMap.getVersion());
+        }
+
+        return explored;
+    }
+
+    private void processEntities(Set<Entity> entities) {
+        for (Entity entity : entities) {
+            int players = getVisibility(entity);
+            Visibility visibility = entityData.getComponent(entity.getId(), Visibility.class);
+            if (visibility == null || visibility.players != players) {
+                entityData.setComponent(entity.getId(), new Visibility(players));
+            }
+        }
+    }
+
+    private int getVisibility(Entity entity) {
+        Owner owner = entityData.getComponent(entity.getId(), Owner.class);
+        Point p = WorldUtils.vectorToPoint(entity.get(Position.class).position);
+        int players = 0;
+        for (ExploredMap exploredMap : exploredMaps.values()) {
+            if ((owner != null && owner.ownerId == exploredMap.getPlayerId()) || exploredMap.isExplored(p)) {
+                players |= 1 << exploredMap.getPlayerId();
+            }
+        }
+
+        return players;
+    }
+
+    @Override
+    public void onTilesChange(List<MapTile> updatedTiles) {
+        for (MapTile tile : updatedTiles) {
+            changedTiles.add(tile.getLocation());
+        }
+    }
+
+    @Override
+    public void onTileFlash(List<Point> points, boolean enabled, short keeperId) {
+
+    }
+
+    @Override
+    public void start() {
+
+    }
+
+    @Override
+    public void stop() {
+        mapController.removeListener(this);
+        positionEntities.release();
+        ownedEntities.release();
+        seeingEntities.release();
+        changedTiles.clear();
+    }
+
+}
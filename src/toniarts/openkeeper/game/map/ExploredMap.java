@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.map;
+
+import java.awt.Point;
+import java.util.BitSet;
+
+/**
+ * Keeps track of the map tiles explored by a player, one bit per tile. The
+ * player's own territory and its immediate surroundings are explored, and
+ * once explored, the tile stays explored. The server additionally explores
+ * what the player's rooms and creatures see. The view uses this to hide the
+ * rooms of the other players the player hasn't yet found, and the server to
+ * decide which entities the player gets to see at all.<br>
+ * Updated incrementally from the tile changes, only the area around a
+ * changed tile is looked at.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class ExploredMap {
+
+    private static final int EXPLORE_RADIUS = 1;
+
+    private final int width;
+    private final int height;
+    private final short playerId;
+    private final BitSet explored;
+    private int version = 0;
+
+    public ExploredMap(int width, int height, short playerId) {
+        this.width = width;
+        this.height = height;
+        this.playerId = playerId;
+        explored = new BitSet(width * height);
+    }
+
+    /**
+     * Update the explored state from a changed tile
+     *
+     * @param mapData the map data
+     * @param p the changed tile coordinates
+     */
+    public void update(MapData mapData, Point p) {
+        MapTile tile = mapData.getTile(p);
+        if (tile == null || tile.getOwnerId() != playerId) {
+            return;
+        }
+
+        explore(p, EXPLORE_RADIUS);
+    }
+
+    /**
+     * Explore the tiles around the given point
+     *
+     * @param p the center tile coordinates
+     * @param radius the radius, in tiles. The explored area is a square
+     */
+    public void explore(Point p, int radius) {
+        boolean changed = false;
+        for (int y = Math.max(0, p.y - radius); y <= Math.min(height - 1, p.y + radius); y++) {
+            for (int x = Math.max(0, p.x - radius); x <= Math.min(width - 1, p.x + radius); x++) {
+                int index = y * width + x;
+                if (!explored.get(index)) {
+                    explored.set(index);
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            version++;
+        }
+    }
+
+    /**
+     * Is the tile explored by the player
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return true if explored
+     */
+    public boolean isExplored(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return false;
+        }
+        return explored.get(y * width + x);
+    }
+
+    public boolean isExplored(Point p) {
+        return isExplored(p.x, p.y);
+    }
+
+    /**
+     * Get the version of the explored state, changes every time new tiles are
+     * explored. Can be used to see whether visibility needs to be
+     * re-evaluated
+     *
+     * @return the version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public short getPlayerId() {
+        return playerId;
+    }
+
+}
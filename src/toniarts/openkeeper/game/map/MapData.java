@@ -42,6 +42,34 @@ public class MapData implements Savable {
         // For serialization
     }
 
+    /**
+     * Creates an empty map, the tiles need to be set
+     *
+     * @param width the map width
+     * @param height the map height
+     * @see #setTiles(java.util.List)
+     */
+    public MapData(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.tiles = new MapTile[width][height];
+    }
+
+    /**
+     * Creates a copy of the map. The copy has a tile grid of its own, but the
+     * tiles themselves are shared
+     *
+     * @param mapData the map to copy
+     */
+    public MapData(MapData mapData) {
+        this.width = mapData.width;
+        this.height = mapData.height;
+        this.tiles = new MapTile[width][];
+        for (int x = 0; x < width; x++) {
+            tiles[x] = mapData.tiles[x].clone();
+        }
+    }
+
     public MapData(KwdFile kwdFile) {
         width = kwdFile.getMap().getWidth();
         height = kwdFile.getMap().getHeight();
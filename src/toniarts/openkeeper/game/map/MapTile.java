@@ -21,7 +21,6 @@ import com.jme3.export.JmeExporter;
 import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
 import com.jme3.export.Savable;
-import com.jme3.math.FastMath;
 import java.awt.Point;
 import java.io.IOException;
 import java.util.HashMap;
@@ -30,6 +29,7 @@ import java.util.stream.IntStream;
 import toniarts.openkeeper.tools.convert.map.Terrain;
 import toniarts.openkeeper.tools.convert.map.Tile;
 import toniarts.openkeeper.tools.convert.map.Tile.BridgeTerrainType;
+import toniarts.openkeeper.utils.Utils;
 
 /**
  * A presentation of a single map tile
@@ -78,6 +78,27 @@ public class MapTile implements Savable {
         setAttributesFromTerrain(this, terrain);
     }
 
+    /**
+     * Creates a copy of a tile
+     *
+     * @param tile the tile to copy
+     */
+    public MapTile(MapTile tile) {
+        this.selection = (tile.selection != null ? new HashMap<>(tile.selection) : null);
+        this.flashing = (tile.flashing != null ? new HashMap<>(tile.flashing) : null);
+        this.randomTextureIndex = tile.randomTextureIndex;
+        this.health = tile.health;
+        this.maxHealth = tile.maxHealth;
+        this.gold = tile.gold;
+        this.manaGain = tile.manaGain;
+        this.destroyed = tile.destroyed;
+        this.ownerId = tile.ownerId;
+        this.terrainId = tile.terrainId;
+        this.bridgeTerrainType = tile.bridgeTerrainType;
+        this.p = new Point(tile.p);
+        this.index = tile.index;
+    }
+
     public static void setAttributesFromTerrain(MapTile tile, Terrain terrain) {
         tile.health = terrain.getStartingHealth();
         tile.maxHealth = terrain.getMaxHealth();
@@ -87,7 +108,7 @@ public class MapTile implements Savable {
         // Randomize the texture index, the terrain can change for sure but the changed types have no random textures
         // But for the principle, let it be here
         if (terrain.getFlags().contains(Terrain.TerrainFlag.RANDOM_TEXTURE)) {
-            tile.randomTextureIndex = FastMath.nextRandomInt(0, terrain.getTextureFrames() - 1);
+            tile.randomTextureIndex = Utils.getGameRandom().nextInt(Math.max(1, terrain.getTextureFrames()));
         }
     }
 
@@ -254,6 +275,18 @@ public class MapTile implements Savable {
         return manaGain;
     }
 
+    public void setManaGain(int manaGain) {
+        this.manaGain = manaGain;
+    }
+
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+
+    public void setDestroyed(boolean destroyed) {
+        this.destroyed = destroyed;
+    }
+
     /**
      * Apply damage to the tile
      *
@@ -84,7 +84,7 @@ public class NavigationService implements INavigationService {
 
         // Take a random point
         if (!tiles.isEmpty()) {
-            return Utils.getRandomItem(new ArrayList<>(tiles));
+            return Utils.getRandomItem(new ArrayList<>(tiles), Utils.getGameRandom());
         }
         return null;
     }
@@ -45,6 +45,12 @@ public class NetworkConstants {
      */
     public final static byte CHAT_CHANNEL = 1;
 
+    /**
+     * The UDP port the servers listen to for the LAN discovery requests. All
+     * servers share it, the game port is told in the reply.
+     */
+    public final static int DISCOVERY_PORT = 7574;
+
     public static final int GRID_CELL_SIZE = 32;
 
     // To allow players to see farther in space, we'll use a larger grid
@@ -36,6 +36,8 @@ import java.awt.Point;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import toniarts.openkeeper.game.component.AttackTarget;
 import toniarts.openkeeper.game.component.ChickenAi;
 import toniarts.openkeeper.game.component.ChickenGenerator;
@@ -84,17 +86,35 @@ import toniarts.openkeeper.game.component.TrapComponent;
 import toniarts.openkeeper.game.component.TrapViewState;
 import toniarts.openkeeper.game.component.Trigger;
 import toniarts.openkeeper.game.component.ViewType;
+import toniarts.openkeeper.game.component.Visibility;
+import toniarts.openkeeper.game.component.VisibilityFilter;
 import toniarts.openkeeper.game.controller.room.AbstractRoomController;
 import toniarts.openkeeper.game.data.Keeper;
 import toniarts.openkeeper.game.data.ObjectiveType;
 import toniarts.openkeeper.game.map.MapData;
 import toniarts.openkeeper.game.map.MapTile;
 import toniarts.openkeeper.game.network.chat.ChatHostedService;
+import toniarts.openkeeper.game.network.discovery.LanDiscoveryResponder;
 import toniarts.openkeeper.game.network.game.GameHostedService;
 import toniarts.openkeeper.game.network.lobby.LobbyHostedService;
 import toniarts.openkeeper.game.network.message.GameData;
 import toniarts.openkeeper.game.network.message.GameLoadProgressData;
+import toniarts.openkeeper.game.network.message.LockstepTurn;
+import toniarts.openkeeper.game.network.message.PlayerCommands;
 import toniarts.openkeeper.game.network.message.StreamedMessage;
+import toniarts.openkeeper.game.network.message.StreamedMessageAck;
+import toniarts.openkeeper.game.network.serializer.CreatureAiSerializer;
+import toniarts.openkeeper.game.network.serializer.CreatureViewStateSerializer;
+import toniarts.openkeeper.game.network.serializer.DoorViewStateSerializer;
+import toniarts.openkeeper.game.network.serializer.GoldSerializer;
+import toniarts.openkeeper.game.network.serializer.HealthSerializer;
+import toniarts.openkeeper.game.network.serializer.LockstepTurnSerializer;
+import toniarts.openkeeper.game.network.serializer.MapDataSerializer;
+import toniarts.openkeeper.game.network.serializer.MobileSerializer;
+import toniarts.openkeeper.game.network.serializer.ObjectViewStateSerializer;
+import toniarts.openkeeper.game.network.serializer.OwnerSerializer;
+import toniarts.openkeeper.game.network.serializer.PlayerCommandsSerializer;
+import toniarts.openkeeper.game.network.serializer.PositionSerializer;
 import toniarts.openkeeper.game.network.session.AccountHostedService;
 import toniarts.openkeeper.game.network.streaming.StreamingHostedService;
 import toniarts.openkeeper.game.state.lobby.ClientInfo;
@@ -114,8 +134,11 @@ public class NetworkServer {
     private String name;
 
     private Server server = null;
+    private LanDiscoveryResponder discoveryResponder;
     private long start;
 
+    private static final Logger LOGGER = Logger.getLogger(NetworkServer.class.getName());
+
     public NetworkServer(String name, int port) throws UnknownHostException {
         this.host = InetAddress.getLocalHost().getCanonicalHostName();
         this.name = name;
@@ -128,7 +151,10 @@ public class NetworkServer {
 
             // Messages
             Serializer.registerClass(StreamedMessage.class, new FieldSerializer());
+            Serializer.registerClass(StreamedMessageAck.class, new FieldSerializer());
             Serializer.registerClass(GameLoadProgressData.class, new FieldSerializer());
+            Serializer.registerClass(PlayerCommands.class, new PlayerCommandsSerializer());
+            Serializer.registerClass(LockstepTurn.class, new LockstepTurnSerializer());
 
             // Lobby
             Serializer.registerClass(ClientInfo.class, new FieldSerializer());
@@ -141,7 +167,7 @@ public class NetworkServer {
             Serializer.registerClass(Tile.BridgeTerrainType.class, new EnumSerializer());
             Serializer.registerClass(Thing.HeroParty.Objective.class, new EnumSerializer());
             Serializer.registerClass(ObjectiveType.class, new EnumSerializer());
-            Serializer.registerClass(MapData.class, new FieldSerializer()); // FIXME: Savable serializer would be better...
+            Serializer.registerClass(MapData.class, new MapDataSerializer());
             Serializer.registerClass(MapTile.class, new FieldSerializer());
             Serializer.registerClass(GameData.class, new FieldSerializer());
             //Serializer.registerClass(CreatureState.class, new EnumSerializer());
@@ -149,11 +175,11 @@ public class NetworkServer {
             Serializer.registerClass(ViewType.class, new EnumSerializer());
             Serializer.registerClass(TaskType.class, new EnumSerializer());
 
-            // Our entity components
+            // Our entity components, the frequently changing ones have compact serializers
             Serializer.registerClass(AttackTarget.class, new FieldSerializer());
             Serializer.registerClass(ChickenAi.class, new FieldSerializer());
             Serializer.registerClass(ChickenGenerator.class, new FieldSerializer());
-            Serializer.registerClass(CreatureAi.class, new FieldSerializer());
+            Serializer.registerClass(CreatureAi.class, new CreatureAiSerializer());
             Serializer.registerClass(CreatureComponent.class, new FieldSerializer());
             Serializer.registerClass(CreatureEfficiency.class, new FieldSerializer());
             Serializer.registerClass(CreatureExperience.class, new FieldSerializer());
@@ -165,29 +191,29 @@ public class NetworkServer {
             Serializer.registerClass(CreatureRecuperating.class, new FieldSerializer());
             Serializer.registerClass(CreatureSleep.class, new FieldSerializer());
             Serializer.registerClass(CreatureTortured.class, new FieldSerializer());
-            Serializer.registerClass(CreatureViewState.class, new FieldSerializer());
+            Serializer.registerClass(CreatureViewState.class, new CreatureViewStateSerializer());
             Serializer.registerClass(Death.class, new FieldSerializer());
             Serializer.registerClass(Decay.class, new FieldSerializer());
             Serializer.registerClass(DoorComponent.class, new FieldSerializer());
-            Serializer.registerClass(DoorViewState.class, new FieldSerializer());
+            Serializer.registerClass(DoorViewState.class, new DoorViewStateSerializer());
             Serializer.registerClass(Fearless.class, new FieldSerializer());
             Serializer.registerClass(FollowTarget.class, new FieldSerializer());
             Serializer.registerClass(Food.class, new FieldSerializer());
-            Serializer.registerClass(Gold.class, new FieldSerializer());
+            Serializer.registerClass(Gold.class, new GoldSerializer());
             Serializer.registerClass(HauledBy.class, new FieldSerializer());
-            Serializer.registerClass(Health.class, new FieldSerializer());
+            Serializer.registerClass(Health.class, new HealthSerializer());
             Serializer.registerClass(InHand.class, new FieldSerializer());
             Serializer.registerClass(Interaction.class, new FieldSerializer());
-            Serializer.registerClass(Mobile.class, new FieldSerializer());
+            Serializer.registerClass(Mobile.class, new MobileSerializer());
             Serializer.registerClass(Navigation.class, new FieldSerializer());
             Serializer.registerClass(ObjectComponent.class, new FieldSerializer());
-            Serializer.registerClass(ObjectViewState.class, new FieldSerializer());
+            Serializer.registerClass(ObjectViewState.class, new ObjectViewStateSerializer());
             Serializer.registerClass(Objective.class, new FieldSerializer());
-            Serializer.registerClass(Owner.class, new FieldSerializer());
+            Serializer.registerClass(Owner.class, new OwnerSerializer());
             Serializer.registerClass(Party.class, new FieldSerializer());
             Serializer.registerClass(PlayerObjective.class, new FieldSerializer());
             Serializer.registerClass(PortalGem.class, new FieldSerializer());
-            Serializer.registerClass(Position.class, new FieldSerializer());
+            Serializer.registerClass(Position.class, new PositionSerializer());
             Serializer.registerClass(RoomStorage.class, new FieldSerializer());
             Serializer.registerClass(Senses.class, new FieldSerializer());
             Serializer.registerClass(Slapped.class, new FieldSerializer());
@@ -197,6 +223,10 @@ public class NetworkServer {
             Serializer.registerClass(TrapComponent.class, new FieldSerializer());
             Serializer.registerClass(TrapViewState.class, new FieldSerializer());
             Serializer.registerClass(Trigger.class, new FieldSerializer());
+            Serializer.registerClass(Visibility.class, new FieldSerializer());
+
+            // Entity filters, the clients' filters are evaluated on the server
+            Serializer.registerClass(VisibilityFilter.class, new FieldSerializer());
         }
     }
 
@@ -243,10 +273,23 @@ public class NetworkServer {
 
         server.start();
 
+        // Let the clients on the LAN find us, we can still be joined with the address
+        discoveryResponder = new LanDiscoveryResponder(this::getName, port);
+        try {
+            discoveryResponder.start();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to start the LAN discovery responder!", ex);
+            discoveryResponder = null;
+        }
+
         start = System.nanoTime();
     }
 
     public void close() {
+        if (discoveryResponder != null) {
+            discoveryResponder.stop();
+            discoveryResponder = null;
+        }
         if (server != null && server.isRunning()) {
 
             // Close the client connections gracefully
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.discovery;
+
+/**
+ * A game server found on the local network
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class DiscoveredServer {
+
+    private final String name;
+    private final String host;
+    private final int port;
+    private final long lastSeen;
+
+    public DiscoveredServer(String name, String host, int port, long lastSeen) {
+        this.name = name;
+        this.host = host;
+        this.port = port;
+        this.lastSeen = lastSeen;
+    }
+
+    /**
+     * The name of the game
+     *
+     * @return the name, the host if the server didn't tell its name
+     */
+    public String getName() {
+        return name != null ? name : host;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * When the server last answered
+     *
+     * @return the time, in milliseconds
+     */
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    @Override
+    public String toString() {
+        return "DiscoveredServer{" + "name=" + name + ", host=" + host + ", port=" + port + '}';
+    }
+
+}
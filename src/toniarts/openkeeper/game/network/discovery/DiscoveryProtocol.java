@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.discovery;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import toniarts.openkeeper.game.network.NetworkConstants;
+
+/**
+ * The LAN discovery packets. The client broadcasts a request and every server
+ * replies with its game port and name. Packets of other games and versions are
+ * ignored.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class DiscoveryProtocol {
+
+    public static final int MAX_PACKET_SIZE = 512;
+
+    private static final int MAGIC = 0x4F4B4453; // OKDS
+    private static final byte REQUEST = 0;
+    private static final byte REPLY = 1;
+    private static final int MAX_NAME_LENGTH = 128;
+
+    private DiscoveryProtocol() {
+        // Nope
+    }
+
+    public static ByteBuffer writeRequest() {
+        ByteBuffer buffer = ByteBuffer.allocate(9);
+        buffer.putInt(MAGIC);
+        buffer.put(REQUEST);
+        buffer.putInt(NetworkConstants.PROTOCOL_VERSION);
+        buffer.flip();
+
+        return buffer;
+    }
+
+    public static boolean isRequest(ByteBuffer buffer) {
+        try {
+            return buffer.getInt() == MAGIC && buffer.get() == REQUEST && buffer.getInt() == NetworkConstants.PROTOCOL_VERSION;
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+    }
+
+    public static ByteBuffer writeReply(String name, int gamePort) {
+        byte[] nameBytes = (name != null ? name : "").getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(MAX_NAME_LENGTH, nameBytes.length);
+        ByteBuffer buffer = ByteBuffer.allocate(15 + nameLength);
+        buffer.putInt(MAGIC);
+        buffer.put(REPLY);
+        buffer.putInt(NetworkConstants.PROTOCOL_VERSION);
+        buffer.putInt(gamePort);
+        buffer.putShort((short) nameLength);
+        buffer.put(nameBytes, 0, nameLength);
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Reads a server reply
+     *
+     * @param buffer the received packet
+     * @param host the sender
+     * @return the server, {@code null} if the packet is not a valid reply
+     */
+    public static DiscoveredServer readReply(ByteBuffer buffer, String host) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.get() != REPLY || buffer.getInt() != NetworkConstants.PROTOCOL_VERSION) {
+                return null;
+            }
+            int gamePort = buffer.getInt();
+            int nameLength = buffer.getShort();
+            if (nameLength < 0 || nameLength > MAX_NAME_LENGTH) {
+                return null;
+            }
+            byte[] nameBytes = new byte[nameLength];
+            buffer.get(nameBytes);
+
+            return new DiscoveredServer(new String(nameBytes, StandardCharsets.UTF_8), host, gamePort, System.currentTimeMillis());
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.discovery;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.network.NetworkConstants;
+
+/**
+ * Answers the LAN discovery requests of the clients. Runs on its own daemon
+ * thread, blocking on the discovery port. Several servers on the same machine
+ * share the port.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class LanDiscoveryResponder {
+
+    private final Supplier<String> name;
+    private final int gamePort;
+    private DatagramChannel channel;
+
+    private static final Logger LOGGER = Logger.getLogger(LanDiscoveryResponder.class.getName());
+
+    /**
+     * Creates a new responder
+     *
+     * @param name the name of the game, asked on every reply
+     * @param gamePort the port the game server listens to
+     */
+    public LanDiscoveryResponder(Supplier<String> name, int gamePort) {
+        this.name = name;
+        this.gamePort = gamePort;
+    }
+
+    public void start() throws IOException {
+        channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(NetworkConstants.DISCOVERY_PORT));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        Thread thread = new Thread(this::respond, "LanDiscoveryResponder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void respond() {
+        DatagramChannel responderChannel = channel;
+        ByteBuffer buffer = ByteBuffer.allocate(DiscoveryProtocol.MAX_PACKET_SIZE);
+        while (responderChannel.isOpen()) {
+            try {
+                buffer.clear();
+                SocketAddress sender = responderChannel.receive(buffer);
+                buffer.flip();
+                if (DiscoveryProtocol.isRequest(buffer)) {
+                    responderChannel.send(DiscoveryProtocol.writeReply(name.get(), gamePort), sender);
+                }
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to answer a discovery request!", e);
+            }
+        }
+    }
+
+    public void stop() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Failed to close the discovery responder!", ex);
+            }
+            channel = null;
+        }
+    }
+
+}
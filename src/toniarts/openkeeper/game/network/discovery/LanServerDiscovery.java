@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.discovery;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.network.NetworkConstants;
+
+/**
+ * Finds the game servers on the local network. A discovery request is
+ * broadcast on every network interface and the servers answer it. If no one
+ * answers, the hosts of the local subnets are probed for the game port
+ * instead, all at once with non-blocking connections.<br>
+ * The searches run in the background and can be cancelled. The servers found
+ * are cached for a while, so a new search reports the known servers right
+ * away.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class LanServerDiscovery {
+
+    private static final long SEARCH_TIME = 2000;
+    private static final long REQUEST_INTERVAL = 500;
+    private static final long PROBE_TIMEOUT = 1000;
+    private static final long CACHE_TIME = 30000;
+    private static final int MIN_PROBED_PREFIX_LENGTH = 24;
+
+    private final Map<InetSocketAddress, DiscoveredServer> cache = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool((Runnable r) -> {
+        Thread thread = new Thread(r, "LanServerDiscovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Logger LOGGER = Logger.getLogger(LanServerDiscovery.class.getName());
+
+    /**
+     * Searches for the servers in the background
+     *
+     * @param gamePort the game port to probe if no server answers the
+     * broadcast
+     * @param listener notified of every server found, once per search, on the
+     * search thread
+     * @return the search, cancel it to stop searching. Gives all the servers
+     * found
+     */
+    public Future<Collection<DiscoveredServer>> search(int gamePort, Consumer<DiscoveredServer> listener) {
+        return executor.submit(() -> {
+            Map<InetSocketAddress, DiscoveredServer> found = new LinkedHashMap<>();
+            Consumer<DiscoveredServer> onFound = (server) -> {
+                InetSocketAddress address = InetSocketAddress.createUnresolved(server.getHost(), server.getPort());
+                cache.put(address, server);
+                if (found.put(address, server) == null) {
+                    listener.accept(server);
+                }
+            };
+
+            for (DiscoveredServer server : getCachedServers()) {
+                onFound.accept(server);
+            }
+            try {
+                broadcast(onFound);
+                if (found.isEmpty() && !Thread.currentThread().isInterrupted()) {
+                    probe(gamePort, onFound);
+                }
+            } catch (IOException e) {
+                if (!Thread.currentThread().isInterrupted()) {
+                    LOGGER.log(Level.WARNING, "Failed to search for the servers!", e);
+                }
+            }
+
+            return new ArrayList<>(found.values());
+        });
+    }
+
+    /**
+     * Get the servers found recently
+     *
+     * @return the cached servers
+     */
+    public Collection<DiscoveredServer> getCachedServers() {
+        long oldest = System.currentTimeMillis() - CACHE_TIME;
+        cache.values().removeIf((server) -> server.getLastSeen() < oldest);
+
+        return Collections.unmodifiableCollection(new ArrayList<>(cache.values()));
+    }
+
+    private void broadcast(Consumer<DiscoveredServer> onFound) throws IOException {
+        Set<InetAddress> targets = new LinkedHashSet<>();
+        targets.add(InetAddress.getByName("255.255.255.255"));
+        for (InterfaceAddress address : getInterfaceAddresses()) {
+            if (address.getBroadcast() != null) {
+                targets.add(address.getBroadcast());
+            }
+        }
+
+        try (DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+                Selector selector = Selector.open()) {
+            channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+
+            ByteBuffer buffer = ByteBuffer.allocate(DiscoveryProtocol.MAX_PACKET_SIZE);
+            long now = System.currentTimeMillis();
+            long end = now + SEARCH_TIME;
+            long nextRequest = now;
+            while (now < end && !Thread.currentThread().isInterrupted()) {
+
+                // Repeat the request, UDP may get lost
+                if (now >= nextRequest) {
+                    for (InetAddress target : targets) {
+                        try {
+                            channel.send(DiscoveryProtocol.writeRequest(), new InetSocketAddress(target, NetworkConstants.DISCOVERY_PORT));
+                        } catch (IOException e) {
+                            LOGGER.log(Level.FINE, "Failed to broadcast to " + target + "!", e);
+                        }
+                    }
+                    nextRequest = now + REQUEST_INTERVAL;
+                }
+
+                if (selector.select(Math.max(1, Math.min(end, nextRequest) - now)) > 0) {
+                    selector.selectedKeys().clear();
+                    while (true) {
+                        buffer.clear();
+                        SocketAddress sender = channel.receive(buffer);
+                        if (sender == null) {
+                            break;
+                        }
+                        buffer.flip();
+                        DiscoveredServer server = DiscoveryProtocol.readReply(buffer, ((InetSocketAddress) sender).getAddress().getHostAddress());
+                        if (server != null) {
+                            onFound.accept(server);
+                        }
+                    }
+                }
+                now = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private void probe(int gamePort, Consumer<DiscoveredServer> onFound) throws IOException {
+        try (Selector selector = Selector.open()) {
+            try {
+                for (InetAddress host : getProbedHosts()) {
+                    SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    if (channel.connect(new InetSocketAddress(host, gamePort))) {
+                        onFound.accept(new DiscoveredServer(null, host.getHostAddress(), gamePort, System.currentTimeMillis()));
+                        channel.close();
+                    } else {
+                        channel.register(selector, SelectionKey.OP_CONNECT, host);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                long end = now + PROBE_TIMEOUT;
+                while (now < end && !selector.keys().isEmpty() && !Thread.currentThread().isInterrupted()) {
+                    selector.select(end - now);
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        SocketChannel channel = (SocketChannel) key.channel();
+                        try {
+                            if (channel.finishConnect()) {
+                                InetAddress host = (InetAddress) key.attachment();
+                                onFound.accept(new DiscoveredServer(null, host.getHostAddress(), gamePort, System.currentTimeMillis()));
+                            }
+                        } catch (IOException e) {
+
+                            // Nothing listening there
+                        } finally {
+                            key.cancel();
+                            channel.close();
+                        }
+                    }
+                    now = System.currentTimeMillis();
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the hosts of the local IPv4 subnets. Only the closest 254 hosts of
+     * each interface are probed, big networks would take forever
+     *
+     * @return the hosts to probe
+     */
+    private static Set<InetAddress> getProbedHosts() throws IOException {
+        Set<InetAddress> hosts = new LinkedHashSet<>();
+        for (InterfaceAddress interfaceAddress : getInterfaceAddresses()) {
+            byte[] address = interfaceAddress.getAddress().getAddress();
+            int prefixLength = Math.max(MIN_PROBED_PREFIX_LENGTH, interfaceAddress.getNetworkPrefixLength());
+            int ip = ((address[0] & 0xff) << 24) | ((address[1] & 0xff) << 16) | ((address[2] & 0xff) << 8) | (address[3] & 0xff);
+            int mask = (prefixLength == 32 ? -1 : ~(-1 >>> prefixLength));
+            int network = ip & mask;
+            int broadcast = network | ~mask;
+            for (int host = network + 1; host < broadcast; host++) {
+                if (host != ip) {
+                    hosts.add(toAddress(host));
+                }
+            }
+        }
+
+        return hosts;
+    }
+
+    private static InetAddress toAddress(int ip) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{(byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip});
+    }
+
+    private static Collection<InterfaceAddress> getInterfaceAddresses() throws IOException {
+        Collection<InterfaceAddress> addresses = new ArrayList<>();
+        for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                continue;
+            }
+            for (InterfaceAddress address : networkInterface.getInterfaceAddresses()) {
+                if (address.getAddress() instanceof Inet4Address) {
+                    addresses.add(address);
+                }
+            }
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Stops all the searches
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
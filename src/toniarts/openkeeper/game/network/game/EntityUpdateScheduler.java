@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.game;
+
+import com.jme3.network.HostedConnection;
+import com.jme3.network.serializing.Serializer;
+import com.simsilica.es.EntityChange;
+import com.simsilica.es.EntityComponentListener;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.ObservableEntityData;
+import com.simsilica.es.server.EntityDataHostedService;
+import com.simsilica.ethereal.ConnectionStats;
+import com.simsilica.ethereal.EtherealHost;
+import com.simsilica.ethereal.NetworkStateListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.component.Visibility;
+import toniarts.openkeeper.game.logic.IGameLogicUpdatable;
+import toniarts.openkeeper.game.state.lobby.ClientInfo;
+
+/**
+ * Sends the entity changes to the clients at the end of the game logic ticks,
+ * so a tick's changes always go out together. Only the latest state of the
+ * changed components is sent, so when ticks are skipped, the changes of an
+ * entity are merged into one update.<br>
+ * The ticks are skipped when the previous update is still being sent, or
+ * when the clients are lagging, based on the ping and the lost
+ * acknowledgements of the SimEthereal connections. The connection metrics are
+ * kept up to date on every send.<br>
+ * The sends are bound to the logic ticks: nothing is sent while the game is
+ * paused, and with slow or lossy clients the changes of 2 to
+ * {@value #MAX_TICK_INTERVAL} ticks are merged into one update, for all the
+ * clients. The per client byte rate and queue depth are estimated from the
+ * component changes the client sees, serialized with the registered
+ * serializers.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class EntityUpdateScheduler implements IGameLogicUpdatable {
+
+    private static final int MAX_TICK_INTERVAL = 4;
+    private static final long SLOW_PING = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final double LOSSY_ACK_MISS_PERCENT = 10;
+
+    private final Supplier<EntityDataHostedService> entityDataService;
+    private final Supplier<EtherealHost> etherealHost;
+    private final Supplier<Map<HostedConnection, ClientInfo>> players;
+    private final Map<HostedConnection, ConnectionMetrics> metrics = new ConcurrentHashMap<>();
+    private final Queue<EntityChange> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final EntityComponentListener changeListener = pendingChanges::add;
+    private final ByteBuffer sizeBuffer = ByteBuffer.allocate(65536);
+    private final AtomicBoolean sending = new AtomicBoolean(false);
+    private ObservableEntityData entityData;
+    private ExecutorService sender;
+    private long ticks = 0;
+    private volatile long tickTime = 0;
+    private volatile int tickInterval = 1;
+    private volatile long lastSendTime = 0;
+    private volatile long mergedTicks = 0;
+
+    private static final Logger LOGGER = Logger.getLogger(EntityUpdateScheduler.class.getName());
+
+    public EntityUpdateScheduler(Supplier<EntityDataHostedService> entityDataService, Supplier<EtherealHost> etherealHost,
+            Supplier<Map<HostedConnection, ClientInfo>> players) {
+        this.entityDataService = entityDataService;
+        this.etherealHost = etherealHost;
+        this.players = players;
+    }
+
+    @Override
+    public void start() {
+        sender = Executors.newSingleThreadExecutor((Runnable r) -> new Thread(r, "EntityDataUpdater"));
+
+        // Follow the changes for the traffic metrics
+        EntityDataHostedService service = entityDataService.get();
+        EntityData data = (service != null ? service.getEntityData() : null);
+        if (data instanceof ObservableEntityData) {
+            entityData = (ObservableEntityData) data;
+            entityData.addEntityComponentListener(changeListener);
+        }
+    }
+
+    @Override
+    public void processTick(float tpf, double gameTime) {
+        ticks++;
+        tickTime = (long) (tpf * 1000000000L);
+        if (ticks % tickInterval != 0) {
+            mergedTicks++;
+            return;
+        }
+
+        // If the last one is still going, this tick goes with the next one
+        if (!sending.compareAndSet(false, true)) {
+            mergedTicks++;
+            return;
+        }
+        sender.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                updateQueueMetrics();
+                entityDataService.get().sendUpdates();
+                lastSendTime = System.nanoTime() - start;
+
+                updateTickInterval();
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to send the entity updates!", e);
+            } finally {
+                sending.set(false);
+            }
+        });
+    }
+
+    /**
+     * Drains the changes made since the last update and adds them to the
+     * queues of the clients that see the changed entities
+     */
+    private void updateQueueMetrics() {
+        Map<HostedConnection, ClientInfo> connections = new HashMap<>(players.get());
+        for (HostedConnection connection : connections.keySet()) {
+            ConnectionMetrics connectionMetrics = metrics.computeIfAbsent(connection, (conn) -> new ConnectionMetrics());
+            connectionMetrics.queueDepth = 0;
+        }
+
+        EntityChange change;
+        while ((change = pendingChanges.poll()) != null) {
+            Visibility visibility = (entityData != null ? entityData.getComponent(change.getEntityId(), Visibility.class) : null);
+            int size = getSize(change);
+            for (Map.Entry<HostedConnection, ClientInfo> entry : connections.entrySet()) {
+                if (visibility == null || visibility.isVisibleTo(entry.getValue().getKeeper().getId())) {
+                    ConnectionMetrics connectionMetrics = metrics.get(entry.getKey());
+                    connectionMetrics.queueDepth++;
+                    connectionMetrics.addBytes(size);
+                }
+            }
+        }
+
+        long now = System.nanoTime();
+        for (HostedConnection connection : connections.keySet()) {
+            metrics.get(connection).update(now);
+        }
+    }
+
+    /**
+     * Estimates the size of the change on the wire, the entity ID and the
+     * component with its class ID
+     */
+    private int getSize(EntityChange change) {
+        if (change.getComponent() == null) {
+            return Long.BYTES + Short.BYTES;
+        }
+        sizeBuffer.clear();
+        try {
+            Serializer.writeClassAndObject(sizeBuffer, change.getComponent());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINEST, "Failed to measure " + change.getComponent(), e);
+        }
+
+        return Long.BYTES + sizeBuffer.position();
+    }
+
+    private void updateTickInterval() {
+        EtherealHost host = etherealHost.get();
+        Map<HostedConnection, ClientInfo> connections = players.get();
+
+        // Can't keep up with the ticks
+        int interval = (lastSendTime > tickTime ? 2 : 1);
+        for (HostedConnection connection : connections.keySet()) {
+            ConnectionMetrics connectionMetrics = metrics.computeIfAbsent(connection, (conn) -> new ConnectionMetrics());
+            connectionMetrics.updates++;
+            NetworkStateListener stateListener = (host != null ? host.getStateListener(connection) : null);
+            if (stateListener != null) {
+                ConnectionStats stats = stateListener.getConnectionStats();
+                connectionMetrics.ping = stats.getAveragePingTime();
+                connectionMetrics.ackMissPercent = stats.getAckMissPercent();
+            }
+
+            // The worst connection decides, all get the same updates
+            int connectionInterval = 1;
+            if (connectionMetrics.ping > SLOW_PING) {
+                connectionInterval++;
+            }
+            if (connectionMetrics.ackMissPercent > LOSSY_ACK_MISS_PERCENT) {
+                connectionInterval++;
+            }
+            interval = Math.max(interval, connectionInterval);
+        }
+        metrics.keySet().retainAll(connections.keySet());
+
+        interval = Math.min(MAX_TICK_INTERVAL, interval);
+        if (interval != tickInterval) {
+            LOGGER.log(Level.FINE, "Sending entity updates every {0} ticks", interval);
+            tickInterval = interval;
+        }
+    }
+
+    /**
+     * Get the current metrics of the connections
+     *
+     * @return the metrics per connection
+     */
+    public Map<HostedConnection, ConnectionMetrics> getMetrics() {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * How many logic ticks there are between the updates
+     *
+     * @return the tick interval
+     */
+    public int getTickInterval() {
+        return tickInterval;
+    }
+
+    /**
+     * Get the number of ticks whose changes were merged into the following
+     * update
+     *
+     * @return the merged ticks
+     */
+    public long getMergedTicks() {
+        return mergedTicks;
+    }
+
+    /**
+     * How long sending the last update to all clients took
+     *
+     * @return the send time, in nanoseconds
+     */
+    public long getLastSendTime() {
+        return lastSendTime;
+    }
+
+    @Override
+    public void stop() {
+        if (sender != null) {
+            sender.shutdownNow();
+            try {
+                sender.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.SEVERE, "Failed to wait for the entity updater to shutdown!", ex);
+            }
+            sender = null;
+        }
+        if (entityData != null) {
+            entityData.removeEntityComponentListener(changeListener);
+            entityData = null;
+        }
+        pendingChanges.clear();
+        for (Map.Entry<HostedConnection, ConnectionMetrics> entry : metrics.entrySet()) {
+            LOGGER.log(Level.INFO, "Entity updates of {0}: {1}", new Object[]{entry.getKey(), entry.getValue()});
+        }
+        LOGGER.log(Level.INFO, "Entity updates sent every {0} ticks, {1} ticks merged", new Object[]{tickInterval, mergedTicks});
+        metrics.clear();
+    }
+
+    /**
+     * Metrics of a single connection
+     */
+    public static class ConnectionMetrics {
+
+        private volatile long updates;
+        private volatile long ping;
+        private volatile double ackMissPercent;
+        private volatile int queueDepth;
+        private volatile int maxQueueDepth;
+        private volatile long bytes;
+        private volatile long bytesPerSecond;
+        private long windowBytes;
+        private long windowStart = System.nanoTime();
+
+        private void addBytes(int size) {
+            bytes += size;
+            windowBytes += size;
+        }
+
+        private void update(long now) {
+            maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+            if (now - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+                bytesPerSecond = windowBytes * TimeUnit.SECONDS.toNanos(1) / (now - windowStart);
+                windowBytes = 0;
+                windowStart = now;
+            }
+        }
+
+        /**
+         * Get the number of entity updates sent
+         *
+         * @return the update count
+         */
+        public long getUpdates() {
+            return updates;
+        }
+
+        /**
+         * Get the average round trip time
+         *
+         * @return the ping, in nanoseconds
+         */
+        public long getPing() {
+            return ping;
+        }
+
+        public double getAckMissPercent() {
+            return ackMissPercent;
+        }
+
+        /**
+         * Get the number of component changes in the last update
+         *
+         * @return the queue depth
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        /**
+         * Get the estimated total size of the entity updates sent
+         *
+         * @return the size, in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Get the estimated entity update traffic over the last second or so
+         *
+         * @return the traffic, in bytes per second
+         */
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return "ConnectionMetrics{" + "updates=" + updates + ", ping=" + TimeUnit.NANOSECONDS.toMillis(ping) + " ms, ackMissPercent=" + ackMissPercent
+                    + ", queueDepth=" + queueDepth + ", maxQueueDepth=" + maxQueueDepth + ", bytes=" + bytes + ", bytesPerSecond=" + bytesPerSecond + '}';
+        }
+    }
+
+}
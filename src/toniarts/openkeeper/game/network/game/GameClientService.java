@@ -29,6 +29,7 @@ import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.client.EntityDataClientService;
 import java.awt.Point;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.logging.Level;
@@ -40,6 +41,8 @@ import toniarts.openkeeper.game.map.MapTile;
 import toniarts.openkeeper.game.network.NetworkConstants;
 import toniarts.openkeeper.game.network.message.GameData;
 import toniarts.openkeeper.game.network.message.GameLoadProgressData;
+import toniarts.openkeeper.game.network.message.PlayerCommand;
+import toniarts.openkeeper.game.network.message.PlayerCommands;
 import toniarts.openkeeper.game.network.streaming.StreamedMessageListener;
 import toniarts.openkeeper.game.network.streaming.StreamingClientService;
 import toniarts.openkeeper.game.state.CheatState;
@@ -49,7 +52,11 @@ import toniarts.openkeeper.game.state.session.GameSessionListener;
 import toniarts.openkeeper.tools.convert.map.TriggerAction;
 
 /**
- * Client side service for the game lobby services
+ * Client side service for the game lobby services.<br>
+ * The player actions are not sent right away, but buffered and sent once per
+ * frame as a single sequenced message. The sequence lets the server drop
+ * duplicate and out of order commands. The actions are not predicted on the
+ * client, their results arrive with the replicated game state.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
@@ -63,6 +70,8 @@ public class GameClientService extends AbstractClientService
 
     private final GameSessionCallback sessionCallback = new GameSessionCallback();
     private final SafeArrayList<GameSessionListener> listeners = new SafeArrayList<>(GameSessionListener.class);
+    private final List<PlayerCommand> commandBuffer = new ArrayList<>();
+    private int nextSequence = 1;
 
     @Override
     public void loadComplete() {
@@ -140,17 +149,17 @@ public class GameClientService extends AbstractClientService
 
     @Override
     public void selectTiles(Vector2f start, Vector2f end, boolean select) {
-        getDelegate().selectTiles(start, end, select);
+        queueCommand(PlayerCommand.selectTiles(start, end, select));
     }
 
     @Override
     public void build(Vector2f start, Vector2f end, short roomId) {
-        getDelegate().build(start, end, roomId);
+        queueCommand(PlayerCommand.build(start, end, roomId));
     }
 
     @Override
     public void sell(Vector2f start, Vector2f end) {
-        getDelegate().sell(start, end);
+        queueCommand(PlayerCommand.sell(start, end));
     }
 
     @Override
@@ -165,22 +174,46 @@ public class GameClientService extends AbstractClientService
 
     @Override
     public void interact(EntityId entity) {
-        getDelegate().interact(entity);
+        queueCommand(PlayerCommand.interact(entity));
     }
 
     @Override
     public void pickUp(EntityId entity) {
-        getDelegate().pickUp(entity);
+        queueCommand(PlayerCommand.pickUp(entity));
     }
 
     @Override
     public void drop(EntityId entity, Point tile, Vector2f coordinates, EntityId dropOnEntity) {
-        getDelegate().drop(entity, tile, coordinates, dropOnEntity);
+        queueCommand(PlayerCommand.drop(entity, tile, coordinates, dropOnEntity));
     }
 
     @Override
     public void getGold(int amount) {
-        getDelegate().getGold(amount);
+        queueCommand(PlayerCommand.getGold(amount));
+    }
+
+    private void queueCommand(PlayerCommand command) {
+        if (!command.isValid()) {
+            LOGGER.log(Level.WARNING, "Ignoring an invalid command {0}!", command);
+            return;
+        }
+        synchronized (commandBuffer) {
+            commandBuffer.add(command);
+        }
+    }
+
+    @Override
+    public void flushCommands() {
+        PlayerCommands commands;
+        synchronized (commandBuffer) {
+            if (commandBuffer.isEmpty() || !getClient().isConnected()) {
+                return;
+            }
+            commands = new PlayerCommands(nextSequence, new ArrayList<>(commandBuffer));
+            nextSequence += commandBuffer.size();
+            commandBuffer.clear();
+        }
+        getClient().send(commands);
     }
 
     @Override
@@ -276,6 +309,13 @@ public class GameClientService extends AbstractClientService
             }
         }
 
+        @Override
+        public void onStateHash(long tick, long hash) {
+            for (GameSessionListener l : listeners.getArray()) {
+                l.onStateHash(tick, hash);
+            }
+        }
+
         @Override
         public void onGoldChange(short keeperId, int gold) {
             for (GameSessionListener l : listeners.getArray()) {
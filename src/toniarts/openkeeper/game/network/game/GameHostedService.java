@@ -30,22 +30,26 @@ import com.jme3.util.SafeArrayList;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.server.EntityDataHostedService;
+import com.simsilica.ethereal.EtherealHost;
+import com.simsilica.ethereal.zone.ZoneManager;
+import com.simsilica.mathd.AaBBox;
+import com.simsilica.mathd.Quatd;
+import com.simsilica.mathd.Vec3d;
 import java.awt.Point;
-import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.game.data.Keeper;
 import toniarts.openkeeper.game.data.ResearchableEntity;
+import toniarts.openkeeper.game.listener.EntityMovementListener;
+import toniarts.openkeeper.game.listener.StateHashListener;
 import toniarts.openkeeper.game.map.MapData;
 import toniarts.openkeeper.game.map.MapTile;
 import toniarts.openkeeper.game.network.NetworkConstants;
 import toniarts.openkeeper.game.network.message.GameData;
 import toniarts.openkeeper.game.network.message.GameLoadProgressData;
+import toniarts.openkeeper.game.network.message.PlayerCommands;
 import toniarts.openkeeper.game.network.streaming.StreamingHostedService;
 import toniarts.openkeeper.game.state.CheatState;
 import toniarts.openkeeper.game.state.lobby.ClientInfo;
@@ -54,7 +58,6 @@ import toniarts.openkeeper.game.state.session.GameSessionListener;
 import toniarts.openkeeper.game.state.session.GameSessionServerService;
 import toniarts.openkeeper.game.state.session.GameSessionServiceListener;
 import toniarts.openkeeper.tools.convert.map.TriggerAction;
-import toniarts.openkeeper.utils.GameLoop;
 
 /**
  * Game server hosts lobby service for the game clients.
@@ -74,14 +77,18 @@ public class GameHostedService extends AbstractHostedConnectionService implement
     private static final Logger LOGGER = Logger.getLogger(GameHostedService.class.getName());
 
     private boolean readyToLoad = false;
-    private final Object loadLock = new Object();
+    private GameData pendingGameData;
     private static final String ATTRIBUTE_SESSION = "game.session";
     private final Map<ClientInfo, GameSessionImpl> players = new ConcurrentHashMap<>(4, 0.75f, 5);
     private final Map<HostedConnection, ClientInfo> playersByConnection = new ConcurrentHashMap<>(4, 0.75f, 5);
     private final Map<ClientInfo, Boolean> playersInTransition = new ConcurrentHashMap<>(4, 0.75f, 5);
     private final SafeArrayList<GameSessionServiceListener> serverListeners = new SafeArrayList<>(GameSessionServiceListener.class);
     private RmiHostedService rmiService;
-    private ScheduledExecutorService entityUpdater;
+    private EntityUpdateScheduler entityUpdater;
+    private PlayerCommandProcessor commandProcessor;
+    private final ZoneMovementListener movementListener = new ZoneMovementListener();
+    private final StateHashListener stateHashListener = new StateHashSender();
+    private volatile Vec3d mapCenter = new Vec3d();
 
     /**
      * Creates a new lobby service that will use the default reliable channel
@@ -108,19 +115,6 @@ public class GameHostedService extends AbstractHostedConnectionService implement
         getServer().addMessageListener(new ServerMessageListener());
     }
 
-    @Override
-    public void terminate(HostedServiceManager serviceManager) {
-        super.terminate(serviceManager);
-        if (entityUpdater != null) {
-            entityUpdater.shutdownNow();
-            try {
-                entityUpdater.awaitTermination(1, TimeUnit.MINUTES);
-            } catch (InterruptedException ex) {
-                LOGGER.log(Level.SEVERE, "Failed to wait for the entity updater to shutdown!", ex);
-            }
-        }
-    }
-
     /**
      * Starts hosting the chat services on the specified connection using a
      * generated player name.
@@ -160,6 +154,7 @@ public class GameHostedService extends AbstractHostedConnectionService implement
             playersByConnection.remove(conn);
             playersInTransition.remove(player.clientInfo);
         }
+        getCommandProcessor().removeConnection(conn);
     }
 
     @Override
@@ -177,47 +172,78 @@ public class GameHostedService extends AbstractHostedConnectionService implement
         return getServiceManager().getService(EntityDataHostedService.class).getEntityData();
     }
 
+    @Override
+    public synchronized EntityUpdateScheduler getEntityUpdater() {
+        if (entityUpdater == null) {
+            entityUpdater = new EntityUpdateScheduler(() -> getService(EntityDataHostedService.class), () -> getService(EtherealHost.class), () -> playersByConnection);
+        }
+
+        return entityUpdater;
+    }
+
+    @Override
+    public synchronized PlayerCommandProcessor getCommandProcessor() {
+        if (commandProcessor == null) {
+            commandProcessor = new PlayerCommandProcessor((conn) -> {
+                ClientInfo clientInfo = playersByConnection.get(conn);
+                return (clientInfo != null ? players.get(clientInfo) : null);
+            });
+        }
+
+        return commandProcessor;
+    }
+
+    @Override
+    public EntityMovementListener getEntityMovementListener() {
+        return movementListener;
+    }
+
+    @Override
+    public StateHashListener getStateHashListener() {
+        return stateHashListener;
+    }
+
     @Override
     public void sendGameData(Collection<Keeper> players, MapData mapData) {
-        Thread thread = new Thread(() -> {
-
-            if (!readyToLoad) {
-                synchronized (loadLock) {
-                    if (!readyToLoad) {
-                        try {
-                            loadLock.wait();
-                        } catch (InterruptedException ex) {
-                            LOGGER.log(Level.SEVERE, "Game data sender interrupted!", ex);
-                            return;
-                        }
-                    }
-                }
-            }
+        mapCenter = new Vec3d(mapData.getWidth() / 2.0, 0, mapData.getHeight() / 2.0);
+        synchronized (this) {
+            pendingGameData = new GameData(new ArrayList<>(players), mapData);
+        }
+        sendPendingGameData();
+    }
 
-            // We must block this until all clients are ready to receive
-            try {
+    /**
+     * Sends the game data once all clients are ready to receive it
+     */
+    private synchronized void sendPendingGameData() {
+        if (!readyToLoad || pendingGameData == null) {
+            return;
+        }
 
-                // Data is too big, stream the data
-                getServiceManager().getService(StreamingHostedService.class).sendData(MessageType.GAME_DATA.ordinal(), new GameData(new ArrayList<>(players), mapData), null);
-            } catch (IOException ex) {
-                LOGGER.log(Level.SEVERE, "Failed to send the game data to clients!", ex);
+        // Data is too big, stream the data. The transfer is the first part of the loading
+        getServiceManager().getService(StreamingHostedService.class).sendDataAsync(MessageType.GAME_DATA.ordinal(), pendingGameData, null, (HostedConnection connection, Float progress) -> {
+            ClientInfo clientInfo = playersByConnection.get(connection);
+            if (clientInfo != null) {
+                float loadingProgress = GameLoadProgressData.getTransferProgress(progress);
+                clientInfo.setLoadingProgress(loadingProgress);
+                getServer().broadcast(new GameLoadProgressData(clientInfo.getKeeper().getId(), loadingProgress));
             }
-
-        }, "GameDataSender");
-        thread.start();
+        });
+        pendingGameData = null;
     }
 
     @Override
     public void startGame() {
+
+        // The players look at the whole map, center their movement zones on it
+        EtherealHost etherealHost = getService(EtherealHost.class);
         for (GameSessionImpl gameSession : players.values()) {
-            gameSession.onGameStarted();
+            etherealHost.setConnectionObject(gameSession.conn, -1L - gameSession.conn.getId(), mapCenter);
         }
 
-        // Hmm, for now this, update the entities
-        entityUpdater = Executors.newSingleThreadScheduledExecutor((Runnable r) -> new Thread(r, "EntityDataUpdater"));
-        entityUpdater.scheduleAtFixedRate(() -> {
-            getServiceManager().getService(EntityDataHostedService.class).sendUpdates();
-        }, 0, GameLoop.INTERVAL_FPS_60, TimeUnit.NANOSECONDS);
+        for (GameSessionImpl gameSession : players.values()) {
+            gameSession.onGameStarted();
+        }
     }
 
     @Override
@@ -398,6 +424,66 @@ public class GameHostedService extends AbstractHostedConnectionService implement
         }
     }
 
+    /**
+     * Publishes the entity movement to the SimEthereal zones. The clients get
+     * the movers in a compact state stream (UDP), instead of every position
+     * change being replicated as a component.
+     */
+    private class ZoneMovementListener implements EntityMovementListener {
+
+        /**
+         * Just the size of a creature, the entities are spread wide enough
+         */
+        private static final double ENTITY_EXTENT = 0.5;
+
+        private ZoneManager zones;
+
+        private ZoneManager getZones() {
+            if (zones == null) {
+                zones = getService(EtherealHost.class).getZones();
+            }
+            return zones;
+        }
+
+        @Override
+        public void beginMovementUpdate(long time) {
+            getZones().beginUpdate(time);
+        }
+
+        @Override
+        public void onEntityMoved(EntityId entityId, Vector3f position, float rotation) {
+            Vec3d pos = new Vec3d(position.x, position.y, position.z);
+            AaBBox bounds = new AaBBox(ENTITY_EXTENT);
+            bounds.setCenter(pos);
+            getZones().updateEntity(entityId.getId(), true, pos, new Quatd().fromAngles(0, rotation, 0), bounds);
+        }
+
+        @Override
+        public void onEntityStopped(EntityId entityId) {
+            getZones().remove(entityId.getId());
+        }
+
+        @Override
+        public void endMovementUpdate() {
+            getZones().endUpdate();
+        }
+    }
+
+    /**
+     * Sends the state hashes to the clients. They go the same way as the tile
+     * changes, so a client has got all the changes of the tick when it gets
+     * the hash
+     */
+    private class StateHashSender implements StateHashListener {
+
+        @Override
+        public void onStateHash(long tick, long hash) {
+            for (GameSessionImpl gameSession : players.values()) {
+                gameSession.onStateHash(tick, hash);
+            }
+        }
+    }
+
     private class ServerMessageListener implements MessageListener<HostedConnection> {
 
         public ServerMessageListener() {
@@ -411,10 +497,16 @@ public class GameHostedService extends AbstractHostedConnectionService implement
                 GameLoadProgressData data = (GameLoadProgressData) message;
                 LOGGER.log(Level.FINEST, "onLoadStatus({0},{1})", new Object[]{data.getProgress(), clientInfo.getKeeper().getId()});
 
-                clientInfo.setLoadingProgress(data.getProgress());
+                // The client reports its map loading, which continues after the game data transfer
+                float loadingProgress = GameLoadProgressData.getLoadingProgress(data.getProgress());
+                clientInfo.setLoadingProgress(loadingProgress);
 
                 // Send this with UDP messages, otherwise this gets totally blocked and all connections fail
-                getServer().broadcast(Filters.notEqualTo(source), new GameLoadProgressData(clientInfo.getKeeper().getId(), data.getProgress()));
+                getServer().broadcast(Filters.notEqualTo(source), new GameLoadProgressData(clientInfo.getKeeper().getId(), loadingProgress));
+            } else if (message instanceof PlayerCommands) {
+
+                // Applied on the next game logic tick
+                getCommandProcessor().addCommands(source, (PlayerCommands) message);
             }
         }
     }
@@ -498,6 +590,11 @@ public class GameHostedService extends AbstractHostedConnectionService implement
             getCallback().onTilesChange(updatedTiles);
         }
 
+        @Override
+        public void onStateHash(long tick, long hash) {
+            getCallback().onStateHash(tick, hash);
+        }
+
         @Override
         public void markReady() {
             clientInfo.setReadyToLoad(true);
@@ -509,10 +606,10 @@ public class GameHostedService extends AbstractHostedConnectionService implement
             }
 
             // Let the game loader continue
-            readyToLoad = true;
-            synchronized (loadLock) {
-                loadLock.notifyAll();
+            synchronized (GameHostedService.this) {
+                readyToLoad = true;
             }
+            sendPendingGameData();
         }
 
         @Override
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.game;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.controller.IGameWorldController;
+import toniarts.openkeeper.game.listener.StateHashListener;
+import toniarts.openkeeper.game.logic.IGameLogicUpdatable;
+import toniarts.openkeeper.game.network.message.LockstepTurn;
+import toniarts.openkeeper.game.network.message.PlayerCommand;
+
+/**
+ * Applies the lockstep turns on the game logic tick of a peer. The turn of a
+ * tick is sealed {@link #TURN_DELAY} ticks ahead, so it has time to reach all
+ * the peers. The tick waits for its turn, see {@link #isTurnReady(long)}.<br>
+ * On the host the processor also seals the turns from the
+ * {@link LockstepTurnScheduler} and hands them to the turn sender.<br>
+ * The state hashes of the peer are compared to the ones the host sends along
+ * with the turns, a mismatch means the simulations have drifted apart.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class LockstepTurnProcessor implements IGameLogicUpdatable, StateHashListener {
+
+    public static final int TURN_DELAY = 2;
+
+    private final Supplier<IGameWorldController> gameWorldController;
+    private final LockstepTurnScheduler scheduler;
+    private final Consumer<LockstepTurn> turnSender;
+    private final Map<Long, LockstepTurn> turns = new ConcurrentHashMap<>();
+    private final Map<Long, Long> ownHashes = new ConcurrentHashMap<>();
+    private final Map<Long, Long> hostHashes = new ConcurrentHashMap<>();
+    private volatile long lastCheckedHashTick = LockstepTurn.NO_HASH;
+    private volatile long desyncs = 0;
+    private long sealedTurn = TURN_DELAY - 1;
+    private long tick = 0;
+
+    private static final Logger LOGGER = Logger.getLogger(LockstepTurnProcessor.class.getName());
+
+    /**
+     * Creates a processor for a peer that receives the turns from the host
+     *
+     * @param gameWorldController the game world to apply the commands to
+     */
+    public LockstepTurnProcessor(Supplier<IGameWorldController> gameWorldController) {
+        this(gameWorldController, null, null);
+    }
+
+    /**
+     * Creates a processor for the host
+     *
+     * @param gameWorldController the game world to apply the commands to
+     * @param scheduler the commands of all the players
+     * @param turnSender sends the sealed turns to the other peers
+     */
+    public LockstepTurnProcessor(Supplier<IGameWorldController> gameWorldController, LockstepTurnScheduler scheduler, Consumer<LockstepTurn> turnSender) {
+        this.gameWorldController = gameWorldController;
+        this.scheduler = scheduler;
+        this.turnSender = turnSender;
+    }
+
+    /**
+     * Add a turn received from the host
+     *
+     * @param turn the turn
+     */
+    public void addTurn(LockstepTurn turn) {
+        turns.put(turn.getTurn(), turn);
+        if (turn.getHashTick() != LockstepTurn.NO_HASH && turn.getHashTick() > lastCheckedHashTick) {
+            hostHashes.putIfAbsent(turn.getHashTick(), turn.getHash());
+            checkHash(turn.getHashTick());
+        }
+    }
+
+    /**
+     * Can the tick be run, i.e. are its commands known. Use as the tick gate
+     * of the game logic. On the host this seals the turns up to
+     * {@link #TURN_DELAY} ticks ahead
+     *
+     * @param tick the tick about to be run
+     * @return {@code true} if the tick can be run
+     */
+    public boolean isTurnReady(long tick) {
+        if (scheduler != null) {
+            while (sealedTurn < tick + TURN_DELAY) {
+                sealedTurn++;
+                LockstepTurn turn = scheduler.sealTurn(sealedTurn);
+                turns.put(sealedTurn, turn);
+                if (turnSender != null) {
+                    turnSender.accept(turn);
+                }
+            }
+        }
+
+        return tick < TURN_DELAY || turns.containsKey(tick);
+    }
+
+    @Override
+    public void processTick(float tpf, double gameTime) {
+        LockstepTurn turn = turns.remove(tick);
+        if (turn == null && tick >= TURN_DELAY) {
+            LOGGER.log(Level.WARNING, "Turn {0} is missing!", tick);
+        }
+        tick++;
+        if (turn == null) {
+            return;
+        }
+
+        IGameWorldController world = gameWorldController.get();
+        for (Map.Entry<Short, List<PlayerCommand>> entry : turn.getCommands().entrySet()) {
+            for (PlayerCommand command : entry.getValue()) {
+                if (command.isValid()) {
+                    applyCommand(world, command, entry.getKey());
+                }
+            }
+        }
+    }
+
+    private static void applyCommand(IGameWorldController world, PlayerCommand command, short playerId) {
+        switch (command.getType()) {
+            case SELECT_TILES:
+                world.getMapController().selectTiles(command.getStart(), command.getEnd(), command.isSelect(), playerId);
+                break;
+            case BUILD:
+                world.build(command.getStart(), command.getEnd(), playerId, command.getRoomId());
+                break;
+            case SELL:
+                world.sell(command.getStart(), command.getEnd(), playerId);
+                break;
+            case INTERACT:
+                world.interact(command.getEntity(), playerId);
+                break;
+            case PICK_UP:
+                world.pickUp(command.getEntity(), playerId);
+                break;
+            case DROP:
+                world.drop(command.getEntity(), command.getTile(), command.getEnd(), command.getTarget(), playerId);
+                break;
+            case GET_GOLD:
+                world.getGold(command.getAmount(), playerId);
+                break;
+        }
+    }
+
+    @Override
+    public void onStateHash(long tick, long hash) {
+        if (scheduler != null) {
+            scheduler.setStateHash(tick, hash);
+            return;
+        }
+        if (tick > lastCheckedHashTick) {
+            ownHashes.put(tick, hash);
+            checkHash(tick);
+        }
+    }
+
+    private synchronized void checkHash(long hashTick) {
+        Long ownHash = ownHashes.get(hashTick);
+        Long hostHash = hostHashes.get(hashTick);
+        if (ownHash == null || hostHash == null) {
+            return;
+        }
+
+        // Older ones can't be compared anymore either
+        ownHashes.keySet().removeIf((t) -> t <= hashTick);
+        hostHashes.keySet().removeIf((t) -> t <= hashTick);
+        lastCheckedHashTick = hashTick;
+        if (!ownHash.equals(hostHash)) {
+            desyncs++;
+            LOGGER.log(Level.WARNING, "Game state differs from the host on tick {0}: {1} vs. {2}!", new Object[]{hashTick, Long.toHexString(ownHash), Long.toHexString(hostHash)});
+        }
+    }
+
+    /**
+     * Get the number of state hashes that differed from the host
+     *
+     * @return the desync count
+     */
+    public long getDesyncs() {
+        return desyncs;
+    }
+
+    @Override
+    public void start() {
+
+    }
+
+    @Override
+    public void stop() {
+        turns.clear();
+        ownHashes.clear();
+        hostHashes.clear();
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.network.message.LockstepTurn;
+import toniarts.openkeeper.game.network.message.PlayerCommand;
+import toniarts.openkeeper.game.network.message.PlayerCommands;
+
+/**
+ * Collects the player commands on the host of a lockstep game and seals them
+ * into turns. The commands received after a turn is sealed go to the next
+ * one. Duplicate, out of order and invalid commands are dropped here, so that
+ * every peer applies exactly the same ones.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class LockstepTurnScheduler {
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final Map<Short, CommandQueue> queues = new ConcurrentHashMap<>();
+    private long hashTick = LockstepTurn.NO_HASH;
+    private long hash;
+
+    private static final Logger LOGGER = Logger.getLogger(LockstepTurnScheduler.class.getName());
+
+    /**
+     * Queue the commands of a player for the next turn
+     *
+     * @param playerId the player
+     * @param commands the commands
+     */
+    public void addCommands(short playerId, PlayerCommands commands) {
+        if (commands.getCommands() == null || commands.getCommands().size() > MAX_BATCH_SIZE) {
+            LOGGER.log(Level.WARNING, "Rejected a command batch from player {0}!", playerId);
+            return;
+        }
+        queues.computeIfAbsent(playerId, (id) -> new CommandQueue()).batches.add(commands);
+    }
+
+    /**
+     * Set the latest host state hash, it is sent along with the next turn
+     *
+     * @param hashTick the tick the state was hashed on
+     * @param hash the state hash
+     */
+    public synchronized void setStateHash(long hashTick, long hash) {
+        this.hashTick = hashTick;
+        this.hash = hash;
+    }
+
+    /**
+     * Seal the commands queued so far into a turn
+     *
+     * @param turn the tick the commands are applied on
+     * @return the turn, ordered by player ID
+     */
+    public synchronized LockstepTurn sealTurn(long turn) {
+        SortedMap<Short, List<PlayerCommand>> commands = new TreeMap<>();
+        for (Map.Entry<Short, CommandQueue> entry : queues.entrySet()) {
+            CommandQueue queue = entry.getValue();
+            List<PlayerCommand> playerCommands = new ArrayList<>();
+            PlayerCommands batch;
+            while ((batch = queue.batches.poll()) != null) {
+                int sequence = batch.getSequence();
+                for (PlayerCommand command : batch.getCommands()) {
+
+                    // Already seen or out of order
+                    if (sequence - queue.lastSequence > 0) {
+                        queue.lastSequence = sequence;
+                        if (command.isValid()) {
+                            playerCommands.add(command);
+                        }
+                    }
+                    sequence++;
+                }
+            }
+            if (!playerCommands.isEmpty()) {
+                commands.put(entry.getKey(), playerCommands);
+            }
+        }
+
+        LockstepTurn lockstepTurn = new LockstepTurn(turn, commands);
+        if (hashTick != LockstepTurn.NO_HASH) {
+            lockstepTurn.setHash(hashTick, hash);
+        }
+
+        return lockstepTurn;
+    }
+
+    /**
+     * The received and not yet sealed commands of a single player
+     */
+    private static class CommandQueue {
+
+        private final Queue<PlayerCommands> batches = new ConcurrentLinkedQueue<>();
+        private int lastSequence = 0;
+
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.game;
+
+import com.jme3.network.HostedConnection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.logic.IGameLogicUpdatable;
+import toniarts.openkeeper.game.network.message.PlayerCommand;
+import toniarts.openkeeper.game.network.message.PlayerCommands;
+import toniarts.openkeeper.game.state.session.GameSession;
+
+/**
+ * Applies the player commands on the game logic tick. The clients send their
+ * commands in batches, which are queued as they arrive and applied in order at
+ * the start of the next tick. Old and invalid commands are dropped. The
+ * clients don't predict their actions, so no acknowledgements are sent back,
+ * the results reach the clients with the replicated game state.<br>
+ * The throughput is available from {@link #getMetrics()}, through
+ * {@link GameHostedService#getCommandProcessor()}.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class PlayerCommandProcessor implements IGameLogicUpdatable {
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final Function<HostedConnection, GameSession> sessions;
+    private final Map<HostedConnection, CommandQueue> queues = new ConcurrentHashMap<>();
+
+    private static final Logger LOGGER = Logger.getLogger(PlayerCommandProcessor.class.getName());
+
+    public PlayerCommandProcessor(Function<HostedConnection, GameSession> sessions) {
+        this.sessions = sessions;
+    }
+
+    /**
+     * Queue the commands received from a client
+     *
+     * @param connection the client
+     * @param commands the commands
+     */
+    public void addCommands(HostedConnection connection, PlayerCommands commands) {
+        CommandQueue queue = queues.computeIfAbsent(connection, (conn) -> new CommandQueue());
+        queue.metrics.batches++;
+        if (commands.getCommands() == null || commands.getCommands().size() > MAX_BATCH_SIZE) {
+            LOGGER.log(Level.WARNING, "Rejected a command batch from {0}!", connection);
+            queue.metrics.rejected += (commands.getCommands() != null ? commands.getCommands().size() : 0);
+            return;
+        }
+        queue.metrics.commands += commands.getCommands().size();
+        queue.metrics.largestBatch = Math.max(queue.metrics.largestBatch, commands.getCommands().size());
+        queue.batches.add(commands);
+    }
+
+    /**
+     * Forget the client
+     *
+     * @param connection the client
+     */
+    public void removeConnection(HostedConnection connection) {
+        CommandQueue queue = queues.remove(connection);
+        if (queue != null) {
+            logMetrics(connection, queue.metrics);
+        }
+    }
+
+    @Override
+    public void processTick(float tpf, double gameTime) {
+        for (Map.Entry<HostedConnection, CommandQueue> entry : queues.entrySet()) {
+            HostedConnection connection = entry.getKey();
+            CommandQueue queue = entry.getValue();
+            if (queue.batches.isEmpty()) {
+                continue;
+            }
+
+            GameSession session = sessions.apply(connection);
+            PlayerCommands commands;
+            while ((commands = queue.batches.poll()) != null) {
+                int sequence = commands.getSequence();
+                for (PlayerCommand command : commands.getCommands()) {
+
+                    // Already seen or out of order
+                    if (sequence - queue.lastSequence <= 0) {
+                        queue.metrics.rejected++;
+                    } else if (session == null || !command.isValid()) {
+                        queue.metrics.rejected++;
+                        queue.lastSequence = sequence;
+                    } else {
+                        applyCommand(session, command);
+                        queue.metrics.applied++;
+                        queue.lastSequence = sequence;
+                    }
+                    sequence++;
+                }
+            }
+        }
+    }
+
+    private static void applyCommand(GameSession session, PlayerCommand command) {
+        switch (command.getType()) {
+            case SELECT_TILES:
+                session.selectTiles(command.getStart(), command.getEnd(), command.isSelect());
+                break;
+            case BUILD:
+                session.build(command.getStart(), command.getEnd(), command.getRoomId());
+                break;
+            case SELL:
+                session.sell(command.getStart(), command.getEnd());
+                break;
+            case INTERACT:
+                session.interact(command.getEntity());
+                break;
+            case PICK_UP:
+                session.pickUp(command.getEntity());
+                break;
+            case DROP:
+                session.drop(command.getEntity(), command.getTile(), command.getEnd(), command.getTarget());
+                break;
+            case GET_GOLD:
+                session.getGold(command.getAmount());
+                break;
+        }
+    }
+
+    /**
+     * Get the command throughput of the connections
+     *
+     * @return the metrics per connection
+     */
+    public Map<HostedConnection, CommandMetrics> getMetrics() {
+        Map<HostedConnection, CommandMetrics> metrics = new ConcurrentHashMap<>(queues.size());
+        for (Map.Entry<HostedConnection, CommandQueue> entry : queues.entrySet()) {
+            metrics.put(entry.getKey(), entry.getValue().metrics);
+        }
+
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    @Override
+    public void start() {
+
+    }
+
+    @Override
+    public void stop() {
+        for (Map.Entry<HostedConnection, CommandQueue> entry : queues.entrySet()) {
+            logMetrics(entry.getKey(), entry.getValue().metrics);
+        }
+        queues.clear();
+    }
+
+    private static void logMetrics(HostedConnection connection, CommandMetrics metrics) {
+        LOGGER.log(Level.INFO, "Player commands of {0}: {1}, average batch size {2}", new Object[]{connection, metrics, metrics.getAverageBatchSize()});
+    }
+
+    /**
+     * The received and not yet applied commands of a single client
+     */
+    private static class CommandQueue {
+
+        private final Queue<PlayerCommands> batches = new ConcurrentLinkedQueue<>();
+        private final CommandMetrics metrics = new CommandMetrics();
+        private int lastSequence = 0;
+
+    }
+
+    /**
+     * Command metrics of a single connection
+     */
+    public static class CommandMetrics {
+
+        private volatile long batches;
+        private volatile long commands;
+        private volatile long applied;
+        private volatile long rejected;
+        private volatile int largestBatch;
+
+        /**
+         * Get the number of command messages received
+         *
+         * @return the batch count
+         */
+        public long getBatches() {
+            return batches;
+        }
+
+        /**
+         * Get the number of commands received
+         *
+         * @return the command count
+         */
+        public long getCommands() {
+            return commands;
+        }
+
+        public long getApplied() {
+            return applied;
+        }
+
+        /**
+         * Get the number of invalid, duplicate and out of order commands
+         *
+         * @return the rejected command count
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        public int getLargestBatch() {
+            return largestBatch;
+        }
+
+        /**
+         * Get the average number of commands in a single message
+         *
+         * @return the average batch size
+         */
+        public float getAverageBatchSize() {
+            return batches > 0 ? (float) commands / batches : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "CommandMetrics{" + "batches=" + batches + ", commands=" + commands + ", applied=" + applied + ", rejected=" + rejected + ", largestBatch=" + largestBatch + '}';
+        }
+    }
+
+}
@@ -25,6 +25,12 @@ import com.jme3.network.AbstractMessage;
  */
 public class GameLoadProgressData extends AbstractMessage {
 
+    /**
+     * Share of the game data transfer in the loading progress of a network
+     * game, the rest is the client loading the map
+     */
+    public static final float TRANSFER_SHARE = 0.2f;
+
     private short keeperId;
     private float progress;
 
@@ -54,4 +60,25 @@ public class GameLoadProgressData extends AbstractMessage {
         this.progress = progress;
     }
 
+    /**
+     * Scales the game data transfer progress to the loading progress
+     *
+     * @param progress the transfer progress, from 0 to 1
+     * @return the loading progress
+     */
+    public static float getTransferProgress(float progress) {
+        return progress * TRANSFER_SHARE;
+    }
+
+    /**
+     * Scales the client side map loading progress to the loading progress,
+     * the loading continues from where the game data transfer ended
+     *
+     * @param progress the map loading progress, from 0 to 1
+     * @return the loading progress
+     */
+    public static float getLoadingProgress(float progress) {
+        return TRANSFER_SHARE + progress * (1 - TRANSFER_SHARE);
+    }
+
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.message;
+
+import com.jme3.network.AbstractMessage;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * The player commands of a single lockstep turn. Every peer applies the
+ * commands at the start of the tick with the same number as the turn, in
+ * player ID order. The host also sends its latest state hash along, so the
+ * peers can tell if they have drifted apart
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class LockstepTurn extends AbstractMessage {
+
+    public static final long NO_HASH = -1;
+
+    private long turn;
+    private SortedMap<Short, List<PlayerCommand>> commands;
+    private long hashTick = NO_HASH;
+    private long hash;
+
+    public LockstepTurn() {
+
+    }
+
+    public LockstepTurn(long turn, SortedMap<Short, List<PlayerCommand>> commands) {
+        this.turn = turn;
+        this.commands = commands;
+    }
+
+    /**
+     * The tick the commands are applied on
+     *
+     * @return the turn number
+     */
+    public long getTurn() {
+        return turn;
+    }
+
+    /**
+     * The commands of the turn, by player ID
+     *
+     * @return the commands
+     */
+    public SortedMap<Short, List<PlayerCommand>> getCommands() {
+        return commands;
+    }
+
+    /**
+     * The tick of the host state hash sent along
+     *
+     * @return the tick of the hash, or {@link #NO_HASH} if there is no hash
+     */
+    public long getHashTick() {
+        return hashTick;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public void setHash(long hashTick, long hash) {
+        this.hashTick = hashTick;
+        this.hash = hash;
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.message;
+
+import com.jme3.math.Vector2f;
+import com.simsilica.es.EntityId;
+import java.awt.Point;
+
+/**
+ * A single player action, sent to the server in a {@link PlayerCommands}
+ * batch. Only the fields of the command type are set.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class PlayerCommand {
+
+    public enum Type {
+        SELECT_TILES,
+        BUILD,
+        SELL,
+        INTERACT,
+        PICK_UP,
+        DROP,
+        GET_GOLD
+    }
+
+    private Type type;
+    private Vector2f start;
+    private Vector2f end;
+    private boolean select;
+    private short roomId;
+    private EntityId entity;
+    private Point tile;
+    private EntityId target;
+    private int amount;
+
+    public PlayerCommand() {
+
+    }
+
+    public PlayerCommand(Type type) {
+        this.type = type;
+    }
+
+    public static PlayerCommand selectTiles(Vector2f start, Vector2f end, boolean select) {
+        PlayerCommand command = new PlayerCommand(Type.SELECT_TILES);
+        command.start = start;
+        command.end = end;
+        command.select = select;
+
+        return command;
+    }
+
+    public static PlayerCommand build(Vector2f start, Vector2f end, short roomId) {
+        PlayerCommand command = new PlayerCommand(Type.BUILD);
+        command.start = start;
+        command.end = end;
+        command.roomId = roomId;
+
+        return command;
+    }
+
+    public static PlayerCommand sell(Vector2f start, Vector2f end) {
+        PlayerCommand command = new PlayerCommand(Type.SELL);
+        command.start = start;
+        command.end = end;
+
+        return command;
+    }
+
+    public static PlayerCommand interact(EntityId entity) {
+        PlayerCommand command = new PlayerCommand(Type.INTERACT);
+        command.entity = entity;
+
+        return command;
+    }
+
+    public static PlayerCommand pickUp(EntityId entity) {
+        PlayerCommand command = new PlayerCommand(Type.PICK_UP);
+        command.entity = entity;
+
+        return command;
+    }
+
+    public static PlayerCommand drop(EntityId entity, Point tile, Vector2f coordinates, EntityId dropOnEntity) {
+        PlayerCommand command = new PlayerCommand(Type.DROP);
+        command.entity = entity;
+        command.tile = tile;
+        command.end = coordinates;
+        command.target = dropOnEntity;
+
+        return command;
+    }
+
+    public static PlayerCommand getGold(int amount) {
+        PlayerCommand command = new PlayerCommand(Type.GET_GOLD);
+        command.amount = amount;
+
+        return command;
+    }
+
+    /**
+     * Checks that the command has everything its type needs
+     *
+     * @return true if the command can be applied
+     */
+    public boolean isValid() {
+        if (type == null) {
+            return false;
+        }
+        switch (type) {
+            case SELECT_TILES:
+            case BUILD:
+            case SELL:
+                return start != null && end != null;
+            case INTERACT:
+            case PICK_UP:
+                return entity != null;
+            case DROP:
+                return entity != null && tile != null && end != null;
+            case GET_GOLD:
+                return amount > 0;
+        }
+
+        return false;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Vector2f getStart() {
+        return start;
+    }
+
+    public void setStart(Vector2f start) {
+        this.start = start;
+    }
+
+    /**
+     * The end of the area, or the drop coordinates
+     *
+     * @return the end coordinates
+     */
+    public Vector2f getEnd() {
+        return end;
+    }
+
+    public void setEnd(Vector2f end) {
+        this.end = end;
+    }
+
+    public boolean isSelect() {
+        return select;
+    }
+
+    public void setSelect(boolean select) {
+        this.select = select;
+    }
+
+    public short getRoomId() {
+        return roomId;
+    }
+
+    public void setRoomId(short roomId) {
+        this.roomId = roomId;
+    }
+
+    public EntityId getEntity() {
+        return entity;
+    }
+
+    public void setEntity(EntityId entity) {
+        this.entity = entity;
+    }
+
+    public Point getTile() {
+        return tile;
+    }
+
+    public void setTile(Point tile) {
+        this.tile = tile;
+    }
+
+    /**
+     * The entity that the dropped entity is dropped on
+     *
+     * @return the target entity, may be {@code null}
+     */
+    public EntityId getTarget() {
+        return target;
+    }
+
+    public void setTarget(EntityId target) {
+        this.target = target;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public void setAmount(int amount) {
+        this.amount = amount;
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerCommand{" + "type=" + type + '}';
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.message;
+
+import com.jme3.network.AbstractMessage;
+import java.util.List;
+
+/**
+ * The player commands of a single client frame. The commands are numbered
+ * consecutively, starting from the sequence of the batch, so the server can
+ * apply them in order and drop the duplicates
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class PlayerCommands extends AbstractMessage {
+
+    private int sequence;
+    private List<PlayerCommand> commands;
+
+    public PlayerCommands() {
+
+    }
+
+    public PlayerCommands(int sequence, List<PlayerCommand> commands) {
+        this.sequence = sequence;
+        this.commands = commands;
+    }
+
+    /**
+     * The sequence number of the first command
+     *
+     * @return the sequence number
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    public List<PlayerCommand> getCommands() {
+        return commands;
+    }
+
+}
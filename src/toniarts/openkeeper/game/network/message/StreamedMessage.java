@@ -26,6 +26,8 @@ import com.jme3.network.AbstractMessage;
 public class StreamedMessage extends AbstractMessage {
 
     private int totalSize;
+    private int uncompressedSize;
+    private int chunk;
     private byte[] payload;
     private int messageType;
 
@@ -33,9 +35,11 @@ public class StreamedMessage extends AbstractMessage {
 
     }
 
-    public StreamedMessage(byte[] payload, int totalSize, int messageType) {
+    public StreamedMessage(byte[] payload, int chunk, int totalSize, int uncompressedSize, int messageType) {
         this.payload = payload;
+        this.chunk = chunk;
         this.totalSize = totalSize;
+        this.uncompressedSize = uncompressedSize;
         this.messageType = messageType;
     }
 
@@ -43,10 +47,23 @@ public class StreamedMessage extends AbstractMessage {
         return payload;
     }
 
+    public int getChunk() {
+        return chunk;
+    }
+
+    /**
+     * Get the size of the compressed data
+     *
+     * @return the compressed size, sum of all the payloads
+     */
     public int getTotalSize() {
         return totalSize;
     }
 
+    public int getUncompressedSize() {
+        return uncompressedSize;
+    }
+
     public int getMessageType() {
         return messageType;
     }
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.message;
+
+import com.jme3.network.AbstractMessage;
+
+/**
+ * Client acknowledges a received part of a streamed object data
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class StreamedMessageAck extends AbstractMessage {
+
+    private int messageType;
+    private int chunk;
+
+    public StreamedMessageAck() {
+
+    }
+
+    public StreamedMessageAck(int messageType, int chunk) {
+        this.messageType = messageType;
+        this.chunk = chunk;
+    }
+
+    public int getMessageType() {
+        return messageType;
+    }
+
+    public int getChunk() {
+        return chunk;
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.serializer;
+
+import com.jme3.math.FastMath;
+import com.jme3.network.serializing.Serializer;
+import com.simsilica.es.EntityId;
+import java.awt.Point;
+import java.nio.ByteBuffer;
+
+/**
+ * Base for the hand written serializers of the frequently changing entity
+ * components. Offers variable length integers, quantized floats and packed
+ * enums, so that a typical component update is just a few bytes instead of
+ * the full width fields the {@link com.jme3.network.serializing.serializers.FieldSerializer}
+ * writes.<br>
+ * The serializers are instantiated by their class name on the client, so they
+ * need a public no-arg constructor.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public abstract class CompactSerializer extends Serializer {
+
+    /**
+     * Precision of the world coordinates, in tiles
+     */
+    public static final float POSITION_PRECISION = 1f / 1024;
+    private static final int ANGLE_STEPS = 65536;
+
+    /**
+     * Writes an unsigned variable length integer, 7 bits per byte
+     *
+     * @param buffer the buffer
+     * @param value the value, treated as unsigned
+     */
+    protected static void writeVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    protected static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length integer!");
+    }
+
+    /**
+     * Writes a signed variable length integer, zigzag encoded so that small
+     * negative values stay small
+     *
+     * @param buffer the buffer
+     * @param value the value
+     */
+    protected static void writeSignedVarInt(ByteBuffer buffer, int value) {
+        writeVarInt(buffer, (value << 1) ^ (value >> 31));
+    }
+
+    protected static int readSignedVarInt(ByteBuffer buffer) {
+        int value = readVarInt(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes a signed variable length long, zigzag encoded
+     *
+     * @param buffer the buffer
+     * @param value the value
+     */
+    protected static void writeSignedVarLong(ByteBuffer buffer, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            buffer.put((byte) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    protected static long readSignedVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (value >>> 1) ^ -(value & 1);
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length long!");
+    }
+
+    /**
+     * Writes a world coordinate, quantized to {@link #POSITION_PRECISION}
+     *
+     * @param buffer the buffer
+     * @param value the coordinate
+     */
+    protected static void writeCoordinate(ByteBuffer buffer, float value) {
+        writeSignedVarInt(buffer, Math.round(value / POSITION_PRECISION));
+    }
+
+    protected static float readCoordinate(ByteBuffer buffer) {
+        return readSignedVarInt(buffer) * POSITION_PRECISION;
+    }
+
+    /**
+     * Writes an angle in radians as two bytes
+     *
+     * @param buffer the buffer
+     * @param angle the angle, any range
+     */
+    protected static void writeAngle(ByteBuffer buffer, float angle) {
+        float normalized = angle % FastMath.TWO_PI;
+        if (normalized < 0) {
+            normalized += FastMath.TWO_PI;
+        }
+        buffer.putShort((short) (Math.round(normalized / FastMath.TWO_PI * ANGLE_STEPS) % ANGLE_STEPS));
+    }
+
+    protected static float readAngle(ByteBuffer buffer) {
+        return (buffer.getShort() & 0xFFFF) * FastMath.TWO_PI / ANGLE_STEPS;
+    }
+
+    /**
+     * Writes an enum constant as its ordinal, {@code null} allowed
+     *
+     * @param buffer the buffer
+     * @param value the enum constant
+     */
+    protected static void writeEnum(ByteBuffer buffer, Enum<?> value) {
+        writeVarInt(buffer, value != null ? value.ordinal() + 1 : 0);
+    }
+
+    protected static <E extends Enum<E>> E readEnum(ByteBuffer buffer, Class<E> type) {
+        int ordinal = readVarInt(buffer);
+        return ordinal != 0 ? type.getEnumConstants()[ordinal - 1] : null;
+    }
+
+    protected static void writePoint(ByteBuffer buffer, Point p) {
+        writeSignedVarInt(buffer, p.x);
+        writeSignedVarInt(buffer, p.y);
+    }
+
+    protected static Point readPoint(ByteBuffer buffer) {
+        return new Point(readSignedVarInt(buffer), readSignedVarInt(buffer));
+    }
+
+    /**
+     * Writes an entity ID as the difference to the previous ID written in the
+     * same message. The IDs are sequential and a message typically refers to
+     * entities created close to each other, so the deltas stay short even
+     * when the IDs themselves have grown large.
+     *
+     * @param buffer the buffer
+     * @param entityId the entity ID
+     * @param ids the entity ID state of the message being written
+     */
+    protected static void writeEntityId(ByteBuffer buffer, EntityId entityId, EntityIdDelta ids) {
+        writeSignedVarLong(buffer, entityId.getId() - ids.previousId);
+        ids.previousId = entityId.getId();
+    }
+
+    protected static EntityId readEntityId(ByteBuffer buffer, EntityIdDelta ids) {
+        ids.previousId += readSignedVarLong(buffer);
+
+        return new EntityId(ids.previousId);
+    }
+
+    /**
+     * Packs booleans into a single byte, the first boolean being the lowest
+     * bit
+     *
+     * @param buffer the buffer
+     * @param flags the flags, max 8
+     */
+    protected static void writeFlags(ByteBuffer buffer, boolean... flags) {
+        int packed = 0;
+        for (int i = 0; i < flags.length; i++) {
+            if (flags[i]) {
+                packed |= 1 << i;
+            }
+        }
+        buffer.put((byte) packed);
+    }
+
+    protected static boolean isFlagSet(byte flags, int index) {
+        return (flags & (1 << index)) != 0;
+    }
+
+    /**
+     * The previous entity ID of a message, the entity IDs are delta encoded
+     * against it. Create one per message, on both the writing and the reading
+     * side.
+     */
+    protected static final class EntityIdDelta {
+
+        private long previousId = 0;
+
+    }
+
+}
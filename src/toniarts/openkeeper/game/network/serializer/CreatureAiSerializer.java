@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.serializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import toniarts.openkeeper.game.component.CreatureAi;
+import toniarts.openkeeper.game.controller.creature.CreatureState;
+
+/**
+ * Serializes the {@link CreatureAi}
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class CreatureAiSerializer extends CompactSerializer {
+
+    @Override
+    public <T> T readObject(ByteBuffer data, Class<T> c) throws IOException {
+        double stateStartTime = data.getDouble();
+        CreatureState creatureState = readEnum(data, CreatureState.class);
+        short creatureId = (short) readVarInt(data);
+
+        return (T) new CreatureAi(stateStartTime, creatureState, creatureId);
+    }
+
+    @Override
+    public void writeObject(ByteBuffer buffer, Object object) throws IOException {
+        CreatureAi creatureAi = (CreatureAi) object;
+        buffer.putDouble(creatureAi.stateStartTime);
+        writeEnum(buffer, creatureAi.getCreatureState());
+        writeVarInt(buffer, creatureAi.creatureId);
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.serializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import toniarts.openkeeper.game.component.Health;
+
+/**
+ * Serializes the {@link Health}
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class HealthSerializer extends CompactSerializer {
+
+    @Override
+    public <T> T readObject(ByteBuffer data, Class<T> c) throws IOException {
+        Health health = new Health();
+        health.unconscious = isFlagSet(data.get(), 0);
+        health.ownLandHealthIncrease = readSignedVarInt(data);
+        health.health = readSignedVarInt(data);
+        health.maxHealth = readSignedVarInt(data);
+
+        return (T) health;
+    }
+
+    @Override
+    public void writeObject(ByteBuffer buffer, Object object) throws IOException {
+        Health health = (Health) object;
+        writeFlags(buffer, health.unconscious);
+        writeSignedVarInt(buffer, health.ownLandHealthIncrease);
+        writeSignedVarInt(buffer, health.health);
+        writeSignedVarInt(buffer, health.maxHealth);
+    }
+
+}
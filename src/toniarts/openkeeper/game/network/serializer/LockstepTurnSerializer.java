@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.serializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import toniarts.openkeeper.game.network.message.LockstepTurn;
+import toniarts.openkeeper.game.network.message.PlayerCommand;
+
+/**
+ * Serializes the {@link LockstepTurn}, the commands are written like in the
+ * {@link PlayerCommandsSerializer}
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class LockstepTurnSerializer extends CompactSerializer {
+
+    @Override
+    public <T> T readObject(ByteBuffer data, Class<T> c) throws IOException {
+        long turn = readSignedVarLong(data);
+        int players = readVarInt(data);
+        SortedMap<Short, List<PlayerCommand>> commands = new TreeMap<>();
+        EntityIdDelta ids = new EntityIdDelta();
+        for (int i = 0; i < players; i++) {
+            short playerId = (short) readVarInt(data);
+            int size = readVarInt(data);
+            List<PlayerCommand> playerCommands = new ArrayList<>(size);
+            for (int j = 0; j < size; j++) {
+                playerCommands.add(PlayerCommandsSerializer.readCommand(data, ids));
+            }
+            commands.put(playerId, playerCommands);
+        }
+        LockstepTurn lockstepTurn = new LockstepTurn(turn, commands);
+        long hashTick = readSignedVarLong(data);
+        if (hashTick != LockstepTurn.NO_HASH) {
+            lockstepTurn.setHash(hashTick, data.getLong());
+        }
+
+        return (T) lockstepTurn;
+    }
+
+    @Override
+    public void writeObject(ByteBuffer buffer, Object object) throws IOException {
+        LockstepTurn lockstepTurn = (LockstepTurn) object;
+        writeSignedVarLong(buffer, lockstepTurn.getTurn());
+        writeVarInt(buffer, lockstepTurn.getCommands().size());
+        EntityIdDelta ids = new EntityIdDelta();
+        for (Map.Entry<Short, List<PlayerCommand>> entry : lockstepTurn.getCommands().entrySet()) {
+            writeVarInt(buffer, entry.getKey());
+            writeVarInt(buffer, entry.getValue().size());
+            for (PlayerCommand command : entry.getValue()) {
+                PlayerCommandsSerializer.writeCommand(buffer, command, ids);
+            }
+        }
+        writeSignedVarLong(buffer, lockstepTurn.getHashTick());
+        if (lockstepTurn.getHashTick() != LockstepTurn.NO_HASH) {
+            buffer.putLong(lockstepTurn.getHash());
+        }
+    }
+
+}
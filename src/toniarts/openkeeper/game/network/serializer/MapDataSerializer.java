@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.serializer;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToIntFunction;
+import toniarts.openkeeper.game.map.MapData;
+import toniarts.openkeeper.game.map.MapTile;
+import toniarts.openkeeper.tools.convert.map.Tile.BridgeTerrainType;
+
+/**
+ * Serializes the whole {@link MapData}. The tiles are written column by
+ * column, i.e. all the terrains first, then all the owners etc. Each column is
+ * run-length encoded, the maps are mostly large areas of the same terrain so
+ * this is very compact. The result compresses well too.<br>
+ * The tile selections and flashing are not written, the map is only sent
+ * before the game starts.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class MapDataSerializer extends CompactSerializer {
+
+    private static final List<Column> COLUMNS = Arrays.asList(
+            new Column(MapTile::getTerrainId, (tile, value) -> tile.setTerrainId((short) value)),
+            new Column(MapTile::getOwnerId, (tile, value) -> tile.setOwnerId((short) value)),
+            new Column((tile) -> tile.getBridgeTerrainType() != null ? tile.getBridgeTerrainType().ordinal() + 1 : 0,
+                    (tile, value) -> tile.setBridgeTerrainType(value != 0 ? BridgeTerrainType.values()[value - 1] : null)),
+            new Column(MapTile::getRandomTextureIndex, MapTile::setRandomTextureIndex),
+            new Column(MapTile::getHealth, MapTile::setHealth),
+            new Column(MapTile::getMaxHealth, MapTile::setMaxHealth),
+            new Column(MapTile::getGold, MapTile::setGold),
+            new Column(MapTile::getManaGain, MapTile::setManaGain),
+            new Column((tile) -> tile.isDestroyed() ? 1 : 0, (tile, value) -> tile.setDestroyed(value != 0))
+    );
+
+    @Override
+    public <T> T readObject(ByteBuffer data, Class<T> c) throws IOException {
+        int width = readVarInt(data);
+        int height = readVarInt(data);
+        MapTile[] tiles = new MapTile[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = y * width + x;
+                MapTile tile = new MapTile();
+                tile.setPoint(new Point(x, y));
+                tile.setIndex(index);
+                tiles[index] = tile;
+            }
+        }
+
+        for (Column column : COLUMNS) {
+            int index = 0;
+            while (index < tiles.length) {
+                int value = readSignedVarInt(data);
+                int run = readVarInt(data);
+                for (int i = 0; i < run; i++) {
+                    column.setter.accept(tiles[index++], value);
+                }
+            }
+        }
+
+        MapData mapData = new MapData(width, height);
+        mapData.setTiles(Arrays.asList(tiles));
+
+        return (T) mapData;
+    }
+
+    @Override
+    public void writeObject(ByteBuffer buffer, Object object) throws IOException {
+        MapData mapData = (MapData) object;
+        int width = mapData.getWidth();
+        int height = mapData.getHeight();
+        writeVarInt(buffer, width);
+        writeVarInt(buffer, height);
+
+        for (Column column : COLUMNS) {
+            int value = 0;
+            int run = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int tileValue = column.getter.applyAsInt(mapData.getTile(x, y));
+                    if (run > 0 && tileValue != value) {
+                        writeSignedVarInt(buffer, value);
+                        writeVarInt(buffer, run);
+                        run = 0;
+                    }
+                    value = tileValue;
+                    run++;
+                }
+            }
+            if (run > 0) {
+                writeSignedVarInt(buffer, value);
+                writeVarInt(buffer, run);
+            }
+        }
+    }
+
+    /**
+     * A single tile attribute
+     */
+    private static class Column {
+
+        private final ToIntFunction<MapTile> getter;
+        private final ObjIntConsumer<MapTile> setter;
+
+        public Column(ToIntFunction<MapTile> getter, ObjIntConsumer<MapTile> setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.serializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import toniarts.openkeeper.game.component.Mobile;
+
+/**
+ * Serializes the {@link Mobile}, the abilities are packed into a single byte
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class MobileSerializer extends CompactSerializer {
+
+    @Override
+    public <T> T readObject(ByteBuffer data, Class<T> c) throws IOException {
+        Mobile mobile = new Mobile();
+        byte flags = data.get();
+        mobile.canFly = isFlagSet(flags, 0);
+        mobile.canWalkOnWater = isFlagSet(flags, 1);
+        mobile.canWalkOnLava = isFlagSet(flags, 2);
+        mobile.maxSpeed = data.getFloat();
+
+        return (T) mobile;
+    }
+
+    @Override
+    public void writeObject(ByteBuffer buffer, Object object) throws IOException {
+        Mobile mobile = (Mobile) object;
+        writeFlags(buffer, mobile.canFly, mobile.canWalkOnWater, mobile.canWalkOnLava);
+        buffer.putFloat(mobile.maxSpeed);
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.serializer;
+
+import com.jme3.math.Vector2f;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import toniarts.openkeeper.game.network.message.PlayerCommand;
+import toniarts.openkeeper.game.network.message.PlayerCommands;
+
+/**
+ * Serializes the {@link PlayerCommands}, each command writes only the fields
+ * of its type
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class PlayerCommandsSerializer extends CompactSerializer {
+
+    @Override
+    public <T> T readObject(ByteBuffer data, Class<T> c) throws IOException {
+        int sequence = readVarInt(data);
+        int size = readVarInt(data);
+        List<PlayerCommand> commands = new ArrayList<>(size);
+        EntityIdDelta ids = new EntityIdDelta();
+        for (int i = 0; i < size; i++) {
+            commands.add(readCommand(data, ids));
+        }
+
+        return (T) new PlayerCommands(sequence, commands);
+    }
+
+    @Override
+    public void writeObject(ByteBuffer buffer, Object object) throws IOException {
+        PlayerCommands playerCommands = (PlayerCommands) object;
+        writeVarInt(buffer, playerCommands.getSequence());
+        writeVarInt(buffer, playerCommands.getCommands().size());
+        EntityIdDelta ids = new EntityIdDelta();
+        for (PlayerCommand command : playerCommands.getCommands()) {
+            writeCommand(buffer, command, ids);
+        }
+    }
+
+    static PlayerCommand readCommand(ByteBuffer data, EntityIdDelta ids) {
+        PlayerCommand.Type type = readEnum(data, PlayerCommand.Type.class);
+        PlayerCommand command = new PlayerCommand(type);
+        if (type == null) {
+            return command;
+        }
+        switch (type) {
+            case SELECT_TILES:
+                command.setStart(readVector(data));
+                command.setEnd(readVector(data));
+                command.setSelect(data.get() != 0);
+                break;
+            case BUILD:
+                command.setStart(readVector(data));
+                command.setEnd(readVector(data));
+                command.setRoomId((short) readVarInt(data));
+                break;
+            case SELL:
+                command.setStart(readVector(data));
+                command.setEnd(readVector(data));
+                break;
+            case INTERACT:
+            case PICK_UP:
+                command.setEntity(readEntityId(data, ids));
+                break;
+            case DROP:
+                byte flags = data.get();
+                command.setEntity(readEntityId(data, ids));
+                command.setTile(readPoint(data));
+                command.setEnd(readVector(data));
+                if (isFlagSet(flags, 0)) {
+                    command.setTarget(readEntityId(data, ids));
+                }
+                break;
+            case GET_GOLD:
+                command.setAmount(readVarInt(data));
+                break;
+        }
+
+        return command;
+    }
+
+    static void writeCommand(ByteBuffer buffer, PlayerCommand command, EntityIdDelta ids) {
+        writeEnum(buffer, command.getType());
+        if (command.getType() == null) {
+            return;
+        }
+        switch (command.getType()) {
+            case SELECT_TILES:
+                writeVector(buffer, command.getStart());
+                writeVector(buffer, command.getEnd());
+                buffer.put((byte) (command.isSelect() ? 1 : 0));
+                break;
+            case BUILD:
+                writeVector(buffer, command.getStart());
+                writeVector(buffer, command.getEnd());
+                writeVarInt(buffer, command.getRoomId());
+                break;
+            case SELL:
+                writeVector(buffer, command.getStart());
+                writeVector(buffer, command.getEnd());
+                break;
+            case INTERACT:
+            case PICK_UP:
+                writeEntityId(buffer, command.getEntity(), ids);
+                break;
+            case DROP:
+                writeFlags(buffer, command.getTarget() != null);
+                writeEntityId(buffer, command.getEntity(), ids);
+                writePoint(buffer, command.getTile());
+                writeVector(buffer, command.getEnd());
+                if (command.getTarget() != null) {
+                    writeEntityId(buffer, command.getTarget(), ids);
+                }
+                break;
+            case GET_GOLD:
+                writeVarInt(buffer, command.getAmount());
+                break;
+        }
+    }
+
+    private static Vector2f readVector(ByteBuffer data) {
+        return new Vector2f(readCoordinate(data), readCoordinate(data));
+    }
+
+    private static void writeVector(ByteBuffer buffer, Vector2f vector) {
+        writeCoordinate(buffer, vector.x);
+        writeCoordinate(buffer, vector.y);
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network.serializer;
+
+import com.jme3.math.Vector3f;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import toniarts.openkeeper.game.component.Position;
+
+/**
+ * Serializes the {@link Position}, the coordinates are quantized to
+ * {@link CompactSerializer#POSITION_PRECISION} and the rotation to two bytes
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class PositionSerializer extends CompactSerializer {
+
+    @Override
+    public <T> T readObject(ByteBuffer data, Class<T> c) throws IOException {
+        Position position = new Position();
+        position.rotation = readAngle(data);
+        if (data.get() != 0) {
+            position.position = new Vector3f(readCoordinate(data), readCoordinate(data), readCoordinate(data));
+        }
+
+        return (T) position;
+    }
+
+    @Override
+    public void writeObject(ByteBuffer buffer, Object object) throws IOException {
+        Position position = (Position) object;
+        writeAngle(buffer, position.rotation);
+        buffer.put((byte) (position.position != null ? 1 : 0));
+        if (position.position != null) {
+            writeCoordinate(buffer, position.position.x);
+            writeCoordinate(buffer, position.position.y);
+            writeCoordinate(buffer, position.position.z);
+        }
+    }
+
+}
@@ -31,19 +31,25 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import toniarts.openkeeper.game.network.message.StreamedMessage;
+import toniarts.openkeeper.game.network.message.StreamedMessageAck;
 
 /**
  * A client that listens for our streamed packages and notifies you when they
- * are done
+ * are done. Every received package is acknowledged, the server waits for these
+ * before sending more
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
 public class StreamingClientService extends AbstractClientService {
 
-    private final Map<Integer, Map<Integer, ByteBuffer>> messageReceiveMap = new ConcurrentHashMap<>();
+    private final Map<Integer, Transfer> messageReceiveMap = new ConcurrentHashMap<>();
     private final MessageListener<Client> messageListener = new StreamedMessageServiceListenerImpl();
     private final Map<Integer, List<StreamedMessageListener>> listeners = new HashMap<>();
+    private final Inflater inflater = new Inflater();
+    private ByteBuffer messageBuffer = ByteBuffer.allocate(0);
 
     private static final Logger logger = Logger.getLogger(StreamingClientService.class.getName());
 
@@ -62,9 +68,9 @@ public class StreamingClientService extends AbstractClientService {
         getClient().removeMessageListener(messageListener, StreamedMessage.class);
 
         // Get rid of all buffers
-        for (Map<Integer, ByteBuffer> buffers : messageReceiveMap.values()) {
-            buffers.clear();
-        }
+        messageReceiveMap.clear();
+        messageBuffer = ByteBuffer.allocate(0);
+        inflater.end();
     }
 
     public void addListener(int messageType, StreamedMessageListener listener) {
@@ -92,45 +98,74 @@ public class StreamingClientService extends AbstractClientService {
         public void messageReceived(Client source, Message m) {
             StreamedMessage message = (StreamedMessage) m;
 
-            // Set up a buffer for this client
-            Map<Integer, ByteBuffer> messageBuffers = messageReceiveMap.get(source.getId());
-            if (messageBuffers == null) {
-                messageBuffers = new HashMap<>();
-                messageReceiveMap.put(source.getId(), messageBuffers);
+            // The first package always starts a new transfer
+            Transfer transfer = messageReceiveMap.get(message.getMessageType());
+            if (transfer == null || message.getChunk() == 0) {
+                transfer = new Transfer(message.getTotalSize());
+                messageReceiveMap.put(message.getMessageType(), transfer);
             }
+            System.arraycopy(message.getPayload(), 0, transfer.data, transfer.received, message.getPayload().length);
+            transfer.received += message.getPayload().length;
 
-            // Handle buffer for client's message type
-            ByteBuffer messageBuffer = messageBuffers.get(message.getMessageType());
-            if (messageBuffer == null) {
-                messageBuffer = ByteBuffer.allocate(message.getTotalSize());
-                messageBuffers.put(message.getMessageType(), messageBuffer);
-            }
-            messageBuffer.put(message.getPayload());
+            source.send(new StreamedMessageAck(message.getMessageType(), message.getChunk()));
 
             // If the message is complete, notify and discard
             // In theory we should always listen to the whole message, even if nobody is listening when we started
             // There is a possibility that someone starts to listen to it in the middle of transmission
-            if (!messageBuffer.hasRemaining()) {
+            if (transfer.received == transfer.data.length) {
+                messageReceiveMap.remove(message.getMessageType());
                 List<StreamedMessageListener> messageListeners = listeners.get(message.getMessageType());
                 if (messageListeners != null) {
                     try {
-                        messageBuffer.rewind();
 
-                        // Deserialize
-                        Object data = Serializer.readClassAndObject(messageBuffer);
+                        // Decompress & deserialize
+                        ByteBuffer buffer = decompress(transfer.data, message.getUncompressedSize());
+                        Object data = Serializer.readClassAndObject(buffer);
 
                         // Notify
                         for (StreamedMessageListener listener : messageListeners) {
                             listener.onMessageReceived(data);
                         }
-                    } catch (IOException ex) {
+                    } catch (IOException | DataFormatException ex) {
                         logger.log(Level.SEVERE, "Failed to deserialize the data payload!", ex);
                     }
                 }
-                messageBuffers.remove(message.getMessageType());
             }
         }
 
+        private ByteBuffer decompress(byte[] data, int uncompressedSize) throws DataFormatException {
+            if (messageBuffer.capacity() < uncompressedSize) {
+                messageBuffer = ByteBuffer.allocate(uncompressedSize);
+            }
+            inflater.reset();
+            inflater.setInput(data);
+            int size = 0;
+            while (size < uncompressedSize && !inflater.finished()) {
+                int inflated = inflater.inflate(messageBuffer.array(), size, uncompressedSize - size);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Streamed data is truncated!");
+                }
+                size += inflated;
+            }
+            messageBuffer.clear();
+            messageBuffer.limit(size);
+
+            return messageBuffer;
+        }
+
+    }
+
+    /**
+     * Compressed data being received
+     */
+    private static class Transfer {
+
+        private final byte[] data;
+        private int received = 0;
+
+        public Transfer(int totalSize) {
+            this.data = new byte[totalSize];
+        }
     }
 
 }
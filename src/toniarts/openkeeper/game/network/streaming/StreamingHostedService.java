@@ -17,32 +17,94 @@
 package toniarts.openkeeper.game.network.streaming;
 
 import com.jme3.network.HostedConnection;
+import com.jme3.network.Message;
+import com.jme3.network.MessageListener;
+import com.jme3.network.Server;
 import com.jme3.network.serializing.Serializer;
 import com.jme3.network.service.AbstractHostedService;
 import com.jme3.network.service.HostedServiceManager;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import toniarts.openkeeper.game.network.message.StreamedMessage;
+import toniarts.openkeeper.game.network.message.StreamedMessageAck;
 
 /**
  * Streaming data, meaning that if something is needed to be send over to
  * clients that doesn't fit to a single message, this is your service. We simply
  * keep sending messages until everything is transfered. The payload needs to be
- * serializable though...
+ * serializable though...<br>
+ * The payload is compressed and sent in chunks. Each client acknowledges the
+ * chunks it has received, and only a few chunks are kept in flight per client,
+ * so a big transfer doesn't flood the connection.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
 public class StreamingHostedService extends AbstractHostedService {
 
     private static final int MAX_MESSAGE_SIZE = 30000;
-    private static final int MAX_TOTAL_SIZE = 10000000;
+    private static final int INITIAL_BUFFER_SIZE = 1 << 20;
+    private static final int MAX_CHUNKS_IN_FLIGHT = 4;
+    private static final long ACK_WAIT_TIME = 100;
+
+    private final Map<HostedConnection, Map<Integer, TransferWindow>> transfers = new ConcurrentHashMap<>();
+    private final MessageListener<HostedConnection> ackListener = new StreamedMessageAckListener();
+    private final ExecutorService sender = Executors.newSingleThreadExecutor((Runnable r) -> new Thread(r, "StreamingSender"));
+
+    // Reused between the sends
+    private ByteBuffer serializationBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private byte[] compressionBuffer = new byte[INITIAL_BUFFER_SIZE];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
 
     private static final Logger logger = Logger.getLogger(StreamingHostedService.class.getName());
 
     @Override
     protected void onInitialize(HostedServiceManager serviceManager) {
+        getServer().addMessageListener(ackListener, StreamedMessageAck.class);
+    }
 
+    @Override
+    public void terminate(HostedServiceManager serviceManager) {
+        super.terminate(serviceManager);
+
+        getServer().removeMessageListener(ackListener, StreamedMessageAck.class);
+        sender.shutdownNow();
+        try {
+            sender.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            logger.log(Level.SEVERE, "Failed to wait for the streaming sender to shutdown!", ex);
+        }
+
+        // Free the native compression memory, under the same lock as the sends
+        synchronized (this) {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void connectionRemoved(Server server, HostedConnection hc) {
+        super.connectionRemoved(server, hc);
+
+        // Release anyone waiting for this client
+        Map<Integer, TransferWindow> windows = transfers.remove(hc);
+        if (windows != null) {
+            for (TransferWindow window : windows.values()) {
+                window.close();
+            }
+        }
     }
 
     /**
@@ -56,30 +118,198 @@ public class StreamingHostedService extends AbstractHostedService {
      * @throws IOException the serialization may fail
      */
     public void sendData(int messageType, Object data, HostedConnection sendTo) throws IOException {
+        sendData(messageType, data, sendTo, null);
+    }
+
+    /**
+     * Sends your serializable object in the background, in as many packages as
+     * is needed
+     *
+     * @param messageType the type of messages, so that the receiver can
+     * recognice and listen to it
+     * @param data the serializable data
+     * @param sendTo a specific client to send to, null will broadcast
+     * @param progressListener gets the transfer progress of each client, from
+     * 0 to 1, may be {@code null}
+     */
+    public void sendDataAsync(int messageType, Object data, HostedConnection sendTo, BiConsumer<HostedConnection, Float> progressListener) {
+        sender.submit(() -> {
+            try {
+                sendData(messageType, data, sendTo, progressListener);
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Failed to stream the data to clients!", ex);
+            }
+        });
+    }
+
+    /**
+     * Blocking send method that sends your serializable object in as many
+     * packages as is needed. Blocks until all the clients have received the
+     * data
+     *
+     * @param messageType the type of messages, so that the receiver can
+     * recognice and listen to it
+     * @param data the serializable data
+     * @param sendTo a specific client to send to, null will broadcast
+     * @param progressListener gets the transfer progress of each client, from
+     * 0 to 1, may be {@code null}
+     * @throws IOException the serialization may fail
+     */
+    public synchronized void sendData(int messageType, Object data, HostedConnection sendTo, BiConsumer<HostedConnection, Float> progressListener) throws IOException {
+        int uncompressedSize = serialize(data);
+        int totalSize = compress(uncompressedSize);
+        int chunks = Math.max(1, (totalSize + MAX_MESSAGE_SIZE - 1) / MAX_MESSAGE_SIZE);
+
+        // Open the windows
+        Collection<HostedConnection> receivers = (sendTo == null ? getServer().getConnections() : Collections.singletonList(sendTo));
+        List<TransferWindow> windows = new ArrayList<>(receivers.size());
+        for (HostedConnection connection : receivers) {
+            TransferWindow window = new TransferWindow(connection, chunks, progressListener);
+            transfers.computeIfAbsent(connection, (conn) -> new ConcurrentHashMap<>()).put(messageType, window);
+            windows.add(window);
+        }
+
+        try {
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int offset = chunk * MAX_MESSAGE_SIZE;
+                byte[] part = new byte[Math.min(MAX_MESSAGE_SIZE, totalSize - offset)];
+                System.arraycopy(compressionBuffer, offset, part, 0, part.length);
+                StreamedMessage message = new StreamedMessage(part, chunk, totalSize, uncompressedSize, messageType);
+                message.setReliable(true);
+
+                for (TransferWindow window : windows) {
+                    if (window.awaitWindow(chunk)) {
+                        window.connection.send(message);
+                    }
+                }
+            }
+
+            // Wait for everyone to receive all
+            for (TransferWindow window : windows) {
+                window.awaitWindow(chunks + MAX_CHUNKS_IN_FLIGHT);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while streaming the data!", ex);
+        } finally {
+            for (TransferWindow window : windows) {
+                Map<Integer, TransferWindow> connectionTransfers = transfers.get(window.connection);
+                if (connectionTransfers != null) {
+                    connectionTransfers.remove(messageType, window);
+                }
+            }
+        }
+    }
 
-        // Allocate max size buffer and write the object
-        ByteBuffer buffer = ByteBuffer.allocate(MAX_TOTAL_SIZE);
-        Serializer.writeClassAndObject(buffer, data);
-
-        // Allocate a new job
-        int totalSize = buffer.position();
-        int written = 0;
-        buffer.rewind();
-        while (written < totalSize) {
-            int write = Math.min(MAX_MESSAGE_SIZE, totalSize - written);
-            byte[] part = new byte[write];
-            buffer.get(part);
-            written += write;
-            StreamedMessage message = new StreamedMessage(part, totalSize, messageType);
-            message.setReliable(true);
-
-            // Broadcast if receiver is null
-            if (sendTo == null) {
-                getServer().broadcast(message);
-            } else {
-                sendTo.send(message);
+    /**
+     * Writes the object to the serialization buffer, growing it as needed
+     *
+     * @param data the object
+     * @return the serialized size
+     * @throws IOException the serialization may fail
+     */
+    private int serialize(Object data) throws IOException {
+        while (true) {
+            try {
+                serializationBuffer.clear();
+                Serializer.writeClassAndObject(serializationBuffer, data);
+
+                return serializationBuffer.position();
+            } catch (BufferOverflowException e) {
+                serializationBuffer = ByteBuffer.allocate(serializationBuffer.capacity() * 2);
             }
         }
     }
 
+    /**
+     * Compresses the serialization buffer to the compression buffer, growing
+     * it as needed
+     *
+     * @param size the serialized size
+     * @return the compressed size
+     */
+    private int compress(int size) {
+        deflater.reset();
+        deflater.setInput(serializationBuffer.array(), 0, size);
+        deflater.finish();
+        int compressedSize = 0;
+        while (!deflater.finished()) {
+            if (compressedSize == compressionBuffer.length) {
+                byte[] buffer = new byte[compressionBuffer.length * 2];
+                System.arraycopy(compressionBuffer, 0, buffer, 0, compressedSize);
+                compressionBuffer = buffer;
+            }
+            compressedSize += deflater.deflate(compressionBuffer, compressedSize, compressionBuffer.length - compressedSize);
+        }
+
+        return compressedSize;
+    }
+
+    /**
+     * The chunks sent and received of a single transfer to a single client
+     */
+    private static class TransferWindow {
+
+        private final HostedConnection connection;
+        private final int chunks;
+        private final BiConsumer<HostedConnection, Float> progressListener;
+        private int receivedChunks = 0;
+        private boolean closed = false;
+
+        public TransferWindow(HostedConnection connection, int chunks, BiConsumer<HostedConnection, Float> progressListener) {
+            this.connection = connection;
+            this.chunks = chunks;
+            this.progressListener = progressListener;
+        }
+
+        /**
+         * Waits until the chunk fits in the window
+         *
+         * @param chunk the chunk to send
+         * @return false if the client is gone
+         * @throws InterruptedException
+         */
+        public synchronized boolean awaitWindow(int chunk) throws InterruptedException {
+            while (!closed && chunk - receivedChunks >= MAX_CHUNKS_IN_FLIGHT && receivedChunks < chunks) {
+                wait(ACK_WAIT_TIME);
+            }
+
+            return !closed;
+        }
+
+        public void onChunkReceived(int chunk) {
+            synchronized (this) {
+                receivedChunks = Math.max(receivedChunks, chunk + 1);
+                notifyAll();
+            }
+            if (progressListener != null) {
+                progressListener.accept(connection, (float) (chunk + 1) / chunks);
+            }
+        }
+
+        public synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Listens to the clients acknowledging the chunks
+     */
+    private class StreamedMessageAckListener implements MessageListener<HostedConnection> {
+
+        @Override
+        public void messageReceived(HostedConnection source, Message m) {
+            StreamedMessageAck ack = (StreamedMessageAck) m;
+            Map<Integer, TransferWindow> connectionTransfers = transfers.get(source);
+            if (connectionTransfers != null) {
+                TransferWindow window = connectionTransfers.get(ack.getMessageType());
+                if (window != null) {
+                    window.onChunkReceived(ack.getChunk());
+                }
+            }
+        }
+
+    }
+
 }
@@ -22,6 +22,7 @@ import com.jme3.cinematic.events.CinematicEvent;
 import com.jme3.cinematic.events.CinematicEventListener;
 import com.jme3.math.Vector3f;
 import com.simsilica.es.EntityId;
+import com.simsilica.ethereal.EtherealClient;
 import java.awt.Point;
 import java.util.Collection;
 import java.util.Collections;
@@ -37,9 +38,11 @@ import toniarts.openkeeper.game.controller.PlayerController;
 import toniarts.openkeeper.game.data.Keeper;
 import toniarts.openkeeper.game.data.ResearchableEntity;
 import toniarts.openkeeper.game.data.ResearchableType;
+import toniarts.openkeeper.game.logic.StateHashSystem;
 import toniarts.openkeeper.game.map.IMapInformation;
 import toniarts.openkeeper.game.map.MapData;
 import toniarts.openkeeper.game.map.MapTile;
+import toniarts.openkeeper.game.network.message.GameLoadProgressData;
 import toniarts.openkeeper.game.state.loading.IPlayerLoadingProgress;
 import toniarts.openkeeper.game.state.loading.MultiplayerLoadingState;
 import toniarts.openkeeper.game.state.loading.SingleBarLoadingState;
@@ -50,6 +53,7 @@ import toniarts.openkeeper.tools.convert.map.KwdFile;
 import toniarts.openkeeper.tools.convert.map.TriggerAction;
 import toniarts.openkeeper.tools.convert.map.Variable;
 import toniarts.openkeeper.utils.AssetUtils;
+import toniarts.openkeeper.view.EntityTransformBuffer;
 import toniarts.openkeeper.view.PlayerCameraState;
 import toniarts.openkeeper.view.PlayerEntityViewState;
 import toniarts.openkeeper.view.PlayerMapViewState;
@@ -145,6 +149,14 @@ public class GameClientState extends AbstractPauseAwareState {
         super.setEnabled(enabled);
     }
 
+    @Override
+    public void update(float tpf) {
+        super.update(tpf);
+
+        // Send the player actions of this frame
+        gameClientService.flushCommands();
+    }
+
     private void detachRelatedAppStates() {
         stateManager.detach(stateManager.getState(PlayerEntityViewState.class));
         stateManager.detach(stateManager.getState(PlayerMapViewState.class));
@@ -314,6 +326,15 @@ public class GameClientState extends AbstractPauseAwareState {
             mapClientService = new MapController(mapData, kwdFile);
             textParser = new TextParserService(mapClientService);
             playerModelViewState = new PlayerEntityViewState(kwdFile, app.getAssetManager(), gameClientService.getEntityData(), playerId, textParser);
+
+            // In network games the moving entities are streamed
+            ConnectionState connectionState = app.getStateManager().getState(ConnectionState.class);
+            boolean networkGame = connectionState != null;
+            if (networkGame) {
+                EntityTransformBuffer transformBuffer = new EntityTransformBuffer(connectionState.getRemoteTimeSource());
+                connectionState.getService(EtherealClient.class).addObjectListener(transformBuffer);
+                playerModelViewState.setTransformBuffer(transformBuffer);
+            }
             playerMapViewState = new PlayerMapViewState(app, kwdFile, app.getAssetManager(), mapClientService, playerId) {
 
                 private float lastProgress = 0;
@@ -321,8 +342,8 @@ public class GameClientState extends AbstractPauseAwareState {
                 @Override
                 protected void updateProgress(float progress) {
 
-                    // Update ourselves
-                    onLoadStatusUpdate(progress, playerId);
+                    // Update ourselves, in network games the game data transfer was the first part of the loading
+                    onLoadStatusUpdate(networkGame ? GameLoadProgressData.getLoadingProgress(progress) : progress, playerId);
 
                     if (progress - lastProgress >= 0.01f) {
                         gameClientService.loadStatus(progress);
@@ -385,6 +406,16 @@ public class GameClientState extends AbstractPauseAwareState {
             playerMapViewState.onTilesChange(updatedTiles);
         }
 
+        @Override
+        public void onStateHash(long tick, long hash) {
+
+            // The tile changes arrive before the hash, in the same order as they happened on the host
+            long clientHash = StateHashSystem.calculateHash(mapClientService.getMapData());
+            if (clientHash != hash) {
+                LOGGER.log(Level.WARNING, "Game state out of sync on tick {0}! Host state hash {1}, ours {2}", new Object[]{tick, Long.toHexString(hash), Long.toHexString(clientHash)});
+            }
+        }
+
         @Override
         public void onGoldChange(short keeperId, int gold) {
             getPlayer(keeperId).setGold(gold);
@@ -178,6 +178,10 @@ public class GameServerState extends AbstractAppState {
 
             // Create the central game controller
             gameController = new GameController(kwdFile, players, gameService.getEntityData(), kwdFile.getVariables(), gameService);
+            gameController.setEntityMovementListener(gameService.getEntityMovementListener());
+            gameController.setEntityUpdater(gameService.getEntityUpdater());
+            gameController.setCommandProcessor(gameService.getCommandProcessor());
+            gameController.setStateHashListener(gameService.getStateHashListener());
             gameController.createNewGame();
 
             gameWorldController = gameController.getGameWorldController();
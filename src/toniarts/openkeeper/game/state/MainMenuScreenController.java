@@ -51,6 +51,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import toniarts.openkeeper.Main;
 import toniarts.openkeeper.game.MapSelector;
@@ -63,6 +64,7 @@ import toniarts.openkeeper.game.data.Settings;
 import toniarts.openkeeper.game.data.Settings.LevelStatus;
 import toniarts.openkeeper.game.network.chat.ChatClientService;
 import toniarts.openkeeper.game.network.chat.ChatSessionListener;
+import toniarts.openkeeper.game.network.discovery.LanServerDiscovery;
 import toniarts.openkeeper.game.sound.GlobalCategory;
 import toniarts.openkeeper.game.sound.GlobalType;
 import toniarts.openkeeper.game.sound.SoundCategory;
@@ -99,6 +101,8 @@ public class MainMenuScreenController implements IMainMenuScreenController {
     private static final List<Cutscene> CUTSCENES = new ArrayList<>();
     private ChatSessionListener chatSessionListener;
     private LobbySessionListener lobbySessionListener;
+    private LanServerDiscovery serverDiscovery;
+    private Future<?> serverSearch;
 
     /**
      * A popup instance if some screen should need one
@@ -167,7 +171,20 @@ public class MainMenuScreenController implements IMainMenuScreenController {
 
     @Override
     public void connectToServer() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        ListBox<TableRow> games = screen.findNiftyControl("multiplayerGamesTable", ListBox.class);
+        TextField player = screen.findNiftyControl("playerName", TextField.class);
+        if (games == null || games.getFocusItem() == null
+                || player == null || player.getRealText().isEmpty()) {
+            return;
+        }
+
+        TableRow row = games.getFocusItem();
+        cancelServerSearch();
+        state.multiplayerConnect(row.getData().get(1) + ":" + row.getData().get(2), player.getRealText());
+
+        // Overlay
+        popupElement = nifty.createPopup("connectingLayer");
+        nifty.showPopup(nifty.getCurrentScreen(), popupElement.getId(), null);
     }
 
     @Override
@@ -228,28 +245,39 @@ public class MainMenuScreenController implements IMainMenuScreenController {
 
     @Override
     public void multiplayerRefresh() {
-        /*
-         TextField port = screen.findNiftyControl("gamePort", TextField.class);
-         int serverPort = Integer.valueOf(port.getRealText());
+        TextField port = screen.findNiftyControl("gamePort", TextField.class);
+        ListBox<TableRow> games = screen.findNiftyControl("multiplayerGamesTable", ListBox.class);
+        if (games == null || port == null) {
+            LOGGER.warning("Element multiplayerGamesTable not found");
+            return;
+        }
 
-         ListBox<TableRow> games = screen.findNiftyControl("multiplayerGamesTable", ListBox.class);
-         if (games == null) {
-         logger.warning("Element multiplayerGamesTable not found");
-         return;
-         }
-         games.clear();
+        int serverPort;
+        try {
+            serverPort = Integer.parseInt(port.getRealText());
+        } catch (NumberFormatException e) {
+            serverPort = Main.getUserSettings().getInteger(Settings.Setting.MULTIPLAYER_LAST_PORT);
+        }
 
-         LocalServerSearch searcher = new LocalServerSearch(serverPort) {
-         int i = 0;
+        cancelServerSearch();
+        games.clear();
+        if (serverDiscovery == null) {
+            serverDiscovery = new LanServerDiscovery();
+        }
+        serverSearch = serverDiscovery.search(serverPort, (server) -> {
+            state.app.enqueue(() -> {
+                if ("multiplayerLocal".equals(nifty.getCurrentScreen().getScreenId())) {
+                    games.addItem(new TableRow(games.itemCount(), server.getName(), server.getHost(), Integer.toString(server.getPort())));
+                }
+            });
+        });
+    }
 
-         @Override
-         public void onFound(NetworkServer server) {
-         TableRow row = new TableRow(i++, server.getName(), server.getHost(), server.getPort() + "");
-         games.addItem(row);
-         }
-         };
-         searcher.start();
-         */
+    private void cancelServerSearch() {
+        if (serverSearch != null) {
+            serverSearch.cancel(true);
+            serverSearch = null;
+        }
     }
 
     @Override
@@ -457,7 +485,7 @@ public class MainMenuScreenController implements IMainMenuScreenController {
                 TextField game = screen.findNiftyControl("gameName", TextField.class);
                 player.setText(Main.getUserSettings().getSetting(Settings.Setting.PLAYER_NAME).toString());
                 game.setText(Main.getUserSettings().getSetting(Settings.Setting.GAME_NAME).toString());
-                // multiplayerRefresh();
+                multiplayerRefresh();
                 break;
 
             case "skirmishMapSelect":
@@ -535,6 +563,10 @@ public class MainMenuScreenController implements IMainMenuScreenController {
                 removeLobbyListeners();
 
                 break;
+
+            case "multiplayerLocal":
+                cancelServerSearch();
+                break;
         }
     }
 
@@ -543,11 +543,13 @@ public class MainMenuState extends AbstractAppState {
 
         // See if the map thumbnail exist, otherwise create one
         String asset = AssetsConverter.MAP_THUMBNAILS_FOLDER + File.separator + ConversionUtils.stripFileName(map.getGameLevel().getName()) + ".png";
-        if (assetManager.locateAsset(new TextureKey(asset)) == null) {
+        String destination = AssetsConverter.getAssetsFolder() + AssetsConverter.MAP_THUMBNAILS_FOLDER + File.separator;
+        if (assetManager.locateAsset(new TextureKey(asset)) == null || AssetsConverter.isMapThumbnailOutdated(map, destination)) {
 
-            // Generate
+            // Generate, also custom maps dropped to the maps folder get their thumbnails here
             try {
-                AssetsConverter.genererateMapThumbnail(map, AssetsConverter.getAssetsFolder() + AssetsConverter.MAP_THUMBNAILS_FOLDER + File.separator);
+                AssetsConverter.genererateMapThumbnail(map, destination);
+                assetManager.deleteFromCache(new TextureKey(asset));
             } catch (Exception e) {
                 LOGGER.log(java.util.logging.Level.WARNING, "Failed to generate map file out of {0}!", map);
                 asset = "Textures/Unique_NoTextureName.png";
@@ -27,4 +27,10 @@ public interface GameSessionClientService extends GameSession {
 
     public void removeGameSessionListener(GameSessionListener l);
 
+    /**
+     * Sends the player actions buffered since the last call, called once per
+     * frame
+     */
+    public void flushCommands();
+
 }
@@ -77,6 +77,15 @@ public interface GameSessionListener extends MapListener, PlayerListener {
     @Asynchronous
     public void onGameResumed();
 
+    /**
+     * The host's game state hash, the client should compare it to its own
+     *
+     * @param tick the game logic tick the state was hashed on
+     * @param hash the state hash
+     */
+    @Asynchronous
+    public void onStateHash(long tick, long hash);
+
     /**
      * The client should set widescreen mode
      *
@@ -16,6 +16,10 @@
  */
 package toniarts.openkeeper.game.state.session;
 
+import toniarts.openkeeper.game.listener.EntityMovementListener;
+import toniarts.openkeeper.game.listener.StateHashListener;
+import toniarts.openkeeper.game.logic.IGameLogicUpdatable;
+
 /**
  * A generous game client services for the esteemed guests!
  *
@@ -27,4 +31,39 @@ public interface GameSessionServerService extends GameSessionService {
 
     public void removeGameSessionServiceListener(GameSessionServiceListener l);
 
+    /**
+     * Get the listener that streams the entity movement to the clients
+     *
+     * @return the movement listener, {@code null} if the movement is not
+     * streamed and the clients follow the entity positions only
+     */
+    public EntityMovementListener getEntityMovementListener();
+
+    /**
+     * Get the updatable that sends the entity changes to the clients. It is
+     * run as the last step of every game logic tick
+     *
+     * @return the entity updater, {@code null} if the entity data is not sent
+     * anywhere
+     */
+    public IGameLogicUpdatable getEntityUpdater();
+
+    /**
+     * Get the updatable that applies the commands received from the clients.
+     * It is run as the first step of every game logic tick
+     *
+     * @return the command processor, {@code null} if the player actions are
+     * applied as they come
+     */
+    public IGameLogicUpdatable getCommandProcessor();
+
+    /**
+     * Get the listener that sends the game state hashes to the clients, for
+     * them to check that they are in sync
+     *
+     * @return the state hash listener, {@code null} if the clients share the
+     * game state
+     */
+    public StateHashListener getStateHashListener();
+
 }
@@ -28,6 +28,9 @@ import java.util.logging.Logger;
 import toniarts.openkeeper.Main;
 import toniarts.openkeeper.game.data.Keeper;
 import toniarts.openkeeper.game.data.ResearchableEntity;
+import toniarts.openkeeper.game.listener.EntityMovementListener;
+import toniarts.openkeeper.game.listener.StateHashListener;
+import toniarts.openkeeper.game.logic.IGameLogicUpdatable;
 import toniarts.openkeeper.game.map.MapData;
 import toniarts.openkeeper.game.map.MapTile;
 import toniarts.openkeeper.game.state.CheatState;
@@ -118,6 +121,34 @@ public class LocalGameSession implements GameSessionServerService, GameSessionCl
         return entityData;
     }
 
+    @Override
+    public IGameLogicUpdatable getEntityUpdater() {
+
+        // Local game shares the entity data, nothing to send
+        return null;
+    }
+
+    @Override
+    public IGameLogicUpdatable getCommandProcessor() {
+
+        // Local player actions are direct calls
+        return null;
+    }
+
+    @Override
+    public EntityMovementListener getEntityMovementListener() {
+
+        // Local game shares the entity data, nothing to stream
+        return null;
+    }
+
+    @Override
+    public StateHashListener getStateHashListener() {
+
+        // The local client gets the same tiles, it can't fall out of sync
+        return null;
+    }
+
     @Override
     public void sendGameData(Collection<Keeper> players, MapData mapData) {
         BinaryExporter exporter = BinaryExporter.getInstance();
@@ -162,6 +193,12 @@ public class LocalGameSession implements GameSessionServerService, GameSessionCl
         listeners.remove(l);
     }
 
+    @Override
+    public void flushCommands() {
+
+        // The actions are not buffered
+    }
+
     @Override
     public void setWidescreen(boolean enable, short playerId) {
         if (playerId == PLAYER_ID) {
@@ -565,7 +565,7 @@ public class TaskManager implements ITaskManager, IGameLogicUpdatable {
 
             // Assign
             if (!coordinates.isEmpty()) {
-                Point target = Utils.getRandomItem(coordinates);
+                Point target = Utils.getRandomItem(coordinates, Utils.getGameRandom());
                 GraphPath<MapTile> path = navigationService.findPath(creature.getCreatureCoordinates(), target, creature);
                 if (path != null || target == creature.getCreatureCoordinates()) {
 
@@ -45,6 +45,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -93,7 +98,7 @@ public abstract class AssetsConverter {
     public enum ConvertProcess {
 
         TEXTURES(6),
-        MODELS(6),
+        MODELS(8),
         MOUSE_CURSORS(4),
         MUSIC_AND_SOUNDS(4),
         INTERFACE_TEXTS(3),
@@ -169,11 +174,24 @@ public abstract class AssetsConverter {
     protected abstract void updateStatus(Integer currentProgress, Integer totalProgress, ConvertProcess process);
 
     public static boolean conversionNeeded(AppSettings settings) {
+        return conversionNeeded(settings, EnumSet.noneOf(ConvertProcess.class));
+    }
+
+    /**
+     * Checks whether the conversion is needed
+     *
+     * @param settings the application settings holding the converted versions
+     * @param onDemandProcesses processes whose assets are served straight
+     * from the original files, these are never outdated
+     * @return true if some conversion process needs to be run
+     * @see OriginalAssetLocator
+     */
+    public static boolean conversionNeeded(AppSettings settings, Set<ConvertProcess> onDemandProcesses) {
         boolean needConversion = false;
 
         for (ConvertProcess item : ConvertProcess.values()) {
             String key = item.getSettingName();
-            boolean isOutdated = item.getVersion() > settings.getInteger(key);
+            boolean isOutdated = !onDemandProcesses.contains(item) && item.getVersion() > settings.getInteger(key);
             item.setOutdated(isOutdated);
             if (isOutdated) {
                 needConversion = true;
@@ -184,8 +202,23 @@ public abstract class AssetsConverter {
     }
 
     public static void setConversionSettings(AppSettings settings) {
+        setConversionSettings(settings, EnumSet.noneOf(ConvertProcess.class));
+    }
+
+    /**
+     * Marks the conversion processes done. The on demand processes are left
+     * untouched so that they get converted if the on demand serving is turned
+     * off
+     *
+     * @param settings the application settings holding the converted versions
+     * @param onDemandProcesses processes whose assets are served straight
+     * from the original files
+     */
+    public static void setConversionSettings(AppSettings settings, Set<ConvertProcess> onDemandProcesses) {
         for (ConvertProcess item : ConvertProcess.values()) {
-            settings.putInteger(item.getSettingName(), item.getVersion());
+            if (!onDemandProcesses.contains(item)) {
+                settings.putInteger(item.getSettingName(), item.getVersion());
+            }
         }
     }
 
@@ -252,50 +285,53 @@ public abstract class AssetsConverter {
         AssetUtils.deleteFolder(new File(destination));
         EngineTexturesFile etFile = getEngineTexturesFile(dungeonKeeperFolder);
         Pattern pattern = Pattern.compile("(?<name>\\w+)MM(?<mipmaplevel>\\d{1})");
-        WadFile frontEnd;
-        WadFile engineTextures;
+        File frontEndFile;
+        File engineTexturesFile;
         try {
-            frontEnd = new WadFile(new File(ConversionUtils.getRealFileName(dungeonKeeperFolder, PathUtils.DKII_DATA_FOLDER + "FrontEnd.WAD")));
-            engineTextures = new WadFile(new File(ConversionUtils.getRealFileName(dungeonKeeperFolder, PathUtils.DKII_DATA_FOLDER + "EngineTextures.WAD")));
+            frontEndFile = new File(ConversionUtils.getRealFileName(dungeonKeeperFolder, PathUtils.DKII_DATA_FOLDER + "FrontEnd.WAD"));
+            engineTexturesFile = new File(ConversionUtils.getRealFileName(dungeonKeeperFolder, PathUtils.DKII_DATA_FOLDER + "EngineTextures.WAD"));
         } catch (IOException e) {
             throw new RuntimeException("Failed to open a WAD file!", e);
         }
 
-        int i = 0;
-        int total = etFile.getFileCount() + frontEnd.getWadFileEntries().size() + engineTextures.getWadFileEntries().size();
+        try (WadFile frontEnd = new WadFile(frontEndFile);
+                WadFile engineTextures = new WadFile(engineTexturesFile)) {
+            int i = 0;
+            int total = etFile.getFileCount() + frontEnd.getWadFileEntries().size() + engineTextures.getWadFileEntries().size();
 
-        for (String textureFile : etFile) {
-            updateStatus(i, total, ConvertProcess.TEXTURES);
-            i++;
+            for (String textureFile : etFile) {
+                updateStatus(i, total, ConvertProcess.TEXTURES);
+                i++;
 
-            //All are PNG files, and MipMap levels are present, we need only the
-            //highest quality one, so don't bother extracting the other mipmap levels
-            Matcher matcher = pattern.matcher(textureFile);
-            boolean found = matcher.find();
-            if (found && Integer.parseInt(matcher.group("mipmaplevel")) == 0) {
-
-                //Highest resolution, extract and rename
-                File f = etFile.extractFileData(textureFile, destination, OVERWRITE_DATA);
-                File newFile = new File(f.toString().replaceFirst("MM" + matcher.group("mipmaplevel"), ""));
-                if (OVERWRITE_DATA && newFile.exists()) {
-                    newFile.delete();
-                } else if (!OVERWRITE_DATA && newFile.exists()) {
-
-                    // Delete the extracted file
-                    LOGGER.log(Level.INFO, "File {0} already exists, skipping!", newFile);
-                    f.delete();
-                    continue;
-                }
-                f.renameTo(newFile);
-            } else if (!found) {
+                //All are PNG files, and MipMap levels are present, we need only the
+                //highest quality one, so don't bother extracting the other mipmap levels
+                Matcher matcher = pattern.matcher(textureFile);
+                boolean found = matcher.find();
+                if (found && Integer.parseInt(matcher.group("mipmaplevel")) == 0) {
+
+                    //Highest resolution, extract and rename
+                    File f = etFile.extractFileData(textureFile, destination, OVERWRITE_DATA);
+                    File newFile = new File(f.toString().replaceFirst("MM" + matcher.group("mipmaplevel"), ""));
+                    if (OVERWRITE_DATA && newFile.exists()) {
+                        newFile.delete();
+                    } else if (!OVERWRITE_DATA && newFile.exists()) {
+
+                        // Delete the extracted file
+                        LOGGER.log(Level.INFO, "File {0} already exists, skipping!", newFile);
+                        f.delete();
+                        continue;
+                    }
+                    f.renameTo(newFile);
+                } else if (!found) {
 
-                // No mipmap levels, just extract
-                etFile.extractFileData(textureFile, destination, OVERWRITE_DATA);
+                    // No mipmap levels, just extract
+                    etFile.extractFileData(textureFile, destination, OVERWRITE_DATA);
+                }
             }
-        }
 
-        extractTextureContainer(i, total, frontEnd, destination);
-        extractTextureContainer(i, total, engineTextures, destination);
+            extractTextureContainer(i, total, frontEnd, destination);
+            extractTextureContainer(i, total, engineTextures, destination);
+        }
     }
 
     /**
@@ -321,68 +357,69 @@ public abstract class AssetsConverter {
         EngineTexturesFile engineTexturesFile = getEngineTexturesFile(dungeonKeeperFolder);
 
         //Meshes are in the data folder, access the packed file
-        WadFile wad = new WadFile(new File(dungeonKeeperFolder + PathUtils.DKII_DATA_FOLDER + "Meshes.WAD"));
-        HashMap<String, KmfFile> kmfs = new HashMap<>();
-        File tmpdir = new File(System.getProperty("java.io.tmpdir"));
-        int i = 0;
-        int total = wad.getWadFileEntryCount();
-        for (final String entry : wad.getWadFileEntries()) {
-            try {
-                updateStatus(i, total, ConvertProcess.MODELS);
-
-                // See if we already have this model
-                if (!OVERWRITE_DATA && new File(destination.concat(entry.substring(0, entry.length() - 4)).concat(".j3o")).exists()) {
-                    LOGGER.log(Level.INFO, "File {0} already exists, skipping!", entry);
-                    i++;
-                    continue;
-                }
-
-                // Extract each file to temp
-                File f = wad.extractFileData(entry, tmpdir.toString());
-                f.deleteOnExit();
-
-                // Parse
-                final KmfFile kmfFile = new KmfFile(f);
-
-                // If it is a regular model or animation, process it straight away
-                // Leave groups for later (since linking)
-                if (kmfFile.getType() == KmfFile.Type.MESH || kmfFile.getType() == KmfFile.Type.ANIM) {
-                    convertModel(assetManager, new Entry<String, KmfFile>() {
-                        @Override
-                        public String getKey() {
-                            return entry;
-                        }
-
-                        @Override
-                        public KmfFile getValue() {
-                            return kmfFile;
-                        }
+        try (WadFile wad = new WadFile(new File(dungeonKeeperFolder + PathUtils.DKII_DATA_FOLDER + "Meshes.WAD"))) {
+            HashMap<String, KmfFile> kmfs = new HashMap<>();
+            File tmpdir = new File(System.getProperty("java.io.tmpdir"));
+            int i = 0;
+            int total = wad.getWadFileEntryCount();
+            for (final String entry : wad.getWadFileEntries()) {
+                try {
+                    updateStatus(i, total, ConvertProcess.MODELS);
 
-                        @Override
-                        public KmfFile setValue(KmfFile value) {
-                            throw new UnsupportedOperationException("Plz, don't do this!");
-                        }
-                    }, destination, engineTexturesFile);
+                    // See if we already have this model
+                    if (!OVERWRITE_DATA && new File(destination.concat(entry.substring(0, entry.length() - 4)).concat(".j3o")).exists()) {
+                        LOGGER.log(Level.INFO, "File {0} already exists, skipping!", entry);
+                        i++;
+                        continue;
+                    }
 
-                    // We can delete the file straight
-                    f.delete();
-                    i++;
-                } else {
+                    // Extract each file to temp
+                    File f = wad.extractFileData(entry, tmpdir.toString());
+                    f.deleteOnExit();
 
-                    // For later processing
-                    kmfs.put(entry, kmfFile);
+                    // Parse
+                    final KmfFile kmfFile = new KmfFile(f);
+
+                    // If it is a regular model or animation, process it straight away
+                    // Leave groups for later (since linking)
+                    if (kmfFile.getType() == KmfFile.Type.MESH || kmfFile.getType() == KmfFile.Type.ANIM) {
+                        convertModel(assetManager, new Entry<String, KmfFile>() {
+                            @Override
+                            public String getKey() {
+                                return entry;
+                            }
+
+                            @Override
+                            public KmfFile getValue() {
+                                return kmfFile;
+                            }
+
+                            @Override
+                            public KmfFile setValue(KmfFile value) {
+                                throw new UnsupportedOperationException("Plz, don't do this!");
+                            }
+                        }, destination, engineTexturesFile);
+
+                        // We can delete the file straight
+                        f.delete();
+                        i++;
+                    } else {
+
+                        // For later processing
+                        kmfs.put(entry, kmfFile);
+                    }
+                } catch (Exception ex) {
+                    LOGGER.log(Level.SEVERE, "Failed to create a file for WAD entry " + entry + "!", ex);
+                    throw ex;
                 }
-            } catch (Exception ex) {
-                LOGGER.log(Level.SEVERE, "Failed to create a file for WAD entry " + entry + "!", ex);
-                throw ex;
             }
-        }
 
-        // And the groups (now they can be linked)
-        for (Entry<String, KmfFile> entry : kmfs.entrySet()) {
-            updateStatus(i, total, ConvertProcess.MODELS);
-            convertModel(assetManager, entry, destination, engineTexturesFile);
-            i++;
+            // And the groups (now they can be linked)
+            for (Entry<String, KmfFile> entry : kmfs.entrySet()) {
+                updateStatus(i, total, ConvertProcess.MODELS);
+                convertModel(assetManager, entry, destination, engineTexturesFile);
+                i++;
+            }
         }
     }
 
@@ -428,27 +465,28 @@ public abstract class AssetsConverter {
         AssetUtils.deleteFolder(new File(destination));
 
         //Mouse cursors are PNG files in the Sprite.WAD
-        WadFile wadFile = new WadFile(new File(dungeonKeeperFolder + PathUtils.DKII_DATA_FOLDER + "Sprite.WAD"));
-        int i = 0;
-        int total = wadFile.getWadFileEntryCount();
-        File destinationFolder = new File(getAssetsFolder().concat(SPRITES_FOLDER).concat(File.separator));
-        AssetUtils.deleteFolder(destinationFolder);
-        destinationFolder.mkdirs();
-
-        for (String fileName : wadFile.getWadFileEntries()) {
-            updateStatus(i, total, ConvertProcess.MOUSE_CURSORS);
-            i++;
-            //Extract the file
-            File extracted = wadFile.extractFileData(fileName, destination);
+        try (WadFile wadFile = new WadFile(new File(dungeonKeeperFolder + PathUtils.DKII_DATA_FOLDER + "Sprite.WAD"))) {
+            int i = 0;
+            int total = wadFile.getWadFileEntryCount();
+            File destinationFolder = new File(getAssetsFolder().concat(SPRITES_FOLDER).concat(File.separator));
+            AssetUtils.deleteFolder(destinationFolder);
+            destinationFolder.mkdirs();
 
-            if (fileName.toLowerCase().endsWith(".spr")) {
-                // Extract the spr and delete it afterwards
-                SprFile sprFile = new SprFile(extracted);
-                try {
-                    sprFile.extract(destinationFolder.getPath(), fileName.substring(0, fileName.length() - 4));
-                    extracted.delete();
-                } catch (Exception ex) {
-                    LOGGER.log(Level.SEVERE, "Error Sprite: {0}", ex);
+            for (String fileName : wadFile.getWadFileEntries()) {
+                updateStatus(i, total, ConvertProcess.MOUSE_CURSORS);
+                i++;
+                //Extract the file
+                File extracted = wadFile.extractFileData(fileName, destination);
+
+                if (fileName.toLowerCase().endsWith(".spr")) {
+                    // Extract the spr and delete it afterwards
+                    SprFile sprFile = new SprFile(extracted);
+                    try {
+                        sprFile.extract(destinationFolder.getPath(), fileName.substring(0, fileName.length() - 4));
+                        extracted.delete();
+                    } catch (Exception ex) {
+                        LOGGER.log(Level.SEVERE, "Error Sprite: {0}", ex);
+                    }
                 }
             }
         }
@@ -639,7 +677,7 @@ public abstract class AssetsConverter {
 
             // Some of these archives contain .444 files, convert these to PNGs
             if (entry.endsWith(".444")) {
-                LoadingScreenFile lsf = new LoadingScreenFile(wad.getFileData(entry));
+                LoadingScreenFile lsf = new LoadingScreenFile(wad.getFileBuffer(entry));
                 try {
                     File destFile = new File(destination + entry);
                     String destFilename = destFile.getCanonicalPath();
@@ -669,57 +707,58 @@ public abstract class AssetsConverter {
         AssetUtils.deleteFolder(new File(destination));
 
         //Paths are in the data folder, access the packed file
-        WadFile wad = new WadFile(new File(dungeonKeeperFolder + PathUtils.DKII_DATA_FOLDER + "Paths.WAD"));
-        int i = 0;
-        int total = wad.getWadFileEntryCount();
-        File tmpdir = new File(System.getProperty("java.io.tmpdir"));
-        BinaryExporter exporter = BinaryExporter.getInstance();
-        for (final String entry : wad.getWadFileEntries()) {
-            try {
-                updateStatus(i, total, ConvertProcess.PATHS);
-                i++;
+        try (WadFile wad = new WadFile(new File(dungeonKeeperFolder + PathUtils.DKII_DATA_FOLDER + "Paths.WAD"))) {
+            int i = 0;
+            int total = wad.getWadFileEntryCount();
+            File tmpdir = new File(System.getProperty("java.io.tmpdir"));
+            BinaryExporter exporter = BinaryExporter.getInstance();
+            for (final String entry : wad.getWadFileEntries()) {
+                try {
+                    updateStatus(i, total, ConvertProcess.PATHS);
+                    i++;
 
-                // Convert all the KCS entries
-                if (entry.toLowerCase().endsWith(".kcs")) {
+                    // Convert all the KCS entries
+                    if (entry.toLowerCase().endsWith(".kcs")) {
 
-                    // Extract each file to temp
-                    File f = wad.extractFileData(entry, tmpdir.toString());
-                    f.deleteOnExit();
+                        // Extract each file to temp
+                        File f = wad.extractFileData(entry, tmpdir.toString());
+                        f.deleteOnExit();
 
-                    // Open the entry
-                    KcsFile kcsFile = new KcsFile(f);
-
-                    // Convert
-                    List<CameraSweepDataEntry> entries = new ArrayList<>(kcsFile.getKcsEntries().size());
-                    for (KcsEntry kcsEntry : kcsFile.getKcsEntries()) {
-
-                        // Convert the rotation matrix to quatenion
-                        Matrix3f mat = new Matrix3f();
-                        Vector3f direction = ConversionUtils.convertVector(kcsEntry.getDirection());
-                        Vector3f left = ConversionUtils.convertVector(kcsEntry.getLeft());
-                        Vector3f up = ConversionUtils.convertVector(kcsEntry.getUp());
-                        mat.setColumn(0, new Vector3f(-direction.x, direction.y, direction.z));
-                        mat.setColumn(1, new Vector3f(left.x, -left.y, -left.z));
-                        mat.setColumn(2, new Vector3f(-up.x, up.y, up.z));
-
-                        entries.add(new CameraSweepDataEntry(ConversionUtils.convertVector(kcsEntry.getPosition()),
-                                new Quaternion().fromRotationMatrix(mat), FastMath.RAD_TO_DEG * kcsEntry.getLens(),
-                                kcsEntry.getNear()));
-                    }
-                    CameraSweepData cameraSweepData = new CameraSweepData(entries);
+                        // Open the entry
+                        KcsFile kcsFile = new KcsFile(f);
 
-                    // Save it
-                    exporter.save(cameraSweepData, new File(destination.concat(entry.substring(0, entry.length() - 3)).concat(CameraSweepDataLoader.FILE_EXTENSION)));
-                } else if (entry.toLowerCase().endsWith(".txt")) {
+                        // Convert
+                        List<CameraSweepDataEntry> entries = new ArrayList<>(kcsFile.getKcsEntries().size());
+                        for (KcsEntry kcsEntry : kcsFile.getKcsEntries()) {
 
-                    // The text file is nice to have, it is an info text
-                    wad.extractFileData(entry, destination);
-                }
+                            // Convert the rotation matrix to quatenion
+                            Matrix3f mat = new Matrix3f();
+                            Vector3f direction = ConversionUtils.convertVector(kcsEntry.getDirection());
+                            Vector3f left = ConversionUtils.convertVector(kcsEntry.getLeft());
+                            Vector3f up = ConversionUtils.convertVector(kcsEntry.getUp());
+                            mat.setColumn(0, new Vector3f(-direction.x, direction.y, direction.z));
+                            mat.setColumn(1, new Vector3f(left.x, -left.y, -left.z));
+                            mat.setColumn(2, new Vector3f(-up.x, up.y, up.z));
 
-            } catch (Exception ex) {
-                String msg = "Failed to save the path file to " + destination + "!";
-                LOGGER.log(Level.SEVERE, msg, ex);
-                throw new RuntimeException(msg, ex);
+                            entries.add(new CameraSweepDataEntry(ConversionUtils.convertVector(kcsEntry.getPosition()),
+                                    new Quaternion().fromRotationMatrix(mat), FastMath.RAD_TO_DEG * kcsEntry.getLens(),
+                                    kcsEntry.getNear()));
+                        }
+                        CameraSweepData cameraSweepData = new CameraSweepData(entries);
+
+                        // Save it
+                        exporter.save(cameraSweepData, new File(destination.concat(entry.substring(0, entry.length() - 3)).concat(CameraSweepDataLoader.FILE_EXTENSION)));
+                    } else if (entry.toLowerCase().endsWith(".txt")) {
+
+                        // The text file is nice to have, it is an info text
+                        wad.extractFileData(entry, destination);
+                    }
+
+                } catch (Exception ex) {
+                    String msg = "Failed to save the path file to " + destination + "!";
+                    LOGGER.log(Level.SEVERE, msg, ex);
+                    throw new RuntimeException(msg, ex);
+                }
             }
         }
     }
@@ -868,23 +907,40 @@ public abstract class AssetsConverter {
                 }
             });
 
-            // Read them
-            List<KwdFile> maps = new ArrayList<>(files.length);
-            for (File file : files) {
-                KwdFile kwd = new KwdFile(dungeonKeeperFolder, file, false);
-                if (kwd.getGameLevel().getLvlFlags().contains(LevFlag.IS_SKIRMISH_LEVEL)
-                        || kwd.getGameLevel().getLvlFlags().contains(LevFlag.IS_MULTIPLAYER_LEVEL)) {
-                    maps.add(kwd);
+            // Go through the map files, the maps are independent so generate them in parallel
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), (Runnable r) -> {
+                Thread thread = new Thread(r, "MapThumbnailGenerator");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<?>> tasks = new ArrayList<>(files.length);
+                for (File file : files) {
+                    tasks.add(executor.submit(() -> {
+                        KwdFile kwd = new KwdFile(dungeonKeeperFolder, file, false);
+                        if ((kwd.getGameLevel().getLvlFlags().contains(LevFlag.IS_SKIRMISH_LEVEL)
+                                || kwd.getGameLevel().getLvlFlags().contains(LevFlag.IS_MULTIPLAYER_LEVEL))
+                                && isMapThumbnailOutdated(kwd, destination)) {
+                            genererateMapThumbnail(kwd, destination);
+                        }
+                        return null;
+                    }));
                 }
-            }
 
-            // Go through the map files
-            int i = 0;
-            int total = maps.size();
-            for (KwdFile kwd : maps) {
-                updateStatus(i, total, ConvertProcess.MAP_THUMBNAILS);
-                genererateMapThumbnail(kwd, destination);
-                i++;
+                // Wait for them
+                int i = 0;
+                int total = tasks.size();
+                for (Future<?> task : tasks) {
+                    updateStatus(i, total, ConvertProcess.MAP_THUMBNAILS);
+                    try {
+                        task.get();
+                    } catch (ExecutionException e) {
+                        LOGGER.log(Level.WARNING, "Failed to generate map thumbnail of " + files[i] + "!", e.getCause()); // Not fatal
+                    }
+                    i++;
+                }
+            } finally {
+                executor.shutdownNow();
             }
         } catch (Exception ex) {
             String msg = "Failed to process the map thumbnails to " + destination + "!";
@@ -904,6 +960,31 @@ public abstract class AssetsConverter {
         // Create the thumbnail & save it
         // TODO maybe image size in Settings ???
         BufferedImage thumbnail = MapThumbnailGenerator.generateMap(kwd, 144, 144, false);
-        ImageIO.write(thumbnail, "png", new File(destination + ConversionUtils.stripFileName(kwd.getGameLevel().getName()) + ".png"));
+        ImageIO.write(thumbnail, "png", getMapThumbnailFile(kwd, destination));
+    }
+
+    /**
+     * Get the map thumbnail file of the given map file
+     *
+     * @param kwd map file
+     * @param destination the thumbnail folder
+     * @return the thumbnail file, may not exist
+     */
+    public static File getMapThumbnailFile(KwdFile kwd, String destination) {
+        return new File(destination + ConversionUtils.stripFileName(kwd.getGameLevel().getName()) + ".png");
+    }
+
+    /**
+     * See if the map thumbnail needs to be generated, that is, it doesn't
+     * exist or the map has been modified after the thumbnail was created
+     *
+     * @param kwd map file
+     * @param destination the thumbnail folder
+     * @return true if the thumbnail should be generated
+     */
+    public static boolean isMapThumbnailOutdated(KwdFile kwd, String destination) {
+        File thumbnail = getMapThumbnailFile(kwd, destination);
+
+        return !thumbnail.exists() || thumbnail.lastModified() < kwd.getLastModified();
     }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.tools.convert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Cache for the assets converted on the fly from the original game files. The
+ * converted data is held in memory in least recently used order up to the
+ * given size. Optionally the data is also persisted as deflated files to a
+ * disk cache folder, so that the conversion is done only once.<br>
+ * The cache is thread safe.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class ConvertedAssetCache {
+
+    private static final String DISK_CACHE_FILE_EXTENSION = ".z";
+
+    private final long maxMemorySize;
+    private final File diskCacheFolder;
+    private final Map<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memorySize = 0;
+
+    private static final Logger LOGGER = Logger.getLogger(ConvertedAssetCache.class.getName());
+
+    /**
+     * Creates a new cache
+     *
+     * @param maxMemorySize the maximum amount of bytes held in memory
+     * @param diskCacheFolder the folder to persist the data to, may be
+     * {@code null} for memory only cache
+     */
+    public ConvertedAssetCache(long maxMemorySize, File diskCacheFolder) {
+        this.maxMemorySize = maxMemorySize;
+        this.diskCacheFolder = diskCacheFolder;
+    }
+
+    /**
+     * Get the cached data
+     *
+     * @param key the asset key
+     * @param sourceLastModified the modification time of the original file,
+     * disk cache entries older than this are discarded
+     * @return the cached data, or {@code null} if not found
+     */
+    public byte[] get(String key, long sourceLastModified) {
+        synchronized (entries) {
+            byte[] data = entries.get(key);
+            if (data != null) {
+                return data;
+            }
+        }
+
+        // See the disk cache
+        if (diskCacheFolder != null) {
+            File file = getDiskCacheFile(key);
+            if (file.exists() && file.lastModified() >= sourceLastModified) {
+                try (InputStream is = new InflaterInputStream(new FileInputStream(file))) {
+                    ByteArrayOutputStream result = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = is.read(buffer)) != -1) {
+                        result.write(buffer, 0, read);
+                    }
+                    byte[] data = result.toByteArray();
+                    putToMemory(key, data);
+
+                    return data;
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to read cached asset " + file + "!", e);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Put data to the cache
+     *
+     * @param key the asset key
+     * @param data the converted data
+     */
+    public void put(String key, byte[] data) {
+        putToMemory(key, data);
+
+        // Persist
+        if (diskCacheFolder != null) {
+            File file = getDiskCacheFile(key);
+            file.getParentFile().mkdirs();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (OutputStream os = new DeflaterOutputStream(new FileOutputStream(file), deflater)) {
+                os.write(data);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write cached asset " + file + "!", e);
+                file.delete();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Clears the memory cache, the disk cache stays intact
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            memorySize = 0;
+        }
+    }
+
+    private void putToMemory(String key, byte[] data) {
+        if (data.length > maxMemorySize) {
+            return;
+        }
+        synchronized (entries) {
+            byte[] old = entries.put(key, data);
+            if (old != null) {
+                memorySize -= old.length;
+            }
+            memorySize += data.length;
+
+            // Evict the least recently used
+            Iterator<byte[]> iter = entries.values().iterator();
+            while (memorySize > maxMemorySize && iter.hasNext()) {
+                memorySize -= iter.next().length;
+                iter.remove();
+            }
+        }
+    }
+
+    private File getDiskCacheFile(String key) {
+        return new File(diskCacheFolder, ConversionUtils.convertFileSeparators(key).concat(DISK_CACHE_FILE_EXTENSION));
+    }
+
+}
@@ -17,12 +17,14 @@
 package toniarts.openkeeper.tools.convert;
 
 import com.jme3.animation.AnimControl;
+import com.jme3.animation.Track;
 import com.jme3.asset.AssetInfo;
 import com.jme3.asset.AssetKey;
 import com.jme3.asset.AssetLoader;
 import com.jme3.asset.MaterialKey;
 import com.jme3.asset.ModelKey;
 import com.jme3.asset.TextureKey;
+import com.jme3.bounding.BoundingBox;
 import com.jme3.material.Material;
 import com.jme3.material.RenderState;
 import com.jme3.material.plugin.export.material.J3MExporter;
@@ -37,7 +39,10 @@ import com.jme3.scene.Node;
 import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.VertexBuffer.Type;
 import com.jme3.scene.control.LodControl;
+import com.jme3.texture.Image;
 import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.image.ColorSpace;
 import com.jme3.util.BufferUtils;
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -46,6 +51,8 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -57,6 +64,7 @@ import java.util.logging.Logger;
 import toniarts.openkeeper.animation.Pose;
 import toniarts.openkeeper.animation.PoseTrack;
 import toniarts.openkeeper.animation.PoseTrack.PoseFrame;
+import toniarts.openkeeper.animation.VertexAnimationTrack;
 import static toniarts.openkeeper.tools.convert.KmfModelLoader.inputStreamToFile;
 import toniarts.openkeeper.tools.convert.kmf.Anim;
 import toniarts.openkeeper.tools.convert.kmf.AnimSprite;
@@ -100,7 +108,23 @@ public class KmfModelLoader implements AssetLoader {
      * material possibilities
      */
     public static final String MATERIAL_ALTERNATIVE_TEXTURES_COUNT = "AlternativeTextureCount";
+    /**
+     * Prefix of the user meta data holding the alternative texture asset keys
+     * (&lt;this prefix&gt;&lt;texture index&gt;). Only set when the
+     * alternative materials are not saved as J3M files
+     */
+    public static final String MATERIAL_ALTERNATIVE_TEXTURE = "AlternativeTexture";
     public static final String FRAME_FACTOR_FUNCTION = "FrameFactorFunction";
+    /**
+     * Maximum width (vertices) and height (frames) of the baked vertex
+     * animation textures, bigger animations are played with pose tracks
+     */
+    private static final int MAX_ANIMATION_MAP_SIZE = 4096;
+    /**
+     * KMF animation playback rate, frame n is at n / this (both in the pose
+     * and vertex animation tracks)
+     */
+    private static final float FRAMES_PER_SECOND = 30f;
     private static final Logger logger = Logger.getLogger(KmfModelLoader.class.getName());
     /* Already saved materials are stored here */
     private static final Map<toniarts.openkeeper.tools.convert.kmf.Material, String> materialCache = new HashMap<>();
@@ -298,13 +322,13 @@ public class KmfModelLoader implements AssetLoader {
         node.setUserData(FRAME_FACTOR_FUNCTION, anim.getFrameFactorFunction().name());
         node.setLocalTranslation(new Vector3f(anim.getPos().x, -anim.getPos().z, anim.getPos().y));
 
-        // Create pose tracks for each mesh index
-        List<PoseTrack> poseTracks = new ArrayList<>(anim.getSprites().size());
+        // Create animation tracks for each mesh index
+        List<Track> tracks = new ArrayList<>(anim.getSprites().size());
 
         // Create times (same for each pose track)
         float[] times = new float[anim.getFrames()];
         for (int i = 0; i < anim.getFrames(); i++) {
-            times[i] = (i + 1) / 30f;
+            times[i] = i / FRAMES_PER_SECOND;
         }
 
         int index = 0;
@@ -330,6 +354,13 @@ public class KmfModelLoader implements AssetLoader {
             Vector3f[] vertices = new Vector3f[animSprite.getVertices().size()];
             Vector2f[] texCoord = new Vector2f[animSprite.getVertices().size()];
             Vector3f[] normals = new Vector3f[animSprite.getVertices().size()];
+
+            // Bake the vertex positions of every frame to a texture if it fits, the shader then plays the animation
+            int vertexCount = animSprite.getVertices().size();
+            float[] framePositions = null;
+            if (vertexCount <= MAX_ANIMATION_MAP_SIZE && anim.getFrames() <= MAX_ANIMATION_MAP_SIZE) {
+                framePositions = new float[vertexCount * anim.getFrames() * 3];
+            }
             int i = 0;
             for (AnimVertex animVertex : animSprite.getVertices()) {
 
@@ -357,6 +388,15 @@ public class KmfModelLoader implements AssetLoader {
                         baseCoord = coord;
                     }
 
+                    // The interpolated position of this frame
+                    if (framePositions != null) {
+                        javax.vecmath.Vector3f nextCoord = anim.getGeometries().get(geomIndex + 1).getGeometry();
+                        int position = (frame * vertexCount + i) * 3;
+                        framePositions[position] = coord.x + (nextCoord.x - coord.x) * geomFactor;
+                        framePositions[position + 1] = -(coord.z + (nextCoord.z - coord.z) * geomFactor);
+                        framePositions[position + 2] = coord.y + (nextCoord.y - coord.y) * geomFactor;
+                    }
+
                     // Create frame info
                     int lastPose = ((frame >> 7) * 128 + frameBase);
                     int nextPose = ((frame >> 7) * 128 + nextFrameBase);
@@ -438,74 +478,98 @@ public class KmfModelLoader implements AssetLoader {
                 i++;
             }
 
-            // We have all the animation vertices from a single pose
-            for (int frame = 0; frame < anim.getFrames(); frame++) {
-                if (frameIndices.containsKey(frame) && !poses.containsKey(frame)) {
-                    poses.put(frame, new HashMap<>());
-                }
-                if (frameIndices.containsKey(frame)) {
-                    for (Entry<KmfModelLoader.FrameInfo, List<Integer>> entry : frameIndices.get(frame).entrySet()) {
-
-                        if (entry.getKey().nextPoseFrame < entry.getKey().previousPoseFrame) {
-                            continue; // Huh?, last frame effect
-                        }
+            if (framePositions != null) {
+                tracks.add(new VertexAnimationTrack(index, FRAMES_PER_SECOND, anim.getFrames()));
+            } else {
 
-                        List<Integer> list = entry.getValue();
-                        int[] array = new int[list.size()];
-                        for (int integer = 0; integer < list.size(); integer++) {
-                            array[integer] = list.get(integer);
+                // We have all the animation vertices from a single pose
+                for (int frame = 0; frame < anim.getFrames(); frame++) {
+                    if (frameIndices.containsKey(frame) && !poses.containsKey(frame)) {
+                        poses.put(frame, new HashMap<>());
+                    }
+                    if (frameIndices.containsKey(frame)) {
+                        for (Entry<KmfModelLoader.FrameInfo, List<Integer>> entry : frameIndices.get(frame).entrySet()) {
+
+                            if (entry.getKey().nextPoseFrame < entry.getKey().previousPoseFrame) {
+                                continue; // Huh?, last frame effect
+                            }
+
+                            List<Integer> list = entry.getValue();
+                            int[] array = new int[list.size()];
+                            for (int integer = 0; integer < list.size(); integer++) {
+                                array[integer] = list.get(integer);
+                            }
+                            Pose p = new Pose(index + ": " + frame + ", " + entry.getKey().previousPoseFrame + " - " + entry.getKey().nextPoseFrame, frameOffsets.get(frame).get(entry.getKey()).toArray(new Vector3f[frameOffsets.get(frame).get(entry.getKey()).size()]), array);
+                            poses.get(frame).put(entry.getKey(), p);
                         }
-                        Pose p = new Pose(index + ": " + frame + ", " + entry.getKey().previousPoseFrame + " - " + entry.getKey().nextPoseFrame, frameOffsets.get(frame).get(entry.getKey()).toArray(new Vector3f[frameOffsets.get(frame).get(entry.getKey()).size()]), array);
-                        poses.get(frame).put(entry.getKey(), p);
                     }
                 }
-            }
 
-            // More animation, create the pose frames by the frame, mesh index specific
-            List<PoseFrame> frameList = new ArrayList<>(anim.getFrames());
-            for (int frame = 0; frame < anim.getFrames(); frame++) {
+                // More animation, create the pose frames by the frame, mesh index specific
+                List<PoseFrame> frameList = new ArrayList<>(anim.getFrames());
+                for (int frame = 0; frame < anim.getFrames(); frame++) {
 
-                // Loop through all the frame infos here
-                Pose[] p = new Pose[frameInfos.get(frame).size() * 2];
-                float[] weights = new float[frameInfos.get(frame).size()];
-                int x = 0;
-                for (KmfModelLoader.FrameInfo frameInfo : frameInfos.get(frame)) {
+                    // Loop through all the frame infos here
+                    Pose[] p = new Pose[frameInfos.get(frame).size() * 2];
+                    float[] weights = new float[frameInfos.get(frame).size()];
+                    int x = 0;
+                    for (KmfModelLoader.FrameInfo frameInfo : frameInfos.get(frame)) {
 
-                    if (frameInfo.nextPoseFrame < frameInfo.previousPoseFrame) {
-                        continue; // Huh?, last frame effect
-                    }
+                        if (frameInfo.nextPoseFrame < frameInfo.previousPoseFrame) {
+                            continue; // Huh?, last frame effect
+                        }
 
-                    // The poses, always the start and the end
-                    p[x * 2] = poses.get(frameInfo.previousPoseFrame).get(frameInfo);
-                    p[x * 2 + 1] = poses.get(frameInfo.nextPoseFrame).get(frameInfo);
+                        // The poses, always the start and the end
+                        p[x * 2] = poses.get(frameInfo.previousPoseFrame).get(frameInfo);
+                        p[x * 2 + 1] = poses.get(frameInfo.nextPoseFrame).get(frameInfo);
 
-                    // Weights
-                    weights[x] = frameInfo.weight;
-                    x++;
+                        // Weights
+                        weights[x] = frameInfo.weight;
+                        x++;
+                    }
+                    PoseFrame f = new PoseFrame(p, weights);
+                    frameList.add(f);
                 }
-                PoseFrame f = new PoseFrame(p, weights);
-                frameList.add(f);
-            }
 
-            // Create a pose track for this mesh
-            PoseTrack poseTrack = new PoseTrack(index, times, frameList.toArray(new PoseFrame[frameList.size()]));
-            poseTracks.add(poseTrack);
+                // Create a pose track for this mesh
+                PoseTrack poseTrack = new PoseTrack(index, times, frameList.toArray(new PoseFrame[frameList.size()]));
+                tracks.add(poseTrack);
+            }
 
             // Create lod levels
             VertexBuffer[] lodLevels = createIndices(animSprite.getTriangles());
 
             //Set the buffers
             mesh.setBuffer(Type.Position, 3, BufferUtils.createFloatBuffer(vertices));
-            mesh.setBuffer(Type.BindPosePosition, 3, BufferUtils.createFloatBuffer(vertices));
             mesh.setBuffer(lodLevels[0]);
             mesh.setLodLevels(lodLevels);
             mesh.setBuffer(Type.TexCoord, 2, BufferUtils.createFloatBuffer(texCoord));
             mesh.setBuffer(Type.Normal, 3, BufferUtils.createFloatBuffer(normals));
-            mesh.setBuffer(Type.BindPoseNormal, 3, BufferUtils.createFloatBuffer(normals));
-            mesh.setStreamed();
+            if (framePositions != null) {
+
+                // The vertex column in the animation texture
+                float[] animationCoords = new float[vertexCount * 2];
+                for (int vertex = 0; vertex < vertexCount; vertex++) {
+                    animationCoords[vertex * 2] = (vertex + 0.5f) / vertexCount;
+                }
+                mesh.setBuffer(Type.TexCoord3, 2, BufferUtils.createFloatBuffer(animationCoords));
+                mesh.setStatic();
+            } else {
+                mesh.setBuffer(Type.BindPosePosition, 3, BufferUtils.createFloatBuffer(vertices));
+                mesh.setBuffer(Type.BindPoseNormal, 3, BufferUtils.createFloatBuffer(normals));
+                mesh.setStreamed();
+            }
 
             // Create geometry
             Geometry geom = createGeometry(index, anim.getName(), mesh, materials, animSprite.getMaterialIndex());
+            if (framePositions != null) {
+                geom.setUserData(VertexAnimationTrack.ANIMATION_MAP, createAnimationMap(framePositions, vertexCount, anim.getFrames()));
+
+                // The bounds need to cover the whole animation, the mesh itself is just the first frame
+                BoundingBox bounds = new BoundingBox();
+                bounds.computeFromPoints(BufferUtils.createFloatBuffer(framePositions));
+                mesh.setBound(bounds);
+            }
 
             //Attach the geometry to the node
             node.attachChild(geom);
@@ -513,8 +577,8 @@ public class KmfModelLoader implements AssetLoader {
         }
 
         // Create the animation itself and attach the animation
-        com.jme3.animation.Animation animation = new com.jme3.animation.Animation("anim", (anim.getFrames() - 1) / 30f);
-        animation.setTracks(poseTracks.toArray(new PoseTrack[poseTracks.size()]));
+        com.jme3.animation.Animation animation = new com.jme3.animation.Animation("anim", (anim.getFrames() - 1) / FRAMES_PER_SECOND);
+        animation.setTracks(tracks.toArray(new Track[tracks.size()]));
         AnimControl control = new AnimControl();
         control.addAnim(animation);
         node.addControl(control);
@@ -523,6 +587,29 @@ public class KmfModelLoader implements AssetLoader {
         root.attachChild(node);
     }
 
+    /**
+     * Creates a texture of the vertex positions of every frame. Each row is a
+     * frame and each column a vertex
+     *
+     * @param framePositions the vertex positions, frame by frame
+     * @param vertexCount the number of vertices
+     * @param frames the number of frames
+     * @return the animation texture
+     */
+    private static Texture2D createAnimationMap(float[] framePositions, int vertexCount, int frames) {
+        ByteBuffer data = BufferUtils.createByteBuffer(framePositions.length * 4);
+        FloatBuffer floatData = data.asFloatBuffer();
+        floatData.put(framePositions);
+        Image image = new Image(Image.Format.RGB32F, vertexCount, frames, data, ColorSpace.Linear);
+
+        Texture2D texture = new Texture2D(image);
+        texture.setMagFilter(Texture.MagFilter.Nearest);
+        texture.setMinFilter(Texture.MinFilter.NearestNoMipMaps);
+        texture.setWrap(Texture.WrapMode.EdgeClamp);
+
+        return texture;
+    }
+
     private VertexBuffer[] createIndices(final Map<Integer, List<Triangle>> trianglesMap) {
 
         // Triangles are not in order, sometimes they are very random, many missing etc.
@@ -593,6 +680,15 @@ public class KmfModelLoader implements AssetLoader {
         // If we have multiple materials to choose from, tag them to the geometry
         if (materials.get(materialIndex).size() > 1) {
             geom.setUserData(MATERIAL_ALTERNATIVE_TEXTURES_COUNT, materials.get(materialIndex).size());
+
+            // Without the material files, the alternatives can only be found by the texture
+            for (int k = 1; k < materials.get(materialIndex).size(); k++) {
+                Material alternativeMaterial = materials.get(materialIndex).get(k);
+                if (alternativeMaterial.getAssetName() == null) {
+                    Texture texture = (Texture) alternativeMaterial.getParam("DiffuseMap").getValue();
+                    geom.setUserData(MATERIAL_ALTERNATIVE_TEXTURE + k, texture.getKey().getName());
+                }
+            }
         }
 
         // Update bounds
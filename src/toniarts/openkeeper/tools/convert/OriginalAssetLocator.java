@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.tools.convert;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLocator;
+import com.jme3.asset.AssetManager;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.scene.Node;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+import toniarts.openkeeper.tools.convert.AssetsConverter.ConvertProcess;
+import toniarts.openkeeper.tools.convert.kmf.KmfFile;
+import toniarts.openkeeper.tools.convert.sound.SdtFile;
+import toniarts.openkeeper.tools.convert.sound.SdtFileEntry;
+import toniarts.openkeeper.tools.convert.textures.enginetextures.EngineTexturesFile;
+import toniarts.openkeeper.tools.convert.textures.loadingscreens.LoadingScreenFile;
+import toniarts.openkeeper.tools.convert.wad.WadFile;
+import toniarts.openkeeper.utils.PathUtils;
+
+/**
+ * Asset locator that serves the converted assets straight from the original
+ * Dungeon Keeper II files, without the need to run the whole conversion
+ * first. The root path is the DK II folder.<br>
+ * Serves the models from Meshes.WAD, the textures from EngineTextures.dat,
+ * FrontEnd.WAD and EngineTextures.WAD, and the sounds from the SDT banks. The
+ * assets are converted on demand to the same formats the
+ * {@link AssetsConverter} produces, so this should be registered after the
+ * locator of the converted assets folder. That way any pre-converted or
+ * custom asset takes precedence.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class OriginalAssetLocator implements AssetLocator {
+
+    /**
+     * The conversion processes whose assets this locator provides
+     */
+    public static final Set<ConvertProcess> SERVED_PROCESSES = Collections.unmodifiableSet(EnumSet.of(ConvertProcess.TEXTURES, ConvertProcess.MODELS, ConvertProcess.MUSIC_AND_SOUNDS));
+    private static final long MEMORY_CACHE_SIZE = 64 * 1024 * 1024;
+    private static final Pattern MIPMAP_PATTERN = Pattern.compile("(?<name>\\w+)MM(?<mipmaplevel>\\d{1})");
+    private static final String MODELS_PREFIX = AssetsConverter.MODELS_FOLDER.toLowerCase() + "/";
+    private static final String TEXTURES_PREFIX = AssetsConverter.TEXTURES_FOLDER.toLowerCase() + "/";
+    private static final String SOUNDS_PREFIX = AssetsConverter.SOUNDS_FOLDER.toLowerCase() + "/";
+    private static File diskCacheFolder;
+
+    private String dungeonKeeperFolder;
+    private ConvertedAssetCache cache;
+    private Map<String, ArchiveEntry<WadFile, String>> models;
+    private Map<String, ArchiveEntry<EngineTexturesFile, String>> engineTextures;
+    private Map<String, ArchiveEntry<WadFile, String>> wadTextures;
+    private Map<String, ArchiveEntry<SdtFile, SdtFileEntry>> sounds;
+
+    private static final Logger LOGGER = Logger.getLogger(OriginalAssetLocator.class.getName());
+
+    /**
+     * Sets the disk cache folder for the converted assets. Affects only the
+     * locators registered after this call
+     *
+     * @param folder the cache folder, {@code null} for no disk cache
+     */
+    public static void setDiskCacheFolder(File folder) {
+        diskCacheFolder = folder;
+    }
+
+    @Override
+    public void setRootPath(String rootPath) {
+        dungeonKeeperFolder = PathUtils.fixFilePath(rootPath);
+        cache = new ConvertedAssetCache(MEMORY_CACHE_SIZE, diskCacheFolder);
+    }
+
+    @Override
+    public AssetInfo locate(AssetManager manager, AssetKey key) {
+        String name = key.getName().replace('\\', '/');
+        String lookupKey = name.toLowerCase();
+
+        try {
+            if (lookupKey.startsWith(MODELS_PREFIX) && lookupKey.endsWith(".j3o")) {
+                ArchiveEntry<WadFile, String> entry = getModels().get(lookupKey);
+                if (entry != null) {
+                    return getAssetInfo(manager, key, getCacheKey(ConvertProcess.MODELS, lookupKey), entry, () -> convertModel(manager, entry, name));
+                }
+            } else if (lookupKey.startsWith(TEXTURES_PREFIX)) {
+                ArchiveEntry<EngineTexturesFile, String> engineTexture = getEngineTextures().get(lookupKey);
+                if (engineTexture != null) {
+                    return getAssetInfo(manager, key, getCacheKey(ConvertProcess.TEXTURES, lookupKey), engineTexture, () -> {
+                        synchronized (engineTexture.archive) {
+                            return engineTexture.archive.getFileData(engineTexture.entry).toByteArray();
+                        }
+                    });
+                }
+                ArchiveEntry<WadFile, String> wadTexture = getWadTextures().get(lookupKey);
+                if (wadTexture != null) {
+                    return getAssetInfo(manager, key, getCacheKey(ConvertProcess.TEXTURES, lookupKey), wadTexture, () -> convertWadTexture(wadTexture));
+                }
+            } else if (lookupKey.startsWith(SOUNDS_PREFIX)) {
+                ArchiveEntry<SdtFile, SdtFileEntry> sound = getSounds().get(lookupKey);
+                if (sound != null) {
+                    return getAssetInfo(manager, key, getCacheKey(ConvertProcess.MUSIC_AND_SOUNDS, lookupKey), sound, () -> {
+                        synchronized (sound.archive) {
+                            return sound.archive.getFileData(sound.entry).toByteArray();
+                        }
+                    });
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Failed to convert asset " + name + " from the original files!", e);
+        }
+
+        return null;
+    }
+
+    /**
+     * The cache entries carry the conversion version, a new conversion
+     * doesn't pick the stale entries from the disk cache
+     */
+    private static String getCacheKey(ConvertProcess process, String lookupKey) {
+        return lookupKey + "." + process.getVersion();
+    }
+
+    private AssetInfo getAssetInfo(AssetManager manager, AssetKey key, String cacheKey, ArchiveEntry<?, ?> entry, AssetConverter converter) throws IOException {
+        byte[] data = cache.get(cacheKey, entry.file.lastModified());
+        if (data == null) {
+            data = converter.convert();
+            cache.put(cacheKey, data);
+        }
+
+        return new ConvertedAssetInfo(manager, key, data);
+    }
+
+    private byte[] convertModel(AssetManager manager, ArchiveEntry<WadFile, String> entry, String name) throws IOException {
+        KmfFile kmfFile = new KmfFile(KmfModelLoader.inputStreamToFile(entry.archive.getFileStream(entry.entry), entry.entry));
+        Node node = (Node) new KmfModelLoader().load(new KmfAssetInfo(manager, new AssetKey(name), kmfFile, false));
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        BinaryExporter.getInstance().save(node, result);
+
+        return result.toByteArray();
+    }
+
+    private byte[] convertWadTexture(ArchiveEntry<WadFile, String> entry) throws IOException {
+        ByteBuffer data = entry.archive.getFileBuffer(entry.entry);
+        if (!entry.entry.toLowerCase().endsWith(".444")) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+
+            return bytes;
+        }
+
+        // Loading screens need to be converted to PNGs
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ImageIO.write(new LoadingScreenFile(data).getImage(), "png", result);
+
+        return result.toByteArray();
+    }
+
+    private synchronized Map<String, ArchiveEntry<WadFile, String>> getModels() throws IOException {
+        if (models == null) {
+            File file = new File(ConversionUtils.getRealFileName(dungeonKeeperFolder, PathUtils.DKII_DATA_FOLDER + "Meshes.WAD"));
+            WadFile wad = new WadFile(file);
+            models = new HashMap<>(wad.getWadFileEntryCount());
+            for (String entry : wad.getWadFileEntries()) {
+                if (entry.toLowerCase().endsWith(".kmf")) {
+                    String assetKey = MODELS_PREFIX + entry.substring(0, entry.length() - 4).concat(".j3o");
+                    models.put(getLookupKey(assetKey), new ArchiveEntry<>(file, wad, entry));
+                }
+            }
+        }
+
+        return models;
+    }
+
+    private synchronized Map<String, ArchiveEntry<EngineTexturesFile, String>> getEngineTextures() throws IOException {
+        if (engineTextures == null) {
+            File file = new File(ConversionUtils.getRealFileName(dungeonKeeperFolder, "DK2TextureCache".concat(File.separator).concat("EngineTextures.dat")));
+            EngineTexturesFile etFile = new EngineTexturesFile(file);
+            engineTextures = new HashMap<>(etFile.getFileCount());
+            for (String entry : etFile) {
+
+                // Only the highest quality mipmap level is used, named without the mipmap suffix
+                String assetKey = entry;
+                Matcher matcher = MIPMAP_PATTERN.matcher(entry);
+                if (matcher.find()) {
+                    if (Integer.parseInt(matcher.group("mipmaplevel")) != 0) {
+                        continue;
+                    }
+                    assetKey = entry.replaceFirst("MM" + matcher.group("mipmaplevel"), "");
+                }
+                engineTextures.put(getLookupKey(TEXTURES_PREFIX + assetKey + ".png"), new ArchiveEntry<>(file, etFile, entry));
+            }
+        }
+
+        return engineTextures;
+    }
+
+    private synchronized Map<String, ArchiveEntry<WadFile, String>> getWadTextures() throws IOException {
+        if (wadTextures == null) {
+            wadTextures = new HashMap<>();
+            for (String wadName : new String[]{"FrontEnd.WAD", "EngineTextures.WAD"}) {
+                File file = new File(ConversionUtils.getRealFileName(dungeonKeeperFolder, PathUtils.DKII_DATA_FOLDER + wadName));
+                WadFile wad = new WadFile(file);
+                for (String entry : wad.getWadFileEntries()) {
+                    String assetKey = entry;
+                    if (entry.toLowerCase().endsWith(".444")) {
+                        assetKey = entry.substring(0, entry.length() - 3).concat("png");
+                    }
+                    wadTextures.put(getLookupKey(TEXTURES_PREFIX + assetKey), new ArchiveEntry<>(file, wad, entry));
+                }
+            }
+        }
+
+        return wadTextures;
+    }
+
+    private synchronized Map<String, ArchiveEntry<SdtFile, SdtFileEntry>> getSounds() throws IOException {
+        if (sounds == null) {
+            Map<String, ArchiveEntry<SdtFile, SdtFileEntry>> result = new HashMap<>();
+            final Path dataDir = new File(ConversionUtils.getRealFileName(dungeonKeeperFolder, PathUtils.DKII_SFX_FOLDER)).toPath();
+            Files.walkFileTree(dataDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+
+                    // Index all the SDT files, the same way the converter lays them out
+                    if (attrs.isRegularFile() && file.getFileName().toString().toLowerCase().endsWith(".sdt")) {
+                        SdtFile sdt = new SdtFile(file.toFile());
+                        String relative = dataDir.relativize(file).toString();
+                        relative = relative.substring(0, relative.length() - 4);
+                        for (SdtFileEntry entry : sdt.getEntries()) {
+                            if (entry != null) {
+                                String assetKey = SOUNDS_PREFIX + relative + "/" + SdtFile.fixFileExtension(entry);
+                                result.put(getLookupKey(assetKey), new ArchiveEntry<>(file.toFile(), sdt, entry));
+                            }
+                        }
+                    }
+
+                    //Always continue
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            sounds = result;
+        }
+
+        return sounds;
+    }
+
+    private static String getLookupKey(String assetKey) {
+        return assetKey.replace('\\', '/').toLowerCase();
+    }
+
+    /**
+     * Converts the original asset to our format
+     */
+    @FunctionalInterface
+    private interface AssetConverter {
+
+        byte[] convert() throws IOException;
+    }
+
+    /**
+     * Single entry in some original archive file
+     *
+     * @param <T> the archive type
+     * @param <E> the entry type
+     */
+    private static class ArchiveEntry<T, E> {
+
+        private final File file;
+        private final T archive;
+        private final E entry;
+
+        public ArchiveEntry(File file, T archive, E entry) {
+            this.file = file;
+            this.archive = archive;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Asset info serving the converted data from memory
+     */
+    private static class ConvertedAssetInfo extends AssetInfo {
+
+        private final byte[] data;
+
+        public ConvertedAssetInfo(AssetManager manager, AssetKey key, byte[] data) {
+            super(manager, key);
+
+            this.data = data;
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new ByteArrayInputStream(data);
+        }
+    }
+
+}
@@ -16,10 +16,12 @@
  */
 package toniarts.openkeeper.tools.convert;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -30,17 +32,41 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Reads the DK II resources, either straight from a file or from data already
+ * in memory
  *
  * @author archdemon
  */
 public class ResourceReader implements IResourceReader {
 
     private final RandomAccessFile file;
+    private final ByteBuffer buffer;
 
     private static final Logger LOGGER = Logger.getLogger(ResourceReader.class.getName());
 
     public ResourceReader(File file) throws FileNotFoundException {
         this.file = new RandomAccessFile(file, "r");
+        this.buffer = null;
+    }
+
+    /**
+     * Reads the resource from memory, reading starts from the current
+     * position of the buffer. The buffer itself is not modified
+     *
+     * @param data the resource data
+     */
+    public ResourceReader(ByteBuffer data) {
+        this.file = null;
+        this.buffer = data.slice();
+    }
+
+    /**
+     * Reads the resource from memory
+     *
+     * @param data the resource data
+     */
+    public ResourceReader(byte[] data) {
+        this(ByteBuffer.wrap(data));
     }
 
     public ResourceReader(String filename) throws FileNotFoundException {
@@ -49,14 +75,26 @@ public class ResourceReader implements IResourceReader {
 
     @Override
     public int read(byte[] b) throws IOException {
-        return this.file.read(b);
+        if (buffer == null) {
+            return this.file.read(b);
+        }
+        if (b.length == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int length = Math.min(b.length, buffer.remaining());
+        buffer.get(b, 0, length);
+
+        return length;
     }
 
     @Override
     public byte[] read(int length) throws IOException {
         byte[] bytes = new byte[length];
 
-        int result = this.file.read(bytes);
+        int result = this.read(bytes);
         if (result != length) {
             String message = "Error reading byte array. Expect %s bytes and %s given";
             throw new IOException(String.format(message, length, result));
@@ -133,12 +171,19 @@ public class ResourceReader implements IResourceReader {
 
     @Override
     public short readUnsignedByte() throws IOException {
-        return (short) this.file.readUnsignedByte();
+        return (short) (this.readByte() & 0xFF);
     }
 
     @Override
     public byte readByte() throws IOException {
-        return this.file.readByte();
+        if (buffer == null) {
+            return this.file.readByte();
+        }
+        if (!buffer.hasRemaining()) {
+            throw new EOFException();
+        }
+
+        return buffer.get();
     }
 
     @Override
@@ -171,7 +216,14 @@ public class ResourceReader implements IResourceReader {
      */
     @Override
     public short readRealShort() throws IOException {
-        return this.file.readShort();
+        if (buffer == null) {
+            return this.file.readShort();
+        }
+
+        // Big endian, like the RandomAccessFile
+        byte[] bytes = this.read(2);
+
+        return (short) ((bytes[0] << 8) | (bytes[1] & 0xFF));
     }
 
     @Override
@@ -358,7 +410,13 @@ public class ResourceReader implements IResourceReader {
 
     @Override
     public int skipBytes(int size) throws IOException {
-        int result = this.file.skipBytes(size);
+        int result;
+        if (buffer == null) {
+            result = this.file.skipBytes(size);
+        } else {
+            result = Math.max(0, Math.min(size, buffer.remaining()));
+            buffer.position(buffer.position() + result);
+        }
 
         if (result != size) {
             String message = "Error skipping bytes. Expect %s bytes and %s given";
@@ -370,17 +428,32 @@ public class ResourceReader implements IResourceReader {
 
     @Override
     public long getFilePointer() throws IOException {
-        return this.file.getFilePointer();
+        if (buffer == null) {
+            return this.file.getFilePointer();
+        }
+
+        return buffer.position();
     }
 
     @Override
     public void seek(long pos) throws IOException {
-        this.file.seek(pos);
+        if (buffer == null) {
+            this.file.seek(pos);
+        } else {
+            if (pos < 0 || pos > buffer.limit()) {
+                throw new EOFException("Seek position " + pos + " is out of bounds!");
+            }
+            buffer.position((int) pos);
+        }
     }
 
     @Override
     public long length() throws IOException {
-        return this.file.length();
+        if (buffer == null) {
+            return this.file.length();
+        }
+
+        return buffer.limit();
     }
 
     /**
@@ -418,6 +491,9 @@ public class ResourceReader implements IResourceReader {
 
     @Override
     public void close() {
+        if (buffer != null) {
+            return;
+        }
         try {
             this.file.close();
         } catch (IOException ex) {
@@ -49,7 +49,8 @@ public class WadExtractor {
         String destination = PathUtils.fixFilePath(args[0]);
 
         //Extract the meshes
-        WadFile wad = new WadFile(new File(dataFolder + "Meshes.WAD"));
-        wad.extractFileData(destination.concat("meshes"));
+        try (WadFile wad = new WadFile(new File(dataFolder + "Meshes.WAD"))) {
+            wad.extractFileData(destination.concat("meshes"));
+        }
     }
 }
@@ -23,11 +23,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
@@ -123,66 +125,98 @@ public final class KwdFile {
     private Set<Sacrifice> sacrifices;
     private Set<Variable.Unknown> unknownVariables;
     //
-    private boolean loaded = false;
+    private final Map<MapDataTypeEnum, List<FilePath>> sectionPaths = new EnumMap<>(MapDataTypeEnum.class);
+    private final Set<MapDataTypeEnum> loadedSections = ConcurrentHashMap.newKeySet();
     private Creature imp;
     private Creature dwarf;
     private final String basePath;
+    private final File file;
     private GameObject levelGem;
+    private final LevelCache.CachedLevel levelData;
 
     private final Object loadingLock = new Object();
+    private static volatile LevelCache levelCache;
     private static final Logger LOGGER = Logger.getLogger(KwdFile.class.getName());
 
     /**
      * Constructs a new KWD file reader<br>
-     * Reads the whole map and its catalogs (either standard ones or custom
-     * ones)
+     * Reads the general map info, the map and its catalogs (either standard
+     * ones or custom ones) are read on demand
      *
      * @param basePath path to DK II main path (or where ever is the "root")
      * @param file the KWD file to read
      */
     public KwdFile(String basePath, File file) {
-        this(basePath, file, true);
+        this(basePath, file, false);
     }
 
     /**
      * Constructs a new KWD file reader<br>
+     * The data sections are parsed lazily on first access, unless loaded
+     * upfront
      *
      * @param basePath path to DK II main path (or where ever is the "root")
      * @param file the KWD file to read
-     * @param load whether to actually load the map data, or just get the
-     * general info
+     * @param load whether to load all the map data now, or just get the
+     * general info and parse the rest on demand
+     * @see #load()
      */
     public KwdFile(String basePath, File file, boolean load) {
 
         // Load the actual main map info (paths to catalogs most importantly)
         // Read the file
+        this.file = file;
+        this.basePath = PathUtils.fixFilePath(basePath);
+        LevelCache cache = levelCache;
+        levelData = (cache != null ? cache.getLevel(this.basePath, file) : null);
         try {
-            readFileContents(file);
+            readFileContents(levelData != null ? new ResourceReader(levelData.readLevelFile()) : new ResourceReader(file));
         } catch (Exception e) {
             //Fug
             throw new RuntimeException("Failed to read the file " + file + "!", e);
         }
-        this.basePath = PathUtils.fixFilePath(basePath);
+
+        // Index the sections, the files are read in the given order so that the level specific data overrides the globals
+        for (FilePath path : gameLevel.getPaths()) {
+            List<FilePath> paths = sectionPaths.get(path.getId());
+            if (paths == null) {
+                paths = new ArrayList<>(2);
+                sectionPaths.put(path.getId(), paths);
+            }
+            paths.add(path);
+        }
+        if (levelData != null) {
+            levelData.setPaths(gameLevel.getPaths());
+        }
+
+        // We need map width & height if not loaded fully, I couldn't figure out where, except the map data
+        try (IResourceReader data = levelData != null ? new ResourceReader(levelData.read(gameLevel.getFile(MAP))) : new ResourceReader(ConversionUtils.getRealFileName(basePath, gameLevel.getFile(MAP)))) {
+            KwdHeader header = readKwdHeader(data);
+            map = new GameMap(header.getWidth(), header.getHeight());
+        } catch (Exception e) {
+
+            //Fug
+            throw new RuntimeException("Failed to read the file " + gameLevel.getFile(MAP) + "!", e);
+        }
 
         // See if we need to load the actual data
         if (load) {
             load();
-        } else {
-
-            // We need map width & height if not loaded fully, I couldn't figure out where, except the map data
-            try (IResourceReader data = new ResourceReader(ConversionUtils.getRealFileName(basePath, gameLevel.getFile(MAP)))) {
-                KwdHeader header = readKwdHeader(data);
-                map = new GameMap(header.getWidth(), header.getHeight());
-            } catch (Exception e) {
-
-                //Fug
-                throw new RuntimeException("Failed to read the file " + gameLevel.getFile(MAP) + "!", e);
-            }
         }
     }
 
-    private void readFileContents(File file) throws IOException {
-        try (IResourceReader data = new ResourceReader(file)) {
+    /**
+     * Set the cache to use for the level data, {@code null} to always read
+     * the data from the original files
+     *
+     * @param cache the level cache
+     */
+    public static void setLevelCache(LevelCache cache) {
+        levelCache = cache;
+    }
+
+    private void readFileContents(IResourceReader reader) throws IOException {
+        try (IResourceReader data = reader) {
             while (data.getFilePointer() < data.length()) {
 
                 // Read header (and put the file pointer to the data start)
@@ -197,41 +231,55 @@ public final class KwdFile {
     }
 
     /**
-     * Loads the map data
+     * Loads all the map data now. Not strictly needed as the data sections
+     * are read on first access, but useful for doing all the parsing on a
+     * loading thread
      *
      * @throws RuntimeException level file fails to parse
      */
     public void load() throws RuntimeException {
-        if (!loaded) {
-            synchronized (loadingLock) {
-                if (!loaded) {
-
-                    // Read the map data first (we store some data to the map)
-                    for (FilePath path : gameLevel.getPaths()) {
-                        if (path.getId() == MapDataTypeEnum.MAP) {
-                            readFilePath(path);
-                            break;
-                        }
-                    }
+        for (MapDataTypeEnum type : sectionPaths.keySet()) {
+            loadSection(type);
+        }
+    }
 
-                    // Now we have the paths, read all of those in order
-                    for (FilePath path : gameLevel.getPaths()) {
-                        if (path.getId() != MapDataTypeEnum.MAP) {
-                            // Open the file
+    /**
+     * Loads the given data section if not already loaded. Safe to call from
+     * multiple threads, the data is parsed only once
+     *
+     * @param type the section type
+     * @throws RuntimeException level file fails to parse
+     */
+    private void loadSection(MapDataTypeEnum type) throws RuntimeException {
+        if (!loadedSections.contains(type)) {
+            synchronized (loadingLock) {
+                if (!loadedSections.contains(type)) {
+                    List<FilePath> paths = sectionPaths.get(type);
+                    if (paths != null) {
+                        for (FilePath path : paths) {
                             readFilePath(path);
                         }
                     }
-                    loaded = true;
+                    loadedSections.add(type);
                 }
             }
         }
     }
 
     private void readFilePath(FilePath path) {
+        if (levelData != null) {
+            try {
+                readFileContents(new ResourceReader(levelData.read(path.getPath())));
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to read the file " + path.getPath() + "!", e);
+            }
+            return;
+        }
+
         File file = null;
         try {
             file = new File(ConversionUtils.getRealFileName(basePath, path.getPath()));
-            readFileContents(file);
+            readFileContents(new ResourceReader(file));
         } catch (Exception e) {
             throw new RuntimeException("Failed to read the file " + file + "!", e);
         }
@@ -2857,6 +2905,7 @@ public final class KwdFile {
      * @return list of terrain tiles
      */
     public Collection<Terrain> getTerrainList() {
+        loadSection(MapDataTypeEnum.TERRAIN);
         return terrainTiles.values();
     }
 
@@ -2866,6 +2915,7 @@ public final class KwdFile {
      * @return list of objects
      */
     public Collection<GameObject> getObjectList() {
+        loadSection(MapDataTypeEnum.OBJECTS);
         return objects.values();
     }
 
@@ -2875,6 +2925,7 @@ public final class KwdFile {
      * @return list of creatures
      */
     public Collection<Creature> getCreatureList() {
+        loadSection(MapDataTypeEnum.CREATURES);
         return creatures.values();
     }
 
@@ -2885,10 +2936,12 @@ public final class KwdFile {
      * @return the player
      */
     public Player getPlayer(short id) {
+        loadSection(MapDataTypeEnum.PLAYERS);
         return players.get(id);
     }
 
     public Map<Short, Player> getPlayers() {
+        loadSection(MapDataTypeEnum.PLAYERS);
         return players;
     }
 
@@ -2899,6 +2952,7 @@ public final class KwdFile {
      * @return the creature
      */
     public Creature getCreature(short id) {
+        loadSection(MapDataTypeEnum.CREATURES);
         return creatures.get(id);
     }
 
@@ -2942,6 +2996,7 @@ public final class KwdFile {
      * @return the terrain
      */
     public Terrain getTerrain(short id) {
+        loadSection(MapDataTypeEnum.TERRAIN);
         return terrainTiles.get(id);
     }
 
@@ -2952,6 +3007,7 @@ public final class KwdFile {
      * @return the room associated with the terrain ID
      */
     public Room getRoomByTerrain(short id) {
+        loadSection(MapDataTypeEnum.ROOMS);
         return roomsByTerrainId.get(id);
     }
 
@@ -2963,6 +3019,7 @@ public final class KwdFile {
      * @return things list of things you want
      */
     public <T extends Thing> List<T> getThings(Class<T> thingClass) {
+        loadSection(MapDataTypeEnum.THINGS);
         List<T> result = (List<T>) thingsByType.get(thingClass);
         if (result == null) {
             result = Collections.emptyList();
@@ -2977,10 +3034,12 @@ public final class KwdFile {
      * @return the trigger/action
      */
     public Trigger getTrigger(int id) {
+        loadSection(MapDataTypeEnum.TRIGGERS);
         return triggers.get(id);
     }
 
     public Map<Integer, Trigger> getTriggers() {
+        loadSection(MapDataTypeEnum.TRIGGERS);
         return triggers;
     }
 
@@ -2991,6 +3050,7 @@ public final class KwdFile {
      * @return the object
      */
     public GameObject getObject(int id) {
+        loadSection(MapDataTypeEnum.OBJECTS);
         return objects.get((short) id);
     }
 
@@ -3001,6 +3061,7 @@ public final class KwdFile {
      * @return the room
      */
     public Room getRoomById(int id) {
+        loadSection(MapDataTypeEnum.ROOMS);
         return rooms.get((short) id);
     }
 
@@ -3011,6 +3072,7 @@ public final class KwdFile {
      * @return the keeper spell
      */
     public KeeperSpell getKeeperSpellById(int id) {
+        loadSection(MapDataTypeEnum.KEEPER_SPELLS);
         return keeperSpells.get((short) id);
     }
 
@@ -3021,6 +3083,7 @@ public final class KwdFile {
      * @return the trap
      */
     public Trap getTrapById(int id) {
+        loadSection(MapDataTypeEnum.TRAPS);
         return traps.get((short) id);
     }
 
@@ -3031,6 +3094,7 @@ public final class KwdFile {
      * @return the door
      */
     public Door getDoorById(int id) {
+        loadSection(MapDataTypeEnum.DOORS);
         return doors.get((short) id);
     }
 
@@ -3040,6 +3104,7 @@ public final class KwdFile {
      * @return list of all rooms
      */
     public List<Room> getRooms() {
+        loadSection(MapDataTypeEnum.ROOMS);
         List<Room> c = new ArrayList(rooms.values());
         Collections.sort(c);
         return c;
@@ -3051,6 +3116,7 @@ public final class KwdFile {
      * @return list of all keeper spells
      */
     public List<KeeperSpell> getKeeperSpells() {
+        loadSection(MapDataTypeEnum.KEEPER_SPELLS);
         List<KeeperSpell> c = new ArrayList(keeperSpells.values());
         Collections.sort(c);
         return c;
@@ -3062,6 +3128,7 @@ public final class KwdFile {
      * @return list of all doors
      */
     public List<Door> getDoors() {
+        loadSection(MapDataTypeEnum.DOORS);
         List<Door> c = new ArrayList(doors.values());
         Collections.sort(c);
         return c;
@@ -3073,12 +3140,22 @@ public final class KwdFile {
      * @return list of all shots
      */
     public List<Shot> getShots() {
+        loadSection(MapDataTypeEnum.SHOTS);
         List<Shot> c = new ArrayList(shots.values());
         Collections.sort(c);
         return c;
     }
 
+    /**
+     * Get the map, the tiles are read on first access
+     *
+     * @return the map
+     */
     public GameMap getMap() {
+
+        // The terrain sets the water & lava to the map
+        loadSection(MapDataTypeEnum.MAP);
+        loadSection(MapDataTypeEnum.TERRAIN);
         return map;
     }
 
@@ -3088,6 +3165,7 @@ public final class KwdFile {
      * @return list of all traps
      */
     public List<Trap> getTraps() {
+        loadSection(MapDataTypeEnum.TRAPS);
         List<Trap> c = new ArrayList(traps.values());
         Collections.sort(c);
         return c;
@@ -3097,31 +3175,58 @@ public final class KwdFile {
         return gameLevel;
     }
 
+    /**
+     * Get the latest modification time of the level file and its map data,
+     * i.e. the files that make up the level layout
+     *
+     * @return the modification time in milliseconds, 0 if not known
+     */
+    public long getLastModified() {
+        long lastModified = file.lastModified();
+        try {
+            String mapFile = ConversionUtils.getRealFileName(basePath, gameLevel.getFile(MAP));
+            if (mapFile != null) {
+                lastModified = Math.max(lastModified, new File(mapFile).lastModified());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to resolve the map file of " + file + "!", e);
+        }
+
+        return lastModified;
+    }
+
     public CreatureSpell getCreatureSpellById(short spellId) {
+        loadSection(MapDataTypeEnum.CREATURE_SPELLS);
         return creatureSpells.get(spellId);
     }
 
     public Effect getEffect(int effectId) {
+        loadSection(MapDataTypeEnum.EFFECTS);
         return effects.get(effectId);
     }
 
     public Map<Integer, Effect> getEffects() {
+        loadSection(MapDataTypeEnum.EFFECTS);
         return effects;
     }
 
     public EffectElement getEffectElement(int effectElementId) {
+        loadSection(MapDataTypeEnum.EFFECT_ELEMENTS);
         return effectElements.get(effectElementId);
     }
 
     public Map<Integer, EffectElement> getEffectElements() {
+        loadSection(MapDataTypeEnum.EFFECT_ELEMENTS);
         return effectElements;
     }
 
     public Map<MiscVariable.MiscType, MiscVariable> getVariables() {
+        loadSection(MapDataTypeEnum.VARIABLES);
         return variables;
     }
 
     public List<Availability> getAvailabilities() {
+        loadSection(MapDataTypeEnum.VARIABLES);
         return availabilities;
     }
 
@@ -3132,14 +3237,17 @@ public final class KwdFile {
      * @return the creature pool
      */
     public Map<Integer, CreaturePool> getCreaturePool(short playerId) {
+        loadSection(MapDataTypeEnum.VARIABLES);
         return creaturePools.get(Short.valueOf(playerId).intValue());
     }
 
     public Creature getImp() {
+        loadSection(MapDataTypeEnum.CREATURES);
         return imp;
     }
 
     public Creature getDwarf() {
+        loadSection(MapDataTypeEnum.CREATURES);
         return dwarf;
     }
 
@@ -3148,6 +3256,7 @@ public final class KwdFile {
     }
 
     public GameObject getLevelGem() {
+        loadSection(MapDataTypeEnum.OBJECTS);
         return levelGem;
     }
 
@@ -3159,6 +3268,7 @@ public final class KwdFile {
      * @return the creature stats on given level
      */
     public Map<CreatureStats.StatType, CreatureStats> getCreatureStats(int level) {
+        loadSection(MapDataTypeEnum.VARIABLES);
         return creatureStatistics.get(level);
     }
 
@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.tools.convert.map;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import toniarts.openkeeper.tools.convert.ConversionUtils;
+
+/**
+ * Caches the data files of a level into a single binary file. The level is
+ * made of the KWD file and a dozen of catalog files spread around the DK II
+ * folder, finding and reading them one by one is slow.<br>
+ * The cache holds the raw data of the files, not the parsed level, so the
+ * level sections are still parsed lazily. Only the index of the cache file is
+ * read when a level is opened, the files are then read from the cache as the
+ * sections are parsed. Every file is validated against the size and
+ * modification time of its original, and the cached data against its
+ * checksum.<br>
+ * The files in the level's own folder are cached per level, in a cache file
+ * named by the full path of the level file. The global catalogs shared by the
+ * levels are cached once, in a catalog cache shared by all the levels. The
+ * caches are (re)written as soon as the level is opened and some of its files
+ * are missing from them.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class LevelCache {
+
+    private static final int MAGIC = 0x4B574443; // KWDC
+    private static final int VERSION = 3;
+    private static final String CACHE_FILE_EXTENSION = ".cache";
+    private static final String CATALOGS_CACHE_FILE = "catalogs" + CACHE_FILE_EXTENSION;
+    private static final String LEVEL_FILE_KEY = "";
+
+    private final File cacheFolder;
+    private final CacheFile catalogs;
+
+    private static final Logger LOGGER = Logger.getLogger(LevelCache.class.getName());
+
+    /**
+     * Creates a new level cache
+     *
+     * @param cacheFolder the folder to store the cache files to
+     */
+    public LevelCache(File cacheFolder) {
+        this.cacheFolder = cacheFolder;
+        this.catalogs = new CacheFile(new File(cacheFolder, CATALOGS_CACHE_FILE));
+    }
+
+    /**
+     * Opens the cached data of a level. Only the index of the cache is read
+     * here
+     *
+     * @param basePath path to DK II main path (or where ever is the "root")
+     * @param levelFile the KWD file
+     * @return the cached level, never {@code null}
+     */
+    public CachedLevel getLevel(String basePath, File levelFile) {
+        File file;
+        try {
+            file = levelFile.getCanonicalFile();
+        } catch (IOException e) {
+            file = levelFile.getAbsoluteFile();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(file.getPath().getBytes(StandardCharsets.UTF_8));
+        File cacheFile = new File(cacheFolder, file.getName().toLowerCase(Locale.ENGLISH) + "_" + Long.toHexString(crc.getValue()) + CACHE_FILE_EXTENSION);
+
+        return new CachedLevel(basePath, file, new CacheFile(cacheFile));
+    }
+
+    /**
+     * The data files of a single level
+     */
+    public final class CachedLevel {
+
+        private final String basePath;
+        private final File levelFile;
+        private final CacheFile level;
+        private final Map<String, File> files = new HashMap<>();
+
+        private CachedLevel(String basePath, File levelFile, CacheFile level) {
+            this.basePath = basePath;
+            this.levelFile = levelFile;
+            this.level = level;
+        }
+
+        /**
+         * Set the data files of the level. The files missing from the caches
+         * are cached now
+         *
+         * @param paths the level data files
+         */
+        public synchronized void setPaths(Collection<FilePath> paths) {
+            Map<String, File> levelFiles = new LinkedHashMap<>();
+            Map<String, File> catalogFiles = new LinkedHashMap<>();
+            levelFiles.put(LEVEL_FILE_KEY, levelFile);
+            try {
+                for (FilePath path : paths) {
+                    File file = getFile(path.getPath());
+                    if (isCatalog(file)) {
+                        catalogFiles.put(file.getPath(), file);
+                    } else {
+                        levelFiles.put(path.getPath(), file);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to cache level " + levelFile + "!", e);
+                return;
+            }
+
+            level.update(levelFiles, false);
+            catalogs.update(catalogFiles, true);
+        }
+
+        /**
+         * Reads the KWD file itself
+         *
+         * @return the file data
+         * @throws IOException if the original file can not be read
+         */
+        public synchronized ByteBuffer readLevelFile() throws IOException {
+            return read(level, LEVEL_FILE_KEY, levelFile);
+        }
+
+        /**
+         * Reads a level data file
+         *
+         * @param path the file path as it is in the level
+         * @return the file data
+         * @throws IOException if the original file can not be read
+         */
+        public synchronized ByteBuffer read(String path) throws IOException {
+            File file = getFile(path);
+            if (isCatalog(file)) {
+                return read(catalogs, file.getPath(), file);
+            }
+
+            return read(level, path, file);
+        }
+
+        private File getFile(String path) throws IOException {
+            File file = files.get(path);
+            if (file == null) {
+                String fileName = ConversionUtils.getRealFileName(basePath, path);
+                if (fileName == null) {
+                    throw new IOException("File " + path + " not found!");
+                }
+                file = new File(fileName);
+                files.put(path, file);
+            }
+
+            return file;
+        }
+
+        /**
+         * The global catalogs live outside the level's own folder
+         */
+        private boolean isCatalog(File file) {
+            return !levelFile.getParentFile().equals(file.getAbsoluteFile().getParentFile());
+        }
+
+        private ByteBuffer read(CacheFile cache, String key, File file) throws IOException {
+            ByteBuffer data = cache.read(key, file);
+            if (data == null) {
+                data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            }
+
+            return data.asReadOnlyBuffer();
+        }
+
+    }
+
+    /**
+     * A single cache file
+     */
+    private final class CacheFile {
+
+        private final File file;
+        private final Map<String, CacheEntry> index = new HashMap<>();
+        private long dataOffset;
+        private boolean indexRead = false;
+
+        private CacheFile(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Reads a file from the cache
+         *
+         * @param key the file key
+         * @param original the original file
+         * @return the cached data, or {@code null} if the file is not cached
+         * or its original has changed
+         */
+        public synchronized ByteBuffer read(String key, File original) {
+            readIndex();
+            CacheEntry entry = index.get(key);
+            if (entry == null || !entry.isValid(original)) {
+                return null;
+            }
+
+            try {
+                return readEntry(entry);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to read " + original + " from level cache " + file + "!", e);
+                return null;
+            }
+        }
+
+        /**
+         * Caches the given files, if some of them are missing from the cache
+         * or have changed
+         *
+         * @param files the files to cache, by their keys
+         * @param keepOthers keep the other files already in the cache
+         */
+        public synchronized void update(Map<String, File> files, boolean keepOthers) {
+            readIndex();
+            boolean valid = true;
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                CacheEntry cacheEntry = index.get(entry.getKey());
+                if (cacheEntry == null || !cacheEntry.isValid(entry.getValue())) {
+                    valid = false;
+                    break;
+                }
+            }
+            if (valid) {
+                return;
+            }
+
+            Map<String, File> cachedFiles = new LinkedHashMap<>();
+            if (keepOthers) {
+                for (String key : index.keySet()) {
+                    File original = new File(key);
+                    if (original.exists()) {
+                        cachedFiles.put(key, original);
+                    }
+                }
+            }
+            cachedFiles.putAll(files);
+            try {
+                write(cachedFiles);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write level cache " + file + "!", e);
+            }
+        }
+
+        private void readIndex() {
+            if (indexRead) {
+                return;
+            }
+            indexRead = true;
+            if (!file.exists()) {
+                return;
+            }
+
+            try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                    return;
+                }
+                int indexLength = is.readInt();
+                byte[] indexData = new byte[indexLength];
+                is.readFully(indexData);
+                dataOffset = 12 + indexLength;
+
+                DataInputStream indexStream = new DataInputStream(new ByteArrayInputStream(indexData));
+                int count = indexStream.readInt();
+                for (int i = 0; i < count; i++) {
+                    CacheEntry entry = new CacheEntry(indexStream.readUTF(), indexStream.readLong(), indexStream.readLong(),
+                            indexStream.readLong(), indexStream.readLong(), indexStream.readInt());
+                    index.put(entry.key, entry);
+                }
+            } catch (IOException | RuntimeException e) {
+                index.clear();
+                LOGGER.log(Level.WARNING, "Failed to read level cache " + file + "!", e);
+            }
+        }
+
+        private ByteBuffer readEntry(CacheEntry entry) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long position = dataOffset + entry.offset;
+                while (buffer.hasRemaining()) {
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new EOFException("Level cache " + file + " is truncated!");
+                    }
+                    position += read;
+                }
+            }
+            buffer.flip();
+            if (getChecksum(buffer) != entry.checksum) {
+                throw new IOException("Level cache " + file + " entry " + entry.key + " is corrupted!");
+            }
+
+            return buffer;
+        }
+
+        private void write(Map<String, File> files) throws IOException {
+
+            // Gather the data, the unchanged files are taken from the old cache
+            List<CacheEntry> entries = new ArrayList<>(files.size());
+            List<ByteBuffer> data = new ArrayList<>(files.size());
+            long offset = 0;
+            for (Map.Entry<String, File> file : files.entrySet()) {
+                File original = file.getValue();
+                ByteBuffer buffer = read(file.getKey(), original);
+                if (buffer == null) {
+                    buffer = ByteBuffer.wrap(Files.readAllBytes(original.toPath()));
+                }
+                entries.add(new CacheEntry(file.getKey(), original.length(), original.lastModified(), getChecksum(buffer), offset, buffer.remaining()));
+                data.add(buffer);
+                offset += buffer.remaining();
+            }
+
+            // The index
+            ByteArrayOutputStream indexData = new ByteArrayOutputStream();
+            try (DataOutputStream os = new DataOutputStream(indexData)) {
+                os.writeInt(entries.size());
+                for (CacheEntry entry : entries) {
+                    os.writeUTF(entry.key);
+                    os.writeLong(entry.size);
+                    os.writeLong(entry.modified);
+                    os.writeLong(entry.checksum);
+                    os.writeLong(entry.offset);
+                    os.writeInt(entry.length);
+                }
+            }
+
+            // Write to a temporary file first, other instances might be reading the cache
+            cacheFolder.mkdirs();
+            File tempFile = File.createTempFile(file.getName(), null, cacheFolder);
+            try {
+                try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                    os.writeInt(MAGIC);
+                    os.writeInt(VERSION);
+                    os.writeInt(indexData.size());
+                    indexData.writeTo(os);
+                    for (ByteBuffer buffer : data) {
+                        os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    }
+                }
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tempFile.delete();
+            }
+
+            // Serve the rest from the new cache
+            index.clear();
+            for (CacheEntry entry : entries) {
+                index.put(entry.key, entry);
+            }
+            dataOffset = 12 + indexData.size();
+        }
+
+    }
+
+    private static long getChecksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+
+        return crc.getValue();
+    }
+
+    private static class CacheEntry {
+
+        private final String key;
+        private final long size;
+        private final long modified;
+        private final long checksum;
+        private final long offset;
+        private final int length;
+
+        public CacheEntry(String key, long size, long modified, long checksum, long offset, int length) {
+            this.key = key;
+            this.size = size;
+            this.modified = modified;
+            this.checksum = checksum;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public boolean isValid(File file) {
+            return file.length() == size && file.lastModified() == modified;
+        }
+
+    }
+
+}
@@ -143,6 +143,24 @@ public class SdtFile {
         }
     }
 
+    /**
+     * Extract a single file
+     *
+     * @param fileEntry the file to extract
+     * @return the file data, with the file header if needed
+     */
+    public ByteArrayOutputStream getFileData(SdtFileEntry fileEntry) {
+
+        // Open the SDT for extraction
+        try (IResourceReader rawSdt = new ResourceReader(file)) {
+            return getFileData(fileEntry, rawSdt);
+        } catch (IOException e) {
+
+            // Fug
+            throw new RuntimeException("Failed to read the SDT file " + file + "!", e);
+        }
+    }
+
     /**
      * Extract a single file
      *
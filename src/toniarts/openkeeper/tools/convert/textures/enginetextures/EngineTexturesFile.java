@@ -191,6 +191,24 @@ public class EngineTexturesFile implements Iterable<String> {
         }
     }
 
+    /**
+     * Extract a single file
+     *
+     * @param textureEntry the texture to extract
+     * @return the file data as PNG
+     */
+    public ByteArrayOutputStream getFileData(String textureEntry) {
+
+        //Open the Texture file for extraction
+        try (IResourceReader rawTextures = new ResourceReader(file)) {
+            return getFileData(textureEntry, rawTextures);
+        } catch (IOException e) {
+
+            //Fug
+            throw new RuntimeException("Failed to open the file " + file + "!", e);
+        }
+    }
+
     /**
      * Extract a single file
      *
@@ -35,8 +35,12 @@ public class LoadingScreenFile {
     private final BufferedImage image;
 
     public LoadingScreenFile(ByteArrayOutputStream fileData) {
+        this(ByteBuffer.wrap(fileData.toByteArray()));
+    }
+
+    public LoadingScreenFile(ByteBuffer fileData) {
 
-        ByteBuffer buf = ByteBuffer.wrap(fileData.toByteArray());
+        ByteBuffer buf = fileData.duplicate();
         buf.order(ByteOrder.LITTLE_ENDIAN);
 
         //Read the header
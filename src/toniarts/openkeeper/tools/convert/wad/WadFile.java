@@ -20,7 +20,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
@@ -39,13 +42,18 @@ import toniarts.openkeeper.utils.PathUtils;
  * Converted to JAVA from C code, C code by:
  * <li>Tomasz Lis</li>
  * <li>Anonymous</li>
+ * <br>
+ * The archive is kept open on first access and the entries can be read
+ * concurrently from several threads. Close the archive to release the file.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
-public class WadFile {
+public class WadFile implements AutoCloseable {
 
     private final File file;
     private final Map<String, WadFileEntry> wadFileEntries;
+    private FileChannel channel;
+    private boolean closed = false;
     private static final String WAD_HEADER_IDENTIFIER = "DWFB";
     private static final int WAD_HEADER_VERSION = 2;
 
@@ -168,17 +176,8 @@ public class WadFile {
      * @param destination destination directory
      */
     public void extractFileData(String destination) {
-
-        // Open the WAD for extraction
-        try (IResourceReader rawWad = new ResourceReader(file)) {
-
-            for (String fileName : wadFileEntries.keySet()) {
-                extractFileData(fileName, destination, rawWad);
-            }
-        } catch (Exception e) {
-
-            // Fug
-            throw new RuntimeException("Failed to read the WAD file!", e);
+        for (String fileName : wadFileEntries.keySet()) {
+            extractFileData(fileName, destination);
         }
     }
 
@@ -187,9 +186,9 @@ public class WadFile {
      *
      * @param fileName file to extract
      * @param destination destination directory
-     * @param rawWad the opened WAD file
+     * @return the file for the extracted contents
      */
-    private File extractFileData(String fileName, String destination, IResourceReader rawWad) {
+    public File extractFileData(String fileName, String destination) {
 
         // See that the destination is formatted correctly and create it if it does not exist
         String dest = PathUtils.fixFilePath(destination);
@@ -204,8 +203,11 @@ public class WadFile {
         dest = dest.concat(fileName);
 
         // Write to the file
-        try (OutputStream outputStream = new FileOutputStream(dest)) {
-            getFileData(fileName, rawWad).writeTo(outputStream);
+        ByteBuffer data = getFileBuffer(fileName);
+        try (FileChannel outputChannel = new FileOutputStream(dest).getChannel()) {
+            while (data.hasRemaining()) {
+                outputChannel.write(data);
+            }
             return new File(dest);
         } catch (IOException e) {
             throw new RuntimeException("Failed to write to " + dest + "!", e);
@@ -213,33 +215,37 @@ public class WadFile {
     }
 
     /**
-     * Extract a single file to a given location
+     * Extract a single file
      *
-     * @param fileName file to extract
-     * @param destination destination directory
-     * @return the file for the extracted contents
+     * @param fileName the file to extract
+     * @return the file data
+     * @see #getFileBuffer(java.lang.String)
      */
-    public File extractFileData(String fileName, String destination) {
-
-        // Open the WAD for extraction
-        try (IResourceReader rawWad = new ResourceReader(file)) {
-            return extractFileData(fileName, destination, rawWad);
-        } catch (Exception e) {
-
-            // Fug
-            throw new RuntimeException("Failed to read the WAD file!", e);
+    public ByteArrayOutputStream getFileData(String fileName) {
+        ByteBuffer data = getFileBuffer(fileName);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(data.remaining());
+        if (data.hasArray()) {
+            result.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            result.write(bytes, 0, bytes.length);
         }
+
+        return result;
     }
 
     /**
-     * Extract a single file
+     * Get a single file contents as a buffer. Uncompressed entries are read
+     * straight to the returned buffer, compressed entries are decompressed to
+     * a fresh buffer. The returned buffer is read-only, owned by the caller
+     * and the byte order is the default big endian.<br>
+     * This method is thread safe, several entries can be read concurrently.
      *
-     * @param fileName the file to extract
-     * @param rawWad the opened WAD file
+     * @param fileName the file to get
      * @return the file data
      */
-    private ByteArrayOutputStream getFileData(String fileName, IResourceReader rawWad) {
-        ByteArrayOutputStream result = null;
+    public ByteBuffer getFileBuffer(String fileName) {
 
         // Get the file
         WadFileEntry fileEntry = wadFileEntries.get(fileName);
@@ -247,147 +253,230 @@ public class WadFile {
             throw new RuntimeException("File " + fileName + " not found from the WAD archive!");
         }
 
+        // Positional reads, the channel position is never touched
+        byte[] bytes = new byte[fileEntry.getCompressedSize()];
         try {
+            read(ByteBuffer.wrap(bytes), fileEntry.getOffset());
+        } catch (IOException e) {
 
-            // Seek to the file we want and read it
-            rawWad.seek(fileEntry.getOffset());
-            byte[] bytes = rawWad.read(fileEntry.getCompressedSize());
-
-            result = new ByteArrayOutputStream();
+            // Fug
+            throw new RuntimeException("Failed to read the file " + fileName + " from the WAD file " + file + "!", e);
+        }
 
-            // See if the file is compressed
-            if (fileEntry.isCompressed()) {
-                result.write(decompressFileData(bytes, fileName));
-            } else {
-                result.write(bytes);
+        // See if the file is compressed
+        if (fileEntry.isCompressed()) {
+            try {
+                bytes = decompressFileData(bytes, fileName);
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Failed to decompress the file " + fileName + " from the WAD file " + file + "!", e);
             }
+        }
 
-        } catch (Exception e) {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
 
-            // Fug
-            throw new RuntimeException("Failed to read the WAD file!", e);
-        }
+    /**
+     * Get a single file contents as a stream
+     *
+     * @param fileName the file to get
+     * @return stream of the file data
+     * @see #getFileBuffer(java.lang.String)
+     */
+    public InputStream getFileStream(String fileName) {
+        return new ByteBufferInputStream(getFileBuffer(fileName));
+    }
 
-        return result;
+    /**
+     * Reads the archive from the given position until the buffer is full
+     *
+     * @param buffer the buffer to fill
+     * @param position the archive position
+     * @throws IOException may fail
+     */
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = getChannel().read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of the WAD file " + file + "!");
+            }
+        }
     }
 
     /**
-     * Extract a single file
+     * Get the archive channel. The archive is opened on the first call and
+     * kept open until closed. An interrupted read closes the channel, in which
+     * case it is reopened
      *
-     * @param fileName the file to extract
-     * @return the file data
+     * @return the archive channel
+     * @throws IOException may fail
      */
-    public ByteArrayOutputStream getFileData(String fileName) {
+    private synchronized FileChannel getChannel() throws IOException {
+        if (closed) {
+            throw new IOException("The WAD file " + file + " is closed!");
+        }
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
 
-        // Open the WAD for extraction
-        try (IResourceReader rawWad = new ResourceReader(file)) {
-            return getFileData(fileName, rawWad);
-        } catch (Exception e) {
+        return channel;
+    }
 
-            // Fug
-            throw new RuntimeException("Failed to read the WAD file!", e);
+    /**
+     * Closes the archive, no entries can be read after this
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to close the WAD file " + file + "!", e);
+            }
+            channel = null;
         }
     }
 
     /**
-     * Some file entries in the WAD are compressed (type 4?), this decompresses the file data
+     * Some file entries in the WAD are compressed (type 4?), this decompresses
+     * the file data. The literal and back reference runs are copied in bulk
      *
-     * @param bytes the compressed bytes
+     * @param src the compressed bytes
      * @param fileName just for logging
      * @return the decompressed bytes
      */
-    private byte[] decompressFileData(byte[] src, String fileName) {
+    private static byte[] decompressFileData(byte[] src, String fileName) {
         int i = 0, j = 0;
         if ((src[i++] & 1) != 0) {
             i += 3;
         }
         i++; // <<skip second byte
-        // <decompressed size packed into 3 bytes
 
-        int decsize = (ConversionUtils.toUnsignedByte(src[i]) << 16) + (ConversionUtils.toUnsignedByte(src[i + 1]) << 8) + ConversionUtils.toUnsignedByte(src[i + 2]);
+        // <decompressed size packed into 3 bytes
+        int decsize = ((src[i] & 0xFF) << 16) | ((src[i + 1] & 0xFF) << 8) | (src[i + 2] & 0xFF);
         byte[] dest = new byte[decsize];
         i += 3;
-        byte flag; // The flag byte read at the beginning of each main loop iteration
-        int counter; // Counter for all loops
+        int flag; // The flag byte read at the beginning of each main loop iteration
+        int literals; // Bytes to copy literally from the source
+        int distance; // Back reference distance from the current destination position
+        int length; // Back reference length
         boolean finished = false;
-        while (!finished) {
-            if (i >= src.length) {
-                break;
-            }
-            flag = src[i++]; // Get flag byte
-            if ((ConversionUtils.toUnsignedByte(flag) & 0x80) == 0) {
-                byte tmp = src[i++];
-                counter = ConversionUtils.toUnsignedByte(flag) & 3; // mod 4
-                while (counter-- != 0) // Copy literally
-                {
-                    dest[j] = src[i++];
-                    j++;
-                }
-                int k = j; // Get the destbuf position
-                k -= (ConversionUtils.toUnsignedByte(flag) & 0x60) << 3;
-                k -= ConversionUtils.toUnsignedByte(tmp);
-                k--;
-
-                counter = ((ConversionUtils.toUnsignedByte(flag) >> 2) & 7) + 2;
-                do {
-                    dest[j] = dest[k++];
-                    j++;
-                } while (counter-- != 0); // Correct decrement
-            } else if ((ConversionUtils.toUnsignedByte(flag) & 0x40) == 0) {
-                byte tmp = src[i++];
-                byte tmp2 = src[i++];
-                counter = (ConversionUtils.toUnsignedByte(tmp)) >> 6;
-                while (counter-- != 0) // Copy literally
-                {
-                    dest[j] = src[i++];
-                    j++;
-                }
-                int k = j;
-                k -= (ConversionUtils.toUnsignedByte(tmp) & 0x3F) << 8;
-                k -= ConversionUtils.toUnsignedByte(tmp2);
-                k--;
-                counter = (ConversionUtils.toUnsignedByte(flag) & 0x3F) + 3;
-                do {
-                    dest[j] = dest[k++];
-                    j++;
-                } while (counter-- != 0); // Correct postfix decrement
-            } else if ((ConversionUtils.toUnsignedByte(flag) & 0x20) == 0) {
-                byte localtemp = src[i++];
-                byte tmp2 = src[i++];
-                byte tmp3 = src[i++];
-                counter = ConversionUtils.toUnsignedByte(flag) & 3;
-                while (counter-- != 0) // Copy literally
-                {
-                    dest[j] = src[i++];
-                    j++;
-                }
-                int k = j;
-                k -= (ConversionUtils.toUnsignedByte(flag) & 0x10) << 12;
-                k -= ConversionUtils.toUnsignedByte(localtemp) << 8;
-                k -= ConversionUtils.toUnsignedByte(tmp2);
-                k--;
-                counter = ConversionUtils.toUnsignedByte(tmp3) + ((ConversionUtils.toUnsignedByte(flag) & 0x0C) << 6) + 4;
-                do {
-                    dest[j] = dest[k++];
-                    j++;
-                } while (counter-- != 0); // Correct
+        while (i < src.length) {
+            flag = src[i++] & 0xFF; // Get flag byte
+            if ((flag & 0x80) == 0) {
+                int tmp = src[i++] & 0xFF;
+                literals = flag & 3;
+                distance = ((flag & 0x60) << 3) + tmp + 1;
+                length = ((flag >> 2) & 7) + 3;
+            } else if ((flag & 0x40) == 0) {
+                int tmp = src[i++] & 0xFF;
+                int tmp2 = src[i++] & 0xFF;
+                literals = tmp >> 6;
+                distance = ((tmp & 0x3F) << 8) + tmp2 + 1;
+                length = (flag & 0x3F) + 4;
+            } else if ((flag & 0x20) == 0) {
+                int tmp = src[i++] & 0xFF;
+                int tmp2 = src[i++] & 0xFF;
+                int tmp3 = src[i++] & 0xFF;
+                literals = flag & 3;
+                distance = ((flag & 0x10) << 12) + (tmp << 8) + tmp2 + 1;
+                length = tmp3 + ((flag & 0x0C) << 6) + 5;
             } else {
-                counter = (ConversionUtils.toUnsignedByte(flag) & 0x1F) * 4 + 4;
-                if (ConversionUtils.toUnsignedByte(Integer.valueOf(counter).byteValue()) > 0x70) {
+                literals = (flag & 0x1F) * 4 + 4;
+                if (literals > 0x70) {
                     finished = true;
 
-                    // Crepare to copy the last bytes
-                    counter = ConversionUtils.toUnsignedByte(flag) & 3;
-                }
-                while (counter-- != 0) { // Copy literally
-                    dest[j] = src[i++];
-                    j++;
+                    // Prepare to copy the last bytes
+                    literals = flag & 3;
                 }
+                distance = 0;
+                length = 0;
+            }
+
+            // Copy literally
+            System.arraycopy(src, i, dest, j, literals);
+            i += literals;
+            j += literals;
+
+            // Copy the back reference
+            if (length > 0) {
+                copyBackReference(dest, j - distance, j, length);
+                j += length;
+            }
+
+            if (finished) {
+                break;
             }
-        } // Of while()
+        }
         if (!finished) {
             LOGGER.log(Level.WARNING, "File {0} might not be successfully extracted!", fileName);
         }
         return dest;
     }
+
+    /**
+     * Copies a back reference run within the destination buffer. The source
+     * and destination may overlap, in which case the already decompressed
+     * pattern is repeated
+     *
+     * @param dest the destination buffer
+     * @param from the back reference start
+     * @param to the current destination position
+     * @param length the run length
+     */
+    private static void copyBackReference(byte[] dest, int from, int to, int length) {
+        int end = to + length;
+        while (to < end) {
+
+            // Everything between from and to is already decompressed, so the copied chunk grows with each round
+            int chunk = Math.min(to - from, end - to);
+            System.arraycopy(dest, from, dest, to, chunk);
+            to += chunk;
+        }
+    }
+
+    /**
+     * Simple input stream over a byte buffer, no copying involved
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
+    }
 }
@@ -25,6 +25,7 @@ import com.jme3.asset.TextureKey;
 import com.jme3.asset.cache.AssetCache;
 import com.jme3.asset.cache.SimpleAssetCache;
 import com.jme3.asset.cache.WeakRefAssetCache;
+import com.jme3.material.MatParam;
 import com.jme3.material.Material;
 import com.jme3.material.RenderState;
 import com.jme3.material.RenderState.BlendMode;
@@ -52,10 +53,12 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 import toniarts.openkeeper.Main;
+import toniarts.openkeeper.animation.VertexAnimationTrack;
 import toniarts.openkeeper.cinematics.CameraSweepData;
 import toniarts.openkeeper.cinematics.CameraSweepDataLoader;
 import toniarts.openkeeper.tools.convert.AssetsConverter;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
+import toniarts.openkeeper.tools.convert.KmfModelLoader;
 import toniarts.openkeeper.tools.convert.map.ArtResource;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
 import toniarts.openkeeper.tools.convert.map.Room;
@@ -69,6 +72,8 @@ import toniarts.openkeeper.world.MapLoader;
  */
 public class AssetUtils {
 
+    private static final String VERTEX_ANIMATION_MATERIAL = "MatDefs/VertexAnimation.j3md";
+
     private static volatile boolean preWarmedAssets = false;
     private final static Object ASSET_LOCK = new Object();
     private final static AssetCache ASSET_CACHE = new SimpleAssetCache();
@@ -115,6 +120,7 @@ public class AssetUtils {
 
                 // Assign maps
                 assignMapsToMaterial(model, assetManager);
+                assignVertexAnimationMaterials(model, assetManager);
 
                 cache.addToCache(assetKey, model);
             }
@@ -122,6 +128,7 @@ public class AssetUtils {
         } else {
             result = assetManager.loadModel(assetKey);
             resetSpatial(result);
+            assignVertexAnimationMaterials(result, assetManager);
         }
 
         return result;
@@ -183,6 +190,86 @@ public class AssetUtils {
         });
     }
 
+    private static void assignVertexAnimationMaterials(Spatial model, AssetManager assetManager) {
+        model.depthFirstTraversal(new SceneGraphVisitor() {
+            @Override
+            public void visit(Spatial spatial) {
+                if (spatial instanceof Geometry) {
+                    assignVertexAnimationMaterial(assetManager, (Geometry) spatial);
+                }
+            }
+
+        });
+    }
+
+    /**
+     * Replaces the material of a geometry that has its animation baked in to
+     * a texture with a vertex animation material. The vertex animation
+     * material has the same parameters, but plays the animation in the shader
+     *
+     * @param assetManager the asset manager
+     * @param geometry the geometry
+     */
+    public static void assignVertexAnimationMaterial(AssetManager assetManager, Geometry geometry) {
+        Texture2D animationMap = geometry.getUserData(VertexAnimationTrack.ANIMATION_MAP);
+        Material material = geometry.getMaterial();
+        if (animationMap == null || VERTEX_ANIMATION_MATERIAL.equals(material.getMaterialDef().getAssetName())) {
+            return;
+        }
+
+        Material animationMaterial = new Material(assetManager, VERTEX_ANIMATION_MATERIAL);
+        for (MatParam param : material.getParams()) {
+            if (animationMaterial.getMaterialDef().getMaterialParam(param.getName()) != null) {
+                animationMaterial.setParam(param.getName(), param.getVarType(), param.getValue());
+            }
+        }
+        animationMaterial.setTexture(VertexAnimationTrack.ANIMATION_MAP, animationMap);
+        animationMaterial.setFloat(VertexAnimationTrack.ANIMATION_FRAMES, animationMap.getImage().getHeight());
+        animationMaterial.setKey(material.getKey());
+
+        RenderState renderState = material.getAdditionalRenderState();
+        animationMaterial.getAdditionalRenderState().setBlendMode(renderState.getBlendMode());
+        animationMaterial.getAdditionalRenderState().setFaceCullMode(renderState.getFaceCullMode());
+        animationMaterial.getAdditionalRenderState().setDepthTest(renderState.isDepthTest());
+        animationMaterial.getAdditionalRenderState().setDepthWrite(renderState.isDepthWrite());
+
+        geometry.setMaterial(animationMaterial);
+    }
+
+    /**
+     * Loads an alternative material for a geometry that has multiple texture
+     * options. Models converted on the fly from the original files don't have
+     * J3M material files, for them the alternative texture is set to a copy of
+     * the current material
+     *
+     * @param assetManager the asset manager
+     * @param geometry the geometry
+     * @param index the alternative texture index
+     * @return the alternative material, or {@code null} if not found
+     */
+    public static Material loadAlternativeMaterial(AssetManager assetManager, Geometry geometry, int index) {
+        Material material = geometry.getMaterial();
+        Material alternativeMaterial;
+        String asset = material.getAssetName();
+        if (asset != null) {
+            String materialName = asset.substring(0, asset.lastIndexOf(KmfModelLoader.MATERIAL_ALTERNATIVE_TEXTURE_SUFFIX_SEPARATOR) + 1).concat(index + ".j3m");
+            if (assetManager.locateAsset(new AssetKey<>(materialName)) == null) {
+                return null;
+            }
+            alternativeMaterial = assetManager.loadMaterial(materialName);
+        } else {
+            String texture = geometry.getUserData(KmfModelLoader.MATERIAL_ALTERNATIVE_TEXTURE + index);
+            if (texture == null) {
+                return null;
+            }
+            alternativeMaterial = material.clone();
+            alternativeMaterial.setTexture("DiffuseMap", assetManager.loadTexture(new TextureKey(texture, false)));
+        }
+        assignMapsToMaterial(assetManager, alternativeMaterial);
+
+        return alternativeMaterial;
+    }
+
     /**
      * Assign different kind of maps (Specular, Norma, etc.) to material, if
      * found
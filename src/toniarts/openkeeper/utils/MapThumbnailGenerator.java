@@ -28,11 +28,13 @@ import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.File;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 import toniarts.openkeeper.tools.convert.AssetsConverter;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
+import toniarts.openkeeper.tools.convert.map.GameMap;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
 import toniarts.openkeeper.tools.convert.map.Terrain;
 import toniarts.openkeeper.tools.convert.map.Tile;
@@ -78,8 +80,7 @@ public class MapThumbnailGenerator {
             }
         }
 
-        // Ensure that the kwd is fully loaded
-        kwd.load();
+        // The map & terrain sections are read on demand, no need to load the whole kwd
 
         // Determine wanted width/height
         int imageWidth = kwd.getMap().getWidth();
@@ -176,18 +177,23 @@ public class MapThumbnailGenerator {
     private static void drawMap(final KwdFile kwd, byte[] data, int xScale, int yScale) {
 
         // For now this is very much hard coded, I couldn't find much logic
-        for (int y = 0; y < kwd.getMap().getHeight(); y++) {
-            for (int x = 0; x < kwd.getMap().getWidth(); x++) {
-                Tile tile = kwd.getMap().getTile(x, y);
+        GameMap map = kwd.getMap();
+        int width = map.getWidth();
+        int height = map.getHeight();
+        short lavaId = map.getLava().getTerrainId();
+        short waterId = map.getWater().getTerrainId();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                Tile tile = map.getTile(x, y);
                 byte value = 0;
 
                 // Water and lava
                 Terrain terrainTile = kwd.getTerrain(tile.getTerrainId());
-                if (x == 0 || y == 0 || y == kwd.getMap().getHeight() - 1 || x == kwd.getMap().getWidth() - 1) {
+                if (x == 0 || y == 0 || y == height - 1 || x == width - 1) {
                     value = 46; // Edge of maps
-                } else if (kwd.getMap().getLava().getTerrainId() == tile.getTerrainId()) {
+                } else if (lavaId == tile.getTerrainId()) {
                     value = 10; // Lava
-                } else if (kwd.getMap().getWater().getTerrainId() == tile.getTerrainId()) {
+                } else if (waterId == tile.getTerrainId()) {
                     value = 8; // Water
                 } // Other non-ownable tiles
                 else if (terrainTile.getFlags().contains(Terrain.TerrainFlag.IMPENETRABLE)) {
@@ -226,9 +232,8 @@ public class MapThumbnailGenerator {
 
                 // Write the value
                 for (int yScaling = 0; yScaling < yScale; yScaling++) {
-                    for (int xScaling = 0; xScaling < xScale; xScaling++) {
-                        data[(y * yScale + yScaling) * kwd.getMap().getWidth() * xScale + (x * xScale + xScaling)] = value;
-                    }
+                    int offset = (y * yScale + yScaling) * width * xScale + x * xScale;
+                    Arrays.fill(data, offset, offset + xScale, value);
                 }
 
             }
@@ -43,6 +43,7 @@ public class Utils {
     private static final Logger LOGGER = Logger.getLogger(Utils.class.getName());
     private static final ResourceBundle BUNDLE = Main.getResourceBundle("Interface/Texts/Text");
     private static final Random RANDOM = new Random();
+    private static final Random GAME_RANDOM = new Random();
     private static Boolean windows;
     private static final String[] BLOOD_TYPES = {"IkI", "BO", "PoE", "BA", "MoO", "O", "ARh"};
     private static final String[] CREATURE_NAMES = {
@@ -127,7 +128,17 @@ public class Utils {
      * @return name for your creature
      */
     public static String generateCreatureName() {
-        return CREATURE_NAMES[RANDOM.nextInt(CREATURE_NAMES.length)];
+        return generateCreatureName(RANDOM);
+    }
+
+    /**
+     * Gets up a random creature name
+     *
+     * @param random the random number generator to use
+     * @return name for your creature
+     */
+    public static String generateCreatureName(Random random) {
+        return CREATURE_NAMES[random.nextInt(CREATURE_NAMES.length)];
     }
 
     /**
@@ -136,7 +147,17 @@ public class Utils {
      * @return blood type for your creature
      */
     public static String generateBloodType() {
-        return BLOOD_TYPES[RANDOM.nextInt(BLOOD_TYPES.length)];
+        return generateBloodType(RANDOM);
+    }
+
+    /**
+     * Gets up a random blood type
+     *
+     * @param random the random number generator to use
+     * @return blood type for your creature
+     */
+    public static String generateBloodType(Random random) {
+        return BLOOD_TYPES[random.nextInt(BLOOD_TYPES.length)];
     }
 
     /**
@@ -147,13 +168,25 @@ public class Utils {
      * @return random item from the list or {@code null} if the list is empty
      */
     public static <T> T getRandomItem(List<T> list) {
+        return getRandomItem(list, RANDOM);
+    }
+
+    /**
+     * Get a random item from a list
+     *
+     * @param <T> item type
+     * @param list list
+     * @param random the random number generator to use
+     * @return random item from the list or {@code null} if the list is empty
+     */
+    public static <T> T getRandomItem(List<T> list, Random random) {
         if (list.isEmpty()) {
             return null;
         }
         if (list.size() == 1) {
             return list.get(0);
         }
-        return list.get(RANDOM.nextInt(list.size()));
+        return list.get(random.nextInt(list.size()));
     }
 
     /**
@@ -165,7 +198,41 @@ public class Utils {
      * empty
      */
     public static <T> Optional<T> getRandomItem(Collection<T> collection) {
-        return collection.stream().skip(RANDOM.nextInt(collection.size())).findFirst();
+        return getRandomItem(collection, RANDOM);
+    }
+
+    /**
+     * Get a random item from a collection
+     *
+     * @param <T> item type
+     * @param collection list
+     * @param random the random number generator to use
+     * @return random item from the collection or {@code null} if the list is
+     * empty
+     */
+    public static <T> Optional<T> getRandomItem(Collection<T> collection, Random random) {
+        return collection.stream().skip(random.nextInt(collection.size())).findFirst();
+    }
+
+    /**
+     * Get the random number generator of the game logic. It is kept apart
+     * from the one of the visuals, so that with the same seed the game logic
+     * draws the same numbers on every peer of a lockstep game. Only to be
+     * used from the game logic thread
+     *
+     * @return the game logic random number generator
+     */
+    public static Random getGameRandom() {
+        return GAME_RANDOM;
+    }
+
+    /**
+     * Seed the random number generator of the game logic
+     *
+     * @param seed the seed, shared by all the peers of a game
+     */
+    public static void setGameRandomSeed(long seed) {
+        GAME_RANDOM.setSeed(seed);
     }
 
     /**
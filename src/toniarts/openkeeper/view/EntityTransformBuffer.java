@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.view;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.simsilica.es.EntityId;
+import com.simsilica.ethereal.SharedObject;
+import com.simsilica.ethereal.SharedObjectListener;
+import com.simsilica.ethereal.TimeSource;
+import com.simsilica.mathd.Quatd;
+import com.simsilica.mathd.Vec3d;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Buffers the transforms of the moving entities streamed by the server. The
+ * transforms are interpolated at render time, which lags a bit behind the
+ * server time, so there is always a frame on both sides.<br>
+ * If the next frame is late, the movement is extrapolated from the last two
+ * frames, for at most one frame interval, so a lost or late update doesn't
+ * stop the entity. This way the server can send at a lower rate.<br>
+ * The updates come from the network thread, the transforms are read from the
+ * render thread.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class EntityTransformBuffer implements SharedObjectListener {
+
+    private static final int HISTORY_SIZE = 8;
+    private static final long MAX_EXTRAPOLATION = 250 * 1000000L; // 250 ms
+
+    private final TimeSource timeSource;
+    private final Map<EntityId, TransformHistory> histories = new ConcurrentHashMap<>();
+    private long frameTime;
+    private volatile long frameInterval = MAX_EXTRAPOLATION;
+
+    public EntityTransformBuffer(TimeSource timeSource) {
+        this.timeSource = timeSource;
+    }
+
+    /**
+     * Get the current render time, in the server time
+     *
+     * @return the render time
+     */
+    public long getTime() {
+        return timeSource.getTime();
+    }
+
+    /**
+     * Get the entities currently moving
+     *
+     * @return the moving entities
+     */
+    public Set<EntityId> getEntities() {
+        return histories.keySet();
+    }
+
+    /**
+     * Is the entity moved by the stream, if so, its position component
+     * should not be used
+     *
+     * @param entityId the entity
+     * @return true if the entity is moving
+     */
+    public boolean isMoving(EntityId entityId) {
+        return histories.containsKey(entityId);
+    }
+
+    /**
+     * Get the interpolated transform of the entity
+     *
+     * @param entityId the entity
+     * @param time the render time
+     * @param position the position to store the result to
+     * @param rotation the rotation to store the result to
+     * @return false if the entity has no transform, it has stopped moving
+     */
+    public boolean getTransform(EntityId entityId, long time, Vector3f position, Quaternion rotation) {
+        TransformHistory history = histories.get(entityId);
+        if (history == null) {
+            return false;
+        }
+        if (!history.getTransform(time, Math.min(MAX_EXTRAPOLATION, frameInterval), position, rotation)) {
+            histories.remove(entityId, history);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the average time between the frames the server sends
+     *
+     * @return the frame interval, in nanoseconds
+     */
+    public long getFrameInterval() {
+        return frameInterval;
+    }
+
+    @Override
+    public void beginFrame(long time) {
+        if (frameTime != 0 && time > frameTime) {
+            frameInterval = (frameInterval * 7 + (time - frameTime)) / 8;
+        }
+        frameTime = time;
+    }
+
+    @Override
+    public void objectUpdated(SharedObject obj) {
+        EntityId entityId = new EntityId(obj.getEntityId());
+        TransformHistory history = histories.get(entityId);
+        if (history == null) {
+
+            // Fill the history before publishing it, the render thread never sees it empty
+            history = new TransformHistory();
+            history.add(frameTime, obj.getWorldPosition(), obj.getWorldRotation());
+            histories.put(entityId, history);
+            return;
+        }
+
+        history.add(frameTime, obj.getWorldPosition(), obj.getWorldRotation());
+    }
+
+    @Override
+    public void objectRemoved(SharedObject obj) {
+        TransformHistory history = histories.get(new EntityId(obj.getEntityId()));
+        if (history != null) {
+            history.setRemoved(frameTime);
+        }
+    }
+
+    @Override
+    public void endFrame() {
+
+    }
+
+    /**
+     * The latest transforms of a single entity
+     */
+    static class TransformHistory {
+
+        private final long[] times = new long[HISTORY_SIZE];
+        private final Vector3f[] positions = new Vector3f[HISTORY_SIZE];
+        private final Quaternion[] rotations = new Quaternion[HISTORY_SIZE];
+        private int count = 0;
+        private int head = 0;
+        private long removedTime = Long.MAX_VALUE;
+
+        public TransformHistory() {
+            for (int i = 0; i < HISTORY_SIZE; i++) {
+                positions[i] = new Vector3f();
+                rotations[i] = new Quaternion();
+            }
+        }
+
+        public synchronized void add(long time, Vec3d position, Quatd rotation) {
+            if (count > 0 && time <= times[getIndex(count - 1)]) {
+                return; // Out of order
+            }
+            if (count == HISTORY_SIZE) {
+                head = (head + 1) % HISTORY_SIZE;
+                count--;
+            }
+            int index = getIndex(count);
+            times[index] = time;
+            positions[index].set((float) position.x, (float) position.y, (float) position.z);
+            rotations[index].set((float) rotation.x, (float) rotation.y, (float) rotation.z, (float) rotation.w);
+            count++;
+            removedTime = Long.MAX_VALUE;
+        }
+
+        public synchronized void setRemoved(long time) {
+            removedTime = time;
+        }
+
+        public synchronized boolean getTransform(long time, long maxExtrapolation, Vector3f position, Quaternion rotation) {
+            if (count == 0) {
+                return false;
+            }
+
+            // Play out the frames we have, even if removed
+            int last = getIndex(count - 1);
+            if (time >= removedTime && time >= times[last]) {
+                return false;
+            }
+
+            // Find the frames around the time, hold the first. A removed entity has stopped, hold its last frame too
+            int next = 0;
+            while (next < count && times[getIndex(next)] <= time) {
+                next++;
+            }
+            if (next == 0 || (next == count && (count == 1 || removedTime != Long.MAX_VALUE))) {
+                int index = getIndex(next == 0 ? 0 : count - 1);
+                position.set(positions[index]);
+                rotation.set(rotations[index]);
+                return true;
+            }
+
+            // Past the last frame of a live entity, keep going the same way for a while
+            if (next == count) {
+                int previous = getIndex(count - 2);
+                long elapsed = Math.min(time - times[last], maxExtrapolation);
+                float t = (float) elapsed / (times[last] - times[previous]);
+                position.set(positions[last]).subtractLocal(positions[previous]).multLocal(t).addLocal(positions[last]);
+                rotation.set(rotations[last]);
+                return true;
+            }
+
+            int from = getIndex(next - 1);
+            int to = getIndex(next);
+            float t = (float) (time - times[from]) / (times[to] - times[from]);
+            position.interpolateLocal(positions[from], positions[to], t);
+            rotation.slerp(rotations[from], rotations[to], t);
+
+            return true;
+        }
+
+        private int getIndex(int i) {
+            return (head + i) % HISTORY_SIZE;
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.view;
+
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.light.DefaultLightFilter;
+import com.jme3.light.Light;
+import com.jme3.light.LightFilter;
+import com.jme3.light.LightList;
+import com.jme3.light.PointLight;
+import com.jme3.light.SpotLight;
+import com.jme3.renderer.Camera;
+import com.jme3.scene.Geometry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Limits the number of lights affecting a single geometry. With the forward
+ * renderer every light is a draw of its own, so the geometry gets only the
+ * nearest lights, relative to their radius. Ambient and directional lights
+ * are always kept and are not counted against the budget.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class LightBudgetFilter implements LightFilter {
+
+    private final DefaultLightFilter filter = new DefaultLightFilter();
+    private final int maxLights;
+    private final List<Light> lights = new ArrayList<>();
+    private final List<Float> weights = new ArrayList<>();
+    private final List<Integer> order = new ArrayList<>();
+
+    /**
+     * Create a light budget
+     *
+     * @param maxLights the maximum number of positional lights per geometry
+     */
+    public LightBudgetFilter(int maxLights) {
+        this.maxLights = maxLights;
+    }
+
+    @Override
+    public void setCamera(Camera camera) {
+        filter.setCamera(camera);
+    }
+
+    @Override
+    public void filterLights(Geometry geometry, LightList filteredLightList) {
+        filter.filterLights(geometry, filteredLightList);
+        if (filteredLightList.size() <= maxLights) {
+            return;
+        }
+
+        // Weight the positional lights by how deep the geometry is in them
+        BoundingVolume bounds = geometry.getWorldBound();
+        int positionalLights = 0;
+        for (int i = 0; i < filteredLightList.size(); i++) {
+            Light light = filteredLightList.get(i);
+            lights.add(light);
+            weights.add(getWeight(light, bounds));
+            order.add(i);
+            if (light instanceof PointLight || light instanceof SpotLight) {
+                positionalLights++;
+            }
+        }
+
+        if (positionalLights > maxLights) {
+            order.sort(Comparator.comparing(weights::get));
+            filteredLightList.clear();
+            int added = 0;
+            for (int index : order) {
+                Light light = lights.get(index);
+                boolean positional = (light instanceof PointLight || light instanceof SpotLight);
+                if (!positional || added < maxLights) {
+                    filteredLightList.add(light);
+                    if (positional) {
+                        added++;
+                    }
+                }
+            }
+        }
+
+        lights.clear();
+        weights.clear();
+        order.clear();
+    }
+
+    private static float getWeight(Light light, BoundingVolume bounds) {
+        if (bounds == null) {
+            return 0;
+        }
+        if (light instanceof PointLight) {
+            PointLight pointLight = (PointLight) light;
+            return pointLight.getRadius() > 0 ? bounds.distanceToEdge(pointLight.getPosition()) / pointLight.getRadius() : 0;
+        }
+        if (light instanceof SpotLight) {
+            SpotLight spotLight = (SpotLight) light;
+            return spotLight.getSpotRange() > 0 ? bounds.distanceToEdge(spotLight.getPosition()) / spotLight.getSpotRange() : 0;
+        }
+
+        // Ambient and directional
+        return -1;
+    }
+
+}
@@ -20,6 +20,8 @@ import com.jme3.app.Application;
 import com.jme3.app.state.AbstractAppState;
 import com.jme3.app.state.AppStateManager;
 import com.jme3.asset.AssetManager;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import com.simsilica.es.Entity;
@@ -27,15 +29,20 @@ import com.simsilica.es.EntityContainer;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.Main;
 import toniarts.openkeeper.game.component.CreatureViewState;
 import toniarts.openkeeper.game.component.DoorViewState;
 import toniarts.openkeeper.game.component.ObjectViewState;
+import toniarts.openkeeper.game.component.Owner;
 import toniarts.openkeeper.game.component.Position;
 import toniarts.openkeeper.game.component.TrapViewState;
+import toniarts.openkeeper.game.component.Visibility;
+import toniarts.openkeeper.game.component.VisibilityFilter;
 import toniarts.openkeeper.tools.convert.map.Creature;
 import toniarts.openkeeper.tools.convert.map.Door;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
@@ -44,6 +51,7 @@ import toniarts.openkeeper.view.control.CreatureFlowerControl;
 import toniarts.openkeeper.view.control.CreatureViewControl;
 import toniarts.openkeeper.view.control.DoorFlowerControl;
 import toniarts.openkeeper.view.control.DoorViewControl;
+import toniarts.openkeeper.view.control.EntityLodControl;
 import toniarts.openkeeper.view.control.EntityViewControl;
 import toniarts.openkeeper.view.control.IEntityViewControl;
 import toniarts.openkeeper.view.control.IUnitFlowerControl;
@@ -89,6 +97,12 @@ public class PlayerEntityViewState extends AbstractAppState {
 
     private final Map<EntityId, IUnitFlowerControl> flowerControls = new HashMap<>();
     private final Map<EntityId, IEntityViewControl> entityViewControls = new HashMap<>();
+    private final Map<EntityId, Spatial> entityModels = new HashMap<>();
+    private final Map<EntityId, Entity> modelEntities = new HashMap<>(); // The entities of the models, the owner is needed for the visibility
+    private final Set<EntityId> hiddenObjects = new HashSet<>(); // Objects hidden by their own view state
+    private EntityTransformBuffer transformBuffer;
+    private final Vector3f tmpPosition = new Vector3f();
+    private final Quaternion tmpRotation = new Quaternion();
 
     private static final Logger LOGGER = Logger.getLogger(PlayerEntityViewState.class.getName());
 
@@ -147,6 +161,11 @@ public class PlayerEntityViewState extends AbstractAppState {
         creatureModelContainer.update();
         doorModelContainer.update();
         trapModelContainer.update();
+
+        // The moving entities follow the streamed transforms
+        if (transformBuffer != null) {
+            updateMovingModels();
+        }
     }
 
     @Override
@@ -178,6 +197,40 @@ public class PlayerEntityViewState extends AbstractAppState {
         return root;
     }
 
+    /**
+     * Set the buffer of the entity movement streamed by the server. The
+     * position components are not used for the entities moving
+     *
+     * @param transformBuffer the transform buffer, {@code null} to use the
+     * position components only
+     */
+    public void setTransformBuffer(EntityTransformBuffer transformBuffer) {
+        this.transformBuffer = transformBuffer;
+    }
+
+    private void updateMovingModels() {
+        long time = transformBuffer.getTime();
+        for (EntityId entityId : transformBuffer.getEntities()) {
+            Spatial object = entityModels.get(entityId);
+            if (object == null) {
+                continue;
+            }
+            if (transformBuffer.getTransform(entityId, time, tmpPosition, tmpRotation)) {
+                object.setLocalTranslation(tmpPosition);
+                object.setLocalRotation(tmpRotation);
+            } else {
+
+                // Stopped, back to the final position, from the entity set already here
+                Entity entity = modelEntities.get(entityId);
+                Position position = (entity != null ? entity.get(Position.class) : null);
+                if (position != null) {
+                    object.setLocalTranslation(position.position);
+                    object.setLocalRotation(object.getLocalRotation().fromAngles(0, position.rotation, 0));
+                }
+            }
+        }
+    }
+
     private Spatial createObjectModel(Entity e) {
 
         // We can only draw the few basic types, maybe we can do it like this
@@ -195,7 +248,7 @@ public class PlayerEntityViewState extends AbstractAppState {
                 EntityViewControl control = new ObjectViewControl(e.getId(), entityData, kwdFile.getObject(objectViewState.objectId), objectViewState, assetManager, textParser);
                 result.addControl(control);
 
-                result.setCullHint(objectViewState.visible ? Spatial.CullHint.Inherit : Spatial.CullHint.Always);
+                result.addControl(new EntityLodControl(app.getCamera()));
 
                 entityViewControls.put(e.getId(), control);
             }
@@ -225,6 +278,8 @@ public class PlayerEntityViewState extends AbstractAppState {
                 EntityViewControl control = new CreatureViewControl(e.getId(), entityData, creature, creatureViewState.state, assetManager, textParser);
                 result.addControl(control);
 
+                // The LOD control needs to be updated before the flower control
+                result.addControl(new EntityLodControl(app.getCamera()));
                 CreatureFlowerControl flowerControl = new CreatureFlowerControl(e.getId(), entityData, creature, assetManager);
                 result.addControl(flowerControl);
 
@@ -256,6 +311,8 @@ public class PlayerEntityViewState extends AbstractAppState {
             EntityViewControl control = new DoorViewControl(e.getId(), entityData, door, doorViewState, assetManager, textParser, kwdFile.getObject(door.getKeyObjectId()));
             result.addControl(control);
 
+            // The LOD control needs to be updated before the flower control
+            result.addControl(new EntityLodControl(app.getCamera()));
             DoorFlowerControl flowerControl = new DoorFlowerControl(e.getId(), entityData, door, assetManager);
             result.addControl(flowerControl);
 
@@ -286,6 +343,8 @@ public class PlayerEntityViewState extends AbstractAppState {
             EntityViewControl control = new TrapViewControl(e.getId(), entityData, trap, trapViewState, assetManager, textParser);
             result.addControl(control);
 
+            // The LOD control needs to be updated before the flower control
+            result.addControl(new EntityLodControl(app.getCamera()));
             TrapFlowerControl flowerControl = new TrapFlowerControl(e.getId(), entityData, trap, assetManager);
             result.addControl(flowerControl);
 
@@ -312,6 +371,11 @@ public class PlayerEntityViewState extends AbstractAppState {
     private void updateObjectModelState(Spatial object, Entity e) {
         ObjectViewState viewState = e.get(ObjectViewState.class);
         ObjectViewControl control = object.getControl(ObjectViewControl.class);
+        if (viewState.visible) {
+            hiddenObjects.remove(e.getId());
+        } else {
+            hiddenObjects.add(e.getId());
+        }
 
         if (control != null) {
 
@@ -322,17 +386,37 @@ public class PlayerEntityViewState extends AbstractAppState {
 
             control.setTargetState(viewState);
         }
-        object.setCullHint(viewState.visible ? Spatial.CullHint.Inherit : Spatial.CullHint.Always);
+        updateModelVisibility(object, e);
     }
 
     private void updateModelPosition(Spatial object, Entity e) {
-        Position position = e.get(Position.class);
-        object.setLocalTranslation(position.position);
-        object.setLocalRotation(object.getLocalRotation().fromAngles(0, position.rotation, 0));
+        if (transformBuffer == null || !transformBuffer.isMoving(e.getId()) || !entityModels.containsKey(e.getId())) {
+            Position position = e.get(Position.class);
+            object.setLocalTranslation(position.position);
+            object.setLocalRotation(object.getLocalRotation().fromAngles(0, position.rotation, 0));
+        }
+        entityModels.put(e.getId(), object);
+        modelEntities.put(e.getId(), e);
+        updateModelVisibility(object, e);
+    }
+
+    /**
+     * Shows or hides the entity model. The server only sends us the entities
+     * the player sees, so this is just the object's own visibility
+     *
+     * @param object the entity model
+     * @param e the entity
+     */
+    private void updateModelVisibility(Spatial object, Entity e) {
+        boolean visible = !hiddenObjects.contains(e.getId());
+        object.setCullHint(visible ? Spatial.CullHint.Inherit : Spatial.CullHint.Always);
     }
 
     private void removeModel(Spatial spatial, Entity e) {
         spatial.removeFromParent();
+        entityModels.remove(e.getId());
+        modelEntities.remove(e.getId());
+        hiddenObjects.remove(e.getId());
 
         IEntityViewControl entityViewControl = entityViewControls.remove(e.getId());
         if (entityViewControl != null) {
@@ -359,7 +443,7 @@ public class PlayerEntityViewState extends AbstractAppState {
     private class ObjectModelContainer extends EntityContainer<Spatial> {
 
         public ObjectModelContainer(EntityData ed) {
-            super(ed, Position.class, ObjectViewState.class); // Stuff with position is on the map
+            super(ed, new VisibilityFilter(playerId), Position.class, ObjectViewState.class, Visibility.class, Owner.class); // Stuff with position and visible to us is on the map
         }
 
         @Override
@@ -390,7 +474,7 @@ public class PlayerEntityViewState extends AbstractAppState {
     private class CreatureModelContainer extends EntityContainer<Spatial> {
 
         public CreatureModelContainer(EntityData ed) {
-            super(ed, Position.class, CreatureViewState.class); // Stuff with position is on the map
+            super(ed, new VisibilityFilter(playerId), Position.class, CreatureViewState.class, Visibility.class, Owner.class); // Stuff with position and visible to us is on the map
         }
 
         @Override
@@ -421,7 +505,7 @@ public class PlayerEntityViewState extends AbstractAppState {
     private class DoorModelContainer extends EntityContainer<Spatial> {
 
         public DoorModelContainer(EntityData ed) {
-            super(ed, Position.class, DoorViewState.class); // Stuff with position is on the map
+            super(ed, new VisibilityFilter(playerId), Position.class, DoorViewState.class, Visibility.class, Owner.class); // Stuff with position and visible to us is on the map
         }
 
         @Override
@@ -451,7 +535,7 @@ public class PlayerEntityViewState extends AbstractAppState {
     private class TrapModelContainer extends EntityContainer<Spatial> {
 
         public TrapModelContainer(EntityData ed) {
-            super(ed, Position.class, TrapViewState.class); // Stuff with position is on the map
+            super(ed, new VisibilityFilter(playerId), Position.class, TrapViewState.class, Visibility.class, Owner.class); // Stuff with position and visible to us is on the map
         }
 
         @Override
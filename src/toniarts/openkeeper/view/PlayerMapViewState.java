@@ -28,6 +28,7 @@ import java.util.logging.Logger;
 import toniarts.openkeeper.Main;
 import toniarts.openkeeper.game.listener.MapListener;
 import toniarts.openkeeper.game.listener.PlayerActionListener;
+import toniarts.openkeeper.game.map.ExploredMap;
 import toniarts.openkeeper.game.map.IMapInformation;
 import toniarts.openkeeper.game.map.MapTile;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
@@ -61,6 +62,7 @@ public abstract class PlayerMapViewState extends AbstractAppState implements Map
     private List<TileChangeListener> tileChangeListener;
     private Map<Short, List<RoomListener>> roomListeners;
     private static final float TICK = 1.250f; // FIXME: no, settings
+    private static final long TILE_SWAP_BUDGET = 2000000; // Time in nanoseconds per frame for building and swapping in the changed tiles
     private float lastUpdate = 0;
     private final IMapInformation mapClientService;
 //    private final GameState gameState;
@@ -117,6 +119,9 @@ public abstract class PlayerMapViewState extends AbstractAppState implements Map
     @Override
     public void cleanup() {
 
+        // Stop the map updates
+        mapLoader.cleanup();
+
         // Detach our map
         if (worldNode != null) {
             app.getRootNode().detachChild(worldNode);
@@ -153,6 +158,9 @@ public abstract class PlayerMapViewState extends AbstractAppState implements Map
             return;
         }
 
+        // Swap in the rebuilt tiles
+        mapLoader.applyTileUpdates(TILE_SWAP_BUDGET);
+
         // Maybe like an additional update or something so that we know the tick
 //        lastUpdate += tpf;
 //        if (lastUpdate > TICK) {
@@ -170,6 +178,15 @@ public abstract class PlayerMapViewState extends AbstractAppState implements Map
         return assetManager;
     }
 
+    /**
+     * Get the tiles explored by the player
+     *
+     * @return the explored map
+     */
+    public ExploredMap getExploredMap() {
+        return mapLoader.getExploredMap();
+    }
+
     /**
      * If you want to monitor the map loading progress, use this method
      *
@@ -185,10 +202,8 @@ public abstract class PlayerMapViewState extends AbstractAppState implements Map
             points[i] = new Point(mapTile.getX(), mapTile.getY());
         }
 
-        // FIXME: See in what thread we are, perhaps even do everything ready, just the attaching in render thread
-        app.enqueue(() -> {
-            mapLoader.updateTiles(points);
-        });
+        // Copied now, planned in the background, built and swapped in on update
+        mapLoader.updateTiles(points);
     }
 
     @Override
@@ -199,10 +214,8 @@ public abstract class PlayerMapViewState extends AbstractAppState implements Map
             updatableTiles[i] = tiles.get(i).getLocation();
         }
 
-        // FIXME: See in what thread we are, perhaps even do everything ready, just the attaching in render thread
-        app.enqueue(() -> {
-            mapLoader.updateTiles(updatableTiles);
-        });
+        // Copied now, planned in the background, built and swapped in on update
+        mapLoader.updateTiles(updatableTiles);
     }
 
     @Override
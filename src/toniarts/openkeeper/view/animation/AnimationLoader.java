@@ -29,6 +29,7 @@ import toniarts.openkeeper.tools.convert.KmfModelLoader;
 import toniarts.openkeeper.tools.convert.kmf.Anim;
 import toniarts.openkeeper.tools.convert.map.ArtResource;
 import toniarts.openkeeper.utils.AssetUtils;
+import toniarts.openkeeper.view.control.EntityLodControl;
 
 /**
  * Static helpers to handle animations in our basic scene objects
@@ -287,10 +288,10 @@ public class AnimationLoader {
 
             child.setCullHint(Spatial.CullHint.Always);
 
-            // Also stop any animations
+            // Also stop any animations, also the ones held by the LOD
             AnimControl animControl = (AnimControl) child.getControl(AnimControl.class);
             if (animControl != null) {
-                animControl.setEnabled(false);
+                EntityLodControl.stopAnimation(animControl);
             }
         }
     }
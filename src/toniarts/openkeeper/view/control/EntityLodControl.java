@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.view.control;
+
+import com.jme3.animation.AnimControl;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Throttles the update work of an entity by its distance to the camera and
+ * its visibility. Near and visible entities are updated every frame, far
+ * ones a few times a second and the ones outside the view even less. The
+ * animations of a throttled entity are held and advanced in bigger steps, and
+ * other entity controls (such as the unit flower) can ask whether they should
+ * do their work on this frame.<br>
+ * The animations live in the child models, so they are always updated after
+ * this control. The flower control asks for the update frame, so this needs
+ * to be added before it. Animations stopped while they are held need to be
+ * stopped with {@link #stopAnimation(com.jme3.animation.AnimControl)}, the
+ * held animations are otherwise resumed.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class EntityLodControl extends AbstractControl {
+
+    /**
+     * Entities closer than this are updated on every frame
+     */
+    private static final float FULL_UPDATE_DISTANCE = 15f;
+    private static final float FAR_UPDATE_INTERVAL = 0.1f;
+    private static final float HIDDEN_UPDATE_INTERVAL = 0.5f;
+
+    private final Camera camera;
+    private final Set<AnimControl> heldAnimControls = new HashSet<>();
+    private float timeSinceUpdate = 0;
+    private boolean updateFrame = true;
+
+    public EntityLodControl(Camera camera) {
+        this.camera = camera;
+    }
+
+    @Override
+    protected void controlUpdate(float tpf) {
+        timeSinceUpdate += tpf;
+        float updateInterval = getUpdateInterval();
+        updateFrame = timeSinceUpdate >= updateInterval;
+
+        if (updateFrame) {
+
+            // Let the held animations run, catching up the time they missed
+            releaseAnimations(timeSinceUpdate - tpf);
+            timeSinceUpdate = 0;
+        } else {
+            holdAnimations();
+        }
+    }
+
+    @Override
+    protected void controlRender(RenderManager rm, ViewPort vp) {
+
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+
+        if (!enabled) {
+            releaseAnimations(timeSinceUpdate);
+            timeSinceUpdate = 0;
+            updateFrame = true;
+        }
+    }
+
+    /**
+     * Stops an animation. If the animation is held by an entity LOD control,
+     * it is not resumed by the control anymore
+     *
+     * @param animControl the animation control to stop
+     */
+    public static void stopAnimation(AnimControl animControl) {
+        animControl.setEnabled(false);
+        for (Spatial s = animControl.getSpatial(); s != null; s = s.getParent()) {
+            EntityLodControl lodControl = s.getControl(EntityLodControl.class);
+            if (lodControl != null) {
+                lodControl.heldAnimControls.remove(animControl);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Should the entity do its periodic work on this frame
+     *
+     * @return {@code true} if the entity is updated on this frame
+     */
+    public boolean isUpdateFrame() {
+        return updateFrame || !isEnabled();
+    }
+
+    private float getUpdateInterval() {
+        BoundingVolume bounds = spatial.getWorldBound();
+        if (bounds == null || camera == null) {
+            return 0;
+        }
+
+        // Check against all the frustum planes, the plane state is left from the rendering
+        int planeState = camera.getPlaneState();
+        camera.setPlaneState(0);
+        boolean visible = camera.contains(bounds) != Camera.FrustumIntersect.Outside;
+        camera.setPlaneState(planeState);
+        if (!visible) {
+            return HIDDEN_UPDATE_INTERVAL;
+        }
+        if (bounds.distanceTo(camera.getLocation()) > FULL_UPDATE_DISTANCE) {
+            return FAR_UPDATE_INTERVAL;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Stops the playing animations until the next update frame. The
+     * animations are controlled by enabling them, so we only hold the ones we
+     * disable ourselves
+     */
+    private void holdAnimations() {
+        spatial.depthFirstTraversal((Spatial s) -> {
+            AnimControl animControl = s.getControl(AnimControl.class);
+            if (animControl != null && animControl.isEnabled() && heldAnimControls.add(animControl)) {
+                animControl.setEnabled(false);
+            }
+        });
+    }
+
+    private void releaseAnimations(float time) {
+        Iterator<AnimControl> iterator = heldAnimControls.iterator();
+        while (iterator.hasNext()) {
+            AnimControl animControl = iterator.next();
+            iterator.remove();
+
+            // The animation might have been replaced meanwhile
+            Spatial animSpatial = animControl.getSpatial();
+            if (animControl.isEnabled() || animSpatial == null || (animSpatial != spatial && !animSpatial.hasAncestor((Node) spatial))) {
+                continue;
+            }
+
+            // Advance the missed time, the animation listeners fire normally
+            animControl.setEnabled(true);
+            if (time > 0) {
+                animControl.update(time);
+            }
+        }
+    }
+
+}
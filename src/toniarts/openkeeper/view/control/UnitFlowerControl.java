@@ -300,6 +300,12 @@ public abstract class UnitFlowerControl<T> extends BillboardControl implements I
             return;
         }
 
+        // Far away or hidden units don't need to refresh the flower on every frame
+        EntityLodControl lodControl = unitSpatial.getControl(EntityLodControl.class);
+        if (lodControl != null && !lodControl.isUpdateFrame()) {
+            return;
+        }
+
         // Update health ring
         updateHealth();
 
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.view.map;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.material.Material;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+import java.awt.Point;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import toniarts.openkeeper.tools.convert.map.Terrain;
+
+/**
+ * Manages the water and lava surfaces. Each terrain page has a surface mesh
+ * per liquid type, with a fixed quad slot for every tile of the page. Setting
+ * or clearing a tile only rewrites the six indices of its slot, so bridges and
+ * other terrain changes are cheap to apply. The surfaces live in the page
+ * nodes and are culled with them. The waves are animated by the shader.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class LiquidSurfaces {
+
+    private final AssetManager assetManager;
+    private final int pageSize;
+    private final Function<Point, Node> pageNodes;
+    private final Map<Node, Map<Short, SurfaceMesh>> surfaces = new HashMap<>();
+    private final Map<Short, Material> materials = new HashMap<>();
+    private final Map<Point, SurfaceMesh> tileSurfaces = new HashMap<>();
+
+    /**
+     * Create the surface manager
+     *
+     * @param assetManager the asset manager
+     * @param pageSize the size of a terrain page, in tiles
+     * @param pageNodes gives the page node of the tile coordinates
+     */
+    public LiquidSurfaces(AssetManager assetManager, int pageSize, Function<Point, Node> pageNodes) {
+        this.assetManager = assetManager;
+        this.pageSize = pageSize;
+        this.pageNodes = pageNodes;
+    }
+
+    /**
+     * Set the liquid surface of a tile. Needs to be called from the render
+     * thread
+     *
+     * @param p the tile coordinates
+     * @param terrain the liquid terrain, {@code null} for no surface
+     */
+    public void setTile(Point p, Terrain terrain) {
+        SurfaceMesh current = tileSurfaces.get(p);
+        if (current != null && terrain != null && current.terrainId == terrain.getTerrainId()) {
+            return;
+        }
+
+        if (current != null) {
+            current.clearTile(p);
+            tileSurfaces.remove(p);
+        }
+        if (terrain != null) {
+            SurfaceMesh surface = getSurface(p, terrain);
+            surface.setTile(p);
+            tileSurfaces.put(new Point(p), surface);
+        }
+    }
+
+    private SurfaceMesh getSurface(Point p, Terrain terrain) {
+        Node pageNode = pageNodes.apply(p);
+        Map<Short, SurfaceMesh> pageSurfaces = surfaces.computeIfAbsent(pageNode, (node) -> new HashMap<>());
+        SurfaceMesh surface = pageSurfaces.get(terrain.getTerrainId());
+        if (surface == null) {
+            Material material = materials.computeIfAbsent(terrain.getTerrainId(), (terrainId) -> Water.createMaterial(assetManager, terrain));
+            surface = new SurfaceMesh(terrain, material, Math.floorDiv(p.x, pageSize) * pageSize, Math.floorDiv(p.y, pageSize) * pageSize);
+            pageSurfaces.put(terrain.getTerrainId(), surface);
+            pageNode.attachChild(surface.geometry);
+        }
+
+        return surface;
+    }
+
+    /**
+     * Surface of a single liquid in a single page
+     */
+    private class SurfaceMesh {
+
+        private final short terrainId;
+        private final int originX;
+        private final int originY;
+        private final Geometry geometry;
+        private final Mesh mesh;
+        private final IntBuffer indices;
+        private int tileCount = 0;
+
+        public SurfaceMesh(Terrain terrain, Material material, int originX, int originY) {
+            this.terrainId = terrain.getTerrainId();
+            this.originX = originX;
+            this.originY = originY;
+
+            // All the quads are there from the start, the index buffer decides which are drawn
+            int slots = pageSize * pageSize;
+            FloatBuffer positions = BufferUtils.createFloatBuffer(slots * 4 * 3);
+            FloatBuffer texCoords = BufferUtils.createFloatBuffer(slots * 4 * 2);
+            FloatBuffer normals = BufferUtils.createFloatBuffer(slots * 4 * 3);
+            for (int y = 0; y < pageSize; y++) {
+                for (int x = 0; x < pageSize; x++) {
+                    float tileX = (originX + x) * MapViewController.TILE_WIDTH;
+                    float tileY = (originY + y) * MapViewController.TILE_WIDTH;
+                    float halfWidth = MapViewController.TILE_WIDTH / 2;
+                    positions.put(tileX - halfWidth).put(MapViewController.WATER_LEVEL).put(tileY - halfWidth);
+                    positions.put(tileX + halfWidth).put(MapViewController.WATER_LEVEL).put(tileY - halfWidth);
+                    positions.put(tileX - halfWidth).put(MapViewController.WATER_LEVEL).put(tileY + halfWidth);
+                    positions.put(tileX + halfWidth).put(MapViewController.WATER_LEVEL).put(tileY + halfWidth);
+                    texCoords.put(0).put(0).put(1).put(0).put(0).put(1).put(1).put(1);
+                    for (int i = 0; i < 4; i++) {
+                        normals.put(0).put(1).put(0);
+                    }
+                }
+            }
+            positions.flip();
+            texCoords.flip();
+            normals.flip();
+            indices = BufferUtils.createIntBuffer(slots * 6);
+
+            mesh = new Mesh();
+            mesh.setBuffer(VertexBuffer.Type.Position, 3, positions);
+            mesh.setBuffer(VertexBuffer.Type.TexCoord, 2, texCoords);
+            mesh.setBuffer(VertexBuffer.Type.Normal, 3, normals);
+            mesh.setBuffer(VertexBuffer.Type.Index, 3, indices);
+            mesh.getBuffer(VertexBuffer.Type.Index).setUsage(VertexBuffer.Usage.Dynamic);
+            mesh.updateBound();
+
+            geometry = new Geometry((terrain.getFlags().contains(Terrain.TerrainFlag.WATER) ? "Water" : "Lava"), mesh);
+            Water.setMaterial(geometry, material);
+            geometry.setCullHint(Spatial.CullHint.Always);
+        }
+
+        public void setTile(Point p) {
+            int slot = getSlot(p);
+            int vertex = slot * 4;
+            indices.position(slot * 6);
+            indices.put(vertex + 2).put(vertex + 3).put(vertex + 1).put(vertex + 1).put(vertex).put(vertex + 2);
+            indices.rewind();
+            mesh.getBuffer(VertexBuffer.Type.Index).setUpdateNeeded();
+
+            tileCount++;
+            geometry.setCullHint(Spatial.CullHint.Inherit);
+        }
+
+        public void clearTile(Point p) {
+
+            // Degenerate triangles
+            indices.position(getSlot(p) * 6);
+            for (int i = 0; i < 6; i++) {
+                indices.put(0);
+            }
+            indices.rewind();
+            mesh.getBuffer(VertexBuffer.Type.Index).setUpdateNeeded();
+
+            tileCount--;
+            if (tileCount == 0) {
+                geometry.setCullHint(Spatial.CullHint.Always);
+            }
+        }
+
+        private int getSlot(Point p) {
+            return (p.y - originY) * pageSize + (p.x - originX);
+        }
+    }
+
+}
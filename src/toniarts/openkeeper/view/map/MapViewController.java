@@ -16,16 +16,16 @@
  */
 package toniarts.openkeeper.view.map;
 
-import com.jme3.asset.AssetInfo;
-import com.jme3.asset.AssetKey;
 import com.jme3.asset.AssetManager;
 import com.jme3.asset.TextureKey;
+import com.jme3.light.PointLight;
+import com.jme3.material.MatParam;
 import com.jme3.material.Material;
+import com.jme3.material.RenderState;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.queue.RenderQueue;
-import com.jme3.scene.BatchNode;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Node;
 import com.jme3.scene.SceneGraphVisitor;
@@ -38,13 +38,21 @@ import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import toniarts.openkeeper.common.EntityInstance;
 import toniarts.openkeeper.common.RoomInstance;
+import toniarts.openkeeper.game.data.Settings;
+import toniarts.openkeeper.game.map.ExploredMap;
 import toniarts.openkeeper.game.map.IMapInformation;
 import toniarts.openkeeper.game.map.MapData;
 import toniarts.openkeeper.game.map.MapTile;
@@ -55,6 +63,7 @@ import toniarts.openkeeper.tools.convert.map.KwdFile;
 import toniarts.openkeeper.tools.convert.map.Room;
 import toniarts.openkeeper.tools.convert.map.Terrain;
 import toniarts.openkeeper.tools.convert.map.Thing;
+import toniarts.openkeeper.tools.convert.map.Variable.MiscVariable.MiscType;
 import toniarts.openkeeper.utils.AssetUtils;
 import toniarts.openkeeper.utils.WorldUtils;
 import toniarts.openkeeper.view.map.WallSection.WallDirection;
@@ -86,10 +95,17 @@ public abstract class MapViewController implements ILoader<KwdFile> {
     private final static int FLOOR_INDEX = 0;
     private final static int WALL_INDEX = 1;
     private final static int TOP_INDEX = 2;
+    private final static int[] LAYER_INDEXES = {FLOOR_INDEX, WALL_INDEX, TOP_INDEX};
     private final static String MAP_NODE = "Map";
     private final static String TERRAIN_NODE = "Terrain";
     private final static String ROOM_NODE = "Rooms";
+    private final static String LIGHTING_MATERIAL = "Common/MatDefs/Light/Lighting.j3md";
+    private final static String TERRAIN_MATERIAL = "MatDefs/Terrain.j3md";
+    private final static int MAX_DECAY_MAPS = 3;
     private List<Node> pages;
+    private List<PropInstancer> propInstancers; // Props by page, so they are culled with the pages
+    private final Map<Node, TerrainMesher> meshers = new HashMap<>(); // Page layer meshes by the layer node
+    private final Map<TerrainMaterialKey, Material> terrainMaterials = new ConcurrentHashMap<>(); // Shared terrain materials by the source material
     private final KwdFile kwdFile;
     private Node map;
     //private final MapData mapData;
@@ -98,15 +114,26 @@ public abstract class MapViewController implements ILoader<KwdFile> {
     //private final EffectManagerState effectManager;
     private Node roomsNode;
     private final short playerId;
+    private TileStateMap tileStateMap;
+    private TileLightMap tileLightMap; // Baked torch light, null if the torches are real lights
+    private final boolean bakedLighting;
+    private ExploredMap exploredMap;
+    private LiquidSurfaces liquidSurfaces; // Lakes and rivers, hot and cold
+    private MapData tileData; // The builder's own copy of the map tiles, guarded by the build lock
+    private int[] tileGeometryKeys; // What the tile geometry was built with, to see if it needs rebuilding, guarded by the build lock
     // private final WorldState worldState;
     //private final ObjectLoader objectLoader;
     // private final List<RoomInstance> rooms = new ArrayList<>(); // The list of rooms
-    private final List<EntityInstance<Terrain>> waterBatches = new ArrayList<>(); // Lakes and rivers
-    private final List<EntityInstance<Terrain>> lavaBatches = new ArrayList<>(); // Lakes and rivers, but hot
-    private final Map<Point, RoomInstance> roomCoordinates = new HashMap<>(); // A quick glimpse whether room at specific coordinates is already "found"
-    private final Map<RoomInstance, Spatial> roomNodes = new HashMap<>(); // Room instances by node
-    private final Map<RoomInstance, RoomConstructor> roomActuals = new HashMap<>(); // Rooms by room constructor
-    private final Map<Point, EntityInstance<Terrain>> terrainBatchCoordinates = new HashMap<>(); // A quick glimpse whether terrain batch at specific coordinates is already "found"
+    private final Map<Point, RoomInstance> roomCoordinates = new HashMap<>(); // A quick glimpse whether room at specific coordinates is already "found", guarded by the build lock
+    private final Map<RoomInstance, Spatial> roomNodes = new HashMap<>(); // Room instances by node, only touched from the render thread
+    private final Map<Spatial, RoomInstance> attachedRooms = new HashMap<>(); // The rooms in the scene, only touched from the render thread
+    private int roomVisibilityVersion = -1;
+    private final Map<RoomInstance, RoomConstructor> roomActuals = new HashMap<>(); // Rooms by room constructor, only touched from the render thread
+    private final ExecutorService tileBuilder;
+    private final Queue<TileUpdate> tileUpdates = new ConcurrentLinkedQueue<>(); // Planned updates waiting to be built and swapped in
+    private final Object buildLock = new Object();
+    private TileUpdate plannedUpdate; // The update being planned, guarded by the build lock
+    private TileUpdate currentUpdate; // The update being built, only touched from the render thread
     private static final Logger LOGGER = Logger.getLogger(MapViewController.class.getName());
 
     public MapViewController(AssetManager assetManager, KwdFile kwdFile, IMapInformation mapClientService, short playerId) {
@@ -114,6 +141,14 @@ public abstract class MapViewController implements ILoader<KwdFile> {
         this.assetManager = assetManager;
         this.mapClientService = mapClientService;
         this.playerId = playerId;
+        this.bakedLighting = Settings.getInstance().getBoolean(Settings.Setting.BAKED_LIGHTING);
+
+        // The plans share the room and tile registries, so one builder thread
+        tileBuilder = Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "MapTileBuilder");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
@@ -121,149 +156,285 @@ public abstract class MapViewController implements ILoader<KwdFile> {
 
         //Create a root
         map = new Node(MAP_NODE);
+        tileStateMap = new TileStateMap(getMapData().getWidth(), getMapData().getHeight());
+        if (bakedLighting) {
+            tileLightMap = new TileLightMap(getMapData().getWidth(), getMapData().getHeight());
+        }
+        exploredMap = new ExploredMap(getMapData().getWidth(), getMapData().getHeight(), playerId);
         Node terrain = new Node(TERRAIN_NODE);
         generatePages(terrain);
+        liquidSurfaces = new LiquidSurfaces(assetManager, PAGE_SQUARE_SIZE, (Point p) -> getPageNode(p, terrain));
         roomsNode = new Node(ROOM_NODE);
         terrain.attachChild(roomsNode);
+        map.attachChild(terrain);
 
-        // Go through the fixed rooms and construct them
-        // We might not need the room list on the client ever, we can draw them without
-        for (Thing.Room room : kwdFile.getThings(Thing.Room.class)) {
-            Point p = new Point(room.getPosX(), room.getPosY());
-            handleRoom(p, kwdFile.getRoomByTerrain(getMapData().getTile(p).getTerrainId()), room);
-        }
-
-        // Go through the map
-        int tilesCount = getMapData().getWidth() * object.getMap().getHeight();
-
-        for (int y = 0; y < getMapData().getHeight(); y++) {
-            for (int x = 0; x < getMapData().getWidth(); x++) {
+        TileUpdate update;
+        synchronized (buildLock) {
+            tileData = new MapData(getMapData().getWidth(), getMapData().getHeight());
+            tileData.setTiles(copyTiles(getMapData(), getAllTiles()));
+            tileGeometryKeys = new int[getMapData().getWidth() * getMapData().getHeight()];
+            plannedUpdate = new TileUpdate();
+            try {
+
+                // Go through the fixed rooms and find them
+                // We might not need the room list on the client ever, we can draw them without
+                for (Thing.Room room : kwdFile.getThings(Thing.Room.class)) {
+                    Point p = new Point(room.getPosX(), room.getPosY());
+                    discoverRoom(p, kwdFile.getRoomByTerrain(tileData.getTile(p).getTerrainId()), room);
+                }
 
-                try {
-                    handleTile(getMapData().getTile(x, y), terrain);
-                } catch (Exception e) {
-                    LOGGER.log(Level.SEVERE, "Failed to handle tile at " + x + ", " + y + "!", e);
+                // Go through the map
+                for (int y = 0; y < tileData.getHeight(); y++) {
+                    for (int x = 0; x < tileData.getWidth(); x++) {
+                        planTile(tileData.getTile(x, y));
+                    }
                 }
 
-                // Update progress
-                updateProgress((float) (y * object.getMap().getWidth() + x + 1) / tilesCount);
+                update = finishPlan();
+            } finally {
+                plannedUpdate = null;
             }
         }
 
-        // Batch the terrain pages
-        for (Node page : pages) {
-            ((BatchNode) page.getChild(FLOOR_INDEX)).batch();
-            ((BatchNode) page.getChild(WALL_INDEX)).batch();
-            ((BatchNode) page.getChild(TOP_INDEX)).batch();
+        // The map is not attached yet, the loading thread can build it all
+        while (!update.apply(System.nanoTime())) {
+            updateProgress(update.getProgress());
         }
-        map.attachChild(terrain);
+        updateProgress(1f);
 
-        // Create the water
-        if (!waterBatches.isEmpty()) {
-            map.attachChild(Water.construct(assetManager, waterBatches));
-        }
+        return map;
+    }
 
-        // And the lava
-        if (!lavaBatches.isEmpty()) {
-            map.attachChild(Water.construct(assetManager, lavaBatches));
+    private Point[] getAllTiles() {
+        Point[] points = new Point[getMapData().getWidth() * getMapData().getHeight()];
+        for (int y = 0; y < getMapData().getHeight(); y++) {
+            for (int x = 0; x < getMapData().getWidth(); x++) {
+                points[getTileIndex(new Point(x, y))] = new Point(x, y);
+            }
         }
+        return points;
+    }
 
-        return map;
+    /**
+     * Copies the given tiles, the copies are never changed afterwards
+     *
+     * @param mapData the map to copy from
+     * @param points the tile coordinates
+     * @return the tile copies
+     */
+    private static List<MapTile> copyTiles(MapData mapData, Point... points) {
+        List<MapTile> tiles = new ArrayList<>(points.length);
+        for (Point p : points) {
+            tiles.add(new MapTile(mapData.getTile(p)));
+        }
+        return tiles;
     }
 
     public MapData getMapData() {
         return mapClientService.getMapData();
     }
 
+    /**
+     * Get the tiles explored by the player. Only to be used from the render
+     * thread
+     *
+     * @return the explored map
+     */
+    public ExploredMap getExploredMap() {
+        return exploredMap;
+    }
+
     private Terrain getTerrain(MapTile tile) {
         return kwdFile.getTerrain(tile.getTerrainId());
     }
 
     /**
-     * Update the selected tiles (and neighbouring tiles if needed)
+     * Update the selected tiles (and neighbouring tiles if needed). Call this
+     * from the thread that changes the map data, right after the change. The
+     * tiles are copied here, the update is then planned in the background
+     * from the copies, and the tiles are built and swapped in to the scene
+     * by {@link #applyTileUpdates(long)}
      *
      * @param points tile coordinates to update
      */
     public void updateTiles(Point... points) {
-        Set<Point> pointsToUpdate = new HashSet<>();
-
-        // FIXME: This is really quite heavy and unneeded, just a quick "fix"
-        // If this touches any rooms, reconstruct them and add the neighbouring tiles to update list
-        for (Point point : points) {
-            pointsToUpdate.add(point);
-            RoomInstance roomInstance = roomCoordinates.get(point);
-            if (roomInstance != null) {
-                pointsToUpdate.addAll(Arrays.asList(WorldUtils.getSurroundingTiles(getMapData(), point, true)));
-                for (Point roomCoordinate : roomInstance.getCoordinates()) {
-                    pointsToUpdate.addAll(Arrays.asList(WorldUtils.getSurroundingTiles(getMapData(), roomCoordinate, true)));
-                    pointsToUpdate.add(roomCoordinate);
+        List<MapTile> tiles = copyTiles(getMapData(), points);
+        tileBuilder.submit(() -> {
+            try {
+                tileUpdates.add(planTileUpdate(tiles));
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to update tiles!", e);
+            }
+        });
+    }
+
+    /**
+     * Builds the planned tile updates and swaps them in to the scene. Needs
+     * to be called from the render thread, the models are loaded and attached
+     * here. Whole updates are applied in order, but the tiles of a large
+     * update may be spread over several frames
+     *
+     * @param budget the time budget for building and swapping, in
+     * nanoseconds
+     */
+    public void applyTileUpdates(long budget) {
+        long deadline = System.nanoTime() + budget;
+        TileUpdate update;
+        while ((update = tileUpdates.peek()) != null && update.apply(deadline)) {
+            tileUpdates.poll();
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Stops the background tile building
+     */
+    public void cleanup() {
+        tileBuilder.shutdownNow();
+        tileUpdates.clear();
+    }
+
+    /**
+     * Plans the update of the given tiles. Only the map data is handled here,
+     * no assets are loaded
+     *
+     * @param tiles the changed tiles
+     * @return the planned update
+     */
+    private TileUpdate planTileUpdate(List<MapTile> tiles) {
+        synchronized (buildLock) {
+            plannedUpdate = new TileUpdate();
+            try {
+                tileData.setTiles(tiles);
+
+                // The tile states (selection, decay...) are just texels, only rebuild the tiles whose geometry changed
+                List<Point> changedPoints = new ArrayList<>(tiles.size());
+                for (MapTile tile : tiles) {
+                    Point point = tile.getLocation();
+                    plannedUpdate.statePoints.add(point);
+                    if (tileGeometryKeys[getTileIndex(point)] != getTileGeometryKey(tile)) {
+                        changedPoints.add(point);
+                    }
+                }
+                if (changedPoints.isEmpty()) {
+                    return finishPlan();
                 }
-                removeRoomInstances(roomInstance);
-            } else {
-                Point[] surroundingTiles = WorldUtils.getSurroundingTiles(getMapData(), point, true);
-                pointsToUpdate.addAll(Arrays.asList(surroundingTiles));
 
-                // Also remove the surrounding rooms, if this room needs to be merged to other rooms
-                for (Point surroundingPoint : surroundingTiles) {
-                    roomInstance = roomCoordinates.get(surroundingPoint);
+                Set<Point> pointsToUpdate = new HashSet<>();
+
+                // FIXME: This is really quite heavy and unneeded, just a quick "fix"
+                // If this touches any rooms, reconstruct them and add the neighbouring tiles to update list
+                for (Point point : changedPoints) {
+                    pointsToUpdate.add(point);
+                    RoomInstance roomInstance = roomCoordinates.get(point);
                     if (roomInstance != null) {
+                        pointsToUpdate.addAll(Arrays.asList(WorldUtils.getSurroundingTiles(tileData, point, true)));
+                        for (Point roomCoordinate : roomInstance.getCoordinates()) {
+                            pointsToUpdate.addAll(Arrays.asList(WorldUtils.getSurroundingTiles(tileData, roomCoordinate, true)));
+                            pointsToUpdate.add(roomCoordinate);
+                        }
                         removeRoomInstances(roomInstance);
+                    } else {
+                        Point[] surroundingTiles = WorldUtils.getSurroundingTiles(tileData, point, true);
+                        pointsToUpdate.addAll(Arrays.asList(surroundingTiles));
+
+                        // Also remove the surrounding rooms, if this room needs to be merged to other rooms
+                        for (Point surroundingPoint : surroundingTiles) {
+                            roomInstance = roomCoordinates.get(surroundingPoint);
+                            if (roomInstance != null) {
+                                removeRoomInstances(roomInstance);
+                            }
+                        }
                     }
                 }
+
+                // Reconstruct all tiles in the area
+                for (Point point : pointsToUpdate) {
+                    planTile(tileData.getTile(point));
+                }
+
+                return finishPlan();
+            } finally {
+                plannedUpdate = null;
             }
         }
+    }
 
-        // Reconstruct all tiles in the area
-        Set<BatchNode> nodesNeedBatching = new HashSet<>();
-        Node terrainNode = (Node) map.getChild(TERRAIN_NODE);
-        for (Point point : pointsToUpdate) {
-            MapTile tile = getMapData().getTile(point);
-
-            // Reconstruct and mark for patching
-            // The tile node needs to created anew, somehow the BatchNode just doesn't get it if I remove children from subnode
-            Node pageNode = getPageNode(point, terrainNode);
-            Node tileNode = getTileNode(point, (Node) pageNode.getChild(FLOOR_INDEX));
-            if (!tileNode.getChildren().isEmpty()) {
-                tileNode.removeFromParent();
-                ((BatchNode) pageNode.getChild(FLOOR_INDEX)).attachChildAt(new Node(tileNode.getName()), getTileNodeIndex(point));
-                nodesNeedBatching.add((BatchNode) pageNode.getChild(FLOOR_INDEX));
-            }
-            tileNode = getTileNode(point, (Node) pageNode.getChild(WALL_INDEX));
-            if (!tileNode.getChildren().isEmpty()) {
-                tileNode.removeFromParent();
-                ((BatchNode) pageNode.getChild(WALL_INDEX)).attachChildAt(new Node(tileNode.getName()), getTileNodeIndex(point));
-                nodesNeedBatching.add((BatchNode) pageNode.getChild(WALL_INDEX));
-            }
-            tileNode = getTileNode(point, (Node) pageNode.getChild(TOP_INDEX));
-            if (!tileNode.getChildren().isEmpty()) {
-                tileNode.removeFromParent();
-                ((BatchNode) pageNode.getChild(TOP_INDEX)).attachChildAt(new Node(tileNode.getName()), getTileNodeIndex(point));
-                nodesNeedBatching.add((BatchNode) pageNode.getChild(TOP_INDEX));
+    /**
+     * Plans a tile rebuild, the rooms the tile needs are found here
+     *
+     * @param tile the tile to rebuild
+     */
+    private void planTile(MapTile tile) {
+        Point p = tile.getLocation();
+        tileGeometryKeys[getTileIndex(p)] = getTileGeometryKey(tile);
+        plannedUpdate.points.add(p);
+
+        // The room on the tile, and the rooms whose walls the tile shows
+        Terrain terrain = getTerrain(tile);
+        if (terrain.getFlags().contains(Terrain.TerrainFlag.ROOM)) {
+            discoverRoom(p, kwdFile.getRoomByTerrain(terrain.getTerrainId()), null);
+        } else if (terrain.getFlags().contains(Terrain.TerrainFlag.SOLID)) {
+            for (Point neighbour : WorldUtils.getSurroundingTiles(tileData, p, false)) {
+                MapTile neighbourTile = tileData.getTile(neighbour);
+                if (hasRoomWalls(neighbourTile)) {
+                    discoverRoom(neighbour, kwdFile.getRoomByTerrain(neighbourTile.getTerrainId()), null);
+                }
             }
+        }
+    }
 
-            // Reconstruct
-            handleTile(tile, (Node) map.getChild(TERRAIN_NODE));
+    /**
+     * Finishes the planned update, the update gets a snapshot of the map
+     * data and the rooms it is built from
+     *
+     * @return the planned update
+     */
+    private TileUpdate finishPlan() {
+        plannedUpdate.mapData = new MapData(tileData);
+        for (Point p : plannedUpdate.points) {
+            for (Point neighbour : WorldUtils.getSurroundingTiles(tileData, p, false)) {
+                RoomInstance roomInstance = roomCoordinates.get(neighbour);
+                if (roomInstance != null) {
+                    plannedUpdate.rooms.put(neighbour, roomInstance);
+                }
+            }
         }
+        return plannedUpdate;
+    }
 
-        // Batch
-        for (BatchNode batchNode : nodesNeedBatching) {
-            batchNode.batch();
+    /**
+     * Swaps the built tile to the scene, the page meshes are rewritten in
+     * place
+     *
+     * @param p the tile coordinates
+     * @param tileNodes the new tile nodes, by page layer
+     */
+    private void swapTile(Point p, Node[] tileNodes) {
+        Node pageNode = getPageNode(p, (Node) map.getChild(TERRAIN_NODE));
+        int index = getTileNodeIndex(p);
+        for (int layer : LAYER_INDEXES) {
+            Node layerNode = (Node) pageNode.getChild(layer);
+            layerNode.detachChildAt(index);
+            layerNode.attachChildAt(tileNodes[layer], index);
+            meshers.get(layerNode).setTile(index, tileNodes[layer]);
         }
     }
 
     /**
-     * Sets the right material to tile (selected / decayed...)
+     * Sets the terrain material to tile geometries. The tile visual state
+     * (selected / flashed / decayed...) is read by the material from the tile
+     * state map, so the tiles sharing the same textures batch together
+     * regardless of their state. The terrain materials are shared, one per
+     * distinct source material
      *
-     * @param node
+     * @param tile the tile
+     * @param node the tile node
      */
     private void setTileMaterialToGeometries(final MapTile tile, final Node node) {
-
-        // Change the material on geometries
         Terrain terrain = getTerrain(tile);
-        if (!tile.isFlashed(playerId) && !tile.isSelected(playerId)
-                && !terrain.getFlags().contains(Terrain.TerrainFlag.DECAY)) {
-            return;
-        }
 
         node.depthFirstTraversal(new SceneGraphVisitor() {
             @Override
@@ -273,95 +444,221 @@ public abstract class MapViewController implements ILoader<KwdFile> {
                 }
 
                 Material material = ((Geometry) spatial).getMaterial();
+                if (!LIGHTING_MATERIAL.equals(material.getMaterialDef().getAssetName())) {
+                    return;
+                }
 
                 // Decay
-                if (terrain.getFlags().contains(Terrain.TerrainFlag.DECAY) && terrain.getTextureFrames() > 1) {
-
-                    Integer texCount = spatial.getUserData(KmfModelLoader.MATERIAL_ALTERNATIVE_TEXTURES_COUNT);
-                    if (texCount != null) {
-
-                        // FIXME: This doesn't sit well with the material thinking (meaning we produce the actual material files)
-                        // Now we have a random starting texture...
-                        int textureIndex = terrain.getTextureFrames() - (int) Math.ceil(tile.getHealthPercent() / (100f / terrain.getTextureFrames()));
-                        String diffuseTexture = ((Texture) material.getParam("DiffuseMap").getValue()).getKey().getName().replaceFirst("_DECAY\\d", ""); // Unharmed texture
-                        if (textureIndex > 0) {
-
-                            // The first one doesn't have a number
-                            if (textureIndex == 1) {
-                                diffuseTexture = diffuseTexture.replaceFirst(".png", "_DECAY.png");
-                            } else {
-                                diffuseTexture = diffuseTexture.replaceFirst(".png", "_DECAY" + textureIndex + ".png");
-                            }
-                        }
-                        try {
-                            Texture texture = assetManager.loadTexture(new TextureKey(ConversionUtils.getCanonicalAssetKey(diffuseTexture), false));
-                            material.setTexture("DiffuseMap", texture);
-
-                            AssetUtils.assignMapsToMaterial(assetManager, material);
-                        } catch (Exception e) {
-                            LOGGER.log(Level.WARNING, "Error applying decay texture: {0} to {1} terrain! ({2})", new Object[]{diffuseTexture, terrain.getName(), e.getMessage()});
-                        }
-                    }
-                }
-                if (tile.isFlashed(playerId)) {
-                    material.setColor("Ambient", COLOR_FLASH);
-                    material.setBoolean("UseMaterialColors", true);
-                }
-                if (tile.isSelected(playerId)) {
-                    material.setColor("Ambient", COLOR_TAG);
-                    material.setBoolean("UseMaterialColors", true);
+                int decayMaps = 0;
+                if (terrain.getFlags().contains(Terrain.TerrainFlag.DECAY) && terrain.getTextureFrames() > 1
+                        && spatial.getUserData(KmfModelLoader.MATERIAL_ALTERNATIVE_TEXTURES_COUNT) != null
+                        && material.getParam("DiffuseMap") != null) {
+                    decayMaps = Math.min(terrain.getTextureFrames() - 1, MAX_DECAY_MAPS);
                 }
 
+                Material terrainMaterial = terrainMaterials.computeIfAbsent(new TerrainMaterialKey(material, decayMaps),
+                        key -> createTerrainMaterial(key.material, key.decayMaps, terrain));
+                ((Geometry) spatial).setMaterial(terrainMaterial);
             }
 
         });
     }
 
     /**
-     * Generate the page nodes
+     * Creates a terrain material out of a lighting material, the terrain
+     * material is the lighting material that can show the tile states
+     *
+     * @param material the lighting material
+     * @param decayMaps the number of decay textures to set
+     * @param terrain the terrain, for logging
+     * @return terrain material with the same parameters
+     */
+    private Material createTerrainMaterial(Material material, int decayMaps, Terrain terrain) {
+        Material terrainMaterial = new Material(assetManager, TERRAIN_MATERIAL);
+        for (MatParam param : material.getParams()) {
+            if (terrainMaterial.getMaterialDef().getMaterialParam(param.getName()) != null) {
+                terrainMaterial.setParam(param.getName(), param.getVarType(), param.getValue());
+            }
+        }
+        terrainMaterial.setTexture("TileStateMap", tileStateMap.getTexture());
+        terrainMaterial.setVector2("MapSize", tileStateMap.getMapSize());
+        terrainMaterial.setColor("FlashColor", COLOR_FLASH);
+        terrainMaterial.setColor("TagColor", COLOR_TAG);
+        if (tileLightMap != null) {
+            terrainMaterial.setTexture("BakedLightMap", tileLightMap.getTexture());
+        }
+
+        RenderState renderState = material.getAdditionalRenderState();
+        terrainMaterial.getAdditionalRenderState().setBlendMode(renderState.getBlendMode());
+        terrainMaterial.getAdditionalRenderState().setFaceCullMode(renderState.getFaceCullMode());
+        terrainMaterial.getAdditionalRenderState().setDepthTest(renderState.isDepthTest());
+        terrainMaterial.getAdditionalRenderState().setDepthWrite(renderState.isDepthWrite());
+
+        // Decay
+        if (decayMaps > 0) {
+
+            // FIXME: This doesn't sit well with the material thinking (meaning we produce the actual material files)
+            String diffuseTexture = ((Texture) material.getParam("DiffuseMap").getValue()).getKey().getName().replaceFirst("_DECAY\\d", ""); // Unharmed texture
+            for (int textureIndex = 1; textureIndex <= decayMaps; textureIndex++) {
+
+                // The first one doesn't have a number
+                String decayTexture;
+                if (textureIndex == 1) {
+                    decayTexture = diffuseTexture.replaceFirst(".png", "_DECAY.png");
+                } else {
+                    decayTexture = diffuseTexture.replaceFirst(".png", "_DECAY" + textureIndex + ".png");
+                }
+                try {
+                    Texture texture = assetManager.loadTexture(new TextureKey(ConversionUtils.getCanonicalAssetKey(decayTexture), false));
+                    terrainMaterial.setTexture("DecayMap" + textureIndex, texture);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Error applying decay texture: {0} to {1} terrain! ({2})", new Object[]{decayTexture, terrain.getName(), e.getMessage()});
+                }
+            }
+        }
+
+        return terrainMaterial;
+    }
+
+    /**
+     * Updates the tile visual state to the tile state map
+     *
+     * @param tile the tile
+     */
+    private void updateTileState(MapTile tile) {
+        Terrain terrain = getTerrain(tile);
+        int decayFrame = 0;
+        if (terrain.getFlags().contains(Terrain.TerrainFlag.DECAY) && terrain.getTextureFrames() > 1) {
+            decayFrame = terrain.getTextureFrames() - (int) Math.ceil(tile.getHealthPercent() / (100f / terrain.getTextureFrames()));
+        }
+
+        tileStateMap.setFlashed(tile.getX(), tile.getY(), tile.isFlashed(playerId));
+        tileStateMap.setTagged(tile.getX(), tile.getY(), tile.isSelected(playerId));
+        tileStateMap.setDecayFrame(tile.getX(), tile.getY(), decayFrame);
+    }
+
+    /**
+     * Get the key of the attributes that affect the tile geometry, if these
+     * change, the tile needs to be reconstructed
+     *
+     * @param tile the tile
+     * @return the geometry key
+     */
+    private static int getTileGeometryKey(MapTile tile) {
+
+        // Never 0, so that unbuilt tiles are always seen as changed
+        return ((tile.getTerrainId() & 0xFFFF) << 8 | (tile.getOwnerId() & 0xFF)) + 1;
+    }
+
+    /**
+     * Get the liquid (water/lava) on the tile. Bridges have the liquid under
+     * them
+     *
+     * @param tile the tile
+     * @return the liquid terrain or {@code null} if the tile has no liquid
+     */
+    private Terrain getLiquidTerrain(MapTile tile) {
+        Terrain terrain = getTerrain(tile);
+        Terrain bridgeTerrain = kwdFile.getTerrainBridge(tile.getBridgeTerrainType(), terrain);
+        if (bridgeTerrain != null) {
+            terrain = bridgeTerrain;
+        }
+        return (terrain.getFlags().contains(Terrain.TerrainFlag.CONSTRUCTION_TYPE_WATER) ? terrain : null);
+    }
+
+    private int getTileIndex(Point p) {
+        return p.y * getMapData().getWidth() + p.x;
+    }
+
+    /**
+     * Generate the page nodes. The pages are put in to a quad tree of nodes,
+     * so that the whole areas outside of the view are culled with a few
+     * bounding volume checks
      *
      * @param root where to generate pages on
      */
     private void generatePages(Node root) {
-        pages = new ArrayList<>(((int) Math.ceil(getMapData().getHeight() / (float) PAGE_SQUARE_SIZE))
-                * ((int) Math.ceil(getMapData().getWidth() / (float) PAGE_SQUARE_SIZE)));
-        for (int y = 0; y < (int) Math.ceil(getMapData().getHeight() / (float) PAGE_SQUARE_SIZE); y++) {
-            for (int x = 0; x < (int) Math.ceil(getMapData().getWidth() / (float) PAGE_SQUARE_SIZE); x++) {
+        meshers.clear();
+        int pagesPerRow = (int) Math.ceil(getMapData().getWidth() / (float) PAGE_SQUARE_SIZE);
+        int pagesPerColumn = (int) Math.ceil(getMapData().getHeight() / (float) PAGE_SQUARE_SIZE);
+        pages = new ArrayList<>(pagesPerRow * pagesPerColumn);
+        propInstancers = new ArrayList<>(pagesPerRow * pagesPerColumn);
+        for (int y = 0; y < pagesPerColumn; y++) {
+            for (int x = 0; x < pagesPerRow; x++) {
                 Node page = new Node(x + "_" + y);
 
-                // Create batch nodes for ceiling, floor and walls
-                BatchNode floor = new BatchNode("floor");
+                // Create layer nodes for ceiling, floor and walls
+                Node floor = new Node("floor");
                 floor.setShadowMode(RenderQueue.ShadowMode.Receive); // Floors don't cast
                 generateTileNodes(floor, x, y);
                 page.attachChild(floor);
-                BatchNode wall = new BatchNode("wall");
+                Node wall = new Node("wall");
                 wall.setShadowMode(RenderQueue.ShadowMode.CastAndReceive); // Walls cast and receive shadows
                 generateTileNodes(wall, x, y);
                 page.attachChild(wall);
-                BatchNode ceiling = new BatchNode("ceiling");
+                Node ceiling = new Node("ceiling");
                 ceiling.setShadowMode(RenderQueue.ShadowMode.Off); // No lights above ceilings
                 generateTileNodes(ceiling, x, y);
                 page.attachChild(ceiling);
+                PropInstancer propInstancer = new PropInstancer("props");
+                propInstancer.getNode().setShadowMode(RenderQueue.ShadowMode.CastAndReceive);
+                page.attachChild(propInstancer.getNode());
 
                 pages.add(page);
-                root.attachChild(page);
+                propInstancers.add(propInstancer);
             }
         }
+
+        // Build the quad tree
+        int treeSize = 1;
+        while (treeSize < Math.max(pagesPerRow, pagesPerColumn)) {
+            treeSize *= 2;
+        }
+        attachPages(root, 0, 0, treeSize, pagesPerRow, pagesPerColumn);
+    }
+
+    /**
+     * Attaches the pages of the given quad tree square to the node
+     *
+     * @param node the node to attach to
+     * @param pageX the square start page x
+     * @param pageY the square start page y
+     * @param size the square size in pages
+     * @param pagesPerRow the page count on x axis
+     * @param pagesPerColumn the page count on y axis
+     */
+    private void attachPages(Node node, int pageX, int pageY, int size, int pagesPerRow, int pagesPerColumn) {
+        if (pageX >= pagesPerRow || pageY >= pagesPerColumn) {
+            return;
+        }
+        if (size == 1) {
+            node.attachChild(pages.get(pageY * pagesPerRow + pageX));
+            return;
+        }
+
+        Node quad = new Node("pages " + pageX + "_" + pageY + " (" + size + ")");
+        int halfSize = size / 2;
+        attachPages(quad, pageX, pageY, halfSize, pagesPerRow, pagesPerColumn);
+        attachPages(quad, pageX + halfSize, pageY, halfSize, pagesPerRow, pagesPerColumn);
+        attachPages(quad, pageX, pageY + halfSize, halfSize, pagesPerRow, pagesPerColumn);
+        attachPages(quad, pageX + halfSize, pageY + halfSize, halfSize, pagesPerRow, pagesPerColumn);
+        node.attachChild(quad);
     }
 
     /**
      * Create tile nodes inside a page
      *
-     * @param pageBatch the page
+     * @param pageLayer the page layer
      * @param pageX page x
      * @param pageY page y
      */
-    private void generateTileNodes(BatchNode pageBatch, int pageX, int pageY) {
+    private void generateTileNodes(Node pageLayer, int pageX, int pageY) {
         for (int y = 0; y < PAGE_SQUARE_SIZE; y++) {
             for (int x = 0; x < PAGE_SQUARE_SIZE; x++) {
-                pageBatch.attachChild(new Node((x + pageX * PAGE_SQUARE_SIZE) + "_" + (y + pageY * PAGE_SQUARE_SIZE)));
+                pageLayer.attachChild(new Node((x + pageX * PAGE_SQUARE_SIZE) + "_" + (y + pageY * PAGE_SQUARE_SIZE)));
             }
         }
+        meshers.put(pageLayer, new TerrainMesher(pageLayer, PAGE_SQUARE_SIZE * PAGE_SQUARE_SIZE));
     }
 
     private Spatial getWallSpatial(MapTile tile, WallDirection direction) {
@@ -371,16 +668,16 @@ public abstract class MapViewController implements ILoader<KwdFile> {
         MapTile neigbourTile;
         switch (direction) {
             case NORTH:
-                neigbourTile = getMapData().getTile(p.x, p.y - 1);
+                neigbourTile = currentUpdate.mapData.getTile(p.x, p.y - 1);
                 break;
             case SOUTH:
-                neigbourTile = getMapData().getTile(p.x, p.y + 1);
+                neigbourTile = currentUpdate.mapData.getTile(p.x, p.y + 1);
                 break;
             case EAST:
-                neigbourTile = getMapData().getTile(p.x + 1, p.y);
+                neigbourTile = currentUpdate.mapData.getTile(p.x + 1, p.y);
                 break;
             default: // WEST
-                neigbourTile = getMapData().getTile(p.x - 1, p.y);
+                neigbourTile = currentUpdate.mapData.getTile(p.x - 1, p.y);
                 break;
         }
         // Check for out of bounds
@@ -403,8 +700,7 @@ public abstract class MapViewController implements ILoader<KwdFile> {
 
     private Spatial getRoomWall(MapTile tile, WallDirection direction) {
         Point p = tile.getLocation();
-        Room room = kwdFile.getRoomByTerrain(tile.getTerrainId());
-        RoomInstance roomInstance = handleRoom(p, room, null);
+        RoomInstance roomInstance = currentUpdate.rooms.get(p);
         RoomConstructor rc = roomActuals.get(roomInstance);
         return rc.getWallSpatial(p, direction);
     }
@@ -430,22 +726,18 @@ public abstract class MapViewController implements ILoader<KwdFile> {
                     int tex = tile.getRandomTextureIndex();
                     if (tex != 0) { // 0 is the default anyway
                         Geometry g = (Geometry) spatial;
-                        Material m = g.getMaterial();
-                        String asset = m.getAssetName();
 
                         // Load new material
-                        AssetInfo newMaterialInfo = assetManager.locateAsset(new AssetKey<>(asset.substring(0,
-                                asset.lastIndexOf(KmfModelLoader.MATERIAL_ALTERNATIVE_TEXTURE_SUFFIX_SEPARATOR) + 1).concat(tex + ".j3m")));
-                        if (newMaterialInfo != null) {
-                            try {
-                                Material newMaterial = assetManager.loadMaterial(newMaterialInfo.getKey().getName());
-                                AssetUtils.assignMapsToMaterial(assetManager, newMaterial);
+                        try {
+                            Material newMaterial = AssetUtils.loadAlternativeMaterial(assetManager, g, tex);
+                            if (newMaterial != null) {
                                 g.setMaterial(newMaterial);
-                            } catch (Exception e) {
-
-                                // FIXME: Rock top fails, we may have a problem in the material naming
-                                LOGGER.log(Level.WARNING, "Failed to load a random texture to terrain id " + tile.getTerrainId() + ", texture index " + tex + "!", e);
+                                AssetUtils.assignVertexAnimationMaterial(assetManager, g);
                             }
+                        } catch (Exception e) {
+
+                            // FIXME: Rock top fails, we may have a problem in the material naming
+                            LOGGER.log(Level.WARNING, "Failed to load a random texture to terrain id " + tile.getTerrainId() + ", texture index " + tex + "!", e);
                         }
                     }
                 }
@@ -463,27 +755,29 @@ public abstract class MapViewController implements ILoader<KwdFile> {
      * Handle single tile from the map, represented by the X & Y coordinates
      *
      * @param tile tile to handle
-     * @param root the root node
      */
-    private void handleTile(MapTile tile, Node root) {
+    private void handleTile(MapTile tile) {
 
         // Get the terrain
         Terrain terrain = getTerrain(tile);
         Point p = tile.getLocation();
-        Node pageNode = getPageNode(p, root);
+
+        // The new tile nodes, swapped in to the pages later
+        Node[] tileNodes = new Node[LAYER_INDEXES.length];
+        for (int layer : LAYER_INDEXES) {
+            tileNodes[layer] = new Node(p.x + "_" + p.y);
+        }
+        currentUpdate.tiles.put(p, tileNodes);
 
         // Torch (see https://github.com/tonihele/OpenKeeper/issues/128)
         if (!terrain.getFlags().contains(Terrain.TerrainFlag.SOLID)
                 && (tile.getX() % 2 == 0 || tile.getY() % 2 == 0)) {
-            handleTorch(tile, pageNode);
+            handleTorch(tile, tileNodes[WALL_INDEX]);
         }
 
-        // Room
+        // Room, the room itself is constructed with the update
         if (terrain.getFlags().contains(Terrain.TerrainFlag.ROOM)) {
-
-            // Construct the actual room
             Room room = kwdFile.getRoomByTerrain(terrain.getTerrainId());
-            handleRoom(p, room, null);
 
             // Swap the terrain if this is a bridge
             terrain = kwdFile.getTerrainBridge(tile.getBridgeTerrainType(), room);
@@ -492,13 +786,13 @@ public abstract class MapViewController implements ILoader<KwdFile> {
             }
         }
 
-        handleTop(tile, terrain, pageNode);
+        handleTop(tile, terrain, tileNodes);
         if (terrain.getFlags().contains(Terrain.TerrainFlag.SOLID)) {
-            handleSide(tile, pageNode);
+            handleSide(tile, tileNodes[WALL_INDEX]);
         }
     }
 
-    private void handleTorch(MapTile tile, Node pageNode) {
+    private void handleTorch(MapTile tile, Node wallTileNode) {
 
         // The rooms actually contain the torch model resource, but it is always the same,
         // and sometimes even null and there is still a torch. So I don't think they are used
@@ -541,21 +835,70 @@ public abstract class MapViewController implements ILoader<KwdFile> {
                 }
             }
             Spatial spatial = AssetUtils.loadModel(assetManager, name);
-            spatial.addControl(new TorchControl(kwdFile, assetManager, angleY));
             spatial.rotate(0, angleY, 0);
             spatial.setLocalTranslation(WorldUtils.pointToVector3f(tile.getLocation()).addLocal(position));
+            currentUpdate.tileProps.put(tile.getLocation(), spatial);
+
+            // The torch model is instanced, only the flame and its light live in the tile
+            Node flame = new Node(name);
+            flame.setLocalTransform(spatial.getLocalTransform());
+            flame.addControl(new TorchControl(kwdFile, assetManager, angleY, !bakedLighting));
+            wallTileNode.attachChild(flame);
+            if (bakedLighting) {
+                currentUpdate.tileTorches.put(tile.getLocation(), createTorchLight(tile, spatial.getLocalTranslation()));
+            }
+        }
+    }
 
-            ((Node) getTileNode(tile.getLocation(), (Node) pageNode.getChild(WALL_INDEX))).attachChild(spatial);
+    /**
+     * Creates the light of a torch for baking. Rooms may have torches of
+     * their own color. The colors and intensities are in 0-255 range
+     *
+     * @param tile the tile the torch lights
+     * @param position the torch position
+     * @return the torch light
+     */
+    private PointLight createTorchLight(MapTile tile, Vector3f position) {
+        Terrain terrain = getTerrain(tile);
+        Room room = null;
+        if (terrain.getFlags().contains(Terrain.TerrainFlag.ROOM)) {
+            room = kwdFile.getRoomByTerrain(terrain.getTerrainId());
         }
+
+        PointLight light = new PointLight(position.clone());
+        if (room != null && room.getTorchIntensity() > 0 && room.getTorchRadius() > 0) {
+            float intensity = room.getTorchIntensity();
+            light.setColor(TorchControl.getLightColor(room.getTorchColor().getRed(),
+                    room.getTorchColor().getGreen(),
+                    room.getTorchColor().getBlue(), intensity));
+            light.setRadius(room.getTorchRadius());
+        } else {
+            float intensity = kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_INTENSITY).getValue();
+            light.setColor(TorchControl.getLightColor(kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_RED).getValue(),
+                    kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_GREEN).getValue(),
+                    kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_BLUE).getValue(), intensity));
+            light.setRadius(kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_RADIUS_TILES).getValue());
+        }
+
+        return light;
     }
 
     private boolean canPlaceTorch(int x, int y) {
-        MapTile tile = getMapData().getTile(x, y);
+        MapTile tile = currentUpdate.mapData.getTile(x, y);
         return (tile != null && getTerrain(tile).getFlags().contains(Terrain.TerrainFlag.TORCH));
 
     }
 
-    private RoomInstance handleRoom(Point p, Room room, Thing.Room thing) {
+    /**
+     * Finds the room at the given coordinates, if not already found. A new
+     * room is constructed with the planned update
+     *
+     * @param p the room coordinates
+     * @param room the room type
+     * @param thing the room thing, if any
+     * @return the room instance
+     */
+    private RoomInstance discoverRoom(Point p, Room room, Thing.Room thing) {
         if (roomCoordinates.containsKey(p)) {
             RoomInstance roomInstance = roomCoordinates.get(p);
             return roomInstance;
@@ -574,13 +917,8 @@ public abstract class MapViewController implements ILoader<KwdFile> {
 //                tile.setHealth((int) (tile.getTerrain().getMaxHealth() * (thing.getInitialHealth() / 100f)));
 //            }
 //        }
-        Spatial roomNode = handleRoom(roomInstance);
-        if (roomNode != null) {
-            roomsNode.attachChild(roomNode);
-        }
+        plannedUpdate.addedRooms.add(roomInstance);
 
-        // Add to registry
-        roomNodes.put(roomInstance, roomNode);
         return roomInstance;
     }
 
@@ -589,9 +927,9 @@ public abstract class MapViewController implements ILoader<KwdFile> {
      *
      * @param tile this tile
      * @param terrain DO NOT REMOVE. Need for construct water bed
-     * @param pageNode page node
+     * @param tileNodes the tile nodes
      */
-    private void handleTop(MapTile tile, Terrain terrain, Node pageNode) {
+    private void handleTop(MapTile tile, Terrain terrain, Node[] tileNodes) {
 
         ArtResource model = terrain.getCompleteResource();
         Point p = tile.getLocation();
@@ -600,23 +938,13 @@ public abstract class MapViewController implements ILoader<KwdFile> {
         // And in the top resource there is the actual lava/water
         if (terrain.getFlags().contains(Terrain.TerrainFlag.CONSTRUCTION_TYPE_WATER)) {
 
-            // Store the batch instance
-            if (!terrainBatchCoordinates.containsKey(p)) {
-                EntityInstance<Terrain> entityInstance = new EntityInstance<>(terrain);
-                findTerrainBatch(p, entityInstance);
-                if (terrain.getFlags().contains(Terrain.TerrainFlag.LAVA)) {
-                    lavaBatches.add(entityInstance);
-                } else {
-                    waterBatches.add(entityInstance);
-                }
-            }
-
-            spatial = new WaterConstructor(kwdFile).construct(getMapData(), p.x, p.y, terrain, assetManager, model.getName());
+            // The surface itself is handled by the liquid surfaces, this is the bed
+            spatial = new WaterConstructor(kwdFile).construct(currentUpdate.mapData, p.x, p.y, terrain, assetManager, model.getName());
 
         } else if (terrain.getFlags().contains(Terrain.TerrainFlag.CONSTRUCTION_TYPE_QUAD)) {
             // If this resource is type quad, parse it together. With fixed Hero Lair
             String modelName = (model == null && terrain.getTerrainId() == 35) ? "hero_outpost_floor" : model.getName();
-            spatial = new SingleQuadConstructor(kwdFile).construct(getMapData(), p.x, p.y, terrain, assetManager, modelName);
+            spatial = new SingleQuadConstructor(kwdFile).construct(currentUpdate.mapData, p.x, p.y, terrain, assetManager, modelName);
 
         } else {
 
@@ -632,9 +960,9 @@ public abstract class MapViewController implements ILoader<KwdFile> {
 
         Node topTileNode;
         if (terrain.getFlags().contains(Terrain.TerrainFlag.SOLID)) {
-            topTileNode = getTileNode(p, (Node) pageNode.getChild(TOP_INDEX));
+            topTileNode = tileNodes[TOP_INDEX];
         } else {
-            topTileNode = getTileNode(p, (Node) pageNode.getChild(FLOOR_INDEX));
+            topTileNode = tileNodes[FLOOR_INDEX];
         }
 
         topTileNode.attachChild(spatial);
@@ -644,9 +972,8 @@ public abstract class MapViewController implements ILoader<KwdFile> {
 //        tile.setTopNode(topTileNode);
     }
 
-    private void handleSide(MapTile tile, Node pageNode) {
+    private void handleSide(MapTile tile, Node sideTileNode) {
         Point p = tile.getLocation();
-        Node sideTileNode = getTileNode(p, (Node) pageNode.getChild(WALL_INDEX));
 
         for (WallDirection direction : WallDirection.values()) {
             Spatial wall = getWallSpatial(tile, direction);
@@ -664,21 +991,10 @@ public abstract class MapViewController implements ILoader<KwdFile> {
 
     public void flashTile(boolean enabled, List<Point> points) {
         for (Point p : points) {
-            getMapData().getTile(p.x, p.y).setFlashed(enabled, playerId);
+            MapTile tile = getMapData().getTile(p.x, p.y);
+            tile.setFlashed(enabled, playerId);
+            updateTileState(tile);
         }
-
-        updateTiles(points.toArray(new Point[points.size()]));
-    }
-
-    /**
-     * Get the terrain tile node
-     *
-     * @param p the tile coordinates
-     * @param page the page node
-     * @return tile node
-     */
-    private Node getTileNode(Point p, Node page) {
-        return (Node) page.getChild(getTileNodeIndex(p));
     }
 
     /**
@@ -701,6 +1017,10 @@ public abstract class MapViewController implements ILoader<KwdFile> {
      * @return page node
      */
     protected Node getPageNode(Point p, Node root) {
+        return pages.get(getPageIndex(p));
+    }
+
+    private int getPageIndex(Point p) {
         int pageX = (int) Math.floor(p.x / (float) PAGE_SQUARE_SIZE);
         int pageY = (int) Math.floor(p.y / (float) PAGE_SQUARE_SIZE);
 
@@ -710,7 +1030,36 @@ public abstract class MapViewController implements ILoader<KwdFile> {
             int pagesPerRow = (int) Math.ceil(getMapData().getWidth() / (float) PAGE_SQUARE_SIZE);
             index += pagesPerRow * pageY;
         }
-        return (Node) root.getChild(index);
+        return index;
+    }
+
+    /**
+     * Hides the rooms of other players in the areas the player hasn't
+     * explored. Only re-evaluated when new tiles have been explored
+     *
+     * @param force re-evaluate even if nothing new has been explored
+     */
+    private void updateRoomVisibility(boolean force) {
+        if (!force && roomVisibilityVersion == exploredMap.getVersion()) {
+            return;
+        }
+        roomVisibilityVersion = exploredMap.getVersion();
+
+        for (Map.Entry<Spatial, RoomInstance> entry : attachedRooms.entrySet()) {
+            entry.getKey().setCullHint(isRoomVisible(entry.getValue()) ? Spatial.CullHint.Inherit : Spatial.CullHint.Always);
+        }
+    }
+
+    private boolean isRoomVisible(RoomInstance roomInstance) {
+        if (roomInstance.getOwnerId() == playerId) {
+            return true;
+        }
+        for (Point p : roomInstance.getCoordinates()) {
+            if (exploredMap.isExplored(p)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -744,7 +1093,7 @@ public abstract class MapViewController implements ILoader<KwdFile> {
      * @param roomInstance the room instance
      */
     private void findRoom(Point p, RoomInstance roomInstance) {
-        MapTile tile = getMapData().getTile(p);
+        MapTile tile = tileData.getTile(p);
 
         // Get the terrain
         Terrain terrain = kwdFile.getTerrain(tile.getTerrainId());
@@ -773,55 +1122,14 @@ public abstract class MapViewController implements ILoader<KwdFile> {
         }
     }
 
-    /**
-     * Find a terrain batch starting from a certain point, they are never
-     * diagonally attached
-     *
-     * @param p starting point
-     * @param entityInstance the batch instance
-     */
-    private void findTerrainBatch(Point p, EntityInstance<Terrain> entityInstance) {
-        MapTile tile = getMapData().getTile(p);
-
-        if (!terrainBatchCoordinates.containsKey(p)) {
-
-            // Get the terrain
-            Terrain terrain = getTerrain(tile);
-            Terrain bridgeTerrain = kwdFile.getTerrainBridge(tile.getBridgeTerrainType(), terrain);
-            if (bridgeTerrain != null) {
-                terrain = bridgeTerrain;
-            }
-
-            if (entityInstance.getEntity().equals(terrain)) {
-
-                // Add the coordinate
-                terrainBatchCoordinates.put(p, entityInstance);
-                entityInstance.addCoordinate(p);
-
-                // Find north
-                findTerrainBatch(new Point(p.x, p.y - 1), entityInstance);
-
-                // Find east
-                findTerrainBatch(new Point(p.x + 1, p.y), entityInstance);
-
-                // Find south
-                findTerrainBatch(new Point(p.x, p.y + 1), entityInstance);
-
-                // Find west
-                findTerrainBatch(new Point(p.x - 1, p.y), entityInstance);
-            }
-        }
-    }
-
     /**
      * Constructs the given room
      *
      * @param roomInstance the room instance
      */
-    private Spatial handleRoom(RoomInstance roomInstance) {
+    private Spatial constructRoom(RoomInstance roomInstance) {
         RoomConstructor roomConstructor = RoomFactory.constructRoom(roomInstance, assetManager, null, kwdFile);
         roomActuals.put(roomInstance, roomConstructor);
-        updateRoomWalls(roomInstance);
         if (roomConstructor != null) {
             return roomConstructor.construct();
         }
@@ -897,20 +1205,19 @@ public abstract class MapViewController implements ILoader<KwdFile> {
 
     /**
      * Remove all the given room instances (and actually removes them from the
-     * scene)
+     * scene when the update is applied). Only to be used while planning an
+     * update
      *
      * @param instances room instances to remove
      */
     protected void removeRoomInstances(RoomInstance... instances) {
         for (RoomInstance instance : instances) {
-            roomsNode.detachChild(roomNodes.get(instance));
-            roomNodes.remove(instance);
+            plannedUpdate.removedRooms.add(instance);
             //rooms.remove(instance);
 
             // Signal the room
             //GenericRoom room = roomActuals.get(instance);
             //room.destroy();
-            roomActuals.remove(instance);
             for (Point p : instance.getCoordinates()) {
                 roomCoordinates.remove(p);
             }
@@ -978,13 +1285,13 @@ public abstract class MapViewController implements ILoader<KwdFile> {
         // See if the starting point has a wall to the given direction
         MapTile tile;
         if (wallDirection == WallDirection.NORTH) {
-            tile = getMapData().getTile(p.x, p.y + 1);
+            tile = tileData.getTile(p.x, p.y + 1);
         } else if (wallDirection == WallDirection.EAST) {
-            tile = getMapData().getTile(p.x - 1, p.y);
+            tile = tileData.getTile(p.x - 1, p.y);
         } else if (wallDirection == WallDirection.SOUTH) {
-            tile = getMapData().getTile(p.x, p.y - 1);
+            tile = tileData.getTile(p.x, p.y - 1);
         } else {
-            tile = getMapData().getTile(p.x + 1, p.y); // West
+            tile = tileData.getTile(p.x + 1, p.y); // West
         }
         Terrain terrain = kwdFile.getTerrain(tile.getTerrainId());
         if (terrain.getFlags().contains(Terrain.TerrainFlag.SOLID)
@@ -1096,4 +1403,137 @@ public abstract class MapViewController implements ILoader<KwdFile> {
      */
     protected abstract void updateProgress(final float progress);
 
+    /**
+     * Planned tile and room changes, waiting to be built and swapped in to
+     * the scene. The update carries the map data snapshot it was planned
+     * from, so building it doesn't touch the live map data
+     */
+    private class TileUpdate {
+
+        private MapData mapData;
+        private final List<Point> statePoints = new ArrayList<>();
+        private final List<RoomInstance> removedRooms = new ArrayList<>();
+        private final List<RoomInstance> addedRooms = new ArrayList<>();
+        private final Map<Point, RoomInstance> rooms = new HashMap<>(); // The rooms around the rebuilt tiles
+        private final Set<Point> points = new LinkedHashSet<>(); // The tiles to rebuild
+        private final Map<Point, Node[]> tiles = new HashMap<>();
+        private final Map<Point, Spatial> tileProps = new HashMap<>();
+        private final Map<Point, PointLight> tileTorches = new HashMap<>();
+        private Iterator<Point> pointIterator;
+        private int builtTiles = 0;
+
+        /**
+         * Builds and applies the update to the scene
+         *
+         * @param deadline the time limit, in {@link System#nanoTime()}, at
+         * least one tile is built regardless
+         * @return true if the update was fully applied
+         */
+        public boolean apply(long deadline) {
+            currentUpdate = this;
+            try {
+                boolean roomsChanged = false;
+                if (pointIterator == null) {
+                    for (Point p : statePoints) {
+                        updateTileState(mapData.getTile(p));
+                        exploredMap.update(mapData, p);
+                    }
+                    for (RoomInstance roomInstance : removedRooms) {
+                        Spatial room = roomNodes.remove(roomInstance);
+                        roomActuals.remove(roomInstance);
+                        if (room != null) {
+                            roomsNode.detachChild(room);
+                            attachedRooms.remove(room);
+                        }
+                    }
+                    for (RoomInstance roomInstance : addedRooms) {
+                        Spatial room = constructRoom(roomInstance);
+                        if (room != null) {
+                            roomNodes.put(roomInstance, room);
+                            roomsNode.attachChild(room);
+                            attachedRooms.put(room, roomInstance);
+                        }
+                    }
+                    roomsChanged = !addedRooms.isEmpty();
+                    pointIterator = points.iterator();
+                }
+
+                while (pointIterator.hasNext()) {
+                    Point p = pointIterator.next();
+                    MapTile tile = mapData.getTile(p);
+                    try {
+                        handleTile(tile);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.SEVERE, "Failed to handle tile at " + p.x + ", " + p.y + "!", e);
+                    }
+                    builtTiles++;
+
+                    updateTileState(tile);
+                    exploredMap.update(mapData, p);
+                    Node[] tileNodes = tiles.remove(p);
+                    if (tileNodes != null) {
+                        swapTile(p, tileNodes);
+                    }
+                    liquidSurfaces.setTile(p, getLiquidTerrain(tile));
+                    propInstancers.get(getPageIndex(p)).setProps(p, tileProps.remove(p));
+                    if (tileLightMap != null) {
+                        tileLightMap.setTorch(p, tileTorches.remove(p));
+                    }
+                    if (System.nanoTime() >= deadline) {
+                        break;
+                    }
+                }
+
+                updateRoomVisibility(roomsChanged);
+
+                return !pointIterator.hasNext();
+            } finally {
+                currentUpdate = null;
+            }
+        }
+
+        /**
+         * Get the share of the tiles built
+         *
+         * @return progress from 0.0 to 1.0
+         */
+        public float getProgress() {
+            return (points.isEmpty() ? 1f : (float) builtTiles / points.size());
+        }
+    }
+
+    /**
+     * Identifies a terrain material, the source materials are compared by
+     * their contents since every model clone has its own material instance
+     */
+    private static class TerrainMaterialKey {
+
+        private final Material material;
+        private final int decayMaps;
+
+        public TerrainMaterialKey(Material material, int decayMaps) {
+            this.material = material;
+            this.decayMaps = decayMaps;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 41 * hash + material.contentHashCode();
+            hash = 41 * hash + decayMaps;
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final TerrainMaterialKey other = (TerrainMaterialKey) obj;
+            return decayMaps == other.decayMaps && material.contentEquals(other.material);
+        }
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.view.map;
+
+import com.jme3.material.Material;
+import com.jme3.math.Transform;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.instancing.InstancedNode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Draws the repeated map props (torches etc.) with hardware instancing. All
+ * the instances of the same model part are drawn with a single draw call.
+ * The props are owned by something, a tile for example, and they are
+ * replaced as a whole when the owner changes.<br>
+ * The models share their meshes already (cloned from the asset cache), the
+ * materials are shared here.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class PropInstancer {
+
+    private static final String USE_INSTANCING = "UseInstancing";
+
+    private final Node node;
+    private final InstancedNode instancedNode;
+    private final Node otherNode;
+    private final List<Material> sourceMaterials = new ArrayList<>();
+    private final List<Material> instancedMaterials = new ArrayList<>();
+    private final Map<Object, List<Geometry>> props = new HashMap<>();
+
+    public PropInstancer(String name) {
+        node = new Node(name);
+        instancedNode = new InstancedNode("Instanced");
+        node.attachChild(instancedNode);
+        otherNode = new Node("Other");
+        node.attachChild(otherNode);
+    }
+
+    /**
+     * Get the root node of the props, needs to be attached to the scene
+     *
+     * @return the props node
+     */
+    public Node getNode() {
+        return node;
+    }
+
+    /**
+     * Set the props of an owner, replacing the old ones. The geometries of
+     * the given spatial are moved to the instancer
+     *
+     * @param owner the owner of the props, i.e. the tile coordinates
+     * @param spatial the props, in the coordinates of the props node's
+     * parent, can be {@code null}
+     */
+    public void setProps(Object owner, Spatial spatial) {
+        removeProps(owner);
+        if (spatial == null) {
+            return;
+        }
+
+        List<Geometry> geometries = new ArrayList<>();
+        spatial.depthFirstTraversal((Spatial s) -> {
+            if (s instanceof Geometry) {
+                geometries.add((Geometry) s);
+            }
+        });
+        if (geometries.isEmpty()) {
+            return;
+        }
+
+        boolean instanced = false;
+        for (Geometry geometry : geometries) {
+            Transform transform = getTransform(geometry, spatial);
+            geometry.removeFromParent();
+            geometry.setLocalTransform(transform);
+
+            Material material = getInstancedMaterial(geometry.getMaterial());
+            if (material != null) {
+                geometry.setMaterial(material);
+                instancedNode.attachChild(geometry);
+                instanced = true;
+            } else {
+                otherNode.attachChild(geometry);
+            }
+        }
+        props.put(owner, geometries);
+
+        if (instanced) {
+            instancedNode.instance();
+        }
+    }
+
+    /**
+     * Removes the props of an owner
+     *
+     * @param owner the owner of the props
+     */
+    public void removeProps(Object owner) {
+        for (Geometry geometry : props.getOrDefault(owner, Collections.<Geometry>emptyList())) {
+            geometry.removeFromParent();
+        }
+        props.remove(owner);
+    }
+
+    /**
+     * Get a shared instancing material for the given material
+     *
+     * @param material the source material
+     * @return instancing material, or {@code null} if the material doesn't
+     * support instancing
+     */
+    private Material getInstancedMaterial(Material material) {
+        if (material == null || material.getMaterialDef().getMaterialParam(USE_INSTANCING) == null) {
+            return null;
+        }
+
+        for (int i = 0; i < sourceMaterials.size(); i++) {
+            if (sourceMaterials.get(i).contentEquals(material)) {
+                return instancedMaterials.get(i);
+            }
+        }
+
+        Material instancedMaterial = material.clone();
+        instancedMaterial.setBoolean(USE_INSTANCING, true);
+        sourceMaterials.add(material);
+        instancedMaterials.add(instancedMaterial);
+
+        return instancedMaterial;
+    }
+
+    /**
+     * Get the transform of a geometry relative to the parent of the props
+     * root. The props root may already be attached somewhere, the ancestors
+     * above it are not part of the props
+     *
+     * @param geometry the geometry
+     * @param root the props root
+     * @return the geometry transform relative to the parent of the root
+     */
+    private static Transform getTransform(Geometry geometry, Spatial root) {
+        Transform transform = geometry.getLocalTransform().clone();
+        if (geometry == root) {
+            return transform;
+        }
+
+        for (Node parent = geometry.getParent(); parent != null; parent = parent.getParent()) {
+            transform.combineWithParent(parent.getLocalTransform());
+            if (parent == root) {
+                break;
+            }
+        }
+
+        return transform;
+    }
+
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.view.map;
+
+import com.jme3.material.Material;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.control.LodControl;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.util.BufferUtils;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the tile geometries of a single terrain page layer (floor, walls or
+ * tops) into one mesh per material. Each tile owns a slot in the vertex and
+ * index buffers, changing a tile rewrites only its own slot in place. So
+ * unlike batching, the other tiles are not touched at all.<br>
+ * Geometries that can't be merged (animated, controlled or non-triangle
+ * ones) are left to the tile nodes as is. The LOD levels of the KMF meshes
+ * are not carried over, the merged meshes use the full detail LOD 0.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class TerrainMesher {
+
+    private static final VertexBuffer.Type[] VERTEX_TYPES = {VertexBuffer.Type.Position, VertexBuffer.Type.Normal,
+        VertexBuffer.Type.Tangent, VertexBuffer.Type.TexCoord, VertexBuffer.Type.TexCoord2, VertexBuffer.Type.Color};
+
+    private final Node layerNode;
+    private final int slotCount;
+    private final List<MaterialMesh> meshes = new ArrayList<>();
+
+    /**
+     * Creates a new mesher for a page layer
+     *
+     * @param layerNode the page layer node, the tile nodes are its children
+     * and the merged meshes are attached to it
+     * @param slotCount number of tiles on the page
+     */
+    public TerrainMesher(Node layerNode, int slotCount) {
+        this.layerNode = layerNode;
+        this.slotCount = slotCount;
+    }
+
+    /**
+     * Writes the tile to its slot, replacing the old contents. The merged
+     * geometries are detached from the tile node
+     *
+     * @param slot the tile slot
+     * @param tileNode the constructed tile, attached under the layer node
+     */
+    public void setTile(int slot, Node tileNode) {
+
+        // Collect the geometries by material
+        List<Geometry> geometries = new ArrayList<>();
+        tileNode.depthFirstTraversal((Spatial spatial) -> {
+            if (spatial instanceof Geometry && isMergeable((Geometry) spatial, tileNode)) {
+                geometries.add((Geometry) spatial);
+            }
+        });
+        Map<MaterialMesh, List<Geometry>> geometriesByMesh = new HashMap<>();
+        for (Geometry geometry : geometries) {
+            MaterialMesh materialMesh = getMaterialMesh(geometry);
+            List<Geometry> list = geometriesByMesh.get(materialMesh);
+            if (list == null) {
+                list = new ArrayList<>();
+                geometriesByMesh.put(materialMesh, list);
+            }
+            list.add(geometry);
+        }
+
+        // Write all, this also clears the slot from the meshes the tile no longer uses
+        for (MaterialMesh materialMesh : meshes) {
+            List<Geometry> list = geometriesByMesh.get(materialMesh);
+            materialMesh.setSlot(slot, list != null ? list : Collections.<Geometry>emptyList());
+        }
+        for (Geometry geometry : geometries) {
+            geometry.removeFromParent();
+        }
+    }
+
+    /**
+     * Clears the tile slot
+     *
+     * @param slot the tile slot
+     */
+    public void clearTile(int slot) {
+        for (MaterialMesh materialMesh : meshes) {
+            materialMesh.setSlot(slot, Collections.<Geometry>emptyList());
+        }
+    }
+
+    private MaterialMesh getMaterialMesh(Geometry geometry) {
+        for (MaterialMesh materialMesh : meshes) {
+            if (materialMesh.accepts(geometry)) {
+                return materialMesh;
+            }
+        }
+
+        MaterialMesh materialMesh = new MaterialMesh(geometry, "Mesh" + meshes.size());
+        meshes.add(materialMesh);
+        layerNode.attachChild(materialMesh.geometry);
+
+        return materialMesh;
+    }
+
+    private static boolean isMergeable(Geometry geometry, Node tileNode) {
+        Mesh mesh = geometry.getMesh();
+        if (mesh.getMode() != Mesh.Mode.Triangles || mesh.getBuffer(VertexBuffer.Type.Position) == null
+                || mesh.getBuffer(VertexBuffer.Type.BoneIndex) != null || geometry.getMaterial() == null) {
+            return false;
+        }
+
+        // Controlled spatials (torches etc.) need to stay as they are, but every KMF geometry has a LOD control
+        for (Spatial spatial = geometry; spatial != null && spatial != tileNode; spatial = spatial.getParent()) {
+            for (int i = 0; i < spatial.getNumControls(); i++) {
+                if (!(spatial.getControl(i) instanceof LodControl)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private Transform getTransform(Spatial spatial) {
+        Transform transform = spatial.getLocalTransform().clone();
+        for (Node parent = spatial.getParent(); parent != null && parent != layerNode; parent = parent.getParent()) {
+            transform.combineWithParent(parent.getLocalTransform());
+        }
+
+        return transform;
+    }
+
+    /**
+     * A single mesh of the page layer, holding all the geometries of a
+     * material
+     */
+    private class MaterialMesh {
+
+        private final Material material;
+        private final Geometry geometry;
+        private final Mesh mesh = new Mesh();
+        private final VertexBuffer.Type[] types;
+        private final int[] components;
+        private final int[] slotVertexStart = new int[slotCount];
+        private final int[] slotVertexCapacity = new int[slotCount];
+        private final int[] slotIndexStart = new int[slotCount];
+        private final int[] slotIndexCapacity = new int[slotCount];
+        private FloatBuffer[] vertexData;
+        private IntBuffer indexData;
+        private int vertexCapacity = 0;
+        private int indexCapacity = 0;
+        private int vertexUsed = 0;
+        private int indexUsed = 0;
+
+        public MaterialMesh(Geometry source, String name) {
+            material = source.getMaterial();
+
+            // Take the vertex layout from the first geometry
+            List<VertexBuffer.Type> typeList = new ArrayList<>(VERTEX_TYPES.length);
+            List<Integer> componentList = new ArrayList<>(VERTEX_TYPES.length);
+            for (VertexBuffer.Type type : VERTEX_TYPES) {
+                VertexBuffer vertexBuffer = source.getMesh().getBuffer(type);
+                if (vertexBuffer != null && vertexBuffer.getFormat() == VertexBuffer.Format.Float) {
+                    typeList.add(type);
+                    componentList.add(vertexBuffer.getNumComponents());
+                }
+            }
+            types = typeList.toArray(new VertexBuffer.Type[typeList.size()]);
+            components = new int[types.length];
+            for (int i = 0; i < components.length; i++) {
+                components[i] = componentList.get(i);
+            }
+            vertexData = new FloatBuffer[types.length];
+
+            mesh.setDynamic();
+            geometry = new Geometry(name, mesh);
+            geometry.setMaterial(material);
+            geometry.setQueueBucket(source.getQueueBucket());
+        }
+
+        public boolean accepts(Geometry geometry) {
+            return material == geometry.getMaterial() || material.contentEquals(geometry.getMaterial());
+        }
+
+        public void setSlot(int slot, List<Geometry> geometries) {
+            int vertexCount = 0;
+            int indexCount = 0;
+            for (Geometry g : geometries) {
+                vertexCount += g.getMesh().getVertexCount();
+                indexCount += g.getMesh().getTriangleCount() * 3;
+            }
+            if (vertexCount == 0 && slotVertexCapacity[slot] == 0) {
+                return;
+            }
+
+            // See if we fit in to the old slot, otherwise take a new slot from the end
+            if (vertexCount > slotVertexCapacity[slot] || indexCount > slotIndexCapacity[slot]) {
+                clearSlot(slot);
+                slotVertexCapacity[slot] = 0;
+                slotIndexCapacity[slot] = 0;
+                if (vertexUsed + vertexCount > vertexCapacity || indexUsed + indexCount > indexCapacity) {
+                    compact(vertexCount, indexCount);
+                }
+                slotVertexStart[slot] = vertexUsed;
+                slotVertexCapacity[slot] = vertexCount;
+                slotIndexStart[slot] = indexUsed;
+                slotIndexCapacity[slot] = indexCount;
+                vertexUsed += vertexCount;
+                indexUsed += indexCount;
+            }
+
+            // Write the data
+            clearSlot(slot);
+            int vertex = slotVertexStart[slot];
+            int index = slotIndexStart[slot];
+            Vector3f vector = new Vector3f();
+            for (Geometry g : geometries) {
+                Transform transform = getTransform(g);
+                Mesh source = g.getMesh();
+                for (int i = 0; i < types.length; i++) {
+                    writeVertices(source, types[i], components[i], vertexData[i], vertex, transform, vector);
+                }
+
+                // The main index buffer is the LOD 0, empty LOD buffers have a lone index that must not be written
+                IndexBuffer indices = source.getIndicesAsList();
+                int sourceIndexCount = source.getTriangleCount() * 3;
+                for (int i = 0; i < sourceIndexCount; i++) {
+                    indexData.put(index++, vertex + indices.get(i));
+                }
+                vertex += source.getVertexCount();
+            }
+
+            // Flag for upload
+            for (VertexBuffer.Type type : types) {
+                mesh.getBuffer(type).setUpdateNeeded();
+            }
+            mesh.getBuffer(VertexBuffer.Type.Index).setUpdateNeeded();
+            mesh.updateBound();
+            geometry.updateModelBound();
+        }
+
+        /**
+         * Fills the slot indices with degenerate triangles
+         */
+        private void clearSlot(int slot) {
+            for (int i = 0; i < slotIndexCapacity[slot]; i++) {
+                indexData.put(slotIndexStart[slot] + i, slotVertexStart[slot]);
+            }
+        }
+
+        private void writeVertices(Mesh source, VertexBuffer.Type type, int componentCount, FloatBuffer target, int vertex, Transform transform, Vector3f vector) {
+            VertexBuffer vertexBuffer = source.getBuffer(type);
+            int vertexCount = source.getVertexCount();
+            if (vertexBuffer == null || vertexBuffer.getFormat() != VertexBuffer.Format.Float) {
+                for (int i = 0; i < vertexCount * componentCount; i++) {
+                    target.put(vertex * componentCount + i, 0);
+                }
+                return;
+            }
+
+            FloatBuffer data = (FloatBuffer) vertexBuffer.getData();
+            int sourceComponents = vertexBuffer.getNumComponents();
+            for (int v = 0; v < vertexCount; v++) {
+                int sourceOffset = v * sourceComponents;
+                int targetOffset = (vertex + v) * componentCount;
+                if (type == VertexBuffer.Type.Position || type == VertexBuffer.Type.Normal || type == VertexBuffer.Type.Tangent) {
+                    vector.set(data.get(sourceOffset), data.get(sourceOffset + 1), data.get(sourceOffset + 2));
+                    if (type == VertexBuffer.Type.Position) {
+                        transform.transformVector(vector, vector);
+                    } else {
+                        transform.getRotation().multLocal(vector).normalizeLocal();
+                    }
+                    target.put(targetOffset, vector.x);
+                    target.put(targetOffset + 1, vector.y);
+                    target.put(targetOffset + 2, vector.z);
+                    for (int c = 3; c < componentCount; c++) {
+                        target.put(targetOffset + c, c < sourceComponents ? data.get(sourceOffset + c) : 1);
+                    }
+                } else {
+                    for (int c = 0; c < componentCount; c++) {
+                        target.put(targetOffset + c, c < sourceComponents ? data.get(sourceOffset + c) : 0);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Packs the used slots to the start of new buffers, with room for
+         * the given additional data
+         */
+        private void compact(int additionalVertices, int additionalIndices) {
+            int liveVertices = additionalVertices;
+            int liveIndices = additionalIndices;
+            for (int slot = 0; slot < slotCount; slot++) {
+                liveVertices += slotVertexCapacity[slot];
+                liveIndices += slotIndexCapacity[slot];
+            }
+            vertexCapacity = Math.max(vertexCapacity, getCapacity(liveVertices));
+            indexCapacity = Math.max(indexCapacity, getCapacity(liveIndices));
+
+            FloatBuffer[] newVertexData = new FloatBuffer[types.length];
+            for (int i = 0; i < types.length; i++) {
+                newVertexData[i] = BufferUtils.createFloatBuffer(vertexCapacity * components[i]);
+            }
+            IntBuffer newIndexData = BufferUtils.createIntBuffer(indexCapacity);
+
+            // Copy the slots over
+            int vertex = 0;
+            int index = 0;
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (slotVertexCapacity[slot] == 0 && slotIndexCapacity[slot] == 0) {
+                    continue;
+                }
+                for (int i = 0; i < types.length; i++) {
+                    for (int c = 0; c < slotVertexCapacity[slot] * components[i]; c++) {
+                        newVertexData[i].put(vertex * components[i] + c, vertexData[i].get(slotVertexStart[slot] * components[i] + c));
+                    }
+                }
+                for (int i = 0; i < slotIndexCapacity[slot]; i++) {
+                    newIndexData.put(index + i, indexData.get(slotIndexStart[slot] + i) - slotVertexStart[slot] + vertex);
+                }
+                slotVertexStart[slot] = vertex;
+                slotIndexStart[slot] = index;
+                vertex += slotVertexCapacity[slot];
+                index += slotIndexCapacity[slot];
+            }
+            vertexUsed = vertex;
+            indexUsed = index;
+
+            // Swap the buffers
+            vertexData = newVertexData;
+            indexData = newIndexData;
+            for (int i = 0; i < types.length; i++) {
+                mesh.setBuffer(types[i], components[i], vertexData[i]);
+                mesh.getBuffer(types[i]).setUsage(VertexBuffer.Usage.Dynamic);
+            }
+            mesh.setBuffer(VertexBuffer.Type.Index, 3, indexData);
+            mesh.getBuffer(VertexBuffer.Type.Index).setUsage(VertexBuffer.Usage.Dynamic);
+        }
+
+        private int getCapacity(int size) {
+            int capacity = 16;
+            while (capacity < size) {
+                capacity <<= 1;
+            }
+
+            return capacity;
+        }
+    }
+
+}
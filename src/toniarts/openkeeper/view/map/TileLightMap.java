@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.view.map;
+
+import com.jme3.light.PointLight;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.image.ColorSpace;
+import com.jme3.util.BufferUtils;
+import java.awt.Point;
+import java.nio.ByteBuffer;
+
+/**
+ * Holds the baked static light of the map, one texel per tile. The torches
+ * are baked here instead of being real lights, so the terrain doesn't need to
+ * be drawn once per torch. The texture is filtered, so the light fades
+ * smoothly from tile to tile.<br>
+ * Changing a torch only re-bakes the tiles within its reach.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class TileLightMap {
+
+    /**
+     * The stored light is scaled down by this, to allow some overbright
+     */
+    public static final float LIGHT_SCALE = 2f;
+    private static final int BYTES_PER_TILE = 4;
+
+    private final int width;
+    private final int height;
+    private final ByteBuffer data;
+    private final Image image;
+    private final Texture2D texture;
+    private final TorchLight[] torches; // By the tile index
+    private final float[] light = new float[3];
+    private int maxRadius = 0;
+
+    public TileLightMap(int width, int height) {
+        this.width = width;
+        this.height = height;
+        torches = new TorchLight[width * height];
+        data = BufferUtils.createByteBuffer(width * height * BYTES_PER_TILE);
+        image = new Image(Image.Format.RGBA8, width, height, data, ColorSpace.Linear);
+        texture = new Texture2D(image);
+        texture.setMinFilter(Texture.MinFilter.BilinearNoMipMaps);
+        texture.setMagFilter(Texture.MagFilter.Bilinear);
+        texture.setWrap(Texture.WrapMode.EdgeClamp);
+    }
+
+    /**
+     * Get the light texture, to be set to the terrain materials
+     *
+     * @return the light texture
+     */
+    public Texture2D getTexture() {
+        return texture;
+    }
+
+    /**
+     * Set the torch of a tile, replacing the old one. Needs to be called from
+     * the render thread
+     *
+     * @param p the tile coordinates
+     * @param light the torch light, in world coordinates, {@code null} for
+     * no torch
+     */
+    public void setTorch(Point p, PointLight light) {
+        TorchLight torch = (light != null ? new TorchLight(light.getPosition(), light.getColor(), light.getRadius()) : null);
+        int index = p.y * width + p.x;
+        TorchLight oldTorch = torches[index];
+        torches[index] = torch;
+        if (oldTorch == null && torch == null || torch != null && torch.equals(oldTorch)) {
+            return;
+        }
+
+        if (oldTorch != null) {
+            bake(oldTorch);
+        }
+        if (torch != null) {
+            maxRadius = Math.max(maxRadius, (int) FastMath.ceil(torch.radius));
+            bake(torch);
+        }
+    }
+
+    /**
+     * Re-bakes the tiles the torch reaches
+     *
+     * @param torch the torch
+     */
+    private void bake(TorchLight torch) {
+        int reach = (int) FastMath.ceil(torch.radius);
+        int startX = Math.max(0, Math.round(torch.x) - reach);
+        int endX = Math.min(width - 1, Math.round(torch.x) + reach);
+        int startY = Math.max(0, Math.round(torch.z) - reach);
+        int endY = Math.min(height - 1, Math.round(torch.z) + reach);
+        for (int y = startY; y <= endY; y++) {
+            for (int x = startX; x <= endX; x++) {
+                bakeTile(x, y);
+            }
+        }
+        image.setUpdateNeeded();
+    }
+
+    private void bakeTile(int x, int y) {
+        light[0] = 0;
+        light[1] = 0;
+        light[2] = 0;
+
+        // Only the torches that can reach this tile
+        int startX = Math.max(0, x - maxRadius - 1);
+        int endX = Math.min(width - 1, x + maxRadius + 1);
+        int startY = Math.max(0, y - maxRadius - 1);
+        int endY = Math.min(height - 1, y + maxRadius + 1);
+        for (int torchY = startY; torchY <= endY; torchY++) {
+            int rowIndex = torchY * width;
+            for (int torchX = startX; torchX <= endX; torchX++) {
+                TorchLight torch = torches[rowIndex + torchX];
+                if (torch != null) {
+                    torch.addLight(x, y, light);
+                }
+            }
+        }
+
+        int index = (y * width + x) * BYTES_PER_TILE;
+        for (int i = 0; i < light.length; i++) {
+            data.put(index + i, (byte) (FastMath.clamp(light[i] / LIGHT_SCALE, 0, 1) * 255));
+        }
+    }
+
+    /**
+     * A single baked point light
+     */
+    private static class TorchLight {
+
+        private final float x;
+        private final float z;
+        private final float r;
+        private final float g;
+        private final float b;
+        private final float radius;
+
+        public TorchLight(Vector3f position, ColorRGBA color, float radius) {
+            this.x = position.x;
+            this.z = position.z;
+            this.r = color.r;
+            this.g = color.g;
+            this.b = color.b;
+            this.radius = radius;
+        }
+
+        /**
+         * Adds the light on the floor of the given tile, with the same linear
+         * falloff as the point lights have
+         */
+        public void addLight(int tileX, int tileY, float[] light) {
+            float distance = FastMath.sqrt((tileX - x) * (tileX - x) + (tileY - z) * (tileY - z));
+            float attenuation = 1 - distance / radius;
+            if (attenuation <= 0) {
+                return;
+            }
+            light[0] += r * attenuation;
+            light[1] += g * attenuation;
+            light[2] += b * attenuation;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final TorchLight other = (TorchLight) obj;
+            return x == other.x && z == other.z && r == other.r && g == other.g && b == other.b && radius == other.radius;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 37 * hash + Float.floatToIntBits(this.x);
+            hash = 37 * hash + Float.floatToIntBits(this.z);
+            hash = 37 * hash + Float.floatToIntBits(this.radius);
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.view.map;
+
+import com.jme3.math.Vector2f;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.image.ColorSpace;
+import com.jme3.util.BufferUtils;
+import java.nio.ByteBuffer;
+
+/**
+ * Holds the visual state of the map tiles in a texture, one texel per tile.
+ * The terrain material samples this, so changing the tile flashing, tagging
+ * or decay is just a texel update, no need to touch the geometry.<br>
+ * R = flashed, G = tagged, B = decay frame
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class TileStateMap {
+
+    private static final int CHANNEL_FLASH = 0;
+    private static final int CHANNEL_TAG = 1;
+    private static final int CHANNEL_DECAY = 2;
+    private static final int BYTES_PER_TILE = 4;
+
+    private final int width;
+    private final int height;
+    private final ByteBuffer data;
+    private final Image image;
+    private final Texture2D texture;
+
+    public TileStateMap(int width, int height) {
+        this.width = width;
+        this.height = height;
+        data = BufferUtils.createByteBuffer(width * height * BYTES_PER_TILE);
+        image = new Image(Image.Format.RGBA8, width, height, data, ColorSpace.Linear);
+        texture = new Texture2D(image);
+        texture.setMinFilter(Texture.MinFilter.NearestNoMipMaps);
+        texture.setMagFilter(Texture.MagFilter.Nearest);
+        texture.setWrap(Texture.WrapMode.EdgeClamp);
+    }
+
+    /**
+     * Get the state texture, to be set to the terrain materials
+     *
+     * @return the state texture
+     */
+    public Texture2D getTexture() {
+        return texture;
+    }
+
+    /**
+     * Get the map size in tiles, needed by the terrain materials for finding
+     * the tile from the texture
+     *
+     * @return the map size
+     */
+    public Vector2f getMapSize() {
+        return new Vector2f(width, height);
+    }
+
+    public void setFlashed(int x, int y, boolean flashed) {
+        set(x, y, CHANNEL_FLASH, flashed ? 0xFF : 0);
+    }
+
+    public void setTagged(int x, int y, boolean tagged) {
+        set(x, y, CHANNEL_TAG, tagged ? 0xFF : 0);
+    }
+
+    /**
+     * Set the decay frame of the tile
+     *
+     * @param x the tile x
+     * @param y the tile y
+     * @param frame the decay frame, 0 being the unharmed texture
+     */
+    public void setDecayFrame(int x, int y, int frame) {
+        set(x, y, CHANNEL_DECAY, Math.max(0, Math.min(0xFF, frame)));
+    }
+
+    private void set(int x, int y, int channel, int value) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return;
+        }
+        int index = (y * width + x) * BYTES_PER_TILE + channel;
+        if (data.get(index) != (byte) value) {
+            data.put(index, (byte) value);
+            image.setUpdateNeeded();
+        }
+    }
+
+}
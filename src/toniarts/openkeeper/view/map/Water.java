@@ -61,6 +61,10 @@ public class Water {
         SIMPLE, CLASSIC;
     };
     private static final WaterType WATER_TYPE = WaterType.CLASSIC;
+    private static final float WATER_WAVE_AMPLITUDE = 0.02f;
+    private static final float WATER_WAVE_SPEED = 1.0f;
+    private static final float LAVA_WAVE_AMPLITUDE = 0.015f;
+    private static final float LAVA_WAVE_SPEED = 0.4f;
     private static final Logger LOGGER = Logger.getLogger(Water.class.getName());
 
     private Water() {
@@ -82,7 +86,23 @@ public class Water {
         // Create the geometry
         Geometry geo = new Geometry((water ? "Water" : "Lava"), mesh);
 
-        // The material
+        // Set it all
+        setMaterial(geo, createMaterial(assetManager, entityInstances.get(0).getEntity()));
+
+        return geo;
+    }
+
+    /**
+     * Creates the surface material for water/lava. The waves are animated in
+     * the shader
+     *
+     * @param assetManager asset manager instance
+     * @param terrain the water or lava terrain
+     * @return the surface material
+     */
+    public static Material createMaterial(AssetManager assetManager, Terrain terrain) {
+        boolean water = terrain.getFlags().contains(Terrain.TerrainFlag.WATER);
+
         Material mat = null;
         if (water) {
             switch (WATER_TYPE) {
@@ -97,26 +117,38 @@ public class Water {
                 case CLASSIC: {
 
                     // TODO: MaterialHelper to convert package? Something
-                    ArtResource resource = entityInstances.get(0).getEntity().getTopResource();
+                    ArtResource resource = terrain.getTopResource();
 
                     // Alpha resource, compile such
                     mat = AssetUtils.createLightningSpriteMaterial(resource, assetManager);
-                    MapViewController.setTerrainMaterialLighting(mat, entityInstances.get(0).getEntity());
+                    MapViewController.setTerrainMaterialLighting(mat, terrain);
+                    setWaves(mat, WATER_WAVE_AMPLITUDE, WATER_WAVE_SPEED);
                     break;
                 }
             }
         } else {
 
-            // Lava
+            // Lava, the sprite material is just lighting with a single frame
             mat = new Material(assetManager,
-                    "Common/MatDefs/Light/Lighting.j3md");
-            TextureKey textureKey = new TextureKey(ConversionUtils.getCanonicalAssetKey(AssetsConverter.TEXTURES_FOLDER.concat("/").concat(entityInstances.get(0).getEntity().getTopResource().getName()).concat(".png")), false);
+                    "MatDefs/LightingSprite.j3md");
+            TextureKey textureKey = new TextureKey(ConversionUtils.getCanonicalAssetKey(AssetsConverter.TEXTURES_FOLDER.concat("/").concat(terrain.getTopResource().getName()).concat(".png")), false);
             Texture tex = assetManager.loadTexture(textureKey);
             mat.setTexture("DiffuseMap", tex);
-            MapViewController.setTerrainMaterialLighting(mat, entityInstances.get(0).getEntity());
+            MapViewController.setTerrainMaterialLighting(mat, terrain);
+            setWaves(mat, LAVA_WAVE_AMPLITUDE, LAVA_WAVE_SPEED);
         }
 
-        // Set it all
+        return mat;
+    }
+
+    /**
+     * Sets the surface material to the geometry, and the render queue and
+     * shadow modes by it
+     *
+     * @param geo the surface geometry
+     * @param mat the surface material
+     */
+    public static void setMaterial(Geometry geo, Material mat) {
         geo.setMaterial(mat);
         if (mat.isTransparent()) {
             geo.setQueueBucket(RenderQueue.Bucket.Transparent);
@@ -124,8 +156,13 @@ public class Water {
         } else {
             geo.setShadowMode(RenderQueue.ShadowMode.Receive);
         }
+    }
 
-        return geo;
+    private static void setWaves(Material mat, float amplitude, float speed) {
+        if (mat.getMaterialDef().getMaterialParam("WaveAmplitude") != null) {
+            mat.setFloat("WaveAmplitude", amplitude);
+            mat.setFloat("WaveSpeed", speed);
+        }
     }
 
     /**
@@ -403,14 +403,13 @@ public abstract class MapLoader implements ILoader<KwdFile> {
                     }
                     if (tex != 0) { // 0 is the default anyway
                         Geometry g = (Geometry) spatial;
-                        Material m = g.getMaterial();
-                        String asset = m.getAssetName();
 
                         // Load new material
-                        Material newMaterial = assetManager.loadMaterial(asset.substring(0,
-                                asset.lastIndexOf(KmfModelLoader.MATERIAL_ALTERNATIVE_TEXTURE_SUFFIX_SEPARATOR) + 1).concat(tex + ".j3m"));
-                        AssetUtils.assignMapsToMaterial(assetManager, newMaterial);
-                        g.setMaterial(newMaterial);
+                        Material newMaterial = AssetUtils.loadAlternativeMaterial(assetManager, g, tex);
+                        if (newMaterial != null) {
+                            g.setMaterial(newMaterial);
+                            AssetUtils.assignVertexAnimationMaterial(assetManager, g);
+                        }
                     }
                 }
             }
@@ -17,20 +17,38 @@
 package toniarts.openkeeper.world.effect;
 
 import com.jme3.app.Application;
+import com.jme3.app.SimpleApplication;
 import com.jme3.app.state.AbstractAppState;
 import com.jme3.app.state.AppStateManager;
 import com.jme3.asset.AssetManager;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.effect.ParticleEmitter;
+import com.jme3.math.Transform;
 import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
 import com.jme3.scene.Node;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import toniarts.openkeeper.tools.convert.map.Effect;
+import toniarts.openkeeper.tools.convert.map.EffectElement;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
 import toniarts.openkeeper.world.WorldState;
 
 /**
  * An app state to manage ALL the effects in the world. Mainly their lifetime.
+ * The effects and their particle emitters are pooled and reused, there is a
+ * global cap for the live particles and a limit for effects spawned per frame.
+ * The effects over the limit wait for the next frames, in a capped queue. The
+ * effects off the screen are paused, or not spawned at all if they are one
+ * shots.
  *
  * @author ArchDemon
  * @author Toni Helenius <helenius.toni@gmail.com>
@@ -39,11 +57,25 @@ import toniarts.openkeeper.world.WorldState;
 public class EffectManagerState extends AbstractAppState {
 
     public static int ROOM_CLAIM_ID = 2;
+    private static final int MAX_PARTICLES = 4000;
+    private static final int MAX_EFFECT_SPAWNS_PER_FRAME = 8;
+    private static final int MAX_POOLED_EMITTERS = 16; // Per effect element
+    private static final int MAX_POOLED_EFFECTS = 16; // Per effect
+    private static final int MAX_PENDING_EFFECTS = 64; // One shot effects over this are dropped
+    private static final float EFFECT_VISIBILITY_RADIUS = 2f;
 
     private final KwdFile kwdFile;
     private final AssetManager assetManager;
     private final List<VisualEffect> activeEffects = new ArrayList<>();
+    private final Deque<PendingEffect> pendingEffects = new ArrayDeque<>();
+    private final Map<Long, Deque<ParticleEmitter>> emitterPool = new HashMap<>();
+    private final Map<Integer, Deque<VisualEffect>> effectPool = new HashMap<>();
+    private int particleCount = 0;
+    private int spawnCount = 0;
+    private final BoundingSphere visibilityBounds = new BoundingSphere(EFFECT_VISIBILITY_RADIUS, new Vector3f());
     private AppStateManager stateManager;
+    private Camera camera;
+    private Node rootNode;
     private static final Logger logger = Logger.getLogger(EffectManagerState.class.getName());
 
     public EffectManagerState(KwdFile kwdFile, AssetManager assetManager) {
@@ -55,21 +87,47 @@ public class EffectManagerState extends AbstractAppState {
     public void initialize(AppStateManager stateManager, Application app) {
         super.initialize(stateManager, app);
         this.stateManager = stateManager;
+        this.camera = app.getCamera();
+        if (app instanceof SimpleApplication) {
+            this.rootNode = ((SimpleApplication) app).getRootNode();
+        }
     }
 
     @Override
     public void update(float tpf) {
 
+        // Spawn the effects left over from the previous frames, the ones whose node has since left the scene are dropped
+        spawnCount = 0;
+        while (!pendingEffects.isEmpty() && spawnCount < MAX_EFFECT_SPAWNS_PER_FRAME) {
+            PendingEffect pendingEffect = pendingEffects.poll();
+            if (isInScene(pendingEffect.node)) {
+                spawn(pendingEffect.node, pendingEffect.location, pendingEffect.effectId, pendingEffect.infinite);
+            }
+        }
+
         Iterator<VisualEffect> iterator = activeEffects.iterator();
         // Maintain the effects (on every frame?)
         while (iterator.hasNext()) {
             VisualEffect visualEffect = iterator.next();
+            if (visualEffect.isInfinite()) {
+                visualEffect.setPaused(!isVisible(visualEffect.getEffectNode(), null));
+            }
             if (!visualEffect.update(tpf)) {
                 iterator.remove();
+                releaseEffect(visualEffect);
             }
         }
     }
 
+    @Override
+    public void cleanup() {
+        clearActiveEffects();
+        emitterPool.clear();
+        effectPool.clear();
+
+        super.cleanup();
+    }
+
     /**
      * Loads up an particle effect
      *
@@ -87,6 +145,7 @@ public class EffectManagerState extends AbstractAppState {
     }
 
     public void clearActiveEffects() {
+        pendingEffects.clear();
         Iterator<VisualEffect> iterator = activeEffects.iterator();
         while (iterator.hasNext()) {
             VisualEffect visualEffect = iterator.next();
@@ -111,8 +170,172 @@ public class EffectManagerState extends AbstractAppState {
         if (effectId == 0) {
             return;
         }
-        VisualEffect visualEffect = new VisualEffect(this, node, location, kwdFile.getEffect(effectId), infinite);
-        activeEffects.add(visualEffect);
+        if (spawnCount >= MAX_EFFECT_SPAWNS_PER_FRAME) {
+
+            // The infinite effects are few and must not be lost, the one shots are stale soon anyway
+            if (!infinite && pendingEffects.size() >= MAX_PENDING_EFFECTS) {
+                logger.log(Level.FINE, "Too many pending effects, effect {0} dropped!", effectId);
+                return;
+            }
+            pendingEffects.add(new PendingEffect(node, location, effectId, infinite));
+            return;
+        }
+        spawn(node, location, effectId, infinite);
+    }
+
+    private void spawn(Node node, Vector3f location, int effectId, boolean infinite) {
+
+        // One shot effects nobody sees are just skipped
+        if (!infinite && !isVisible(node, location)) {
+            return;
+        }
+
+        spawnCount++;
+        activeEffects.add(getEffect(node, location, effectId, infinite));
+    }
+
+    /**
+     * Get an effect, a pooled one is restarted if available
+     *
+     * @param node the node to attach the effect to
+     * @param location effect node location, maybe {@code null}
+     * @param effectId the effect ID
+     * @param infinite the effect should restart always
+     * @return the started effect
+     */
+    protected VisualEffect getEffect(Node node, Vector3f location, int effectId, boolean infinite) {
+        Deque<VisualEffect> effects = effectPool.get(effectId);
+        VisualEffect visualEffect = (effects != null ? effects.poll() : null);
+        if (visualEffect == null) {
+            return new VisualEffect(this, node, location, kwdFile.getEffect(effectId), infinite);
+        }
+
+        visualEffect.start(node, location, infinite);
+        return visualEffect;
+    }
+
+    /**
+     * Return an effect that has come to an end to the pool
+     *
+     * @param visualEffect the ended effect
+     */
+    protected void releaseEffect(VisualEffect visualEffect) {
+        int effectId = visualEffect.getEffect().getEffectId();
+        Deque<VisualEffect> effects = effectPool.get(effectId);
+        if (effects == null) {
+            effects = new ArrayDeque<>();
+            effectPool.put(effectId, effects);
+        }
+        if (effects.size() < MAX_POOLED_EFFECTS) {
+            effects.push(visualEffect);
+        }
+    }
+
+    private boolean isInScene(Node node) {
+        if (rootNode == null) {
+            return true;
+        }
+
+        Node parent = node;
+        while (parent.getParent() != null) {
+            parent = parent.getParent();
+        }
+        return parent == rootNode;
+    }
+
+    private boolean isVisible(Node node, Vector3f location) {
+        if (camera == null) {
+            return true;
+        }
+
+        // Use the actual bounds if we have them, otherwise just the spawn point
+        BoundingVolume bounds = (location == null ? node.getWorldBound() : null);
+        if (bounds == null) {
+            if (location != null) {
+                node.localToWorld(location, visibilityBounds.getCenter());
+            } else {
+                visibilityBounds.setCenter(node.getWorldTranslation());
+            }
+            bounds = visibilityBounds;
+        }
+
+        // Check against all the frustum planes, the plane state is left from the rendering
+        int planeState = camera.getPlaneState();
+        camera.setPlaneState(0);
+        boolean visible = camera.contains(bounds) != Camera.FrustumIntersect.Outside;
+        camera.setPlaneState(planeState);
+
+        return visible;
+    }
+
+    /**
+     * Reserve particles from the global particle cap
+     *
+     * @param count the number of particles
+     * @return false if the cap would be exceeded, the particles are not
+     * reserved then
+     */
+    protected boolean reserveParticles(int count) {
+        if (particleCount + count > MAX_PARTICLES) {
+            return false;
+        }
+        particleCount += count;
+        return true;
+    }
+
+    /**
+     * Get a pooled particle emitter. Reserve its particles before use, or
+     * recycle it back if the reservation fails
+     *
+     * @param effect the effect
+     * @param element the effect element
+     * @return a pooled emitter or {@code null} if none is available
+     */
+    protected ParticleEmitter getPooledEmitter(Effect effect, EffectElement element) {
+        Deque<ParticleEmitter> emitters = emitterPool.get(getPoolKey(effect, element));
+        return (emitters != null ? emitters.poll() : null);
+    }
+
+    /**
+     * Return a particle emitter to the pool, frees its particles from the
+     * particle cap. The emitter must have its particles reserved
+     *
+     * @param effect the effect
+     * @param element the effect element
+     * @param emitter the emitter
+     */
+    protected void releaseEmitter(Effect effect, EffectElement element, ParticleEmitter emitter) {
+        particleCount = Math.max(0, particleCount - emitter.getMaxNumParticles());
+        recycleEmitter(effect, element, emitter);
+    }
+
+    /**
+     * Return a particle emitter to the pool without touching the particle
+     * cap. The emitter is reset, its parameters are set again on reuse
+     *
+     * @param effect the effect
+     * @param element the effect element
+     * @param emitter the emitter
+     */
+    protected void recycleEmitter(Effect effect, EffectElement element, ParticleEmitter emitter) {
+        emitter.removeFromParent();
+        emitter.killAllParticles();
+        emitter.setLocalTransform(Transform.IDENTITY);
+        emitter.setParticlesPerSec(0);
+        emitter.setEnabled(true);
+
+        Deque<ParticleEmitter> emitters = emitterPool.get(getPoolKey(effect, element));
+        if (emitters == null) {
+            emitters = new ArrayDeque<>();
+            emitterPool.put(getPoolKey(effect, element), emitters);
+        }
+        if (emitters.size() < MAX_POOLED_EMITTERS) {
+            emitters.push(emitter);
+        }
+    }
+
+    private static long getPoolKey(Effect effect, EffectElement element) {
+        return ((long) effect.getEffectId() << 32) | (element.getEffectElementId() & 0xFFFFFFFFL);
     }
 
     public WorldState getWorldState() {
@@ -126,4 +349,22 @@ public class EffectManagerState extends AbstractAppState {
     public KwdFile getKwdFile() {
         return kwdFile;
     }
+
+    /**
+     * An effect waiting for the spawn budget
+     */
+    private static class PendingEffect {
+
+        private final Node node;
+        private final Vector3f location;
+        private final int effectId;
+        private final boolean infinite;
+
+        public PendingEffect(Node node, Vector3f location, int effectId, boolean infinite) {
+            this.node = node;
+            this.location = location;
+            this.effectId = effectId;
+            this.infinite = infinite;
+        }
+    }
 }
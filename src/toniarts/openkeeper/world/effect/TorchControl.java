@@ -63,13 +63,28 @@ public class TorchControl extends BillboardControl {
     private Node torch;
     private final KwdFile kwdFile;
     private final AssetManager assetManager;
+    private final boolean light;
     private static final AssetKey<Spatial> ASSET_KEY = new AssetKey<>("TorchFlame");
 
     private static final Logger log = Logger.getLogger(TorchControl.class.getName());
 
     public TorchControl(KwdFile kwdFile, AssetManager assetManager, float angle) {
+        this(kwdFile, assetManager, angle, true);
+    }
+
+    /**
+     * Create a torch flame
+     *
+     * @param kwdFile the KWD file
+     * @param assetManager the asset manager
+     * @param angle the torch angle
+     * @param light whether to add a real light to the torch, the light might
+     * be baked to the map instead
+     */
+    public TorchControl(KwdFile kwdFile, AssetManager assetManager, float angle, boolean light) {
         this.kwdFile = kwdFile;
         this.assetManager = assetManager;
+        this.light = light;
         setAlignment(Alignment.AxialY);
     }
 
@@ -81,7 +96,9 @@ public class TorchControl extends BillboardControl {
             this.spatial = createFlame();
             if (this.spatial != null) {
                 torch.attachChild(this.spatial);
-                torch.addLight(createLight());
+                if (light) {
+                    torch.addLight(createLight());
+                }
             }
         }
     }
@@ -113,14 +130,28 @@ public class TorchControl extends BillboardControl {
         return null;
     }
 
+    /**
+     * Get the torch light color. Both the real and the baked torch lights use
+     * this
+     *
+     * @param red the red component, 0-255
+     * @param green the green component, 0-255
+     * @param blue the blue component, 0-255
+     * @param intensity the light intensity
+     * @return the light color
+     */
+    public static ColorRGBA getLightColor(float red, float green, float blue, float intensity) {
+        return new ColorRGBA(red * intensity / 255, green * intensity / 255, blue * intensity / 255, 0);
+    }
+
     private Light createLight() {
         PointLight result = new PointLight();
         result.setName("torch");
 
         float intensity = kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_INTENSITY).getValue();
-        result.setColor(new ColorRGBA(kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_RED).getValue() * intensity / 255,
-                kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_GREEN).getValue() * intensity / 255,
-                kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_BLUE).getValue() * intensity / 255, 0));
+        result.setColor(getLightColor(kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_RED).getValue(),
+                kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_GREEN).getValue(),
+                kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_BLUE).getValue(), intensity));
 
         result.setEnabled(true);
         result.setRadius(kwdFile.getVariables().get(MiscType.DEFAULT_TORCH_LIGHT_RADIUS_TILES).getValue());
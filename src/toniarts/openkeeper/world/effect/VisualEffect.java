@@ -54,7 +54,6 @@ import toniarts.openkeeper.world.TileData;
  * <ul>
  * <li>We probably need our own particle emitter, the stock wont probably do..
  * Just pass the Effect & EffectElement to our custom one and boom</li>
- * <li>Maybe cache the emitters?</li>
  * </ul>
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
@@ -70,6 +69,7 @@ public class VisualEffect {
     private final AssetManager assetManager;
     private final EffectManagerState effectManagerState;
     private boolean infinite;
+    private boolean paused = false;
     private PointLight light;
     private static final Logger logger = Logger.getLogger(VisualEffect.class.getName());
 
@@ -93,11 +93,24 @@ public class VisualEffect {
             effectElements = Collections.emptyMap();
         }
 
-        // Attach to scene graph
         effectNode = new Node(effect.getName());
-        if (location != null) {
-            effectNode.setLocalTranslation(location);
-        }
+        start(node, location, infinite);
+    }
+
+    /**
+     * Starts the effect. An effect that has come to an end is restarted with
+     * this, the effect node and the element containers are reused
+     *
+     * @param node the node to attach the effect to
+     * @param location effect node location, maybe {@code null}
+     * @param infinite the effect should restart always
+     */
+    protected final void start(Node node, Vector3f location, boolean infinite) {
+        this.infinite = infinite;
+        this.paused = false;
+
+        // Attach to scene graph
+        effectNode.setLocalTranslation(location != null ? location : Vector3f.ZERO);
         node.attachChild(effectNode); // We need to attach before emiting, it doesn't work otherwise
 
         // Load the effect
@@ -212,9 +225,8 @@ public class VisualEffect {
     }
 
     private void addEffect(Integer id, Vector3f location) {
-        VisualEffect visualEffect = new VisualEffect(effectManagerState, effectNode, location, kwdFile.getEffect(id), false);
+        VisualEffect visualEffect = effectManagerState.getEffect(effectNode, location, id, false);
         effects.add(visualEffect);
-        effectNode.attachChild(visualEffect.effectNode);
     }
 
     private void addEffectElement(Integer id, Vector3f location) {
@@ -254,12 +266,23 @@ public class VisualEffect {
             case ALPHA:
             case ADDITIVE_ALPHA:
             case SPRITE: {
-                ParticleEmitter emitter = new ParticleEmitter(element.getName(),
-                        ParticleMesh.Type.Triangle,
-                        effect.getElementsPerTurn());
+                ParticleEmitter emitter = effectManagerState.getPooledEmitter(effect, element);
+                if (!effectManagerState.reserveParticles(emitter != null ? emitter.getMaxNumParticles() : effect.getElementsPerTurn())) {
+                    if (emitter != null) {
+                        effectManagerState.recycleEmitter(effect, element, emitter);
+                    }
+                    return null; // Too many particles already
+                }
+
+                // Only the material is kept from the pooled emitters, the rest is set again
+                if (emitter == null) {
+                    emitter = new ParticleEmitter(element.getName(),
+                            ParticleMesh.Type.Triangle,
+                            effect.getElementsPerTurn());
+                    Material material = AssetUtils.createParticleMaterial(resource, assetManager);
+                    emitter.setMaterial(material);
+                }
                 emitter.setParticlesPerSec(0);
-                Material material = AssetUtils.createParticleMaterial(resource, assetManager);
-                emitter.setMaterial(material);
                 emitter.setImagesX(Math.max(1, resource.getData("frames")));
                 emitter.setImagesY(1);
                 emitter.setSelectRandomImage(resource.getFlags().contains(ArtResource.ArtResourceFlag.RANDOM_START_FRAME));
@@ -393,6 +416,9 @@ public class VisualEffect {
      * @return true if the effect is still valid, false if the effect has died
      */
     public boolean update(float tpf) {
+        if (paused) {
+            return true;
+        }
 
         // Update the child effects
         Iterator<VisualEffect> iterator = effects.iterator();
@@ -400,6 +426,7 @@ public class VisualEffect {
             VisualEffect visualEffect = iterator.next();
             if (!visualEffect.update(tpf)) {
                 iterator.remove();
+                effectManagerState.releaseEffect(visualEffect);
             }
         }
 
@@ -412,7 +439,7 @@ public class VisualEffect {
                 if (((ParticleEmitter)entry.getValue()).getNumVisibleParticles() == 0) {
 
                     // Kill
-                    entry.getValue().removeFromParent();
+                    effectManagerState.releaseEmitter(effect, entry.getKey(), (ParticleEmitter) entry.getValue());
                     iter.remove();
 
                     // Attach on death element
@@ -458,8 +485,47 @@ public class VisualEffect {
     }
 
     public void removeEffect() {
+        for (VisualEffect visualEffect : effects) {
+            visualEffect.removeEffect();
+        }
         effects.clear();
+        for (Entry<EffectElement, Spatial> entry : effectElements.entrySet()) {
+            if (entry.getValue() instanceof ParticleEmitter) {
+                effectManagerState.releaseEmitter(effect, entry.getKey(), (ParticleEmitter) entry.getValue());
+            }
+        }
         effectElements.clear();
         infinite = false;
+        paused = false;
+    }
+
+    public boolean isInfinite() {
+        return infinite;
+    }
+
+    public Effect getEffect() {
+        return effect;
+    }
+
+    protected Node getEffectNode() {
+        return effectNode;
+    }
+
+    /**
+     * Pauses the particle emitters of the effect, i.e. when the effect is
+     * not visible
+     *
+     * @param paused pause or resume
+     */
+    public void setPaused(boolean paused) {
+        if (this.paused == paused) {
+            return;
+        }
+        this.paused = paused;
+        effectNode.depthFirstTraversal((Spatial spatial) -> {
+            if (spatial instanceof ParticleEmitter) {
+                ((ParticleEmitter) spatial).setEnabled(!paused);
+            }
+        });
     }
 }